@@ -0,0 +1,31 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Receives the byte body of a packet straight from the connection instead of having it parsed into a packet first,
+ * see {@link ClientBackend#createChannel(java.util.function.Consumer, ByteBodySink)}.
+ */
+interface ByteBodySink {
+
+  /**
+   * Called on the receive thread, must consume exactly {@code length} bytes from {@code channel}
+   * even if the data can't be used or the following packets can't be read anymore.
+   */
+  void transfer(ReadableByteChannel channel, int length) throws IOException;
+
+}
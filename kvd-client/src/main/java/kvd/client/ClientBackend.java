@@ -13,25 +13,30 @@
  */
 package kvd.client;
 
+import java.io.BufferedOutputStream;
 import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import kvd.common.Durability;
 import kvd.common.KvdException;
 import kvd.common.Utils;
 import kvd.common.packet.Packets;
@@ -42,33 +47,91 @@ class ClientBackend {
 
   private static final Logger log = LoggerFactory.getLogger(ClientBackend.class);
 
+  // value data that may be queued before writers have to wait for the send loop to catch up
+  private static final long MAX_QUEUED_BYTES = 4*1024*1024;
+
+  private static final int SEND_BUFFER_SIZE = 64*1024;
+
+  // packets taken from the queue at once by the send loop
+  private static final int MAX_BATCH = 256;
+
+  private static final long PING_INTERVAL_NS = TimeUnit.SECONDS.toNanos(1);
+
   private String clientId = UUID.randomUUID().toString();
 
-  private Socket socket;
+  private SocketChannel socketChannel;
 
   private int serverTimeoutSeconds;
 
-  private BlockingQueue<Packet> sendQueue = new ArrayBlockingQueue<>(100);
+  private int requestTimeoutMs;
+
+  // unbounded so request packets never block the caller, value data is bounded by queuedBytes
+  private ConcurrentLinkedQueue<Packet> sendQueue = new ConcurrentLinkedQueue<>();
+
+  private AtomicInteger queuedPackets = new AtomicInteger();
+
+  // set by the send loop before it parks on an empty queue
+  private volatile boolean sendWaiting;
+
+  private AtomicLong queuedBytes = new AtomicLong();
+
+  private Object writable = new Object();
 
-  private Map<Integer, Consumer<Packet>> channelReceivers = new HashMap<>();
+  private ConcurrentLinkedQueue<Runnable> writableListeners = new ConcurrentLinkedQueue<>();
+
+  private static class Channel {
+
+    private final Consumer<Packet> receiver;
+
+    private final ByteBodySink sink;
+
+    Channel(Consumer<Packet> receiver, ByteBodySink sink) {
+      this.receiver = receiver;
+      this.sink = sink;
+    }
+  }
+
+  private ConcurrentHashMap<Integer, Channel> channels = new ConcurrentHashMap<>();
 
   private AtomicBoolean closed = new AtomicBoolean(false);
 
   private AtomicInteger channelIds = new AtomicInteger(1);
 
-  private Thread sendThread;
+  private AtomicInteger txIds = new AtomicInteger(1);
+
+  private volatile Thread sendThread;
 
   private Thread receiveThread;
 
-  private Thread pingThread;
+  private volatile boolean pinging;
 
-  private Runnable onClose;
+  // set while the receive loop is blocked reading the socket, not while a receiver consumes a packet
+  private volatile boolean socketWaiting;
+
+  private volatile long socketWaitSinceNs;
+
+  private Consumer<ClientBackend> onClose;
+
+  private KvdMetricsSink metrics;
+
+  private Durability durability;
 
   private CompletableFuture<Boolean> helloReceivedFuture = new CompletableFuture<>();
 
-  public ClientBackend(Socket socket, int serverTimeoutSeconds, Runnable onClose) {
-    this.socket = socket;
+  /**
+   * @param requestTimeoutMs sent along with every request (see {@link #sendRequest(Packet)}), 0 means no deadline
+   * @param metrics receives bytes sent and received, operations record themselves through {@link #timer(KvdOperationType)}
+   * @param durability of one-shot puts, {@code null} for the server default
+   * @param onClose called (possibly more than once) when the connection has been closed, either after
+   *        {@link #closeGracefully()} or because it failed.
+   */
+  public ClientBackend(SocketChannel socketChannel, int serverTimeoutSeconds, int requestTimeoutMs,
+      KvdMetricsSink metrics, Durability durability, Consumer<ClientBackend> onClose) {
+    this.socketChannel = socketChannel;
     this.serverTimeoutSeconds = serverTimeoutSeconds;
+    this.requestTimeoutMs = requestTimeoutMs;
+    this.metrics = metrics;
+    this.durability = durability;
     this.onClose = onClose;
   }
 
@@ -78,154 +141,405 @@ class ClientBackend {
       sendThread.start();
       receiveThread = new Thread(this::receiveLoop, "kvd-receive-" + clientId);
       receiveThread.start();
-      try {
-        sendAsync(Packets.hello());
-        waitForHelloReceived();
-      } catch(InterruptedException e) {
-        throw new KvdException("hello interrupted", e);
-      }
-      // start ping loop after hello packets
-      pingThread = new Thread(this::pingLoop, "kvd-ping-" + clientId);
-      pingThread.start();
+      sendAsync(Packets.hello());
+      waitForHelloReceived();
+      // start pinging after hello packets
+      pinging = true;
     } else {
       log.warn("already started");
     }
   }
 
-  private void pingLoop() {
-    log.trace("starting ping loop");
-    try {
-      while(!isClosed()) {
-        for(int i=0;i<10;i++) {
+  /**
+   * Writes queued packets in batches through a buffer so small packets go out with a single write.
+   * Pings are written by this loop directly once a second instead of queuing them behind value data,
+   * also when the queue stays busy with a large upload. File regions are written straight from the file
+   * to the socket. As the receive loop blocks without a socket timeout this loop also checks that the server
+   * is still responding, i.e. that the receive loop does not wait on the socket longer than the server timeout.
+   * Time the receive loop spends handing packets to slow readers does not count.
+   */
+  private void sendLoop() {
+    log.trace("starting send loop");
+    List<Packet> batch = new ArrayList<>();
+    Packet ping = Packets.packet(PacketType.PING);
+    try(OutputStream out = new BufferedOutputStream(outputStream(socketChannel), SEND_BUFFER_SIZE)) {
+      long lastPingNs = System.nanoTime();
+      for(;;) {
+        long untilPingNs = PING_INTERVAL_NS - (System.nanoTime() - lastPingNs);
+        Packet packet = poll(untilPingNs);
+        if(pinging && !isClosed() && ((System.nanoTime() - lastPingNs) >= PING_INTERVAL_NS)) {
+          metrics.bytesSent(ping.writeDelimitedTo(out));
+          lastPingNs = System.nanoTime();
+        } else if(!pinging) {
+          lastPingNs = System.nanoTime();
+        }
+        if(pinging && socketWaiting && Utils.isTimeout(socketWaitSinceNs, serverTimeoutSeconds)) {
+          throw new KvdException("receive timeout");
+        }
+        if(packet != null) {
+          batch.add(packet);
+          while(batch.size() < MAX_BATCH) {
+            Packet p = sendQueue.poll();
+            if(p == null) {
+              break;
+            }
+            batch.add(p);
+          }
+          queuedPackets.addAndGet(-batch.size());
+          long bytes = 0;
+          for(Packet p : batch) {
+            if(p instanceof KvdFileRegion) {
+              out.flush();
+              ((KvdFileRegion)p).transferTo(out, socketChannel);
+              bytes += Packet.HEADER_SIZE + ((KvdFileRegion)p).getLength();
+            } else {
+              bytes += p.writeDelimitedTo(out);
+            }
+          }
+          out.flush();
+          metrics.bytesSent(bytes);
+          batch.forEach(this::sent);
+          batch.clear();
+        } else {
+          out.flush();
           if(isClosed()) {
             break;
           }
-          Thread.sleep(100);
-        }
-        try {
-          sendAsync(Packet.newBuilder().setType(PacketType.PING).build());
-        } catch(Exception e) {
-          if(!isClosed()) {
-            log.warn("send ping failed", e);
-          }
         }
       }
     } catch(Exception e) {
-      log.warn("send ping failure", e);
+      if(isClosed()) {
+        // the connection has been closed on purpose or by the other loop
+        log.debug("send loop failure after close", e);
+      } else {
+        log.warn("send loop failure", e);
+      }
     } finally {
-      log.trace("ping loop exit");
-      onClose.run();
+      log.trace("send loop exit");
+      connectionClosed();
     }
   }
 
-  private void sendLoop() {
-    log.trace("starting send loop");
-    try(OutputStream out = socket.getOutputStream()) {
-      for(;;) {
-        Packet packet = sendQueue.poll(1, TimeUnit.SECONDS);
-        if(packet != null) {
-          packet.writeDelimitedTo(out);
-        } else if(isClosed()) {
-          break;
-        }
+  /**
+   * Waits at most {@code timeoutNs} for the next packet. Senders only unpark the send thread
+   * if it announced that it is about to wait.
+   */
+  private Packet poll(long timeoutNs) {
+    Packet packet = sendQueue.poll();
+    if((packet == null) && (timeoutNs > 0)) {
+      sendWaiting = true;
+      packet = sendQueue.poll();
+      if(packet == null) {
+        LockSupport.parkNanos(this, timeoutNs);
+        packet = sendQueue.poll();
       }
-    } catch(Exception e) {
-      log.warn("send loop failure", e);
-    } finally {
-      log.trace("send loop exit");
-      onClose.run();
+      sendWaiting = false;
     }
+    return packet;
   }
 
   private void receiveLoop() {
     log.trace("starting receive loop");
-    try(InputStream in = socket.getInputStream()) {
+    try(InputStream in = inputStream(socketChannel)) {
       Packets.receiveHello(in);
       helloReceivedFuture.complete(true);
       log.trace("received hello packet");
-      long lastReceiveNs = System.nanoTime();
       for(;;) {
-        try {
-          Packet packet = Packet.parseDelimitedFrom(in);
-          if(packet != null) {
-            lastReceiveNs = System.nanoTime();
-            if(PacketType.PONG.equals(packet.getType())) {
-              log.trace("received pong");
-            } else if(PacketType.BYE.equals(packet.getType())) {
-              log.trace("received bye");
-              break;
-            } else {
-              int channelId = packet.getChannel();
-              Consumer<Packet> channel = getChannel(channelId);
-              if(channel != null) {
-                channel.accept(packet);
-              } else {
-                log.debug("ignore packet '{}', channel '{}' does not exist", packet.getType(), channelId);
-              }
-            }
-          }
-          if(Utils.isTimeout(lastReceiveNs, serverTimeoutSeconds)) {
-            throw new KvdException("receive timeout");
+        Packet.Header header = Packet.parseHeader(in);
+        if(header == null) {
+          throw new EOFException();
+        }
+        metrics.bytesReceived(Packet.HEADER_SIZE + header.getBodyLength());
+        Channel channel = channels.get(header.getChannel());
+        if((channel != null) && (channel.sink != null)
+            && header.hasByteBody() && PacketType.GET_DATA.equals(header.getType())) {
+          channel.sink.transfer(socketChannel, header.getBodyLength());
+          continue;
+        }
+        Packet packet = Packet.parseBody(header, in);
+        if(PacketType.PONG.equals(packet.getType())) {
+          log.trace("received pong");
+        } else if(PacketType.BYE.equals(packet.getType())) {
+          log.trace("received bye");
+          break;
+        } else {
+          if(channel != null) {
+            channel.receiver.accept(packet);
+          } else {
+            log.debug("ignore packet '{}', channel '{}' does not exist", packet.getType(), header.getChannel());
           }
-        } catch(SocketTimeoutException e) {
-          // ignore
         }
       }
     } catch(EOFException e) {
       log.trace("receive loop EOF");
     } catch(Exception e) {
-      log.warn("receive loop failure", e);
+      if(isClosed()) {
+        // the connection has been closed on purpose or by the other loop
+        log.debug("receive loop failure after close", e);
+      } else {
+        log.warn("receive loop failure", e);
+      }
     } finally {
       log.trace("receive loop exit");
-      onClose.run();
+      connectionClosed();
     }
   }
 
-  public void sendAsync(Packet packet) throws InterruptedException {
-    // TODO maybe we need a fair lock here? sending ping packets is required to receive pong packets otherwise
-    // the client disconnects on not receiving any packets which might happen on large value uploads.
-    while(true) {
-      if(!closed.get()) {
-        if(sendQueue.offer(packet, 1, TimeUnit.SECONDS)) {
-          break;
+  /**
+   * Stops both loops once one of them exited, wakes up writers waiting for the queue to drain.
+   */
+  private void connectionClosed() {
+    closed.set(true);
+    helloReceivedFuture.completeExceptionally(new KvdException("connection closed"));
+    try {
+      socketChannel.close();
+    } catch(IOException e) {
+      // ignore
+    }
+    LockSupport.unpark(sendThread);
+    synchronized(writable) {
+      writable.notifyAll();
+    }
+    onClose.accept(this);
+  }
+
+  private static int dataSize(Packet packet) {
+    if(packet instanceof KvdFileRegion) {
+      return ((KvdFileRegion)packet).getLength();
+    }
+    return PacketType.PUT_DATA.equals(packet.getType())?packet.getByteBody().toByteArray().length:0;
+  }
+
+  /**
+   * Reads straight from the channel. Streams from {@link java.nio.channels.Channels} or the socket adaptor
+   * serialize reads and writes on the channel's blocking lock which would stall the send loop while the
+   * receive loop waits for data.
+   */
+  private InputStream inputStream(SocketChannel channel) {
+    return new InputStream() {
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0) {
+          return 0;
+        }
+        socketWaitSinceNs = System.nanoTime();
+        socketWaiting = true;
+        try {
+          return channel.read(ByteBuffer.wrap(b, off, len));
+        } finally {
+          socketWaiting = false;
+        }
+      }
+
+      @Override
+      public void close() throws IOException {
+        channel.close();
+      }
+    };
+  }
+
+  private static OutputStream outputStream(SocketChannel channel) {
+    return new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[] {(byte)b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+        while(buf.hasRemaining()) {
+          channel.write(buf);
         }
-      } else {
-        throw new KvdException("already closed");
+      }
+
+      @Override
+      public void close() throws IOException {
+        channel.close();
+      }
+    };
+  }
+
+  private void sent(Packet packet) {
+    int size = dataSize(packet);
+    if(size > 0) {
+      long queued = queuedBytes.addAndGet(-size);
+      if((queued <= MAX_QUEUED_BYTES) && ((queued + size) > MAX_QUEUED_BYTES)) {
+        synchronized(writable) {
+          writable.notifyAll();
+        }
+        notifyWritableListeners();
       }
     }
   }
 
+  private void notifyWritableListeners() {
+    while(isWritable()) {
+      Runnable r = writableListeners.poll();
+      if(r == null) {
+        break;
+      }
+      try {
+        r.run();
+      } catch(Exception e) {
+        log.warn("writable listener failed", e);
+      }
+    }
+  }
+
+  /**
+   * Queue the packet for sending, never blocks. Use {@link #sendData(Packet)} for value data.
+   */
+  public void sendAsync(Packet packet) {
+    if(closed.get()) {
+      throw new KvdException("already closed");
+    }
+    queuedBytes.addAndGet(dataSize(packet));
+    queuedPackets.incrementAndGet();
+    sendQueue.add(packet);
+    if(sendWaiting) {
+      LockSupport.unpark(sendThread);
+    }
+  }
+
+  /**
+   * Queue the packet that starts a request, the server gives up on the request once the request timeout passed.
+   */
+  public void sendRequest(Packet packet) {
+    sendAsync(requestTimeoutMs>0?packet.withTimeoutMs(requestTimeoutMs):packet);
+  }
+
+  /**
+   * Abort the operation once the caller cancelled its future or the request timeout passed without a response.
+   * The abort closes the channel which tells the server to stop working on the request.
+   * @return {@code future}
+   */
+  <T> CompletableFuture<T> abortIfAbandoned(Abortable op, CompletableFuture<T> future) {
+    if(requestTimeoutMs > 0) {
+      future.orTimeout(requestTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+    future.whenComplete((v, t) -> {
+      if(KvdFutures.isAbandoned(t)) {
+        try {
+          op.abort();
+        } catch(Exception e) {
+          log.debug("abort of '{}' failed", op, e);
+        }
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Queue the packet for sending, blocks while too much data is waiting to be sent.
+   */
+  public void sendData(Packet packet) throws InterruptedException {
+    synchronized(writable) {
+      while(!isWritable()) {
+        if(closed.get()) {
+          throw new KvdException("already closed");
+        }
+        writable.wait(1000);
+      }
+    }
+    sendAsync(packet);
+  }
+
+  /**
+   * @return {@code true} if value data can be queued without exceeding the send buffer
+   */
+  public boolean isWritable() {
+    return queuedBytes.get() <= MAX_QUEUED_BYTES;
+  }
+
+  /**
+   * Run the listener once (on the send thread) when value data can be queued again,
+   * immediately (on the calling thread) if data can be queued now.
+   */
+  public void onWritable(Runnable listener) {
+    writableListeners.add(listener);
+    notifyWritableListeners();
+  }
+
   public void closeGracefully() {
     closed.set(true);
+    LockSupport.unpark(sendThread);
   }
 
-  public synchronized int createChannel(Consumer<Packet> channelReceiver) {
-    channelIds.compareAndSet(Integer.MAX_VALUE, 1);
-    int channelId = channelIds.getAndIncrement();
-    channelReceivers.put(channelId, channelReceiver);
-    return channelId;
+  public int createChannel(Consumer<Packet> channelReceiver) {
+    return createChannel(channelReceiver, null);
   }
 
-  public synchronized void closeChannel(int channelId) {
-    try {
-      sendAsync(Packets.packet(PacketType.CLOSE_CHANNEL, channelId));
-    } catch(InterruptedException e) {
-      // ignore
+  /**
+   * Like {@link #createChannel(Consumer)} but the byte bodies of {@link PacketType#GET_DATA} packets
+   * on this channel are handed to the sink directly from the socket.
+   */
+  public int createChannel(Consumer<Packet> channelReceiver, ByteBodySink sink) {
+    Channel channel = new Channel(channelReceiver, sink);
+    for(;;) {
+      // ids wrap around, skip 0 and ids of channels that are still open
+      int channelId = channelIds.getAndIncrement() & Integer.MAX_VALUE;
+      if((channelId != 0) && (channels.putIfAbsent(channelId, channel) == null)) {
+        return channelId;
+      }
+    }
+  }
+
+  /**
+   * @return a transaction id that is unique on this connection, the server begins the transaction under this id
+   */
+  public int nextTxId() {
+    for(;;) {
+      // ids wrap around, skip 0 which means no transaction
+      int txId = txIds.getAndIncrement() & Integer.MAX_VALUE;
+      if(txId != 0) {
+        return txId;
+      }
     }
-    channelReceivers.remove(channelId);
-    this.notifyAll();
   }
 
-  private synchronized Consumer<Packet> getChannel(int channelId) {
-    return channelReceivers.get(channelId);
+  /**
+   * Starts timing an operation, the operation ends the timer when it completes.
+   */
+  KvdOpTimer timer(KvdOperationType op) {
+    return KvdOpTimer.start(metrics, op);
+  }
+
+  Durability getDurability() {
+    return durability;
+  }
+
+  public void closeChannel(int channelId) {
+    // only once, the id might already belong to another channel afterwards
+    if((channels.remove(channelId) != null) && !isClosed()) {
+      try {
+        sendAsync(Packets.packet(PacketType.CLOSE_CHANNEL, channelId));
+      } catch(KvdException e) {
+        // closed concurrently, nothing to tell the server anymore
+      }
+    }
   }
 
-  public synchronized void warnOnOpenChannels() {
-    if(channelReceivers.size() > 0) {
-      log.warn("client still has '{}' active channel(s)", channelReceivers.size());
+  public void warnOnOpenChannels() {
+    int open = channels.size();
+    if(open > 0) {
+      log.warn("client still has '{}' active channel(s)", open);
     }
   }
 
+  /**
+   * @return the current load of this connection, the number of queued packets plus open channels
+   */
+  public int getLoad() {
+    return queuedPackets.get() + channels.size();
+  }
+
   public String getClientId() {
     return clientId;
   }
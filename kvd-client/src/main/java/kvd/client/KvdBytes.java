@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Adapts byte array values to the {@code Flow} based operations so batches can run without a thread
+ * per value, nothing here blocks the connection's receive thread.
+ */
+final class KvdBytes {
+
+  private KvdBytes() {
+  }
+
+  /**
+   * @return publisher that emits {@code value} once to a single subscriber
+   */
+  static Flow.Publisher<ByteBuffer> publisher(byte[] value) {
+    return subscriber -> subscriber.onSubscribe(new Flow.Subscription() {
+
+      private AtomicBoolean done = new AtomicBoolean();
+
+      @Override
+      public void request(long n) {
+        if((n > 0) && !done.getAndSet(true)) {
+          subscriber.onNext(ByteBuffer.wrap(value));
+          subscriber.onComplete();
+        }
+      }
+
+      @Override
+      public void cancel() {
+        done.set(true);
+      }
+    });
+  }
+
+  /**
+   * @return future that completes with all bytes emitted by the publisher
+   */
+  static CompletableFuture<byte[]> collect(Flow.Publisher<ByteBuffer> publisher) {
+    CompletableFuture<byte[]> future = new CompletableFuture<>();
+    publisher.subscribe(new Flow.Subscriber<ByteBuffer>() {
+
+      private ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+      @Override
+      public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+      }
+
+      @Override
+      public void onNext(ByteBuffer item) {
+        if(item.hasArray()) {
+          out.write(item.array(), item.arrayOffset() + item.position(), item.remaining());
+        } else {
+          byte[] buf = new byte[item.remaining()];
+          item.get(buf);
+          out.write(buf, 0, buf.length);
+        }
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+        future.completeExceptionally(throwable);
+      }
+
+      @Override
+      public void onComplete() {
+        future.complete(out.toByteArray());
+      }
+    });
+    return future;
+  }
+
+}
@@ -13,18 +13,37 @@
  */
 package kvd.client;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
 import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.Future;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import kvd.common.Durability;
 import kvd.common.HostAndPort;
 import kvd.common.KvdException;
 import kvd.common.Utils;
@@ -48,7 +67,9 @@ import kvd.common.packet.proto.PacketType;
  * in {@code KvdClient} are auto committed. For manual commit/rollback start a new Transaction with {@link #beginTransaction()}
  *
  * <p>Note: {@link KvdClient#KvdClient(java.lang.String)} establishes a single socket connection to the server
- * that it keeps alive until {@link KvdClient#close} is called.
+ * that it keeps alive until {@link KvdClient#close} is called. Use {@link KvdClientBuilder#setConnections(int)}
+ * to spread operations over multiple connections, a {@link KvdTransaction} always stays on the connection
+ * it was started on.
  *
  * <p>Note: {@code KvdClient} is thread-safe.
  */
@@ -58,9 +79,23 @@ public class KvdClient implements KvdOperations, AutoCloseable {
 
   private static final int NO_TX = 0;
 
-  private ClientBackend backend;
+  private HostAndPort serverAddress;
 
-  private Set<Abortable> abortables = new HashSet<>();
+  private int socketSoTimeoutMs;
+
+  private List<ClientBackend> backends = new CopyOnWriteArrayList<>();
+
+  private AtomicInteger nextBackend = new AtomicInteger();
+
+  private KvdNearCache nearCache;
+
+  // null while there is no connection that receives invalidations
+  private volatile KvdInvalidationSubscription invalidationSubscription;
+
+  private KvdDiskCache diskCache;
+
+  // pending operations and the connection they run on, submitted concurrently without locking the client
+  private Map<Abortable, ClientBackend> abortables = new ConcurrentHashMap<>();
 
   private AtomicBoolean closed = new AtomicBoolean(false);
 
@@ -68,8 +103,34 @@ public class KvdClient implements KvdOperations, AutoCloseable {
 
   private int serverTimeoutSeconds;
 
+  private int requestTimeoutMs;
+
+  private KvdMetricsSink metrics;
+
+  private Durability durability;
+
+  private long computeLeaseDefaultTimeoutMs;
+
   private ThreadLocal<KvdTransaction> transactions = new ThreadLocal<>();
 
+  private boolean reconnect;
+
+  private long reconnectMinBackoffMs;
+
+  private long reconnectMaxBackoffMs;
+
+  private int maxRetries;
+
+  private ScheduledExecutorService reconnectExecutor;
+
+  // recomputes stale values handed out by getOrRefresh
+  private ExecutorService refreshExecutor;
+
+  private Object connectionLock = new Object();
+
+  // completes once a connection is available, replaced when the last connection is lost
+  private CompletableFuture<Void> connected = CompletableFuture.completedFuture(null);
+
   /**
    * Create a new {@code KvdClient} instance connecting to the server. Use {@link KvdClientBuilder} to create a
    * {@code KvdClient} with non standard options.
@@ -85,25 +146,284 @@ public class KvdClient implements KvdOperations, AutoCloseable {
     try {
       this.transactionDefaultTimeoutMs = builder.getTransactionDefaultTimeoutMs();
       this.serverTimeoutSeconds = builder.getServerTimeoutSeconds();
-      HostAndPort hp = HostAndPort.fromString(builder.getServerAddress()).withDefaultPort(3030);
-      log.trace("connecting to '{}'", hp);
-      Socket socket = new Socket(InetAddress.getByName(hp.getHost()), hp.getPort());
-      socket.setSoTimeout(builder.getSocketSoTimeoutMs());
-      backend = new ClientBackend(socket, serverTimeoutSeconds, () -> {
-        try {
-          log.debug("client backend close notification");
-          close();
-        } catch(Exception e) {
-          // ignore
-        }
+      this.requestTimeoutMs = builder.getRequestTimeoutMs();
+      this.metrics = builder.getMetrics();
+      this.durability = builder.getDurability();
+      this.computeLeaseDefaultTimeoutMs = builder.getComputeLeaseDefaultTimeoutMs();
+      this.socketSoTimeoutMs = builder.getSocketSoTimeoutMs();
+      this.reconnect = builder.isReconnect();
+      this.reconnectMinBackoffMs = builder.getReconnectMinBackoffMs();
+      this.reconnectMaxBackoffMs = Math.max(builder.getReconnectMaxBackoffMs(), reconnectMinBackoffMs);
+      this.maxRetries = builder.getMaxRetries();
+      serverAddress = HostAndPort.fromString(builder.getServerAddress()).withDefaultPort(3030);
+      reconnectExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "kvd-reconnect");
+        t.setDaemon(true);
+        return t;
       });
-      backend.start();
+      refreshExecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "kvd-refresh");
+        t.setDaemon(true);
+        return t;
+      });
+      for(int i=0;i<builder.getConnections();i++) {
+        backends.add(connect());
+      }
+      if(builder.getDiskCacheDirectory() != null) {
+        diskCache = new KvdDiskCache(builder.getDiskCacheDirectory(), builder.getDiskCacheMaxBytes());
+      }
+      if(builder.getNearCacheMaxBytes() > 0) {
+        setupNearCache(builder);
+      }
     } catch(Exception e) {
+      close();
       throw new KvdException(String.format("failed to connect to '%s'", builder.getServerAddress()), e);
     }
   }
 
-  private synchronized void removeAbortable(Abortable a) {
+  private ClientBackend connect() throws IOException {
+    log.trace("connecting to '{}'", serverAddress);
+    // a plain blocking channel so file transfers can go between the socket and files directly
+    SocketChannel channel = SocketChannel.open();
+    try {
+      channel.socket().connect(
+          new InetSocketAddress(InetAddress.getByName(serverAddress.getHost()), serverAddress.getPort()),
+          socketSoTimeoutMs);
+      // the send loop batches packets itself
+      channel.socket().setTcpNoDelay(true);
+      ClientBackend backend = new ClientBackend(channel, serverTimeoutSeconds, requestTimeoutMs, metrics,
+          durability, this::connectionClosed);
+      backend.start();
+      return backend;
+    } catch(IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private void connectionClosed(ClientBackend backend) {
+    if(isClosed()) {
+      return;
+    }
+    synchronized(connectionLock) {
+      if(!backends.remove(backend)) {
+        return;
+      }
+      if(backends.isEmpty() && connected.isDone()) {
+        connected = new CompletableFuture<>();
+      }
+    }
+    if(!reconnect) {
+      log.debug("lost connection to '{}', closing client", serverAddress);
+      close();
+      return;
+    }
+    log.warn("lost connection to '{}', reconnecting", serverAddress);
+    KvdInvalidationSubscription subscription = invalidationSubscription;
+    if((subscription != null) && (subscription.getBackend() == backend)) {
+      invalidationSubscription = null;
+      subscription.abort();
+    }
+    abortables.forEach((a, b) -> {
+      if(b == backend) {
+        abort(a);
+      }
+    });
+    scheduleReconnect(0);
+  }
+
+  /**
+   * @return exponential backoff randomized between half and the full delay so clients
+   *         don't reconnect in lock step after a server restart
+   */
+  private long backoffMs(int attempt) {
+    long delay = Math.min(reconnectMaxBackoffMs, reconnectMinBackoffMs << Math.min(attempt, 20));
+    return (delay / 2) + ThreadLocalRandom.current().nextLong((delay / 2) + 1);
+  }
+
+  private void scheduleReconnect(int attempt) {
+    try {
+      reconnectExecutor.schedule(() -> reconnect(attempt), backoffMs(attempt), TimeUnit.MILLISECONDS);
+    } catch(RejectedExecutionException e) {
+      // closed
+    }
+  }
+
+  private void reconnect(int attempt) {
+    if(isClosed()) {
+      return;
+    }
+    ClientBackend backend;
+    try {
+      backend = connect();
+    } catch(Exception e) {
+      log.debug("reconnect to '{}' failed, attempt '{}'", serverAddress, attempt + 1, e);
+      scheduleReconnect(attempt + 1);
+      return;
+    }
+    synchronized(connectionLock) {
+      if(isClosed()) {
+        backend.closeGracefully();
+        return;
+      }
+      backends.add(backend);
+      connected.complete(null);
+    }
+    log.info("reconnected to '{}'", serverAddress);
+    if((nearCache != null) && (invalidationSubscription == null)) {
+      subscribeInvalidations(backend);
+    }
+  }
+
+  private CompletableFuture<Void> connected() {
+    synchronized(connectionLock) {
+      return connected;
+    }
+  }
+
+  /**
+   * @param backend the connection the operation ran on, {@code null} if there was no connection
+   * @return {@code true} if the operation failed because its own connection has been lost
+   */
+  private boolean retryable(ClientBackend backend, int attempt) {
+    return !isClosed() && (attempt < maxRetries) && ((backend == null) || backend.isClosed());
+  }
+
+  /**
+   * Runs an idempotent operation and runs it again (after a connection is available) if it failed
+   * because the connection it ran on was lost.
+   */
+  private <T> CompletableFuture<T> retry(Function<ClientBackend, CompletableFuture<T>> op) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    attempt(op, result, 0);
+    return result;
+  }
+
+  private <T> void attempt(Function<ClientBackend, CompletableFuture<T>> op, CompletableFuture<T> result,
+      int attempt) {
+    ClientBackend backend = null;
+    CompletableFuture<T> f;
+    try {
+      backend = backend();
+      f = op.apply(backend);
+    } catch(RuntimeException e) {
+      if((attempt == 0) && !retryable(backend, attempt)) {
+        throw e;
+      }
+      f = CompletableFuture.failedFuture(e);
+    }
+    ClientBackend used = backend;
+    KvdFutures.propagateCancel(result, f);
+    f.whenComplete((v, t) -> {
+      if(t == null) {
+        result.complete(v);
+      } else if(retryable(used, attempt)) {
+        log.debug("retry after lost connection", t);
+        connected().copy().orTimeout(serverTimeoutSeconds, TimeUnit.SECONDS).whenComplete((c, t2) -> {
+          if(t2 != null) {
+            result.completeExceptionally(t);
+          } else {
+            try {
+              attempt(op, result, attempt + 1);
+            } catch(Exception e) {
+              result.completeExceptionally(e);
+            }
+          }
+        });
+      } else {
+        result.completeExceptionally(t);
+      }
+    });
+  }
+
+  private void retryBlocking(Consumer<ClientBackend> op) {
+    for(int attempt=0;;attempt++) {
+      ClientBackend backend = null;
+      try {
+        backend = backend();
+        op.accept(backend);
+        return;
+      } catch(RuntimeException e) {
+        if(!retryable(backend, attempt)) {
+          throw e;
+        }
+        log.debug("retry after lost connection", e);
+        try {
+          connected().get(serverTimeoutSeconds, TimeUnit.SECONDS);
+        } catch(Exception e2) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  private void setupNearCache(KvdClientBuilder builder) throws Exception {
+    nearCache = new KvdNearCache(
+        builder.getNearCacheMaxBytes(),
+        builder.getNearCacheMaxValueBytes(),
+        builder.getNearCacheMaxAgeMs());
+    subscribeInvalidations(backends.get(0)).get(serverTimeoutSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * The near cache is only used once the server pushes invalidations on the connection.
+   */
+  private CompletableFuture<Boolean> subscribeInvalidations(ClientBackend backend) {
+    KvdInvalidationSubscription subscription = new KvdInvalidationSubscription(backend, nearCache, a -> {});
+    invalidationSubscription = subscription;
+    subscription.start();
+    return subscription.getFuture().whenComplete((b, t) -> {
+      // drop whatever might have changed while there was no subscription
+      nearCache.invalidateAll();
+    });
+  }
+
+  private KvdNearCache activeNearCache() {
+    KvdInvalidationSubscription subscription = invalidationSubscription;
+    return ((subscription != null) && subscription.isSubscribed())?nearCache:null;
+  }
+
+  private void invalidateNearCache(byte[] key) {
+    if(nearCache != null) {
+      nearCache.invalidate(key);
+    }
+  }
+
+  /**
+   * @return the connection with the least load (queued packets and open channels),
+   *         round robin between connections with the same load.
+   */
+  private ClientBackend backend() {
+    ClientBackend[] connections = backends.toArray(new ClientBackend[0]);
+    if(connections.length == 0) {
+      throw new KvdException("not connected");
+    } else if(connections.length == 1) {
+      return connections[0];
+    }
+    int start = Math.floorMod(nextBackend.getAndIncrement(), connections.length);
+    ClientBackend selected = null;
+    int min = Integer.MAX_VALUE;
+    for(int i=0;i<connections.length;i++) {
+      ClientBackend b = connections[(start+i) % connections.length];
+      int load = b.getLoad();
+      if(load < min) {
+        min = load;
+        selected = b;
+      }
+    }
+    return selected;
+  }
+
+  private static void abort(Abortable a) {
+    try {
+      log.warn("aborting '{}'", a);
+      a.abort();
+    } catch(Exception e) {
+      // ignore
+    }
+  }
+
+  private void removeAbortable(Abortable a) {
     this.abortables.remove(a);
   }
 
@@ -114,43 +434,362 @@ public class KvdClient implements KvdOperations, AutoCloseable {
   }
 
   @Override
-  public synchronized Future<OutputStream> putAsync(byte[] key) {
+  public CompletableFuture<OutputStream> putAsync(byte[] key, long ttlMs) {
+    checkClosed();
+    Utils.checkKey(key);
+    if(ttlMs < 0) {
+      throw new KvdException("invalid ttlMs, " + ttlMs);
+    }
+    invalidateNearCache(key);
+    return putAsync(backend(), key, ttlMs);
+  }
+
+  private CompletableFuture<OutputStream> putAsync(ClientBackend backend, byte[] key, long ttlMs) {
+    KvdPut put = new KvdPut(backend, NO_TX, key, ttlMs, this::removeAbortable);
+    abortables.put(put, backend);
+    put.start();
+    return backend.abortIfAbandoned(put, put.getFuture());
+  }
+
+  @Override
+  public CompletableFuture<OutputStream> appendAsync(byte[] key, long ttlMs) {
+    checkClosed();
+    Utils.checkKey(key);
+    if(ttlMs < 0) {
+      throw new KvdException("invalid ttlMs, " + ttlMs);
+    }
+    invalidateNearCache(key);
+    ClientBackend backend = backend();
+    KvdPut append = new KvdPut(backend, NO_TX, key, ttlMs, true, this::removeAbortable);
+    abortables.put(append, backend);
+    append.start();
+    return backend.abortIfAbandoned(append, append.getFuture());
+  }
+
+  @Override
+  public CompletableFuture<InputStream> getAsync(byte[] key) {
+    checkClosed();
+    Utils.checkKey(key);
+    KvdNearCache nearCache = activeNearCache();
+    if(nearCache != null) {
+      byte[] cached = nearCache.get(key);
+      if(cached != null) {
+        return CompletableFuture.completedFuture(new ByteArrayInputStream(cached));
+      }
+      Object token = nearCache.startLoad(key);
+      CompletableFuture<InputStream> uncached = getUncached(key);
+      return KvdFutures.propagateCancel(uncached.thenApply(in -> {
+        if(in != null) {
+          return nearCache.load(key, token, in);
+        } else {
+          nearCache.cancelLoad(key, token);
+          return null;
+        }
+      }), uncached);
+    } else {
+      return getUncached(key);
+    }
+  }
+
+  private CompletableFuture<InputStream> getUncached(byte[] key) {
+    if(diskCache != null) {
+      return diskCache.get(key, this::getAsync);
+    } else {
+      CompletableFuture<KvdValueInputStream> get = getAsync(key, null);
+      return KvdFutures.propagateCancel(get.thenApply(in -> in), get);
+    }
+  }
+
+  /**
+   * @return near cache metrics or {@code null} if the near cache is not enabled,
+   *         see {@link KvdClientBuilder#setNearCacheMaxBytes(long)}
+   */
+  public KvdNearCacheStats getNearCacheStats() {
+    return nearCache!=null?nearCache.getStats():null;
+  }
+
+  /**
+   * @return disk cache metrics or {@code null} if the disk cache is not enabled,
+   *         see {@link KvdClientBuilder#setDiskCacheDirectory(java.nio.file.Path)}
+   */
+  public KvdDiskCacheStats getDiskCacheStats() {
+    return diskCache!=null?diskCache.getStats():null;
+  }
+
+  @Override
+  public CompletableFuture<KvdValueInputStream> getAsync(byte[] key, byte[] ifNoneMatch) {
     checkClosed();
     Utils.checkKey(key);
-    KvdPut put = new KvdPut(backend, NO_TX, key, this::removeAbortable);
-    abortables.add(put);
+    return retry(backend -> {
+      KvdGet get = new KvdGet(backend, NO_TX, key, ifNoneMatch, this::removeAbortable);
+      abortables.put(get, backend);
+      get.start();
+      return backend.abortIfAbandoned(get, get.getFuture());
+    });
+  }
+
+  @Override
+  public CompletableFuture<Flow.Publisher<ByteBuffer>> getPublisherAsync(byte[] key) {
+    checkClosed();
+    Utils.checkKey(key);
+    return retry(backend -> {
+      KvdGetPublisher get = new KvdGetPublisher(backend, NO_TX, key, this::removeAbortable);
+      abortables.put(get, backend);
+      get.start();
+      return backend.abortIfAbandoned(get, get.getFuture());
+    });
+  }
+
+  @Override
+  public CompletableFuture<Boolean> putPublisherAsync(byte[] key, long ttlMs,
+      Flow.Publisher<ByteBuffer> value) {
+    checkClosed();
+    Utils.checkKey(key);
+    if(ttlMs < 0) {
+      throw new KvdException("invalid ttlMs, " + ttlMs);
+    }
+    invalidateNearCache(key);
+    ClientBackend backend = backend();
+    KvdPutSubscriber put = new KvdPutSubscriber(backend, NO_TX, key, ttlMs, value, false, this::removeAbortable);
+    abortables.put(put, backend);
     put.start();
-    return put.getFuture();
+    return backend.abortIfAbandoned(put, put.getFuture());
   }
 
   @Override
-  public synchronized Future<InputStream> getAsync(byte[] key) {
+  public CompletableFuture<Boolean> putFileAsync(byte[] key, Path file) {
     checkClosed();
     Utils.checkKey(key);
-    KvdGet get = new KvdGet(backend, NO_TX, key, this::removeAbortable);
-    abortables.add(get);
-    get.start();
-    return get.getFuture();
+    invalidateNearCache(key);
+    return retry(backend -> {
+      KvdPutFile put = new KvdPutFile(backend, NO_TX, key, file, this::removeAbortable);
+      abortables.put(put, backend);
+      put.start();
+      return backend.abortIfAbandoned(put, put.getFuture());
+    });
   }
 
   @Override
-  public synchronized Future<Boolean> containsAsync(byte[] key) {
+  public CompletableFuture<Boolean> getToFileAsync(byte[] key, Path file) {
     checkClosed();
     Utils.checkKey(key);
-    KvdContains contains = new KvdContains(backend, NO_TX, key, this::removeAbortable);
-    abortables.add(contains);
-    contains.start();
-    return contains.getFuture();
+    return retry(backend -> {
+      KvdGetToFile get = new KvdGetToFile(backend, NO_TX, key, file, this::removeAbortable);
+      abortables.put(get, backend);
+      get.start();
+      return backend.abortIfAbandoned(get, get.getFuture());
+    });
   }
 
   @Override
-  public synchronized Future<Boolean> removeAsync(byte[] key) {
+  public CompletableFuture<byte[]> digestAsync(byte[] key) {
     checkClosed();
     Utils.checkKey(key);
-    KvdRemove remove = new KvdRemove(backend, NO_TX, key, this::removeAbortable);
-    abortables.add(remove);
-    remove.start();
-    return remove.getFuture();
+    return retry(backend -> {
+      KvdDigest digest = new KvdDigest(backend, NO_TX, key, this::removeAbortable);
+      abortables.put(digest, backend);
+      digest.start();
+      return backend.abortIfAbandoned(digest, digest.getFuture());
+    });
+  }
+
+  @Override
+  public CompletableFuture<Boolean> containsAsync(byte[] key) {
+    checkClosed();
+    Utils.checkKey(key);
+    return retry(backend -> {
+      KvdContains contains = new KvdContains(backend, NO_TX, key, this::removeAbortable);
+      abortables.put(contains, backend);
+      contains.start();
+      return backend.abortIfAbandoned(contains, contains.getFuture());
+    });
+  }
+
+  @Override
+  public CompletableFuture<Boolean> copyAsync(byte[] source, byte[] target) {
+    return copyOrRename(source, target, false);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> renameAsync(byte[] source, byte[] target) {
+    return copyOrRename(source, target, true);
+  }
+
+  private CompletableFuture<Boolean> copyOrRename(byte[] source, byte[] target, boolean rename) {
+    checkClosed();
+    Utils.checkKey(source);
+    Utils.checkKey(target);
+    invalidateNearCache(target);
+    if(rename) {
+      invalidateNearCache(source);
+    }
+    ClientBackend backend = backend();
+    KvdCopy copy = new KvdCopy(backend, NO_TX, source, target, rename, this::removeAbortable);
+    abortables.put(copy, backend);
+    copy.start();
+    return backend.abortIfAbandoned(copy, copy.getFuture());
+  }
+
+  @Override
+  public CompletableFuture<Boolean> removeAsync(byte[] key) {
+    checkClosed();
+    Utils.checkKey(key);
+    invalidateNearCache(key);
+    return retry(backend -> {
+      KvdRemove remove = new KvdRemove(backend, NO_TX, key, this::removeAbortable);
+      abortables.put(remove, backend);
+      remove.start();
+      return backend.abortIfAbandoned(remove, remove.getFuture());
+    });
+  }
+
+  /**
+   * Put a byte array key/value pair with a time to live. The put is retried if the connection is lost,
+   * see {@link KvdClientBuilder#setMaxRetries(int)}.
+   */
+  @Override
+  public void putBytes(byte[] key, byte[] value, long ttlMs) {
+    checkClosed();
+    Utils.checkKey(key);
+    if(value == null) {
+      throw new KvdException("null value not supported");
+    }
+    if(ttlMs < 0) {
+      throw new KvdException("invalid ttlMs, " + ttlMs);
+    }
+    invalidateNearCache(key);
+    retryBlocking(backend -> {
+      try(OutputStream out = KvdFutures.get(putAsync(backend, key, ttlMs))) {
+        out.write(value);
+      } catch(Exception e) {
+        throw new KvdException("put bytes failed", e);
+      }
+    });
+  }
+
+  private KvdComputeLease computeLease(byte[] key, long leaseMs) {
+    checkClosed();
+    Utils.checkKey(key);
+    ClientBackend backend = backend();
+    KvdComputeLease lease = new KvdComputeLease(backend, key, leaseMs, this::removeAbortable);
+    abortables.put(lease, backend);
+    lease.start();
+    return lease;
+  }
+
+  /**
+   * Returns the value to which the specified key is mapped. If the key does not exist the value is computed and put
+   * but only by a single client. The server hands out a lease for the key to the first client asking for it,
+   * all others wait until the value has been put or the lease timed out. This avoids the thundering herd of
+   * clients recomputing the same (expensive) value at the same time, e.g. after it has been removed or expired.
+   * Note that this does not execute within a transaction.
+   * @param key the key whose associated value is to be returned
+   * @param leaseMs the lease timeout in milliseconds. Other clients take over the computation when the
+   *        lease times out.
+   * @param compute computes the value by writing it to the {@code OutputStream}. Only called if this client
+   *        got the lease.
+   * @return the {@code InputStream} for the value
+   */
+  public InputStream computeIfAbsent(byte[] key, long leaseMs, KvdCompute compute) {
+    if(leaseMs <= 0) {
+      throw new KvdException("invalid leaseMs, " + leaseMs);
+    }
+    for(;;) {
+      InputStream in = get(key);
+      if(in != null) {
+        return in;
+      }
+      KvdComputeLease lease = computeLease(key, leaseMs);
+      try {
+        if(lease.getFuture().get()) {
+          OutputStream out = put(key);
+          try {
+            compute.compute(out);
+          } catch(Exception e) {
+            // don't leave a partial value behind
+            ((Abortable)out).abort();
+            throw e;
+          }
+          out.close();
+        }
+      } catch(Exception e) {
+        throw new KvdException("compute if absent failed", e);
+      } finally {
+        lease.release();
+      }
+    }
+  }
+
+  /**
+   * Same as {@link #computeIfAbsent(byte[], long, KvdCompute)} but uses the default lease timeout.
+   * @param key the key whose associated value is to be returned
+   * @param compute computes the value by writing it to the {@code OutputStream}
+   * @return the {@code InputStream} for the value
+   */
+  public InputStream computeIfAbsent(byte[] key, KvdCompute compute) {
+    return computeIfAbsent(key, computeLeaseDefaultTimeoutMs, compute);
+  }
+
+  /**
+   * Same as {@link #computeIfAbsent(byte[], long, KvdCompute)} but uses the default lease timeout.
+   * @param key the key whose associated value is to be returned
+   * @param compute computes the value by writing it to the {@code OutputStream}
+   * @return the {@code InputStream} for the value
+   */
+  public InputStream computeIfAbsent(String key, KvdCompute compute) {
+    return computeIfAbsent(key.getBytes(), compute);
+  }
+
+  /**
+   * Returns the value to which the specified key is mapped. If the server has flagged the value as stale
+   * (see server option {@code --soft-expire-after-write}) the stale value is returned anyway. For each stale value
+   * the server asks a single client to refresh it, if that is this client the value is recomputed and put in the
+   * background while the stale value is returned.
+   * @param key the key whose associated value is to be returned
+   * @param refresh computes the new value by writing it to the {@code OutputStream}
+   * @return the {@code InputStream} for keys that exist or {@code null} for keys that don't exist on the server.
+   */
+  public InputStream getOrRefresh(byte[] key, KvdCompute refresh) {
+    // bypass the near cache, only the server knows if the value is stale
+    InputStream in;
+    try {
+      in = KvdFutures.get(getAsync(key, null));
+    } catch(Exception e) {
+      throw new KvdException("get failed", e);
+    }
+    if((in instanceof KvdGetInputStream) && ((KvdGetInputStream)in).isRefresh()) {
+      try {
+        refreshExecutor.execute(() -> refresh(key, refresh));
+      } catch(RejectedExecutionException e) {
+        // closed
+      }
+    }
+    return in;
+  }
+
+  /**
+   * Same as {@link #getOrRefresh(byte[], KvdCompute)}
+   * @param key the key whose associated value is to be returned
+   * @param refresh computes the new value by writing it to the {@code OutputStream}
+   * @return the {@code InputStream} for keys that exist or {@code null} for keys that don't exist on the server.
+   */
+  public InputStream getOrRefresh(String key, KvdCompute refresh) {
+    return getOrRefresh(key.getBytes(), refresh);
+  }
+
+  private void refresh(byte[] key, KvdCompute refresh) {
+    try {
+      OutputStream out = put(key);
+      try {
+        refresh.compute(out);
+      } catch(Exception e) {
+        ((Abortable)out).abort();
+        throw e;
+      }
+      out.close();
+    } catch(Exception e) {
+      log.warn("refresh of stale value failed", e);
+    }
   }
 
   /**
@@ -160,22 +799,30 @@ public class KvdClient implements KvdOperations, AutoCloseable {
   @Override
   public synchronized void close() {
     if(!closed.getAndSet(true)) {
-      new HashSet<>(abortables).forEach(a -> {
+      new HashSet<>(abortables.keySet()).forEach(KvdClient::abort);
+      abortables.clear();
+      KvdInvalidationSubscription subscription = invalidationSubscription;
+      if(subscription != null) {
+        subscription.abort();
+      }
+      if(reconnectExecutor != null) {
+        reconnectExecutor.shutdownNow();
+      }
+      if(refreshExecutor != null) {
+        refreshExecutor.shutdownNow();
+      }
+      synchronized(connectionLock) {
+        connected.completeExceptionally(new KvdException("closed"));
+      }
+      backends.forEach(backend -> {
         try {
-          log.warn("aborting '{}'", a);
-          a.abort();
+          backend.sendAsync(Packets.packet(PacketType.BYE));
         } catch(Exception e) {
           // ignore
         }
+        backend.warnOnOpenChannels();
+        backend.closeGracefully();
       });
-      abortables.clear();
-      try {
-        backend.sendAsync(Packets.packet(PacketType.BYE));
-      } catch(Exception e) {
-        // ignore
-      }
-      backend.warnOnOpenChannels();
-      backend.closeGracefully();
     }
   }
 
@@ -191,18 +838,37 @@ public class KvdClient implements KvdOperations, AutoCloseable {
    * Begin a new transaction with the specified timeout. Also see {{@link #beginTransaction(long)}
    * @param timeoutMs The transaction timeout in milliseconds or 0 for no timeout. If the timeout is exceeded
    * the transaction is aborted (rollback).
-   * @return {@code Future} that evaluates to a {@link KvdTransaction} when the server has created the transaction
+   * @return {@code Future} that evaluates to a {@link KvdTransaction}. The transaction begins on the server along
+   * with its first operation so the future is already complete.
    */
-  public synchronized Future<KvdTransaction> beginTransactionAsync(long timeoutMs) {
+  public CompletableFuture<KvdTransaction> beginTransactionAsync(long timeoutMs) {
+    return CompletableFuture.completedFuture(beginTransaction(timeoutMs));
+  }
+
+  private KvdTransaction newTransaction(long timeoutMs, boolean pipelined, Durability durability) {
     checkClosed();
-    KvdBeginTransaction txBegin = new KvdBeginTransaction(backend, this::removeAbortable, timeoutMs);
-    abortables.add(txBegin);
-    txBegin.start();
-    return txBegin.getFuture();
+    ClientBackend backend = backend();
+    KvdTransaction tx = new KvdTransaction(backend, timeoutMs, pipelined, durability);
+    // aborts the transaction when the connection is lost
+    Abortable abortable = new Abortable() {
+      @Override
+      public void abort() {
+        tx.abortNow();
+      }
+
+      @Override
+      public String toString() {
+        return tx.toString();
+      }
+    };
+    abortables.put(abortable, backend);
+    tx.closedFuture().whenComplete((r, t) -> removeAbortable(abortable));
+    return tx;
   }
 
   /**
-   * Begin a new transaction with the specified timeout and waits until the transaction has been created on the server.
+   * Begin a new transaction with the specified timeout. This does not wait for the server, the transaction
+   * begins on the server with its first operation and the timeout starts from there.
    * Normally this method should be used in a try-with-resource block to make
    * sure the transaction is closed. Note that you have to commit the transaction manually to make changes permanent
    * before the try-with-resource block closes the transaction. Also consider using {@link #withTransaction(KvdWork)}
@@ -213,11 +879,18 @@ public class KvdClient implements KvdOperations, AutoCloseable {
    * @return {@link KvdTransaction}
    */
   public KvdTransaction beginTransaction(long timeoutMs) {
-    try {
-      return beginTransactionAsync(timeoutMs).get();
-    } catch (Exception e) {
-      throw new KvdException("begin transaction failed", e);
-    }
+    return newTransaction(timeoutMs, false, durability);
+  }
+
+  /**
+   * See {@link #beginTransaction(long)} except the transaction uses the given durability instead of the client
+   * default.
+   * @param durability {@link Durability#SYNC} acknowledges the commit once it is durable, {@link Durability#ASYNC}
+   * and {@link Durability#NONE} once the values are visible, {@code null} for the server default
+   * @return {@link KvdTransaction}
+   */
+  public KvdTransaction beginTransaction(long timeoutMs, Durability durability) {
+    return newTransaction(timeoutMs, false, durability);
   }
 
   /**
@@ -228,9 +901,30 @@ public class KvdClient implements KvdOperations, AutoCloseable {
     return beginTransaction(transactionDefaultTimeoutMs);
   }
 
+  /**
+   * Begin a new pipelined transaction with the specified timeout. Puts in a pipelined transaction don't wait for
+   * the server, they complete once the value has been handed to the connection. The server executes the operations
+   * of the transaction in the order they have been sent. A failed operation fails the commit, a short transaction
+   * that only writes completes in a single round trip on commit.
+   * @param timeoutMs The transaction timeout in milliseconds or 0 for no timeout. If the timeout is exceeded
+   * the transaction is aborted (rollback).
+   * @return {@link KvdTransaction}
+   */
+  public KvdTransaction beginPipelinedTransaction(long timeoutMs) {
+    return newTransaction(timeoutMs, true, durability);
+  }
+
+  /**
+   * See {@link #beginPipelinedTransaction(long)} except this method uses the default transaction timeout
+   * @return {@link KvdTransaction}
+   */
+  public KvdTransaction beginPipelinedTransaction() {
+    return beginPipelinedTransaction(transactionDefaultTimeoutMs);
+  }
+
   private <T> T withNewTransaction(KvdWork<T> work) {
     // try-with-resource closes KvdTransaction (rollback), no need to handle exceptions here
-    try(KvdTransaction tx = beginTransaction()) {
+    try(KvdTransaction tx = beginPipelinedTransaction()) {
       transactions.set(tx);
       T result = work.execute(tx);
       tx.commit();
@@ -242,8 +936,8 @@ public class KvdClient implements KvdOperations, AutoCloseable {
 
   /**
    * Execute a new or join an existing {@link KvdTransaction} that has been started either with
-   * {@link #withTransaction(KvdWork)} or {@link #withTransactionVoid(KvdVoidWork)}. A new transaction is started 
-   * with the default timeout. The transaction is automatically committed when the most outer {@link KvdWork} finishes
+   * {@link #withTransaction(KvdWork)} or {@link #withTransactionVoid(KvdVoidWork)}. A new pipelined transaction
+   * (see {@link #beginPipelinedTransaction(long)}) is started with the default timeout. The transaction is automatically committed when the most outer {@link KvdWork} finishes
    * or aborted (rollback) when the {@link KvdWork} throws an exceptions.
    * @param <T> Result type of the {@link KvdWork}
    * @param work the unit of work to be executed within the transaction
@@ -283,12 +977,16 @@ public class KvdClient implements KvdOperations, AutoCloseable {
    * @return {@code Future} which evaluates to {@code true} if when all key/values have been removed from the server,
    *         {@code false} otherwise.
    */
-  public Future<Boolean> removeAllAsync() {
+  public CompletableFuture<Boolean> removeAllAsync() {
     checkClosed();
+    if(nearCache != null) {
+      nearCache.invalidateAll();
+    }
+    ClientBackend backend = backend();
     KvdRemoveAll removeAll = new KvdRemoveAll(backend, this::removeAbortable);
-    abortables.add(removeAll);
+    abortables.put(removeAll, backend);
     removeAll.start();
-    return removeAll.getFuture();
+    return backend.abortIfAbandoned(removeAll, removeAll.getFuture());
   }
 
   /**
@@ -296,7 +994,7 @@ public class KvdClient implements KvdOperations, AutoCloseable {
    */
   public Boolean removeAll() {
     try {
-      return removeAllAsync().get();
+      return KvdFutures.get(removeAllAsync());
     } catch(Exception e) {
       throw new KvdException("failed to remove all key/values", e);
     }
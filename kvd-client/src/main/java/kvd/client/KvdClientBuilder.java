@@ -13,8 +13,12 @@
  */
 package kvd.client;
 
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+import kvd.common.Durability;
 import kvd.common.KvdException;
 
 /**
@@ -31,6 +35,36 @@ public class KvdClientBuilder {
 
   private int serverTimeoutSeconds = 60;
 
+  private int requestTimeoutMs;
+
+  private long computeLeaseDefaultTimeoutMs = TimeUnit.MINUTES.toMillis(1);
+
+  private int connections = 1;
+
+  private long nearCacheMaxBytes;
+
+  private int nearCacheMaxValueBytes = 16*1024;
+
+  private long nearCacheMaxAgeMs = TimeUnit.MINUTES.toMillis(1);
+
+  private Path diskCacheDirectory;
+
+  private long diskCacheMaxBytes = 1024l*1024l*1024l;
+
+  private boolean reconnect = true;
+
+  private long reconnectMinBackoffMs = 100;
+
+  private long reconnectMaxBackoffMs = TimeUnit.SECONDS.toMillis(30);
+
+  private int maxRetries = 3;
+
+  private int virtualNodes = 160;
+
+  private KvdMetricsSink metrics = KvdMetricsSink.NONE;
+
+  private Durability durability;
+
   public KvdClientBuilder() {
     super();
   }
@@ -50,6 +84,10 @@ public class KvdClientBuilder {
     return this;
   }
 
+  /**
+   * Set the timeout in milliseconds to establish a connection to the server. An unresponsive server is
+   * detected with {@link #setServerTimeoutSeconds(int)} once connected.
+   */
   public KvdClientBuilder setSocketSoTimeoutMs(int socketSoTimeoutMs) {
     this.socketSoTimeoutMs = socketSoTimeoutMs;
     return this;
@@ -60,6 +98,186 @@ public class KvdClientBuilder {
     return this;
   }
 
+  /**
+   * Set the deadline in milliseconds for requests, 0 (default) means no deadline. The deadline is sent to the server
+   * with every request. The server drops requests that are past their deadline, stops waiting for locks and
+   * aborts sending values once it passed. The future of an operation fails with a {@code TimeoutException} if there
+   * is no response within the deadline. Note that the deadline also covers streaming of values from the server.
+   * Independent of this setting, cancelling the future of an operation (or interrupting the thread that waits on
+   * it) also tells the server to stop working on the request.
+   */
+  public KvdClientBuilder setRequestTimeoutMs(int requestTimeoutMs) {
+    if(requestTimeoutMs < 0) {
+      throw new KvdException("invalid requestTimeoutMs, "+ requestTimeoutMs);
+    }
+    this.requestTimeoutMs = requestTimeoutMs;
+    return this;
+  }
+
+  /**
+   * Set the default lease timeout in milliseconds used by {@link KvdClient#computeIfAbsent(byte[], KvdCompute)}.
+   * Other clients waiting for the same key take over the computation once the lease timed out.
+   */
+  public KvdClientBuilder setComputeLeaseDefaultTimeoutMs(long computeLeaseDefaultTimeoutMs) {
+    if(computeLeaseDefaultTimeoutMs <= 0) {
+      throw new KvdException("invalid computeLeaseDefaultTimeoutMs, "+ computeLeaseDefaultTimeoutMs);
+    }
+    this.computeLeaseDefaultTimeoutMs = computeLeaseDefaultTimeoutMs;
+    return this;
+  }
+
+  /**
+   * Set the number of socket connections the client opens to the server, defaults to 1.
+   * Operations are spread across the connections by load, transactions are pinned to the connection they started on.
+   */
+  public KvdClientBuilder setConnections(int connections) {
+    if(connections < 1) {
+      throw new KvdException("invalid connections, "+ connections);
+    }
+    this.connections = connections;
+    return this;
+  }
+
+  /**
+   * Enable the client side near cache for values read outside of transactions and set its size in bytes,
+   * 0 (default) disables the near cache. The server pushes invalidations for changed keys to the client.
+   * Metrics are available from {@link KvdClient#getNearCacheStats()}.
+   */
+  public KvdClientBuilder setNearCacheMaxBytes(long nearCacheMaxBytes) {
+    if(nearCacheMaxBytes < 0) {
+      throw new KvdException("invalid nearCacheMaxBytes, "+ nearCacheMaxBytes);
+    }
+    this.nearCacheMaxBytes = nearCacheMaxBytes;
+    return this;
+  }
+
+  /**
+   * Set the size of the largest value the near cache keeps, defaults to 16KiB.
+   */
+  public KvdClientBuilder setNearCacheMaxValueBytes(int nearCacheMaxValueBytes) {
+    if(nearCacheMaxValueBytes < 0) {
+      throw new KvdException("invalid nearCacheMaxValueBytes, "+ nearCacheMaxValueBytes);
+    }
+    this.nearCacheMaxValueBytes = nearCacheMaxValueBytes;
+    return this;
+  }
+
+  /**
+   * Set the time after which near cache entries are reloaded from the server even without an invalidation,
+   * defaults to 1 minute. This bounds staleness if an invalidation gets lost.
+   */
+  public KvdClientBuilder setNearCacheMaxAgeMs(long nearCacheMaxAgeMs) {
+    if(nearCacheMaxAgeMs <= 0) {
+      throw new KvdException("invalid nearCacheMaxAgeMs, "+ nearCacheMaxAgeMs);
+    }
+    this.nearCacheMaxAgeMs = nearCacheMaxAgeMs;
+    return this;
+  }
+
+  /**
+   * Enable the client side disk cache for values read outside of transactions, disabled by default.
+   * Cached values are revalidated with the server on every read but only transferred again if they have changed.
+   * The directory can be shared by multiple clients on the same host.
+   * Metrics are available from {@link KvdClient#getDiskCacheStats()}.
+   */
+  public KvdClientBuilder setDiskCacheDirectory(Path diskCacheDirectory) {
+    this.diskCacheDirectory = diskCacheDirectory;
+    return this;
+  }
+
+  /**
+   * Set the size of the disk cache in bytes, defaults to 1GiB. Least recently used values are removed once
+   * the cache directory exceeds this size.
+   */
+  public KvdClientBuilder setDiskCacheMaxBytes(long diskCacheMaxBytes) {
+    if(diskCacheMaxBytes <= 0) {
+      throw new KvdException("invalid diskCacheMaxBytes, "+ diskCacheMaxBytes);
+    }
+    this.diskCacheMaxBytes = diskCacheMaxBytes;
+    return this;
+  }
+
+  /**
+   * Reconnect to the server when a connection is lost, enabled by default. Operations running on the lost
+   * connection fail, idempotent operations outside of transactions are retried (see {@link #setMaxRetries(int)}),
+   * open transactions on the lost connection are aborted. When disabled the client closes itself instead.
+   */
+  public KvdClientBuilder setReconnect(boolean reconnect) {
+    this.reconnect = reconnect;
+    return this;
+  }
+
+  /**
+   * Set the delay in milliseconds before the first reconnect attempt, defaults to 100ms. The delay doubles
+   * with every failed attempt up to {@link #setReconnectMaxBackoffMs(long)}. Delays are randomized between
+   * half and the full value so clients don't reconnect in lock step after a server restart.
+   */
+  public KvdClientBuilder setReconnectMinBackoffMs(long reconnectMinBackoffMs) {
+    if(reconnectMinBackoffMs <= 0) {
+      throw new KvdException("invalid reconnectMinBackoffMs, "+ reconnectMinBackoffMs);
+    }
+    this.reconnectMinBackoffMs = reconnectMinBackoffMs;
+    return this;
+  }
+
+  /**
+   * Set the longest delay in milliseconds between reconnect attempts, defaults to 30 seconds.
+   */
+  public KvdClientBuilder setReconnectMaxBackoffMs(long reconnectMaxBackoffMs) {
+    if(reconnectMaxBackoffMs <= 0) {
+      throw new KvdException("invalid reconnectMaxBackoffMs, "+ reconnectMaxBackoffMs);
+    }
+    this.reconnectMaxBackoffMs = reconnectMaxBackoffMs;
+    return this;
+  }
+
+  /**
+   * Set how often idempotent operations outside of transactions (get, contains, digest, remove, put of a byte array
+   * or file, get to file) are retried after they failed because the connection was lost, defaults to 3.
+   * Retries wait up to the server timeout (see {@link #setServerTimeoutSeconds(int)}) for a connection.
+   * Gets are only retried until the value started to arrive. 0 disables retries.
+   */
+  public KvdClientBuilder setMaxRetries(int maxRetries) {
+    if(maxRetries < 0) {
+      throw new KvdException("invalid maxRetries, "+ maxRetries);
+    }
+    this.maxRetries = maxRetries;
+    return this;
+  }
+
+  /**
+   * Set how often each server is placed on the consistent hash ring of a {@link KvdShardedClient}, defaults to 160.
+   * More virtual nodes spread the keys more evenly across the servers.
+   */
+  public KvdClientBuilder setVirtualNodes(int virtualNodes) {
+    if(virtualNodes < 1) {
+      throw new KvdException("invalid virtualNodes, "+ virtualNodes);
+    }
+    this.virtualNodes = virtualNodes;
+    return this;
+  }
+
+  /**
+   * Set the sink that receives per operation counts and latencies as well as bytes sent and received,
+   * e.g. a {@link KvdClientMetrics}. Defaults to {@link KvdMetricsSink#NONE}.
+   */
+  public KvdClientBuilder setMetrics(KvdMetricsSink metrics) {
+    if(metrics == null) {
+      throw new KvdException("metrics must not be null");
+    }
+    this.metrics = metrics;
+    return this;
+  }
+
+  /**
+   * Set the durability of one-shot writes and transactions of this client, e.g. {@link Durability#NONE} for
+   * cache data that can be recomputed. Defaults to {@code null}, the server default.
+   */
+  public KvdClientBuilder setDurability(Durability durability) {
+    this.durability = durability;
+    return this;
+  }
+
   /**
    * Create the KvdClient connecting to the given server.
    * @param serverAddress The serverAddress is in the form 
@@ -71,6 +289,23 @@ public class KvdClientBuilder {
     return new KvdClient(this);
   }
 
+  /**
+   * Create a {@link KvdShardedClient} that spreads the keys across the given servers. Every server gets its own
+   * {@link KvdClient} configured by this builder.
+   * @param serverAddresses the servers in the form {@code host:port}
+   * @return The {@link KvdShardedClient} instance
+   */
+  public KvdShardedClient createSharded(List<String> serverAddresses) {
+    return new KvdShardedClient(this, serverAddresses);
+  }
+
+  /**
+   * See {@link #createSharded(List)}
+   */
+  public KvdShardedClient createSharded(String... serverAddresses) {
+    return createSharded(Arrays.asList(serverAddresses));
+  }
+
   long getTransactionDefaultTimeoutMs() {
     return transactionDefaultTimeoutMs;
   }
@@ -87,4 +322,64 @@ public class KvdClientBuilder {
     return serverTimeoutSeconds;
   }
 
+  int getRequestTimeoutMs() {
+    return requestTimeoutMs;
+  }
+
+  long getComputeLeaseDefaultTimeoutMs() {
+    return computeLeaseDefaultTimeoutMs;
+  }
+
+  int getConnections() {
+    return connections;
+  }
+
+  long getNearCacheMaxBytes() {
+    return nearCacheMaxBytes;
+  }
+
+  int getNearCacheMaxValueBytes() {
+    return nearCacheMaxValueBytes;
+  }
+
+  long getNearCacheMaxAgeMs() {
+    return nearCacheMaxAgeMs;
+  }
+
+  Path getDiskCacheDirectory() {
+    return diskCacheDirectory;
+  }
+
+  long getDiskCacheMaxBytes() {
+    return diskCacheMaxBytes;
+  }
+
+  boolean isReconnect() {
+    return reconnect;
+  }
+
+  long getReconnectMinBackoffMs() {
+    return reconnectMinBackoffMs;
+  }
+
+  long getReconnectMaxBackoffMs() {
+    return reconnectMaxBackoffMs;
+  }
+
+  int getMaxRetries() {
+    return maxRetries;
+  }
+
+  int getVirtualNodes() {
+    return virtualNodes;
+  }
+
+  KvdMetricsSink getMetrics() {
+    return metrics;
+  }
+
+  Durability getDurability() {
+    return durability;
+  }
+
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Built-in {@link KvdMetricsSink} that keeps counters, in-flight gauges and latency histograms (in nanoseconds)
+ * per {@link KvdOperationType}. Recording is lock-free, cheap enough to leave it on in production.
+ * The same instance can be shared by several clients.
+ */
+public class KvdClientMetrics implements KvdMetricsSink {
+
+  private static class OpMetrics {
+    private LongAdder started = new LongAdder();
+    private LongAdder completed = new LongAdder();
+    private LongAdder failed = new LongAdder();
+    private KvdLatencyHistogram latency = new KvdLatencyHistogram();
+    private KvdLatencyHistogram firstByte = new KvdLatencyHistogram();
+  }
+
+  private Map<KvdOperationType, OpMetrics> ops = new EnumMap<>(KvdOperationType.class);
+
+  private LongAdder bytesSent = new LongAdder();
+
+  private LongAdder bytesReceived = new LongAdder();
+
+  public KvdClientMetrics() {
+    for(KvdOperationType op : KvdOperationType.values()) {
+      ops.put(op, new OpMetrics());
+    }
+  }
+
+  @Override
+  public void started(KvdOperationType op) {
+    ops.get(op).started.increment();
+  }
+
+  @Override
+  public void firstByte(KvdOperationType op, long nanos) {
+    ops.get(op).firstByte.record(nanos);
+  }
+
+  @Override
+  public void completed(KvdOperationType op, long nanos, boolean success) {
+    OpMetrics m = ops.get(op);
+    m.latency.record(nanos);
+    if(!success) {
+      m.failed.increment();
+    }
+    m.completed.increment();
+  }
+
+  @Override
+  public void bytesSent(long bytes) {
+    bytesSent.add(bytes);
+  }
+
+  @Override
+  public void bytesReceived(long bytes) {
+    bytesReceived.add(bytes);
+  }
+
+  /**
+   * @return number of operations started
+   */
+  public long getCount(KvdOperationType op) {
+    return ops.get(op).started.sum();
+  }
+
+  /**
+   * @return number of operations that failed or have been aborted
+   */
+  public long getFailures(KvdOperationType op) {
+    return ops.get(op).failed.sum();
+  }
+
+  /**
+   * @return number of operations started but not completed yet
+   */
+  public long getInFlight(KvdOperationType op) {
+    OpMetrics m = ops.get(op);
+    // read completed first so a concurrently completing operation never shows up as negative
+    long completed = m.completed.sum();
+    return Math.max(0, m.started.sum() - completed);
+  }
+
+  /**
+   * @return the total time of operations in nanoseconds, for a {@link KvdOperationType#GET} until the whole value
+   *         has been received
+   */
+  public KvdLatencyHistogram getLatency(KvdOperationType op) {
+    return ops.get(op).latency;
+  }
+
+  /**
+   * @return time to the first response in nanoseconds, only recorded for {@link KvdOperationType#GET}
+   */
+  public KvdLatencyHistogram getFirstByteLatency(KvdOperationType op) {
+    return ops.get(op).firstByte;
+  }
+
+  public long getBytesSent() {
+    return bytesSent.sum();
+  }
+
+  public long getBytesReceived() {
+    return bytesReceived.sum();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder b = new StringBuilder();
+    b.append(String.format("bytes sent %s, received %s", getBytesSent(), getBytesReceived()));
+    for(KvdOperationType op : KvdOperationType.values()) {
+      b.append(String.format("%n%s: count %s, failures %s, in flight %s, latency ns (%s)",
+          op, getCount(op), getFailures(op), getInFlight(op), getLatency(op)));
+      if(KvdOperationType.GET.equals(op)) {
+        b.append(String.format(", first byte ns (%s)", getFirstByteLatency(op)));
+      }
+    }
+    return b.toString();
+  }
+
+}
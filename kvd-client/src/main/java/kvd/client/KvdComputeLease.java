@@ -0,0 +1,132 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kvd.common.KvdException;
+import kvd.common.packet.Packets;
+import kvd.common.packet.proto.ByteString;
+import kvd.common.packet.proto.ComputeLeaseBody;
+import kvd.common.packet.proto.Packet;
+import kvd.common.packet.proto.PacketType;
+
+/**
+ * Requests the compute lease for a key. The future evaluates to {@code true} if this client got the lease and has to
+ * compute the value or to {@code false} if the value already exists on the server. The lease is held
+ * (channel kept open) until {@link #release()} is called or the lease times out on the server.
+ */
+class KvdComputeLease implements Abortable {
+
+  private static final Logger log = LoggerFactory.getLogger(KvdComputeLease.class);
+
+  private ClientBackend backend;
+
+  private byte[] key;
+
+  private long leaseMs;
+
+  private CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+  private Consumer<Abortable> closeListener;
+
+  private int channelId;
+
+  private boolean closed;
+
+  public KvdComputeLease(ClientBackend backend, byte[] key, long leaseMs, Consumer<Abortable> closeListener) {
+    this.backend = backend;
+    this.key = key;
+    this.leaseMs = leaseMs;
+    this.closeListener = closeListener;
+  }
+
+  public void start() {
+    channelId = backend.createChannel(this::receive);
+    try {
+      backend.sendRequest(Packets.builder(PacketType.COMPUTE_LEASE, channelId)
+          .setComputeLease(ComputeLeaseBody.newBuilder()
+              .setLeaseMs(leaseMs)
+              .setKey(ByteString.copyFrom(key))
+              .build())
+          .build());
+    } catch(Exception e) {
+      try {
+        close();
+      } catch(Exception e2) {
+        // ignore
+      }
+      throw new KvdException("compute lease failed", e);
+    }
+  }
+
+  @Override
+  public void abort() {
+    future.completeExceptionally(new KvdException("aborted"));
+    close();
+  }
+
+  /**
+   * Give up the lease (if held), other clients waiting on the key wake up and check for the value again.
+   */
+  public void release() {
+    close();
+  }
+
+  private synchronized void close() {
+    if(!closed) {
+      closed = true;
+      backend.closeChannel(channelId);
+      this.closeListener.accept(this);
+    }
+  }
+
+  private void receive(Packet packet) {
+    if(PacketType.COMPUTE_LEASE.equals(packet.getType())) {
+      byte[] buf = packet.getByteBody().toByteArray();
+      if((buf != null) && (buf.length >= 1)) {
+        boolean granted = (buf[0] == 1);
+        if(!granted) {
+          close();
+        }
+        future.complete(granted);
+      } else {
+        log.error("invalid response");
+        close();
+        future.completeExceptionally(new KvdException("invalid response"));
+      }
+    } else if(PacketType.ABORT.equals(packet.getType())) {
+      close();
+      future.completeExceptionally(new KvdException("server abort"));
+    } else {
+      log.error("received unexpected packet " + packet.getType());
+      close();
+      future.completeExceptionally(new KvdException("received unexpected packet " + packet.getType()));
+    }
+  }
+
+  public CompletableFuture<Boolean> getFuture() {
+    return future;
+  }
+
+  @Override
+  public String toString() {
+    return "COMPUTE_LEASE " + key;
+  }
+
+}
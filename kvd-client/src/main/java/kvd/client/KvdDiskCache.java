@@ -0,0 +1,430 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kvd.common.KvdException;
+
+/**
+ * Client side cache of values in a local directory. Each file is named after the hash of the key and the digest of the
+ * value so the cached copy can be revalidated with a conditional get that does not transfer the value if it is still
+ * current. Values missing from the cache are written to disk while the caller reads them. Files are evicted
+ * least recently used (by modification time) once the directory exceeds its size. The directory can be shared between
+ * processes on the same host. The size of the directory is tracked as files are added and removed and only rescanned
+ * when it exceeds the maximum or the last scan is older than {@link #RESCAN_INTERVAL_MS} (to pick up the files of
+ * other processes).
+ */
+class KvdDiskCache {
+
+  private static final Logger log = LoggerFactory.getLogger(KvdDiskCache.class);
+
+  private static final String TMP_SUFFIX = ".tmp";
+
+  // leftovers of crashed processes, files that are still being written to are touched on every write
+  private static final long TMP_MAX_AGE_MS = TimeUnit.HOURS.toMillis(1);
+
+  private static final long RESCAN_INTERVAL_MS = TimeUnit.SECONDS.toMillis(10);
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private static class CachedFile {
+
+    private Path path;
+
+    private long size;
+
+    private long lastModified;
+
+    CachedFile(Path path, BasicFileAttributes attrs) {
+      this.path = path;
+      this.size = attrs.size();
+      this.lastModified = attrs.lastModifiedTime().toMillis();
+    }
+  }
+
+  private Path directory;
+
+  private long maxBytes;
+
+  private AtomicLong hits = new AtomicLong();
+
+  private AtomicLong misses = new AtomicLong();
+
+  private AtomicLong evictions = new AtomicLong();
+
+  // size of the directory as of the last scan plus the changes of this instance since, -1 before the first scan
+  private long bytes = -1;
+
+  private long lastScanNs;
+
+  KvdDiskCache(Path directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    try {
+      Files.createDirectories(directory);
+    } catch(IOException e) {
+      throw new KvdException("failed to create disk cache directory " + directory, e);
+    }
+  }
+
+  static String hex(byte[] buf) {
+    char[] chars = new char[buf.length*2];
+    for(int i=0;i<buf.length;i++) {
+      chars[i*2] = HEX[(buf[i] >> 4) & 0xf];
+      chars[i*2+1] = HEX[buf[i] & 0xf];
+    }
+    return new String(chars);
+  }
+
+  static byte[] unhex(String s) {
+    if((s.length() % 2) != 0) {
+      return null;
+    }
+    byte[] buf = new byte[s.length()/2];
+    for(int i=0;i<buf.length;i++) {
+      int hi = Character.digit(s.charAt(i*2), 16);
+      int lo = Character.digit(s.charAt(i*2+1), 16);
+      if((hi < 0) || (lo < 0)) {
+        return null;
+      }
+      buf[i] = (byte)((hi << 4) | lo);
+    }
+    return buf;
+  }
+
+  private static String keyName(byte[] key) {
+    try {
+      return hex(MessageDigest.getInstance("SHA-256").digest(key));
+    } catch(Exception e) {
+      throw new KvdException("failed to hash key", e);
+    }
+  }
+
+  private List<Path> files(String keyName) {
+    List<Path> files = new ArrayList<>();
+    try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, keyName + "-*")) {
+      for(Path p : stream) {
+        if(!p.getFileName().toString().endsWith(TMP_SUFFIX)) {
+          files.add(p);
+        }
+      }
+    } catch(IOException e) {
+      log.warn("failed to list disk cache directory", e);
+    }
+    return files;
+  }
+
+  private static void delete(Path p) {
+    try {
+      Files.deleteIfExists(p);
+    } catch(IOException e) {
+      log.debug("failed to delete '{}'", p, e);
+    }
+  }
+
+  private void remove(Path p) {
+    try {
+      long size = Files.size(p);
+      if(Files.deleteIfExists(p)) {
+        changed(-size);
+      }
+    } catch(NoSuchFileException e) {
+      // removed in the meantime
+    } catch(IOException e) {
+      log.debug("failed to delete '{}'", p, e);
+    }
+  }
+
+  private static void closeQuietly(InputStream in) {
+    if(in != null) {
+      try {
+        in.close();
+      } catch(Exception e) {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * Get the value from the cache if the server confirms it is still current or from the server otherwise.
+   * @param key the key whose associated value is to be returned
+   * @param remote conditional get on the server taking the key and the digest of the cached value (or {@code null})
+   * @return {@code CompletableFuture} that evaluates to the {@code InputStream} of the value or {@code null}
+   *         if the key does not exist on the server.
+   */
+  CompletableFuture<InputStream> get(byte[] key,
+      BiFunction<byte[], byte[], CompletableFuture<KvdValueInputStream>> remote) {
+    String keyName = keyName(key);
+    Path cached = null;
+    InputStream local = null;
+    byte[] digest = null;
+    for(Path p : files(keyName)) {
+      byte[] d = unhex(p.getFileName().toString().substring(keyName.length()+1));
+      if(d == null) {
+        continue;
+      }
+      try {
+        // open before revalidating so eviction by another process does not pull the file away
+        local = Files.newInputStream(p);
+        cached = p;
+        digest = d;
+        break;
+      } catch(NoSuchFileException e) {
+        // evicted in the meantime
+      } catch(IOException e) {
+        log.warn("failed to open cached file '{}'", p, e);
+      }
+    }
+    final Path cachedFile = cached;
+    final InputStream localIn = local;
+    CompletableFuture<KvdValueInputStream> f;
+    try {
+      f = remote.apply(key, digest);
+    } catch(RuntimeException e) {
+      closeQuietly(localIn);
+      throw e;
+    }
+    return KvdFutures.propagateCancel(f.handle((in, t) -> {
+      if(t != null) {
+        closeQuietly(localIn);
+        throw new KvdException("get failed", t);
+      }
+      if((in != null) && in.isNotModified()) {
+        closeQuietly(in);
+        hits.incrementAndGet();
+        touch(cachedFile);
+        return localIn;
+      }
+      closeQuietly(localIn);
+      misses.incrementAndGet();
+      if(in == null) {
+        files(keyName).forEach(this::remove);
+        return null;
+      }
+      return tee(keyName, in);
+    }), f);
+  }
+
+  private static void touch(Path p) {
+    try {
+      Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch(IOException e) {
+      // ignore, only affects eviction order
+    }
+  }
+
+  private InputStream tee(String keyName, KvdValueInputStream in) {
+    byte[] digest = in.getDigest();
+    if(digest == null) {
+      // values without digest can't be revalidated
+      return in;
+    }
+    Path tmp;
+    OutputStream out;
+    try {
+      tmp = Files.createTempFile(directory, keyName + "-", TMP_SUFFIX);
+      out = Files.newOutputStream(tmp);
+    } catch(IOException e) {
+      log.warn("failed to create disk cache file", e);
+      return in;
+    }
+    return new FilterInputStream(in) {
+
+      private OutputStream cacheOut = out;
+
+      private long written;
+
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        int read = read(b, 0, 1);
+        return read==-1?-1:(b[0] & 0xff);
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if(cacheOut != null) {
+          if(read < 0) {
+            complete();
+          } else {
+            written += read;
+            if(written > maxBytes) {
+              abandon();
+            } else {
+              try {
+                cacheOut.write(b, off, read);
+              } catch(IOException e) {
+                log.warn("failed to write disk cache file", e);
+                abandon();
+              }
+            }
+          }
+        }
+        return read;
+      }
+
+      @Override
+      public long skip(long n) throws IOException {
+        // read through, the skipped bytes still need to go to the cache file
+        byte[] buf = new byte[(int)Math.min(n, 8192)];
+        long skipped = 0;
+        while(skipped < n) {
+          int read = read(buf, 0, (int)Math.min(n-skipped, buf.length));
+          if(read < 0) {
+            break;
+          }
+          skipped += read;
+        }
+        return skipped;
+      }
+
+      private void complete() {
+        try {
+          cacheOut.close();
+          cacheOut = null;
+          Path target = directory.resolve(keyName + "-" + hex(digest));
+          Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+          for(Path p : files(keyName)) {
+            if(!p.equals(target)) {
+              remove(p);
+            }
+          }
+          changed(written);
+        } catch(IOException e) {
+          log.warn("failed to store disk cache file", e);
+          abandon();
+        }
+      }
+
+      private void abandon() {
+        if(cacheOut != null) {
+          try {
+            cacheOut.close();
+          } catch(IOException e) {
+            // ignore
+          }
+          cacheOut = null;
+        }
+        delete(tmp);
+      }
+
+      @Override
+      public void close() throws IOException {
+        if(cacheOut != null) {
+          // not read to the end
+          abandon();
+        }
+        super.close();
+      }
+    };
+  }
+
+  private synchronized void changed(long delta) {
+    boolean rescan = (bytes < 0)
+        || ((System.nanoTime() - lastScanNs) > TimeUnit.MILLISECONDS.toNanos(RESCAN_INTERVAL_MS));
+    bytes += delta;
+    if(rescan || (bytes > maxBytes)) {
+      evict();
+    }
+  }
+
+  private void evict() {
+    List<CachedFile> files = new ArrayList<>();
+    long total = 0;
+    long now = System.currentTimeMillis();
+    try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for(Path p : stream) {
+        try {
+          BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+          if(!attrs.isRegularFile()) {
+            continue;
+          }
+          CachedFile f = new CachedFile(p, attrs);
+          if(p.getFileName().toString().endsWith(TMP_SUFFIX)) {
+            if((now - f.lastModified) > TMP_MAX_AGE_MS) {
+              delete(p);
+            }
+            continue;
+          }
+          files.add(f);
+          total += f.size;
+        } catch(NoSuchFileException e) {
+          // removed in the meantime
+        }
+      }
+    } catch(IOException e) {
+      log.warn("failed to scan disk cache directory", e);
+      return;
+    }
+    bytes = total;
+    lastScanNs = System.nanoTime();
+    if(total <= maxBytes) {
+      return;
+    }
+    files.sort(Comparator.comparingLong(f -> f.lastModified));
+    for(CachedFile f : files) {
+      if(total <= maxBytes) {
+        break;
+      }
+      delete(f.path);
+      total -= f.size;
+      evictions.incrementAndGet();
+    }
+    bytes = total;
+  }
+
+  KvdDiskCacheStats getStats() {
+    long bytes = 0;
+    int entries = 0;
+    try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for(Path p : stream) {
+        if(!p.getFileName().toString().endsWith(TMP_SUFFIX)) {
+          try {
+            bytes += Files.size(p);
+            entries++;
+          } catch(IOException e) {
+            // removed in the meantime
+          }
+        }
+      }
+    } catch(IOException e) {
+      log.warn("failed to scan disk cache directory", e);
+    }
+    return new KvdDiskCacheStats(hits.get(), misses.get(), evictions.get(), entries, bytes);
+  }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.Consumer;
+
+import kvd.common.packet.proto.Packet;
+import kvd.common.packet.proto.PacketType;
+
+/**
+ * A {@link PacketType#PUT_DATA} packet whose body is a region of a file. The body is never read into the heap,
+ * the send loop writes the header and then has the file channel transfer the region to the socket.
+ */
+class KvdFileRegion extends Packet {
+
+  private static final byte[] ZEROS = new byte[8*1024];
+
+  private FileChannel file;
+
+  private long position;
+
+  private int length;
+
+  private Consumer<Exception> written;
+
+  /**
+   * @param written called on the send thread once the region has been written, with the exception
+   *        if the region could not be read from the file.
+   */
+  public KvdFileRegion(int channel, FileChannel file, long position, int length, Consumer<Exception> written) {
+    super(PacketType.PUT_DATA, channel, 0, null);
+    this.file = file;
+    this.position = position;
+    this.length = length;
+    this.written = written;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  @Override
+  public int writeDelimitedTo(OutputStream out) throws IOException {
+    transferTo(out, Channels.newChannel(out));
+    return HEADER_SIZE + length;
+  }
+
+  /**
+   * Writes the packet header to {@code out} and the region to {@code target}, which has to be the
+   * channel {@code out} writes to.
+   */
+  public void transferTo(OutputStream out, WritableByteChannel target) throws IOException {
+    Packet.writeByteBodyHeader(out, getType(), getChannel(), getTx(), length);
+    out.flush();
+    long pos = position;
+    long end = position + length;
+    try {
+      while(pos < end) {
+        long n = file.transferTo(pos, end - pos, target);
+        if((n <= 0) && (file.size() <= pos)) {
+          throw new EOFException("file shrunk while sending");
+        }
+        pos += n;
+      }
+    } catch(EOFException e) {
+      // pad the body so the connection stays in sync, the put is aborted by the listener
+      while(pos < end) {
+        int n = (int)Math.min(ZEROS.length, end - pos);
+        out.write(ZEROS, 0, n);
+        pos += n;
+      }
+      written.accept(e);
+      return;
+    } catch(IOException e) {
+      written.accept(e);
+      throw e;
+    }
+    written.accept(null);
+  }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Helpers to notice when the caller gave up on the future of an operation so the operation can be aborted
+ * and the server stops working on it.
+ */
+final class KvdFutures {
+
+  private KvdFutures() {
+  }
+
+  /**
+   * @return {@code true} if the future failed because it has been cancelled or timed out
+   */
+  static boolean isAbandoned(Throwable t) {
+    if(t instanceof CompletionException) {
+      t = t.getCause();
+    }
+    return (t instanceof CancellationException) || (t instanceof TimeoutException);
+  }
+
+  /**
+   * Cancel {@code upstream} when {@code dependent} is cancelled or times out, completing a dependent stage
+   * does not complete the stage it was derived from.
+   * @return {@code dependent}
+   */
+  static <T> CompletableFuture<T> propagateCancel(CompletableFuture<T> dependent, CompletableFuture<?> upstream) {
+    dependent.whenComplete((v, t) -> {
+      if(isAbandoned(t)) {
+        upstream.cancel(false);
+      }
+    });
+    return dependent;
+  }
+
+  /**
+   * Same as {@link CompletableFuture#get()} but cancels the future when the waiting thread is interrupted.
+   */
+  static <T> T get(CompletableFuture<T> future) throws InterruptedException, ExecutionException {
+    try {
+      return future.get();
+    } catch(InterruptedException e) {
+      future.cancel(false);
+      Thread.currentThread().interrupt();
+      throw e;
+    }
+  }
+
+}
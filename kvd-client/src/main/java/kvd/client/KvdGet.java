@@ -13,7 +13,6 @@
  */
 package kvd.client;
 
-import java.io.InputStream;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
@@ -23,6 +22,8 @@ import org.slf4j.LoggerFactory;
 
 import kvd.common.KvdException;
 import kvd.common.packet.Packets;
+import kvd.common.packet.proto.ByteString;
+import kvd.common.packet.proto.GetInitBody;
 import kvd.common.packet.proto.Packet;
 import kvd.common.packet.proto.PacketType;
 
@@ -34,7 +35,9 @@ class KvdGet implements Abortable {
 
   private byte[] key;
 
-  private CompletableFuture<InputStream> future = new CompletableFuture<>();
+  private byte[] ifNoneMatch;
+
+  private CompletableFuture<KvdValueInputStream> future = new CompletableFuture<>();
 
   private int channelId;
 
@@ -46,19 +49,29 @@ class KvdGet implements Abortable {
 
   private int txId;
 
-  public KvdGet(ClientBackend backend, int txId, byte[] key, Consumer<Abortable> closeListener) {
+  private KvdOpTimer timer = KvdOpTimer.NOOP;
+
+  public KvdGet(ClientBackend backend, int txId, byte[] key, byte[] ifNoneMatch, Consumer<Abortable> closeListener) {
     this.backend = backend;
     this.txId = txId;
     this.key = key;
+    this.ifNoneMatch = ifNoneMatch;
     this.closeListener = closeListener;
     stream = new KvdGetInputStream(this::closeInternal);
   }
 
   public void start() {
+    timer = backend.timer(KvdOperationType.GET);
     channelId = backend.createChannel(this::receive);
     try {
-      backend.sendAsync(Packets.packet(PacketType.GET_INIT, channelId, txId, key));
+      backend.sendRequest(Packets.builder(PacketType.GET_INIT, channelId, txId)
+          .setGetInit(GetInitBody.newBuilder()
+              .setKey(ByteString.copyFrom(key))
+              .setIfNoneMatch(ifNoneMatch)
+              .build())
+          .build());
     } catch(Exception e) {
+      timer.done(false);
       try {
         close();
       } catch(Exception e2) {
@@ -70,6 +83,7 @@ class KvdGet implements Abortable {
 
   @Override
   public void abort() {
+    timer.done(false);
     future.completeExceptionally(new KvdException("aborted"));
     stream.abort();
     close();
@@ -82,6 +96,7 @@ class KvdGet implements Abortable {
 
   private void closeInternal() {
     if(!closed.getAndSet(true)) {
+      timer.done(true);
       this.closeListener.accept(this);
       future.complete(null);
       backend.closeChannel(channelId);
@@ -89,9 +104,19 @@ class KvdGet implements Abortable {
   }
 
   public void receive(Packet packet) {
+    // the first response tells the time until the value starts to arrive, done records the whole stream
+    timer.firstByte();
     if(PacketType.GET_DATA.equals(packet.getType())) {
       future.complete(stream);
       stream.fill(packet.getByteBody().toByteArray());
+    } else if(PacketType.GET_STALE.equals(packet.getType())) {
+      byte[] buf = packet.getByteBody().toByteArray();
+      stream.setStale((buf != null) && (buf.length >= 1) && (buf[0] == 1));
+    } else if(PacketType.GET_DIGEST.equals(packet.getType())) {
+      stream.setDigest(packet.getByteBody().toByteArray());
+    } else if(PacketType.GET_NOT_MODIFIED.equals(packet.getType())) {
+      stream.setNotModified();
+      future.complete(stream);
     } else if(PacketType.GET_FINISH.equals(packet.getType())) {
       close();
     } else if(PacketType.GET_ABORT.equals(packet.getType())) {
@@ -103,7 +128,7 @@ class KvdGet implements Abortable {
     }
   }
 
-  public CompletableFuture<InputStream> getFuture() {
+  public CompletableFuture<KvdValueInputStream> getFuture() {
     return future;
   }
 
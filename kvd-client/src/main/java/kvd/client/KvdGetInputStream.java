@@ -14,16 +14,40 @@
 package kvd.client;
 
 import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
-import kvd.common.ByteRingBuffer;
 import kvd.common.IOStreamUtils;
 import kvd.common.KvdException;
-import kvd.common.KvdInputStream;
 
-class KvdGetInputStream extends KvdInputStream implements Abortable {
+/**
+ * Received value chunks are handed from the receive thread (single producer) to the reading thread
+ * (single consumer) through a lock-free queue and read in place without copying them into a buffer first.
+ * The receive thread parks once more than {@link #MAX_BUFFERED_BYTES} are waiting to be read.
+ * Like most {@code InputStream}s this is not meant to be read from multiple threads at the same time.
+ */
+class KvdGetInputStream extends KvdValueInputStream implements Abortable {
+
+  static final long MAX_BUFFERED_BYTES = 256*1024;
+
+  private static final long PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private ConcurrentLinkedQueue<byte[]> chunks = new ConcurrentLinkedQueue<>();
+
+  // bytes in chunks, not counting the chunk currently being read
+  private AtomicLong buffered = new AtomicLong();
+
+  // only accessed by the reading thread
+  private byte[] current;
+
+  private int pos;
+
+  private volatile Thread waitingReader;
 
-  private ByteRingBuffer ring = new ByteRingBuffer(64*1024);
+  private volatile Thread waitingFiller;
 
   private AtomicBoolean closed = new AtomicBoolean();
 
@@ -31,71 +55,198 @@ class KvdGetInputStream extends KvdInputStream implements Abortable {
 
   private Runnable closeListener;
 
+  private volatile boolean stale;
+
+  private volatile boolean refresh;
+
+  private volatile byte[] digest;
+
+  private volatile boolean notModified;
+
   public KvdGetInputStream(Runnable closeListener) {
     this.closeListener = closeListener;
   }
 
+  /**
+   * @return {@code false} if there is no more data to read
+   */
+  private boolean nextChunk() throws IOException {
+    while((current == null) || (pos >= current.length)) {
+      byte[] chunk = chunks.poll();
+      if(chunk != null) {
+        release(chunk.length);
+        current = chunk;
+        pos = 0;
+        continue;
+      }
+      if(aborted.get()) {
+        throw new IOException("aborted");
+      }
+      if(closed.get()) {
+        // the producer might have added the last chunk just before closing
+        if(chunks.isEmpty()) {
+          return false;
+        }
+        continue;
+      }
+      // publish the waiting thread before checking again so fill() can't miss it
+      waitingReader = Thread.currentThread();
+      if(chunks.isEmpty() && !closed.get() && !aborted.get()) {
+        LockSupport.parkNanos(this, PARK_NANOS);
+      }
+      waitingReader = null;
+      if(Thread.interrupted()) {
+        throw new KvdException("interrupted");
+      }
+    }
+    return true;
+  }
+
+  private void release(int length) {
+    long before = buffered.getAndAdd(-length);
+    if((before > MAX_BUFFERED_BYTES) && ((before - length) <= MAX_BUFFERED_BYTES)) {
+      unpark(waitingFiller);
+    }
+  }
+
+  private static void unpark(Thread t) {
+    if(t != null) {
+      LockSupport.unpark(t);
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    if(!nextChunk()) {
+      return -1;
+    }
+    return current[pos++] & 0xff;
+  }
+
   @Override
-  public synchronized int read(byte[] b, int off, int len) throws IOException {
+  public int read(byte[] b, int off, int len) throws IOException {
     IOStreamUtils.checkFromIndexSize(b, off, len);
-    try {
-      while(ring.getUsed() == 0) {
-        if(aborted.get()) {
-          throw new IOException("aborted");
-        }
-        if(closed.get()) {
-          return -1;
-        }
-        this.wait(1000);
+    if(len == 0) {
+      return 0;
+    }
+    if(!nextChunk()) {
+      return -1;
+    }
+    int read = 0;
+    for(;;) {
+      int n = Math.min(len - read, current.length - pos);
+      System.arraycopy(current, pos, b, off + read, n);
+      pos += n;
+      read += n;
+      if(read == len) {
+        break;
+      }
+      // continue with chunks that are already available but don't wait for more
+      byte[] chunk = chunks.poll();
+      if(chunk == null) {
+        break;
       }
-    } catch(InterruptedException e) {
-      throw new KvdException("interrupted", e);
+      release(chunk.length);
+      current = chunk;
+      pos = 0;
     }
-    int read = ring.read(b, off, len);
-    notifyAll();
     return read;
   }
 
-  public synchronized void fill(byte[] buf) {
-    if(buf.length > ring.getSize()) {
-      ring.resize(buf.length);
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = 0;
+    while((skipped < n) && nextChunk()) {
+      int s = (int)Math.min(n - skipped, current.length - pos);
+      pos += s;
+      skipped += s;
     }
-    try {
-      while(ring.getFree() < buf.length) {
-        if(aborted.get()) {
-          return;
-        }
-        if(closed.get()) {
-          return;
-        }
-        this.wait(1000);
-      }
-    } catch(InterruptedException e) {
-      throw new KvdException("interrupted", e);
+    return skipped;
+  }
+
+  /**
+   * Hands the chunk over to the reading thread, called by the receive thread.
+   * Waits while the reader is too far behind.
+   */
+  public void fill(byte[] buf) {
+    if(closed.get() || aborted.get()) {
+      return;
     }
-    int written = ring.write(buf);
-    this.notifyAll();
-    if(written != buf.length) {
-      throw new KvdException("failed to fill buffer");
+    if(buf.length == 0) {
+      return;
+    }
+    buffered.addAndGet(buf.length);
+    chunks.add(buf);
+    unpark(waitingReader);
+    while(buffered.get() > MAX_BUFFERED_BYTES) {
+      waitingFiller = Thread.currentThread();
+      if((buffered.get() > MAX_BUFFERED_BYTES) && !closed.get() && !aborted.get()) {
+        LockSupport.parkNanos(this, PARK_NANOS);
+      }
+      waitingFiller = null;
+      if(closed.get() || aborted.get()) {
+        return;
+      }
+      if(Thread.interrupted()) {
+        throw new KvdException("interrupted");
+      }
     }
   }
 
+  void setStale(boolean refresh) {
+    this.stale = true;
+    this.refresh = refresh;
+  }
+
+  void setDigest(byte[] digest) {
+    this.digest = digest;
+  }
+
+  void setNotModified() {
+    this.notModified = true;
+  }
+
+  @Override
+  public boolean isStale() {
+    return stale;
+  }
+
+  @Override
+  public byte[] getDigest() {
+    return digest;
+  }
+
+  @Override
+  public boolean isNotModified() {
+    return notModified;
+  }
+
+  /**
+   * @return {@code true} if the server asked this client to refresh the stale value
+   */
+  boolean isRefresh() {
+    return refresh;
+  }
+
   @Override
-  public synchronized void abort() {
+  public void abort() {
     aborted.set(true);
-    notifyAll();
+    unpark(waitingReader);
+    unpark(waitingFiller);
   }
 
   @Override
-  public synchronized int available() throws IOException {
-    return ring.getUsed();
+  public int available() throws IOException {
+    long available = buffered.get() + ((current != null)?(current.length - pos):0);
+    return (int)Math.min(available, Integer.MAX_VALUE);
   }
 
   @Override
-  public synchronized void close() {
+  public void close() {
     closed.set(true);
     closeListener.run();
-    notifyAll();
+    unpark(waitingReader);
+    unpark(waitingFiller);
   }
 
 }
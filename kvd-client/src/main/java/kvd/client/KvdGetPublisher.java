@@ -0,0 +1,282 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kvd.common.KvdException;
+import kvd.common.packet.Packets;
+import kvd.common.packet.proto.ByteString;
+import kvd.common.packet.proto.GetInitBody;
+import kvd.common.packet.proto.Packet;
+import kvd.common.packet.proto.PacketType;
+
+/**
+ * Get operation that emits the value to a single {@link Flow.Subscriber} as requested. Received data is buffered
+ * up to {@link #MAX_BUFFERED_BYTES}, beyond that the connection stops reading from the server until the subscriber
+ * requests more.
+ */
+class KvdGetPublisher implements Abortable, Flow.Publisher<ByteBuffer>, Flow.Subscription {
+
+  private static final Logger log = LoggerFactory.getLogger(KvdGetPublisher.class);
+
+  static final long MAX_BUFFERED_BYTES = 256*1024;
+
+  private ClientBackend backend;
+
+  private byte[] key;
+
+  private int txId;
+
+  private int channelId;
+
+  private Consumer<Abortable> closeListener;
+
+  private CompletableFuture<Flow.Publisher<ByteBuffer>> future = new CompletableFuture<>();
+
+  private AtomicBoolean closed = new AtomicBoolean();
+
+  private AtomicReference<Flow.Subscriber<? super ByteBuffer>> subscriber = new AtomicReference<>();
+
+  private ConcurrentLinkedQueue<ByteBuffer> chunks = new ConcurrentLinkedQueue<>();
+
+  private AtomicLong buffered = new AtomicLong();
+
+  private AtomicLong demand = new AtomicLong();
+
+  // serializes signals to the subscriber, see drain()
+  private AtomicInteger wip = new AtomicInteger();
+
+  private volatile boolean finished;
+
+  private volatile Throwable error;
+
+  private volatile boolean cancelled;
+
+  private boolean terminated;
+
+  private volatile boolean waiting;
+
+  private KvdOpTimer timer = KvdOpTimer.NOOP;
+
+  public KvdGetPublisher(ClientBackend backend, int txId, byte[] key, Consumer<Abortable> closeListener) {
+    this.backend = backend;
+    this.txId = txId;
+    this.key = key;
+    this.closeListener = closeListener;
+  }
+
+  public void start() {
+    timer = backend.timer(KvdOperationType.GET);
+    channelId = backend.createChannel(this::receive);
+    try {
+      backend.sendRequest(Packets.builder(PacketType.GET_INIT, channelId, txId)
+          .setGetInit(GetInitBody.newBuilder()
+              .setKey(ByteString.copyFrom(key))
+              .build())
+          .build());
+    } catch(Exception e) {
+      timer.done(false);
+      try {
+        close();
+      } catch(Exception e2) {
+        // ignore
+      }
+      throw new KvdException("get failed", e);
+    }
+  }
+
+  @Override
+  public void abort() {
+    timer.done(false);
+    KvdException e = new KvdException("aborted");
+    future.completeExceptionally(e);
+    error = e;
+    close();
+    drain();
+  }
+
+  private void close() {
+    if(!closed.getAndSet(true)) {
+      timer.done(true);
+      this.closeListener.accept(this);
+      // the key does not exist if no data has been received
+      future.complete(null);
+      backend.closeChannel(channelId);
+    }
+    synchronized(this) {
+      notifyAll();
+    }
+  }
+
+  public void receive(Packet packet) {
+    timer.firstByte();
+    if(PacketType.GET_DATA.equals(packet.getType())) {
+      future.complete(this);
+      fill(packet.getByteBody().toByteArray());
+    } else if(PacketType.GET_DIGEST.equals(packet.getType()) || PacketType.GET_STALE.equals(packet.getType())) {
+      // not exposed by the publisher
+    } else if(PacketType.GET_FINISH.equals(packet.getType())) {
+      finished = true;
+      close();
+      drain();
+    } else if(PacketType.GET_ABORT.equals(packet.getType())) {
+      abort();
+    } else {
+      log.error("received unexpected packet " + packet.getType());
+      abort();
+    }
+  }
+
+  private void fill(byte[] buf) {
+    if(cancelled) {
+      return;
+    }
+    if(buf.length > 0) {
+      buffered.addAndGet(buf.length);
+      chunks.add(ByteBuffer.wrap(buf));
+      drain();
+    }
+    // stop reading from the connection until the subscriber catches up
+    synchronized(this) {
+      try {
+        // set before checking the condition so drain() can't miss the waiting reader
+        waiting = true;
+        while((buffered.get() > MAX_BUFFERED_BYTES) && !cancelled && !closed.get()) {
+          wait(1000);
+        }
+      } catch(InterruptedException e) {
+        throw new KvdException("interrupted", e);
+      } finally {
+        waiting = false;
+      }
+    }
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super ByteBuffer> s) {
+    if(subscriber.compareAndSet(null, s)) {
+      s.onSubscribe(this);
+      drain();
+    } else {
+      s.onSubscribe(new Flow.Subscription() {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+      });
+      s.onError(new IllegalStateException("only a single subscriber is supported"));
+    }
+  }
+
+  @Override
+  public void request(long n) {
+    if(n <= 0) {
+      error = new IllegalArgumentException("non-positive request " + n);
+      cancelInternal();
+      drain();
+      return;
+    }
+    demand.getAndAccumulate(n, (current, add) -> {
+      long sum = current + add;
+      return sum < 0?Long.MAX_VALUE:sum;
+    });
+    drain();
+  }
+
+  @Override
+  public void cancel() {
+    cancelInternal();
+    drain();
+  }
+
+  private void cancelInternal() {
+    if(!cancelled) {
+      cancelled = true;
+      close();
+    }
+  }
+
+  private void drain() {
+    if(wip.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    for(;;) {
+      Flow.Subscriber<? super ByteBuffer> s = subscriber.get();
+      if((s != null) && !terminated) {
+        long requested = demand.get();
+        long emitted = 0;
+        while((emitted != requested) && !cancelled) {
+          ByteBuffer chunk = chunks.poll();
+          if(chunk == null) {
+            break;
+          }
+          buffered.addAndGet(-chunk.remaining());
+          s.onNext(chunk);
+          emitted++;
+        }
+        if((emitted != 0) && (requested != Long.MAX_VALUE)) {
+          demand.addAndGet(-emitted);
+        }
+        if(error != null) {
+          terminated = true;
+          s.onError(error);
+        } else if(cancelled) {
+          terminated = true;
+        } else if(finished && chunks.isEmpty()) {
+          terminated = true;
+          s.onComplete();
+        }
+      }
+      if(terminated || cancelled) {
+        chunks.clear();
+        buffered.set(0);
+      }
+      if(waiting && (buffered.get() <= MAX_BUFFERED_BYTES)) {
+        synchronized(this) {
+          notifyAll();
+        }
+      }
+      missed = wip.addAndGet(-missed);
+      if(missed == 0) {
+        break;
+      }
+    }
+  }
+
+  public CompletableFuture<Flow.Publisher<ByteBuffer>> getFuture() {
+    return future;
+  }
+
+  @Override
+  public String toString() {
+    return "GET " + key;
+  }
+
+}
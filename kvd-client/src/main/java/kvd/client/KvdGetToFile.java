@@ -0,0 +1,242 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kvd.common.KvdException;
+import kvd.common.packet.Packets;
+import kvd.common.packet.proto.ByteString;
+import kvd.common.packet.proto.GetInitBody;
+import kvd.common.packet.proto.Packet;
+import kvd.common.packet.proto.PacketType;
+
+/**
+ * Get operation that writes the value to a file. Data packets are read by the receive thread from the socket
+ * into a direct buffer and written to a temporary file from there, so the value never lands on the heap.
+ * The temporary file replaces the target once the value is complete.
+ */
+class KvdGetToFile implements Abortable, ByteBodySink {
+
+  private static final Logger log = LoggerFactory.getLogger(KvdGetToFile.class);
+
+  private static final int BUFFER_SIZE = 256*1024;
+
+  private ClientBackend backend;
+
+  private int txId;
+
+  private byte[] key;
+
+  private Path file;
+
+  private Consumer<Abortable> closeListener;
+
+  private CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+  private int channelId;
+
+  private AtomicBoolean closed = new AtomicBoolean();
+
+  private ByteBuffer buffer;
+
+  private Path tmp;
+
+  private FileChannel out;
+
+  private long position;
+
+  // first error writing the file, data is still consumed to keep the connection usable
+  private IOException writeError;
+
+  private KvdOpTimer timer = KvdOpTimer.NOOP;
+
+  public KvdGetToFile(ClientBackend backend, int txId, byte[] key, Path file, Consumer<Abortable> closeListener) {
+    this.backend = backend;
+    this.txId = txId;
+    this.key = key;
+    this.file = file.toAbsolutePath();
+    this.closeListener = closeListener;
+  }
+
+  public void start() {
+    timer = backend.timer(KvdOperationType.GET).track(future);
+    channelId = backend.createChannel(this::receive, this);
+    try {
+      backend.sendRequest(Packets.builder(PacketType.GET_INIT, channelId, txId)
+          .setGetInit(GetInitBody.newBuilder()
+              .setKey(ByteString.copyFrom(key))
+              .build())
+          .build());
+    } catch(Exception e) {
+      timer.done(false);
+      try {
+        close();
+      } catch(Exception e2) {
+        // ignore
+      }
+      throw new KvdException("get to file failed", e);
+    }
+  }
+
+  @Override
+  public void transfer(ReadableByteChannel channel, int length) throws IOException {
+    timer.firstByte();
+    if(buffer == null) {
+      buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+    openFile();
+    int remaining = length;
+    while(remaining > 0) {
+      buffer.clear();
+      buffer.limit(Math.min(remaining, BUFFER_SIZE));
+      int n = channel.read(buffer);
+      if(n < 0) {
+        throw new EOFException();
+      }
+      remaining -= n;
+      buffer.flip();
+      write(buffer);
+    }
+  }
+
+  private void openFile() {
+    if((out == null) && (writeError == null)) {
+      try {
+        tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        out = FileChannel.open(tmp, StandardOpenOption.WRITE);
+      } catch(IOException e) {
+        writeError = e;
+      }
+    }
+  }
+
+  private void write(ByteBuffer data) {
+    if(writeError != null) {
+      return;
+    }
+    try {
+      while(data.hasRemaining()) {
+        position += out.write(data, position);
+      }
+    } catch(IOException e) {
+      writeError = e;
+    }
+  }
+
+  @Override
+  public void abort() {
+    fail(new KvdException("aborted"));
+  }
+
+  private void fail(Throwable t) {
+    future.completeExceptionally(t);
+    close();
+  }
+
+  private void close() {
+    if(!closed.getAndSet(true)) {
+      this.closeListener.accept(this);
+      backend.closeChannel(channelId);
+      closeFile();
+      if(tmp != null) {
+        try {
+          Files.deleteIfExists(tmp);
+        } catch(Exception e) {
+          log.debug("failed to delete '{}'", tmp, e);
+        }
+      }
+    }
+  }
+
+  private void closeFile() {
+    if(out != null) {
+      try {
+        out.close();
+      } catch(IOException e) {
+        if(writeError == null) {
+          writeError = e;
+        }
+      }
+      out = null;
+    }
+  }
+
+  private void finish() {
+    if(tmp == null && writeError == null) {
+      // key does not exist
+      future.complete(false);
+    } else {
+      closeFile();
+      if(writeError != null) {
+        fail(new KvdException("failed to write " + file, writeError));
+        return;
+      }
+      try {
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        tmp = null;
+        future.complete(true);
+      } catch(IOException e) {
+        fail(new KvdException("failed to move value to " + file, e));
+        return;
+      }
+    }
+    close();
+  }
+
+  public void receive(Packet packet) {
+    timer.firstByte();
+    if(PacketType.GET_DATA.equals(packet.getType())) {
+      // only without a byte body, data is normally handed to transfer(...)
+      openFile();
+      ByteString body = packet.getByteBody();
+      if(body != null) {
+        write(ByteBuffer.wrap(body.toByteArray()));
+      }
+    } else if(PacketType.GET_STALE.equals(packet.getType()) || PacketType.GET_DIGEST.equals(packet.getType())) {
+      // ignore
+    } else if(PacketType.GET_FINISH.equals(packet.getType())) {
+      finish();
+    } else if(PacketType.GET_ABORT.equals(packet.getType())) {
+      fail(new KvdException("server aborted"));
+    } else {
+      log.error("received unexpected packet " + packet.getType());
+      fail(new KvdException("received unexpected packet " + packet.getType()));
+    }
+  }
+
+  public CompletableFuture<Boolean> getFuture() {
+    return future;
+  }
+
+  @Override
+  public String toString() {
+    return "GET TO FILE " + file;
+  }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import kvd.common.KvdException;
+
+/**
+ * Immutable consistent hash ring. Every node is placed on the ring {@code virtualNodes} times, a key belongs to the
+ * node of the first point at or after the key's hash (wrapping around). Adding or removing a node only moves the keys
+ * in front of that node's points, about 1/n of all keys, the virtual nodes spread them evenly over the other nodes.
+ */
+class KvdHashRing<T> {
+
+  private static class Point<T> {
+
+    private long hash;
+
+    private String name;
+
+    private T node;
+
+    Point(long hash, String name, T node) {
+      this.hash = hash;
+      this.name = name;
+      this.node = node;
+    }
+  }
+
+  private Map<String, T> nodes;
+
+  private int virtualNodes;
+
+  private long[] hashes;
+
+  private List<T> owners;
+
+  KvdHashRing(Map<String, T> nodes, int virtualNodes) {
+    if(virtualNodes < 1) {
+      throw new KvdException("invalid virtualNodes, " + virtualNodes);
+    }
+    this.nodes = Collections.unmodifiableMap(new LinkedHashMap<>(nodes));
+    this.virtualNodes = virtualNodes;
+    List<Point<T>> points = new ArrayList<>(nodes.size() * virtualNodes);
+    nodes.forEach((name, node) -> {
+      for(int i=0;i<virtualNodes;i++) {
+        points.add(new Point<>(hash((name + "#" + i).getBytes()), name, node));
+      }
+    });
+    // ties are broken by name so every client builds the same ring
+    points.sort(Comparator.<Point<T>>comparingLong(p -> p.hash).thenComparing(p -> p.name));
+    hashes = new long[points.size()];
+    owners = new ArrayList<>(points.size());
+    for(int i=0;i<points.size();i++) {
+      hashes[i] = points.get(i).hash;
+      owners.add(points.get(i).node);
+    }
+  }
+
+  KvdHashRing<T> with(String name, T node) {
+    Map<String, T> m = new LinkedHashMap<>(nodes);
+    m.put(name, node);
+    return new KvdHashRing<>(m, virtualNodes);
+  }
+
+  KvdHashRing<T> without(String name) {
+    Map<String, T> m = new LinkedHashMap<>(nodes);
+    m.remove(name);
+    return new KvdHashRing<>(m, virtualNodes);
+  }
+
+  Map<String, T> getNodes() {
+    return nodes;
+  }
+
+  boolean isEmpty() {
+    return nodes.isEmpty();
+  }
+
+  T get(byte[] key) {
+    if(hashes.length == 0) {
+      throw new KvdException("no nodes");
+    }
+    int i = Arrays.binarySearch(hashes, hash(key));
+    if(i < 0) {
+      i = -i - 1;
+    }
+    return owners.get(i == hashes.length ? 0 : i);
+  }
+
+  /**
+   * 64 bit FNV-1a with the murmur3 finalizer to spread similar keys over the whole ring.
+   */
+  static long hash(byte[] data) {
+    long h = 0xcbf29ce484222325L;
+    for(byte b : data) {
+      h ^= (b & 0xff);
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kvd.common.KvdException;
+import kvd.common.packet.Packets;
+import kvd.common.packet.proto.Packet;
+import kvd.common.packet.proto.PacketType;
+
+/**
+ * Subscription for key invalidations pushed by the server, used by the {@link KvdNearCache}.
+ */
+class KvdInvalidationSubscription implements Abortable {
+
+  private static final Logger log = LoggerFactory.getLogger(KvdInvalidationSubscription.class);
+
+  private CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+  private ClientBackend backend;
+
+  private KvdNearCache cache;
+
+  private int channelId;
+
+  private Consumer<Abortable> closeListener;
+
+  private volatile boolean closed;
+
+  public KvdInvalidationSubscription(ClientBackend backend, KvdNearCache cache, Consumer<Abortable> closeListener) {
+    this.backend = backend;
+    this.cache = cache;
+    this.closeListener = closeListener;
+  }
+
+  public void start() {
+    channelId = backend.createChannel(this::receive);
+    try {
+      backend.sendAsync(Packets.packet(PacketType.INVALIDATION_SUBSCRIBE, channelId));
+    } catch(Exception e) {
+      close();
+      throw new KvdException("invalidation subscribe failed", e);
+    }
+  }
+
+  @Override
+  public void abort() {
+    future.completeExceptionally(new KvdException("aborted"));
+    close();
+  }
+
+  private void close() {
+    closed = true;
+    // without invalidations nothing in the cache can be trusted anymore
+    cache.invalidateAll();
+    backend.closeChannel(channelId);
+    closeListener.accept(this);
+  }
+
+  public void receive(Packet packet) {
+    if(PacketType.INVALIDATE.equals(packet.getType())) {
+      byte[] key = packet.getByteBody().toByteArray();
+      if(key.length == 0) {
+        cache.invalidateAll();
+      } else {
+        cache.invalidate(key);
+      }
+    } else if(PacketType.INVALIDATION_SUBSCRIBE.equals(packet.getType())) {
+      future.complete(true);
+    } else {
+      log.error("received unexpected packet '{}'", packet.getType());
+      abort();
+    }
+  }
+
+  public CompletableFuture<Boolean> getFuture() {
+    return future;
+  }
+
+  /**
+   * @return {@code true} while the server pushes invalidations
+   */
+  public boolean isSubscribed() {
+    return !closed && future.isDone() && !future.isCompletedExceptionally();
+  }
+
+  ClientBackend getBackend() {
+    return backend;
+  }
+
+  @Override
+  public String toString() {
+    return "INVALIDATION_SUBSCRIPTION";
+  }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values (usually nanoseconds) with a fixed memory footprint.
+ * Values below 32 are counted exactly, larger values go into log-linear buckets of 32 sub buckets each
+ * so the relative error of reported values is below 1/32 (about 3%). Recording is an atomic increment.
+ */
+public class KvdLatencyHistogram {
+
+  private static final int SUB_BITS = 5;
+
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+
+  private static final int BUCKETS = SUB_COUNT + ((Long.SIZE - 1 - SUB_BITS) * SUB_COUNT);
+
+  private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  private LongAdder count = new LongAdder();
+
+  private LongAdder sum = new LongAdder();
+
+  private AtomicLong max = new AtomicLong();
+
+  public void record(long value) {
+    if(value < 0) {
+      value = 0;
+    }
+    counts.incrementAndGet(index(value));
+    count.increment();
+    sum.add(value);
+    long m = max.get();
+    while((value > m) && !max.compareAndSet(m, value)) {
+      m = max.get();
+    }
+  }
+
+  static int index(long value) {
+    if(value < SUB_COUNT) {
+      return (int)value;
+    }
+    int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BITS;
+    int sub = (int)((value >>> shift) & (SUB_COUNT - 1));
+    return SUB_COUNT + (shift * SUB_COUNT) + sub;
+  }
+
+  static long lowestValue(int index) {
+    if(index < SUB_COUNT) {
+      return index;
+    }
+    int shift = (index - SUB_COUNT) / SUB_COUNT;
+    int sub = (index - SUB_COUNT) % SUB_COUNT;
+    return ((long)(SUB_COUNT + sub)) << shift;
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public double getMean() {
+    long c = count.sum();
+    return c==0?0:((double)sum.sum() / c);
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the lowest value of the bucket the percentile falls into, 0 if nothing has been recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    long total = 0;
+    for(int i=0;i<BUCKETS;i++) {
+      total += counts.get(i);
+    }
+    if(total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long)Math.ceil((Math.min(100, Math.max(0, percentile)) / 100) * total));
+    long seen = 0;
+    for(int i=0;i<BUCKETS;i++) {
+      seen += counts.get(i);
+      if(seen >= rank) {
+        return Math.min(lowestValue(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count %s, mean %.0f, p50 %s, p99 %s, max %s",
+        getCount(), getMean(), getValueAtPercentile(50), getValueAtPercentile(99), getMax());
+  }
+
+}
@@ -50,7 +50,7 @@ class KvdLock implements Abortable {
   public void start() {
     channelId = backend.createChannel(this::receive);
     try {
-      backend.sendAsync(Packets.packet(PacketType.LOCK, channelId, txId, key));
+      backend.sendRequest(Packets.packet(PacketType.LOCK, channelId, txId, key));
     } catch(Exception e) {
       try {
         close();
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+/**
+ * Receives the metrics of a {@link KvdClient}, set it with {@link KvdClientBuilder#setMetrics(KvdMetricsSink)}.
+ * {@link KvdClientMetrics} is the built-in implementation.
+ * <p>
+ * Methods are called from application threads as well as from the connection send and receive threads,
+ * concurrently and for every single operation. Implementations must be thread safe, must not block and
+ * should not allocate.
+ */
+public interface KvdMetricsSink {
+
+  /**
+   * Does not record anything, the default.
+   */
+  KvdMetricsSink NONE = new KvdMetricsSink() {};
+
+  /**
+   * An operation has been sent.
+   */
+  default void started(KvdOperationType op) {}
+
+  /**
+   * The first response of a {@link KvdOperationType#GET} arrived.
+   * @param nanos since the operation started
+   */
+  default void firstByte(KvdOperationType op, long nanos) {}
+
+  /**
+   * An operation finished. For a {@link KvdOperationType#GET} this is when the whole value has been received,
+   * for a {@link KvdOperationType#PUT} when the server confirmed the value.
+   * @param nanos since the operation started
+   * @param success {@code false} if the operation failed or has been aborted
+   */
+  default void completed(KvdOperationType op, long nanos, boolean success) {}
+
+  /**
+   * Bytes written to a server connection, including packet headers.
+   */
+  default void bytesSent(long bytes) {}
+
+  /**
+   * Bytes read from a server connection, including packet headers.
+   */
+  default void bytesReceived(long bytes) {}
+
+}
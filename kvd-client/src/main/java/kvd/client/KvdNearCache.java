@@ -0,0 +1,203 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side cache of small values. Entries are evicted least recently used once the cache exceeds its size
+ * in bytes. The server pushes invalidations for changed keys, entries older than {@code maxAgeMs} are
+ * not used anyway in case an invalidation got lost.
+ */
+class KvdNearCache {
+
+  private static class Entry {
+
+    private byte[] value;
+
+    private long loadedNs;
+
+    Entry(byte[] value) {
+      this.value = value;
+      this.loadedNs = System.nanoTime();
+    }
+  }
+
+  private long maxBytes;
+
+  private int maxValueBytes;
+
+  private long maxAgeNs;
+
+  private long bytes;
+
+  private Map<ByteBuffer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  // values currently loading from the server, an invalidation removes the marker so the (stale) value
+  // is not cached once the load completes
+  private Map<ByteBuffer, Object> loading = new HashMap<>();
+
+  private long hits;
+
+  private long misses;
+
+  private long evictions;
+
+  private long invalidations;
+
+  KvdNearCache(long maxBytes, int maxValueBytes, long maxAgeMs) {
+    this.maxBytes = maxBytes;
+    this.maxValueBytes = maxValueBytes;
+    this.maxAgeNs = TimeUnit.MILLISECONDS.toNanos(maxAgeMs);
+  }
+
+  private static ByteBuffer key(byte[] key) {
+    return ByteBuffer.wrap(key);
+  }
+
+  synchronized byte[] get(byte[] key) {
+    Entry e = entries.get(key(key));
+    if((e != null) && ((System.nanoTime() - e.loadedNs) > maxAgeNs)) {
+      remove(key(key));
+      e = null;
+    }
+    if(e != null) {
+      hits++;
+      return e.value;
+    } else {
+      misses++;
+      return null;
+    }
+  }
+
+  /**
+   * @return token to pass into {@link #complete(byte[], Object, byte[])}
+   */
+  synchronized Object startLoad(byte[] key) {
+    Object token = new Object();
+    loading.put(key(key.clone()), token);
+    return token;
+  }
+
+  synchronized void cancelLoad(byte[] key, Object token) {
+    loading.remove(key(key), token);
+  }
+
+  synchronized void complete(byte[] key, Object token, byte[] value) {
+    if(!loading.remove(key(key), token)) {
+      // invalidated while loading
+      return;
+    }
+    if(value.length > maxValueBytes) {
+      return;
+    }
+    remove(key(key));
+    entries.put(key(key.clone()), new Entry(value));
+    bytes += value.length;
+    Iterator<Entry> iter = entries.values().iterator();
+    while((bytes > maxBytes) && iter.hasNext()) {
+      Entry eldest = iter.next();
+      iter.remove();
+      bytes -= eldest.value.length;
+      evictions++;
+    }
+  }
+
+  private void remove(ByteBuffer key) {
+    Entry e = entries.remove(key);
+    if(e != null) {
+      bytes -= e.value.length;
+    }
+  }
+
+  synchronized void invalidate(byte[] key) {
+    invalidations++;
+    loading.remove(key(key));
+    remove(key(key));
+  }
+
+  synchronized void invalidateAll() {
+    invalidations++;
+    loading.clear();
+    entries.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Wrap the stream of a value loaded from the server, the value is cached once the stream has been read to the end.
+   */
+  InputStream load(byte[] key, Object token, InputStream in) {
+    return new FilterInputStream(in) {
+
+      private ByteArrayOutputStream buf = new ByteArrayOutputStream();
+
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        int read = read(b, 0, 1);
+        return read==-1?-1:(b[0] & 0xff);
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if(buf != null) {
+          if(read < 0) {
+            complete(key, token, buf.toByteArray());
+            buf = null;
+          } else if((buf.size() + read) > maxValueBytes) {
+            cancelLoad(key, token);
+            buf = null;
+          } else {
+            buf.write(b, off, read);
+          }
+        }
+        return read;
+      }
+
+      @Override
+      public long skip(long n) throws IOException {
+        if(buf != null) {
+          cancelLoad(key, token);
+          buf = null;
+        }
+        return super.skip(n);
+      }
+
+      @Override
+      public void close() throws IOException {
+        if(buf != null) {
+          // not read to the end
+          cancelLoad(key, token);
+          buf = null;
+        }
+        super.close();
+      }
+    };
+  }
+
+  synchronized KvdNearCacheStats getStats() {
+    return new KvdNearCacheStats(hits, misses, evictions, invalidations, entries.size(), bytes);
+  }
+
+}
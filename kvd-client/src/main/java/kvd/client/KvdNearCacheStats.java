@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+/**
+ * Snapshot of the near cache metrics, see {@link KvdClientBuilder#setNearCacheMaxBytes(long)}.
+ */
+public class KvdNearCacheStats {
+
+  private long hits;
+
+  private long misses;
+
+  private long evictions;
+
+  private long invalidations;
+
+  private int entries;
+
+  private long bytes;
+
+  KvdNearCacheStats(long hits, long misses, long evictions, long invalidations, int entries, long bytes) {
+    super();
+    this.hits = hits;
+    this.misses = misses;
+    this.evictions = evictions;
+    this.invalidations = invalidations;
+    this.entries = entries;
+    this.bytes = bytes;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  /**
+   * @return hits / (hits + misses) or 0 if there was no request yet
+   */
+  public double getHitRatio() {
+    long requests = hits + misses;
+    return requests==0?0:(double)hits/requests;
+  }
+
+  public long getEvictions() {
+    return evictions;
+  }
+
+  public long getInvalidations() {
+    return invalidations;
+  }
+
+  public int getEntries() {
+    return entries;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  @Override
+  public String toString() {
+    return "KvdNearCacheStats [hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+        + ", invalidations=" + invalidations + ", entries=" + entries + ", bytes=" + bytes + "]";
+  }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Times a single operation for the {@link KvdMetricsSink}. {@link #firstByte()} and {@link #done(boolean)} only
+ * record the first call so operations can call them from every path that ends them.
+ */
+class KvdOpTimer {
+
+  static final KvdOpTimer NOOP = new KvdOpTimer(KvdMetricsSink.NONE, null) {
+    @Override
+    void firstByte() {}
+
+    @Override
+    void done(boolean success) {}
+  };
+
+  private KvdMetricsSink sink;
+
+  private KvdOperationType op;
+
+  private long startNs;
+
+  private volatile boolean firstByte;
+
+  private AtomicBoolean done = new AtomicBoolean();
+
+  private KvdOpTimer(KvdMetricsSink sink, KvdOperationType op) {
+    this.sink = sink;
+    this.op = op;
+    this.startNs = System.nanoTime();
+  }
+
+  static KvdOpTimer start(KvdMetricsSink sink, KvdOperationType op) {
+    if(sink == KvdMetricsSink.NONE) {
+      return NOOP;
+    }
+    sink.started(op);
+    return new KvdOpTimer(sink, op);
+  }
+
+  void firstByte() {
+    if(!firstByte) {
+      firstByte = true;
+      sink.firstByte(op, System.nanoTime() - startNs);
+    }
+  }
+
+  void done(boolean success) {
+    if(done.compareAndSet(false, true)) {
+      sink.completed(op, System.nanoTime() - startNs, success);
+    }
+  }
+
+  /**
+   * Ends the timer when the future completes.
+   */
+  KvdOpTimer track(CompletableFuture<?> future) {
+    future.whenComplete((r, t) -> done(t == null));
+    return this;
+  }
+
+}
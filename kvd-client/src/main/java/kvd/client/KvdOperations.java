@@ -16,21 +16,103 @@ package kvd.client;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.concurrent.Future;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
 
 import kvd.common.KvdException;
 import kvd.common.Utils;
 
+/**
+ * Operations on the key value store. The asynchronous methods return {@link CompletableFuture}s and don't block
+ * the calling thread, {@link #getPublisherAsync(byte[])} and {@link #putPublisherAsync(byte[], long, Flow.Publisher)}
+ * stream values without blocking any caller thread at all.
+ */
 public interface KvdOperations {
 
   /**
    * Put a new value or replace an existing.
    * @param key key with which the specified value is to be associated
+   * @param ttlMs time to live in milliseconds, the value is removed from the server when this time has passed
+   *        after it was written. 0 means the value only expires according to the server expire settings.
    * @return {@code Future} that evaluates either to an {@code OutputStream} to be used to stream the value in.
    *         or fails (e.g. on optimistic lock or deadlock).
    *         Close the {@code OutputStream} to signal that the value is complete.
    */
-  Future<OutputStream> putAsync(byte[] key);
+  CompletableFuture<OutputStream> putAsync(byte[] key, long ttlMs);
+
+  /**
+   * Put a new value or replace an existing.
+   * @param key key with which the specified value is to be associated
+   * @return {@code Future} that evaluates either to an {@code OutputStream} to be used to stream the value in.
+   *         or fails (e.g. on optimistic lock or deadlock).
+   *         Close the {@code OutputStream} to signal that the value is complete.
+   */
+  default CompletableFuture<OutputStream> putAsync(byte[] key) {
+    return putAsync(key, 0);
+  }
+
+  /**
+   * Append to an existing value or create a new value if the key does not exist.
+   * Only the appended data is written on the server, the existing value is not rewritten.
+   * @param key key of the value to append to
+   * @param ttlMs time to live in milliseconds, 0 keeps the time to live of the existing value
+   * @return {@code Future} that evaluates either to an {@code OutputStream} to be used to stream the appended data in.
+   *         or fails (e.g. on optimistic lock or deadlock).
+   *         Close the {@code OutputStream} to signal that the append is complete.
+   */
+  CompletableFuture<OutputStream> appendAsync(byte[] key, long ttlMs);
+
+  /**
+   * Append to an existing value or create a new value if the key does not exist.
+   * See {@link #appendAsync(byte[], long)}
+   * @param key key of the value to append to
+   * @return {@code Future} that evaluates either to an {@code OutputStream} to be used to stream the appended data in.
+   */
+  default CompletableFuture<OutputStream> appendAsync(byte[] key) {
+    return appendAsync(key, 0);
+  }
+
+  /**
+   * Convenience method that calls {@link #appendAsync(byte[])} and waits for the {@code Future} to complete.
+   * @param key key of the value to append to
+   * @return {@code OutputStream} to be used to stream the appended data in.
+   *         Close the {@code OutputStream} to signal that the append is complete.
+   */
+  default OutputStream append(byte[] key) {
+    try {
+      return KvdFutures.get(appendAsync(key));
+    } catch(Exception e) {
+      throw new KvdException("append failed", e);
+    }
+  }
+
+  /**
+   * Convenience method that calls {@link #appendAsync(byte[])} and waits for the {@code Future} to complete.
+   * @param key key of the value to append to
+   * @return {@code OutputStream} to be used to stream the appended data in.
+   *         Close the {@code OutputStream} to signal that the append is complete.
+   */
+  default OutputStream append(String key) {
+    return append(key.getBytes());
+  }
+
+  /**
+   * Append a byte array to the value of {@code key}.
+   * @param key key of the value to append to
+   * @param value bytes to append. {@code null} values are not supported
+   */
+  default void appendBytes(byte[] key, byte[] value) {
+    if(value == null) {
+      throw new KvdException("null value not supported");
+    }
+    try(OutputStream out = append(key)) {
+      out.write(value);
+    } catch(IOException e) {
+      throw new KvdException("append bytes failed", e);
+    }
+  }
 
   /**
    * Returns the value to which the specified key is mapped
@@ -38,14 +120,131 @@ public interface KvdOperations {
    * @return {@code Future} that evaluates either to an {@code InputStream} for keys that exist
    *         or {@code null} for keys that don't exist on the server.
    */
-  Future<InputStream> getAsync(byte[] key);
+  CompletableFuture<InputStream> getAsync(byte[] key);
+
+  /**
+   * Returns the value to which the specified key is mapped unless it still matches the digest the caller already has.
+   * @param key the key whose associated value is to be returned
+   * @param ifNoneMatch digest of a previously received value (see {@link KvdValueInputStream#getDigest()})
+   *        or {@code null} to always receive the value.
+   * @return {@code Future} that evaluates either to a {@code KvdValueInputStream} for keys that exist
+   *         or {@code null} for keys that don't exist on the server. If the value matches {@code ifNoneMatch}
+   *         the stream is empty and {@link KvdValueInputStream#isNotModified()} returns {@code true}.
+   */
+  CompletableFuture<KvdValueInputStream> getAsync(byte[] key, byte[] ifNoneMatch);
+
+  /**
+   * Returns the value to which the specified key is mapped as a {@code Flow.Publisher} that emits the value in chunks
+   * as requested by its (single) subscriber. Data is only read from the connection as fast as the subscriber requests
+   * it, so subscribe soon after the {@code CompletableFuture} completed as other operations on the same connection
+   * have to wait otherwise.
+   * @param key the key whose associated value is to be returned
+   * @return {@code CompletableFuture} that evaluates either to a {@code Flow.Publisher} for keys that exist
+   *         or {@code null} for keys that don't exist on the server.
+   */
+  CompletableFuture<Flow.Publisher<ByteBuffer>> getPublisherAsync(byte[] key);
+
+  /**
+   * Put a new value or replace an existing with the value published by {@code value}. Chunks are requested from the
+   * publisher only as fast as they can be sent to the server.
+   * @param key key with which the specified value is to be associated
+   * @param ttlMs time to live in milliseconds, see {@link #putAsync(byte[], long)}
+   * @param value publisher of the value, subscribed to once the server accepted the put
+   * @return {@code CompletableFuture} which evaluates to {@code true} when the value has been stored or fails
+   *         if either the publisher or the server aborts the put.
+   */
+  CompletableFuture<Boolean> putPublisherAsync(byte[] key, long ttlMs, Flow.Publisher<ByteBuffer> value);
+
+  /**
+   * Same as {@link #putPublisherAsync(byte[], long, Flow.Publisher)} without time to live.
+   * @param key key with which the specified value is to be associated
+   * @param value publisher of the value
+   * @return {@code CompletableFuture} which evaluates to {@code true} when the value has been stored
+   */
+  default CompletableFuture<Boolean> putPublisherAsync(byte[] key, Flow.Publisher<ByteBuffer> value) {
+    return putPublisherAsync(key, 0, value);
+  }
+
+  /**
+   * Put the content of {@code file} as the value of {@code key}. The file is sent straight from the file system
+   * to the connection without copying it through the client's heap and must not change until the put completed.
+   * @param key key with which the file content is to be associated
+   * @param file regular file to read the value from
+   * @return {@code CompletableFuture} which evaluates to {@code true} when the value has been stored
+   */
+  CompletableFuture<Boolean> putFileAsync(byte[] key, Path file);
+
+  /**
+   * Convenience method that calls {@link #putFileAsync(byte[], Path)} and waits for the {@code Future} to complete.
+   * @param key key with which the file content is to be associated
+   * @param file regular file to read the value from
+   */
+  default void putFile(byte[] key, Path file) {
+    try {
+      KvdFutures.get(putFileAsync(key, file));
+    } catch(Exception e) {
+      throw new KvdException("put file failed", e);
+    }
+  }
+
+  /**
+   * Convenience method that calls {@link #putFileAsync(byte[], Path)} and waits for the {@code Future} to complete.
+   * @param key key with which the file content is to be associated
+   * @param file regular file to read the value from
+   */
+  default void putFile(String key, Path file) {
+    putFile(key.getBytes(), file);
+  }
+
+  /**
+   * Write the value of {@code key} to {@code file}. Data is written from the connection to the file without copying
+   * it through the client's heap. The value goes to a temporary file next to {@code file} first which then replaces
+   * {@code file}, so {@code file} is either left untouched or contains the complete value.
+   * @param key the key whose associated value is to be written
+   * @param file the file to write the value to
+   * @return {@code CompletableFuture} which evaluates to {@code true} once the file has been written or
+   *         {@code false} if the key does not exist on the server (the file is not touched in this case).
+   */
+  CompletableFuture<Boolean> getToFileAsync(byte[] key, Path file);
+
+  /**
+   * Convenience method that calls {@link #getToFileAsync(byte[], Path)} and waits for the {@code Future} to complete.
+   * @param key the key whose associated value is to be written
+   * @param file the file to write the value to
+   * @return {@code true} once the file has been written or {@code false} if the key does not exist on the server
+   */
+  default boolean getToFile(byte[] key, Path file) {
+    try {
+      return KvdFutures.get(getToFileAsync(key, file));
+    } catch(Exception e) {
+      throw new KvdException("get to file failed", e);
+    }
+  }
+
+  /**
+   * Convenience method that calls {@link #getToFileAsync(byte[], Path)} and waits for the {@code Future} to complete.
+   * @param key the key whose associated value is to be written
+   * @param file the file to write the value to
+   * @return {@code true} once the file has been written or {@code false} if the key does not exist on the server
+   */
+  default boolean getToFile(String key, Path file) {
+    return getToFile(key.getBytes(), file);
+  }
+
+  /**
+   * Returns the SHA-256 digest of the value to which the specified key is mapped without transferring the value.
+   * @param key the key whose digest is to be returned
+   * @return {@code Future} that evaluates either to the digest for keys that exist
+   *         or {@code null} for keys that don't exist on the server.
+   */
+  CompletableFuture<byte[]> digestAsync(byte[] key);
 
   /**
    * The returned {@code Future} evaluates to true if the key exists on the server, false otherwise
    * @param key The key whose presence is to be tested
    * @return {@code Future} evaluates to {@code true} if the key exists on the server, {@code false} otherwise
    */
-  Future<Boolean> containsAsync(byte[] key);
+  CompletableFuture<Boolean> containsAsync(byte[] key);
 
   /**
    * Removes the mapping for the specified key from the server.
@@ -53,7 +252,27 @@ public interface KvdOperations {
    * @return {@code Future} which evaluates to {@code true} if the key/value was removed from the server,
    *         {@code false} otherwise.
    */
-  Future<Boolean> removeAsync(byte[] key);
+  CompletableFuture<Boolean> removeAsync(byte[] key);
+
+  /**
+   * Copies the value of {@code source} to {@code target} on the server without transferring the value.
+   * An existing value of {@code target} is replaced.
+   * @param source key of the value to copy
+   * @param target key the copy is associated with
+   * @return {@code Future} which evaluates to {@code true} if the value was copied,
+   *         {@code false} if {@code source} does not exist.
+   */
+  CompletableFuture<Boolean> copyAsync(byte[] source, byte[] target);
+
+  /**
+   * Moves the value of {@code source} to {@code target} on the server without transferring the value.
+   * An existing value of {@code target} is replaced.
+   * @param source key of the value to rename
+   * @param target new key of the value
+   * @return {@code Future} which evaluates to {@code true} if the value was renamed,
+   *         {@code false} if {@code source} does not exist.
+   */
+  CompletableFuture<Boolean> renameAsync(byte[] source, byte[] target);
 
   /**
    * Put a new value or replace an existing.
@@ -62,7 +281,7 @@ public interface KvdOperations {
    *         or fails (e.g. on optimistic lock or deadlock).
    *         Close the {@code OutputStream} to signal that the value is complete.
    */
-  default Future<OutputStream> putAsync(String key) {
+  default CompletableFuture<OutputStream> putAsync(String key) {
     return putAsync(key.getBytes());
   }
 
@@ -74,7 +293,7 @@ public interface KvdOperations {
    */
   default OutputStream put(String key) {
     try {
-      return putAsync(key).get();
+      return KvdFutures.get(putAsync(key));
     } catch(Exception e) {
       throw new KvdException("put failed", e);
     }
@@ -88,19 +307,45 @@ public interface KvdOperations {
    */
   default OutputStream put(byte[] key) {
     try {
-      return putAsync(key).get();
+      return KvdFutures.get(putAsync(key));
+    } catch(Exception e) {
+      throw new KvdException("put failed", e);
+    }
+  }
+
+  /**
+   * Put a new value or replace an existing with a time to live.
+   * @param key key with which the specified value is to be associated
+   * @param ttlMs time to live in milliseconds, see {@link #putAsync(byte[], long)}
+   * @return {@code OutputStream} to be used to stream the value in.
+   *         Close the {@code OutputStream} to signal that the value is complete.
+   */
+  default OutputStream put(byte[] key, long ttlMs) {
+    try {
+      return KvdFutures.get(putAsync(key, ttlMs));
     } catch(Exception e) {
       throw new KvdException("put failed", e);
     }
   }
 
+  /**
+   * Put a new value or replace an existing with a time to live.
+   * @param key key with which the specified value is to be associated
+   * @param ttlMs time to live in milliseconds, see {@link #putAsync(byte[], long)}
+   * @return {@code OutputStream} to be used to stream the value in.
+   *         Close the {@code OutputStream} to signal that the value is complete.
+   */
+  default OutputStream put(String key, long ttlMs) {
+    return put(key.getBytes(), ttlMs);
+  }
+
   /**
    * Returns the value to which the specified key is mapped
    * @param key the key whose associated value is to be returned
    * @return {@code Future} that evaluates either to an {@code InputStream} for keys that exist
    *         or {@code null} for keys that don't exist on the server.
    */
-  default Future<InputStream> getAsync(String key) {
+  default CompletableFuture<InputStream> getAsync(String key) {
     return getAsync(key.getBytes());
   }
 
@@ -111,7 +356,7 @@ public interface KvdOperations {
    */
   default InputStream get(String key) {
     try {
-      return getAsync(key).get();
+      return KvdFutures.get(getAsync(key));
     } catch(Exception e) {
       throw new KvdException("get failed", e);
     }
@@ -124,12 +369,48 @@ public interface KvdOperations {
    */
   default InputStream get(byte[] key) {
     try {
-      return getAsync(key).get();
+      return KvdFutures.get(getAsync(key));
     } catch(Exception e) {
       throw new KvdException("get failed", e);
     }
   }
 
+  /**
+   * Convenience method that calls {@link #getAsync(byte[], byte[])} and waits for the {@code Future} to complete.
+   * @param key the key whose associated value is to be returned
+   * @param ifNoneMatch digest of a previously received value or {@code null}
+   * @return the {@code KvdValueInputStream} for keys that exist or {@code null} for keys that don't exist on the server.
+   */
+  default KvdValueInputStream get(String key, byte[] ifNoneMatch) {
+    try {
+      return KvdFutures.get(getAsync(key.getBytes(), ifNoneMatch));
+    } catch(Exception e) {
+      throw new KvdException("get failed", e);
+    }
+  }
+
+  /**
+   * Convenience method that calls {@link #digestAsync(byte[])} and waits for the {@code Future} to complete.
+   * @param key the key whose digest is to be returned
+   * @return the digest for keys that exist or {@code null} for keys that don't exist on the server.
+   */
+  default byte[] digest(byte[] key) {
+    try {
+      return KvdFutures.get(digestAsync(key));
+    } catch(Exception e) {
+      throw new KvdException("digest failed", e);
+    }
+  }
+
+  /**
+   * Convenience method that calls {@link #digestAsync(byte[])} and waits for the {@code Future} to complete.
+   * @param key the key whose digest is to be returned
+   * @return the digest for keys that exist or {@code null} for keys that don't exist on the server.
+   */
+  default byte[] digest(String key) {
+    return digest(key.getBytes());
+  }
+
   /**
    * Convenience method that puts a {@code String} value.
    * @param key key with which the specified value is to be associated
@@ -156,6 +437,19 @@ public interface KvdOperations {
     putString(key, value, null);
   }
 
+  /**
+   * Convenience method that puts a {@code String} value with a time to live. Uses platform default charset
+   * @param key key with which the specified value is to be associated
+   * @param value value to be associated with the specified key. {@code null} values are not supported
+   * @param ttlMs time to live in milliseconds, see {@link #putAsync(byte[], long)}
+   **/
+  default void putString(String key, String value, long ttlMs) {
+    if(value == null) {
+      throw new KvdException("null value not supported");
+    }
+    putBytes(key.getBytes(), value.getBytes(), ttlMs);
+  }
+
   /**
    * Convenience method that gets a {@code String} value.
    * @param key the key whose associated value is to be returned
@@ -192,7 +486,7 @@ public interface KvdOperations {
    * @param key The key whose presence is to be tested
    * @return {@code Future} evaluates to {@code true} if the key exists on the server, {@code false} otherwise
    */
-  default Future<Boolean> containsAsync(String key) {
+  default CompletableFuture<Boolean> containsAsync(String key) {
     return containsAsync(key.getBytes());
   }
 
@@ -203,7 +497,7 @@ public interface KvdOperations {
    */
   default boolean contains(String key) {
     try {
-      return containsAsync(key).get();
+      return KvdFutures.get(containsAsync(key));
     } catch(Exception e) {
       throw new KvdException("contains failed", e);
     }
@@ -216,7 +510,7 @@ public interface KvdOperations {
    */
   default boolean contains(byte[] key) {
     try {
-      return containsAsync(key).get();
+      return KvdFutures.get(containsAsync(key));
     } catch(Exception e) {
       throw new KvdException("contains failed", e);
     }
@@ -228,7 +522,7 @@ public interface KvdOperations {
    * @return {@code Future} which evaluates to {@code true} if the key/value was removed from the server,
    *         {@code false} otherwise.
    */
-  default Future<Boolean> removeAsync(String key) {
+  default CompletableFuture<Boolean> removeAsync(String key) {
     return removeAsync(key.getBytes());
   }
 
@@ -239,7 +533,7 @@ public interface KvdOperations {
    */
   default boolean remove(String key) {
     try {
-      return removeAsync(key).get();
+      return KvdFutures.get(removeAsync(key));
     } catch(Exception e) {
       throw new KvdException("remove failed", e);
     }
@@ -252,18 +546,76 @@ public interface KvdOperations {
    */
   default boolean remove(byte[] key) {
     try {
-      return removeAsync(key).get();
+      return KvdFutures.get(removeAsync(key));
     } catch(Exception e) {
       throw new KvdException("remove failed", e);
     }
   }
 
+  /**
+   * Convenience method that calls {@link #copyAsync(byte[], byte[])} and waits for the {@code Future} to complete.
+   * @param source key of the value to copy
+   * @param target key the copy is associated with
+   * @return {@code true} if the value was copied, {@code false} if {@code source} does not exist.
+   */
+  default boolean copy(byte[] source, byte[] target) {
+    try {
+      return KvdFutures.get(copyAsync(source, target));
+    } catch(Exception e) {
+      throw new KvdException("copy failed", e);
+    }
+  }
+
+  /**
+   * Convenience method that calls {@link #copyAsync(byte[], byte[])} and waits for the {@code Future} to complete.
+   * @param source key of the value to copy
+   * @param target key the copy is associated with
+   * @return {@code true} if the value was copied, {@code false} if {@code source} does not exist.
+   */
+  default boolean copy(String source, String target) {
+    return copy(source.getBytes(), target.getBytes());
+  }
+
+  /**
+   * Convenience method that calls {@link #renameAsync(byte[], byte[])} and waits for the {@code Future} to complete.
+   * @param source key of the value to rename
+   * @param target new key of the value
+   * @return {@code true} if the value was renamed, {@code false} if {@code source} does not exist.
+   */
+  default boolean rename(byte[] source, byte[] target) {
+    try {
+      return KvdFutures.get(renameAsync(source, target));
+    } catch(Exception e) {
+      throw new KvdException("rename failed", e);
+    }
+  }
+
+  /**
+   * Convenience method that calls {@link #renameAsync(byte[], byte[])} and waits for the {@code Future} to complete.
+   * @param source key of the value to rename
+   * @param target new key of the value
+   * @return {@code true} if the value was renamed, {@code false} if {@code source} does not exist.
+   */
+  default boolean rename(String source, String target) {
+    return rename(source.getBytes(), target.getBytes());
+  }
+
   /**
    * Put a byte array key/value pair.
    * @param key key with which the specified value is to be associated
    * @param value value to be associated with the specified key. {@code null} values are not supported
    */
   default void putBytes(byte[] key, byte[] value) {
+    putBytes(key, value, 0);
+  }
+
+  /**
+   * Put a byte array key/value pair with a time to live.
+   * @param key key with which the specified value is to be associated
+   * @param value value to be associated with the specified key. {@code null} values are not supported
+   * @param ttlMs time to live in milliseconds, see {@link #putAsync(byte[], long)}
+   */
+  default void putBytes(byte[] key, byte[] value, long ttlMs) {
     if(key == null) {
       throw new KvdException("null key not supported");
     }
@@ -273,7 +625,7 @@ public interface KvdOperations {
     if(value == null) {
       throw new KvdException("null value not supported");
     }
-    try(OutputStream out = put(key)) {
+    try(OutputStream out = put(key, ttlMs)) {
       out.write(value);
     } catch(IOException e) {
       throw new KvdException("put bytes failed", e);
@@ -43,33 +43,76 @@ class KvdPut implements Abortable {
 
   private int txId;
 
-  public KvdPut(ClientBackend backend, int txId, byte[] key, Consumer<Abortable> closeListener) {
+  private long ttlMs;
+
+  private boolean append;
+
+  private boolean pipelined;
+
+  // pipelined puts keep the channel until the server has answered
+  private volatile boolean answered;
+
+  private KvdOpTimer timer = KvdOpTimer.NOOP;
+
+  public KvdPut(ClientBackend backend, int txId, byte[] key, long ttlMs, Consumer<Abortable> closeListener) {
+    this(backend, txId, key, ttlMs, false, closeListener);
+  }
+
+  public KvdPut(ClientBackend backend, int txId, byte[] key, long ttlMs, boolean append,
+      Consumer<Abortable> closeListener) {
+    this(backend, txId, key, ttlMs, append, false, closeListener);
+  }
+
+  /**
+   * @param pipelined {@code true} to hand out the stream right away without waiting for the server, closing the
+   *        stream does not wait either. Used in pipelined transactions which report failures on commit.
+   */
+  public KvdPut(ClientBackend backend, int txId, byte[] key, long ttlMs, boolean append, boolean pipelined,
+      Consumer<Abortable> closeListener) {
     this.backend = backend;
     this.txId = txId;
     this.key = key;
+    this.ttlMs = ttlMs;
+    this.append = append;
+    this.pipelined = pipelined;
     this.closeListener = closeListener;
   }
 
   public void start() {
+    timer = backend.timer(KvdOperationType.PUT);
     channelId = backend.createChannel(this::receive);
+    if(pipelined) {
+      // before the init goes out, the response might arrive any time after
+      stream = new KvdPutOutputStream(backend, channelId, true, s -> close());
+    }
     try {
-      backend.sendAsync(Packets.builder(PacketType.PUT_INIT, channelId, txId)
+      backend.sendRequest(Packets.builder(append?PacketType.APPEND_INIT:PacketType.PUT_INIT, channelId, txId)
           .setPutInit(PutInitBody.newBuilder()
+              .setTtlMs(ttlMs)
               .setKey(ByteString.copyFrom(key))
+              // inside a transaction the transaction durability applies
+              .setDurability(txId==0?backend.getDurability():null)
               .build())
           .build());
     } catch(Exception e) {
+      timer.done(false);
       throw new KvdException("kvd put failed", e);
     }
+    if(pipelined) {
+      future.complete(stream);
+    }
   }
 
   @Override
   public void abort() {
+    timer.done(false);
     future.completeExceptionally(new KvdException("aborted"));
     if(stream != null) {
       stream.abort();
     }
     close();
+    // the server does not answer an aborted put
+    backend.closeChannel(channelId);
   }
 
   private void close() {
@@ -79,15 +122,31 @@ class KvdPut implements Abortable {
       }
       this.closeListener.accept(this);
       future.complete(null);
-      backend.closeChannel(channelId);
+      if(!pipelined || answered) {
+        backend.closeChannel(channelId);
+      }
     }
   }
 
   public void receive(Packet packet) {
-    if(stream != null) {
+    // the put ends once the server confirmed the value
+    if(PacketType.PUT_COMPLETE.equals(packet.getType())) {
+      timer.done(true);
+    } else if(PacketType.PUT_ABORT.equals(packet.getType())) {
+      timer.done(false);
+    }
+    if(pipelined) {
+      stream.channelReceiver(packet);
+      if(PacketType.PUT_COMPLETE.equals(packet.getType()) || PacketType.PUT_ABORT.equals(packet.getType())) {
+        answered = true;
+        if(closed.get()) {
+          backend.closeChannel(channelId);
+        }
+      }
+    } else if(stream != null) {
       stream.channelReceiver(packet);
     } else if(PacketType.PUT_INIT.equals(packet.getType())) {
-      stream = new KvdPutOutputStream(backend, channelId, s -> close());
+      stream = new KvdPutOutputStream(backend, channelId, false, s -> close());
       future.complete(stream);
     } else if(PacketType.PUT_ABORT.equals(packet.getType())) {
       future.completeExceptionally(new KvdException("aborted"));
@@ -103,6 +162,6 @@ class KvdPut implements Abortable {
 
   @Override
   public String toString() {
-    return "PUT " + key;
+    return (append?"APPEND ":"PUT ") + key;
   }
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kvd.common.KvdException;
+import kvd.common.packet.Packets;
+import kvd.common.packet.proto.ByteString;
+import kvd.common.packet.proto.Packet;
+import kvd.common.packet.proto.PacketType;
+import kvd.common.packet.proto.PutInitBody;
+
+/**
+ * Put operation that sends the value from a file as {@link KvdFileRegion}s. Regions are queued while the
+ * connection can take more data, the file is closed once the last queued region has been written.
+ * The put is only finished after the last region has been written completely, a region that could not be
+ * read from the file aborts the put instead.
+ */
+class KvdPutFile implements Abortable {
+
+  private static final Logger log = LoggerFactory.getLogger(KvdPutFile.class);
+
+  private static final int REGION_SIZE = 1024*1024;
+
+  private ClientBackend backend;
+
+  private int txId;
+
+  private byte[] key;
+
+  private Path file;
+
+  private Consumer<Abortable> closeListener;
+
+  private CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+  private int channelId;
+
+  private AtomicBoolean closed = new AtomicBoolean();
+
+  private FileChannel fileChannel;
+
+  private long size;
+
+  private long position;
+
+  // queued regions plus one held by this operation until it is closed
+  private AtomicInteger fileUsers = new AtomicInteger(1);
+
+  public KvdPutFile(ClientBackend backend, int txId, byte[] key, Path file, Consumer<Abortable> closeListener) {
+    this.backend = backend;
+    this.txId = txId;
+    this.key = key;
+    this.file = file;
+    this.closeListener = closeListener;
+  }
+
+  public void start() {
+    KvdOpTimer timer = backend.timer(KvdOperationType.PUT).track(future);
+    try {
+      fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+      size = fileChannel.size();
+      channelId = backend.createChannel(this::receive);
+      backend.sendRequest(Packets.builder(PacketType.PUT_INIT, channelId, txId)
+          .setPutInit(PutInitBody.newBuilder()
+              .setKey(ByteString.copyFrom(key))
+              // inside a transaction the transaction durability applies
+              .setDurability(txId==0?backend.getDurability():null)
+              .build())
+          .build());
+    } catch(Exception e) {
+      timer.done(false);
+      try {
+        close();
+      } catch(Exception e2) {
+        // ignore
+      }
+      throw new KvdException("put file failed", e);
+    }
+  }
+
+  @Override
+  public void abort() {
+    fail(new KvdException("aborted"));
+  }
+
+  private void fail(Throwable t) {
+    if(!closed.get()) {
+      try {
+        backend.sendAsync(Packets.packet(PacketType.PUT_ABORT, channelId));
+      } catch(Exception e) {
+        // ignore
+      }
+    }
+    future.completeExceptionally(t);
+    close();
+  }
+
+  private void close() {
+    if(!closed.getAndSet(true)) {
+      this.closeListener.accept(this);
+      if(channelId != 0) {
+        backend.closeChannel(channelId);
+      }
+      releaseFile();
+    }
+  }
+
+  private void releaseFile() {
+    if((fileUsers.decrementAndGet() == 0) && (fileChannel != null)) {
+      try {
+        fileChannel.close();
+      } catch(Exception e) {
+        log.debug("failed to close '{}'", file, e);
+      }
+    }
+  }
+
+  private void regionWritten(Exception e, boolean last) {
+    releaseFile();
+    if(e != null) {
+      fail(e);
+    } else if(last) {
+      finish();
+    }
+  }
+
+  private void finish() {
+    if(closed.get()) {
+      return;
+    }
+    try {
+      backend.sendAsync(Packets.packet(PacketType.PUT_FINISH, channelId));
+    } catch(Exception e) {
+      fail(e);
+    }
+  }
+
+  private synchronized void sendNext() {
+    if(closed.get()) {
+      return;
+    }
+    if(size == 0) {
+      finish();
+      return;
+    }
+    try {
+      while(position < size) {
+        if(!backend.isWritable()) {
+          backend.onWritable(this::sendNext);
+          return;
+        }
+        int length = (int)Math.min(REGION_SIZE, size - position);
+        boolean last = (position + length) == size;
+        fileUsers.incrementAndGet();
+        backend.sendAsync(new KvdFileRegion(channelId, fileChannel, position, length,
+            e -> regionWritten(e, last)));
+        position += length;
+      }
+    } catch(Exception e) {
+      fail(e);
+    }
+  }
+
+  public void receive(Packet packet) {
+    if(PacketType.PUT_INIT.equals(packet.getType())) {
+      sendNext();
+    } else if(PacketType.PUT_COMPLETE.equals(packet.getType())) {
+      future.complete(true);
+      close();
+    } else if(PacketType.PUT_ABORT.equals(packet.getType())) {
+      fail(new KvdException("server aborted"));
+    } else {
+      log.error("received unexpected packet " + packet.getType());
+      fail(new KvdException("received unexpected packet " + packet.getType()));
+    }
+  }
+
+  public CompletableFuture<Boolean> getFuture() {
+    return future;
+  }
+
+  @Override
+  public String toString() {
+    return "PUT FILE " + file;
+  }
+
+}
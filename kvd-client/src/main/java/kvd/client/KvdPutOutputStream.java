@@ -15,24 +15,38 @@ package kvd.client;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
-import kvd.common.ByteRingBuffer;
 import kvd.common.IOStreamUtils;
 import kvd.common.KvdException;
 import kvd.common.packet.Packets;
 import kvd.common.packet.proto.Packet;
 import kvd.common.packet.proto.PacketType;
 
+/**
+ * Small writes are coalesced into a chunk that is handed over to the send queue without copying it again once full.
+ * The chunk size starts small and doubles with every full chunk up to {@link #MAX_CHUNK_SIZE} so small values
+ * don't allocate large buffers and large values are sent with little per packet overhead. Writes of at least
+ * a chunk are sent as they are (after a single copy since the caller may reuse its array).
+ */
 class KvdPutOutputStream extends OutputStream implements Abortable {
 
+  static final int MIN_CHUNK_SIZE = 16*1024;
+
+  static final int MAX_CHUNK_SIZE = 1024*1024;
+
   private ClientBackend backend;
 
   private int channelId;
 
-  private ByteRingBuffer ring = new ByteRingBuffer(16*1024);
+  private int chunkSize = MIN_CHUNK_SIZE;
+
+  private byte[] chunk;
+
+  private int count;
 
   private Consumer<Abortable> closeListener;
 
@@ -42,17 +56,30 @@ class KvdPutOutputStream extends OutputStream implements Abortable {
 
   private CompletableFuture<Boolean> completed = new CompletableFuture<Boolean>();
 
-  public KvdPutOutputStream(ClientBackend backend, int channelId, Consumer<Abortable> closeListener) {
+  private boolean pipelined;
+
+  /**
+   * @param pipelined {@code true} if {@link #close()} should not wait for the server to complete the put
+   */
+  public KvdPutOutputStream(ClientBackend backend, int channelId, boolean pipelined,
+      Consumer<Abortable> closeListener) {
     this.backend = backend;
+    this.pipelined = pipelined;
     this.closeListener = closeListener;
     this.channelId = channelId;
   }
 
   @Override
   public void write(int b) throws IOException {
-    byte[] buf = new byte[1];
-    buf[0] = (byte)b;
-    write(buf);
+    checkWritable();
+    if(chunk == null) {
+      chunk = new byte[chunkSize];
+    }
+    chunk[count++] = (byte)b;
+    if(count == chunk.length) {
+      sendChunk();
+      grow();
+    }
   }
 
   void channelReceiver(Packet packet) {
@@ -66,6 +93,34 @@ class KvdPutOutputStream extends OutputStream implements Abortable {
 
   @Override
   public void write(byte[] b, int off, int len) throws IOException {
+    checkWritable();
+    IOStreamUtils.checkFromIndexSize(b, off, len);
+    int written = 0;
+    while(written < len) {
+      int remaining = len - written;
+      if((count == 0) && (remaining >= chunkSize)) {
+        // large write, frame it directly
+        int n = Math.min(remaining, MAX_CHUNK_SIZE);
+        send(Arrays.copyOfRange(b, off + written, off + written + n));
+        written += n;
+        grow();
+      } else {
+        if(chunk == null) {
+          chunk = new byte[chunkSize];
+        }
+        int n = Math.min(remaining, chunk.length - count);
+        System.arraycopy(b, off + written, chunk, count, n);
+        count += n;
+        written += n;
+        if(count == chunk.length) {
+          sendChunk();
+          grow();
+        }
+      }
+    }
+  }
+
+  private void checkWritable() {
     if(closed.get()) {
       throw new KvdException("stream closed");
     }
@@ -73,33 +128,33 @@ class KvdPutOutputStream extends OutputStream implements Abortable {
       abort();
       throw new KvdException("stream aborted");
     }
-    IOStreamUtils.checkFromIndexSize(b, off, len);
-    int written = 0;
-    for(;;) {
-      written += ring.write(b, off+written, len-written);
-      if(written < len) {
-        flush();
-      } else {
-        break;
-      }
+  }
+
+  private void grow() {
+    chunkSize = Math.min(chunkSize * 2, MAX_CHUNK_SIZE);
+  }
+
+  private void sendChunk() {
+    if(count > 0) {
+      byte[] buf = (count == chunk.length)?chunk:Arrays.copyOf(chunk, count);
+      // the full chunk now belongs to the packet, start a new one on the next write
+      chunk = (buf == chunk)?null:chunk;
+      count = 0;
+      send(buf);
+    }
+  }
+
+  private void send(byte[] buf) {
+    try {
+      backend.sendData(Packets.packet(PacketType.PUT_DATA, channelId, buf));
+    } catch(Exception e) {
+      throw new KvdException("flush failed", e);
     }
   }
 
   @Override
   public void flush() throws IOException {
-    int used = ring.getUsed();
-    if(used > 0) {
-      byte[] buf = new byte[used];
-      int read = ring.read(buf);
-      if(used != read) {
-        throw new KvdException(String.format("internal error, read (%s) != used (%s)", read, used));
-      }
-      try {
-        backend.sendAsync(Packets.packet(PacketType.PUT_DATA, channelId, buf));
-      } catch(Exception e) {
-        throw new KvdException("flush failed", e);
-      }
-    }
+    sendChunk();
   }
 
   @Override
@@ -108,7 +163,9 @@ class KvdPutOutputStream extends OutputStream implements Abortable {
       try {
         flush();
         backend.sendAsync(Packets.packet(PacketType.PUT_FINISH, channelId));
-        completed.get();
+        if(!pipelined) {
+          completed.get();
+        }
       } catch(Exception e) {
         throw new KvdException("close failed", e);
       } finally {
@@ -132,7 +189,10 @@ class KvdPutOutputStream extends OutputStream implements Abortable {
   }
 
   private void closeInternal() {
-    backend.closeChannel(channelId);
+    if(!pipelined) {
+      // the put closes the channel of a pipelined put once the server has answered
+      backend.closeChannel(channelId);
+    }
     this.closeListener.accept(this);
   }
 
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kvd.common.KvdException;
+import kvd.common.packet.Packets;
+import kvd.common.packet.proto.ByteString;
+import kvd.common.packet.proto.Packet;
+import kvd.common.packet.proto.PacketType;
+import kvd.common.packet.proto.PutInitBody;
+
+/**
+ * Put operation that subscribes to a {@link Flow.Publisher} for the value. The next chunk is requested once the
+ * connection can take more data so the publisher is never asked for more than can be sent.
+ */
+class KvdPutSubscriber implements Abortable, Flow.Subscriber<ByteBuffer> {
+
+  private static final Logger log = LoggerFactory.getLogger(KvdPutSubscriber.class);
+
+  private static final int MAX_PACKET_BYTES = 64*1024;
+
+  private ClientBackend backend;
+
+  private int txId;
+
+  private byte[] key;
+
+  private long ttlMs;
+
+  private Flow.Publisher<ByteBuffer> publisher;
+
+  private Consumer<Abortable> closeListener;
+
+  private CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+  private int channelId;
+
+  private AtomicBoolean closed = new AtomicBoolean();
+
+  private volatile Flow.Subscription subscription;
+
+  private boolean pipelined;
+
+  /**
+   * @param pipelined {@code true} to send the value right after the init without waiting for the server
+   */
+  public KvdPutSubscriber(ClientBackend backend, int txId, byte[] key, long ttlMs,
+      Flow.Publisher<ByteBuffer> publisher, boolean pipelined, Consumer<Abortable> closeListener) {
+    this.backend = backend;
+    this.pipelined = pipelined;
+    this.txId = txId;
+    this.key = key;
+    this.ttlMs = ttlMs;
+    this.publisher = publisher;
+    this.closeListener = closeListener;
+  }
+
+  public void start() {
+    KvdOpTimer timer = backend.timer(KvdOperationType.PUT).track(future);
+    channelId = backend.createChannel(this::receive);
+    try {
+      backend.sendRequest(Packets.builder(PacketType.PUT_INIT, channelId, txId)
+          .setPutInit(PutInitBody.newBuilder()
+              .setTtlMs(ttlMs)
+              .setKey(ByteString.copyFrom(key))
+              // inside a transaction the transaction durability applies
+              .setDurability(txId==0?backend.getDurability():null)
+              .build())
+          .build());
+    } catch(Exception e) {
+      timer.done(false);
+      try {
+        close();
+      } catch(Exception e2) {
+        // ignore
+      }
+      throw new KvdException("put failed", e);
+    }
+    if(pipelined) {
+      publisher.subscribe(this);
+    }
+  }
+
+  @Override
+  public void abort() {
+    fail(new KvdException("aborted"));
+  }
+
+  private void fail(Throwable t) {
+    Flow.Subscription s = subscription;
+    if(s != null) {
+      s.cancel();
+    }
+    if(!closed.get()) {
+      try {
+        backend.sendAsync(Packets.packet(PacketType.PUT_ABORT, channelId));
+      } catch(Exception e) {
+        // ignore
+      }
+    }
+    future.completeExceptionally(t);
+    close();
+  }
+
+  private void close() {
+    if(!closed.getAndSet(true)) {
+      this.closeListener.accept(this);
+      backend.closeChannel(channelId);
+    }
+  }
+
+  public void receive(Packet packet) {
+    if(PacketType.PUT_INIT.equals(packet.getType())) {
+      if(!pipelined) {
+        publisher.subscribe(this);
+      }
+    } else if(PacketType.PUT_COMPLETE.equals(packet.getType())) {
+      future.complete(true);
+      close();
+    } else if(PacketType.PUT_ABORT.equals(packet.getType())) {
+      fail(new KvdException("server aborted"));
+    } else {
+      log.error("received unexpected packet " + packet.getType());
+      fail(new KvdException("received unexpected packet " + packet.getType()));
+    }
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    if((this.subscription != null) || closed.get()) {
+      subscription.cancel();
+      return;
+    }
+    this.subscription = subscription;
+    subscription.request(1);
+  }
+
+  @Override
+  public void onNext(ByteBuffer item) {
+    if(closed.get()) {
+      return;
+    }
+    try {
+      while(item.hasRemaining()) {
+        byte[] buf = new byte[Math.min(item.remaining(), MAX_PACKET_BYTES)];
+        item.get(buf);
+        backend.sendAsync(Packets.packet(PacketType.PUT_DATA, channelId, buf));
+      }
+      backend.onWritable(() -> subscription.request(1));
+    } catch(Exception e) {
+      fail(e);
+    }
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    fail(throwable);
+  }
+
+  @Override
+  public void onComplete() {
+    try {
+      backend.sendAsync(Packets.packet(PacketType.PUT_FINISH, channelId));
+    } catch(Exception e) {
+      fail(e);
+    }
+  }
+
+  public CompletableFuture<Boolean> getFuture() {
+    return future;
+  }
+
+  @Override
+  public String toString() {
+    return "PUT " + key;
+  }
+
+}
@@ -48,10 +48,12 @@ class KvdRemove implements Abortable {
   }
 
   public void start() {
+    KvdOpTimer timer = backend.timer(KvdOperationType.REMOVE).track(future);
     channelId = backend.createChannel(this::receive);
     try {
-      backend.sendAsync(Packets.packet(PacketType.REMOVE_REQUEST, channelId, txId, key));
+      backend.sendRequest(Packets.packet(PacketType.REMOVE_REQUEST, channelId, txId, key));
     } catch(Exception e) {
+      timer.done(false);
       try {
         close();
       } catch(Exception e2) {
@@ -44,7 +44,7 @@ public class KvdRemoveAll implements Abortable {
   public void start() {
     channelId = backend.createChannel(this::receive);
     try {
-      backend.sendAsync(Packets.packet(PacketType.REMOVEALL_REQUEST, channelId));
+      backend.sendRequest(Packets.packet(PacketType.REMOVEALL_REQUEST, channelId));
     } catch(Exception e) {
       try {
         close();
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kvd.common.HostAndPort;
+import kvd.common.KvdException;
+import kvd.common.Utils;
+
+/**
+ * Client that spreads keys across multiple kvd servers. Keys are assigned to servers (shards) with a consistent hash
+ * ring with virtual nodes (see {@link KvdClientBuilder#setVirtualNodes(int)}), so adding or removing a server only
+ * reassigns about 1/n of the keys. Every shard is accessed through its own {@link KvdClient}.
+ *
+ * <p>Example usage:<pre>
+ *  try(KvdShardedClient client = new KvdClientBuilder().createSharded("kvd1:3030", "kvd2:3030", "kvd3:3030")) {
+ *    client.putString("test", "value");
+ *    Map&lt;String, byte[]&gt; values = client.getAll(List.of("a", "b", "c"));
+ *  }
+ * </pre>
+ *
+ * <p>Batch operations ({@link #getAll(Collection)}, {@link #putAll(Map)}, {@link #removeKeys(Collection)}) split the
+ * keys per shard and run all shards in parallel. Transactions are limited to the keys of a single shard, see
+ * {@link #beginTransaction(byte[])}. Copy and rename only work when source and target are on the same shard.
+ *
+ * <p>Note: values are not migrated when servers are added or removed, keys that moved to another shard appear missing.
+ *
+ * <p>Note: {@code KvdShardedClient} is thread-safe.
+ */
+public class KvdShardedClient implements KvdOperations, AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(KvdShardedClient.class);
+
+  private KvdClientBuilder builder;
+
+  private volatile KvdHashRing<KvdClient> ring;
+
+  private AtomicBoolean closed = new AtomicBoolean(false);
+
+  KvdShardedClient(KvdClientBuilder builder, List<String> serverAddresses) {
+    this.builder = builder;
+    this.ring = new KvdHashRing<>(Map.of(), builder.getVirtualNodes());
+    if((serverAddresses == null) || serverAddresses.isEmpty()) {
+      throw new KvdException("no servers");
+    }
+    try {
+      serverAddresses.forEach(this::addServer);
+    } catch(Exception e) {
+      close();
+      throw e;
+    }
+  }
+
+  private static String name(String serverAddress) {
+    return HostAndPort.fromString(serverAddress).withDefaultPort(3030).toString();
+  }
+
+  private void checkClosed() {
+    if(isClosed()) {
+      throw new KvdException("closed");
+    }
+  }
+
+  /**
+   * Connect to another server and add it to the ring. Keys that now belong to the new server are not migrated.
+   * @param serverAddress in the form {@code host:port}
+   */
+  public synchronized void addServer(String serverAddress) {
+    checkClosed();
+    String name = name(serverAddress);
+    if(ring.getNodes().containsKey(name)) {
+      throw new KvdException("server already added, " + name);
+    }
+    ring = ring.with(name, builder.create(serverAddress));
+  }
+
+  /**
+   * Remove the server from the ring and close its client. Keys of the server are reassigned to the remaining servers
+   * but their values are not migrated.
+   * @param serverAddress in the form {@code host:port}
+   */
+  public synchronized void removeServer(String serverAddress) {
+    checkClosed();
+    String name = name(serverAddress);
+    KvdClient client = ring.getNodes().get(name);
+    if(client == null) {
+      throw new KvdException("unknown server, " + name);
+    }
+    if(ring.getNodes().size() == 1) {
+      throw new KvdException("can't remove last server, " + name);
+    }
+    ring = ring.without(name);
+    client.close();
+  }
+
+  /**
+   * @return the servers in the ring in the form {@code host:port}
+   */
+  public List<String> getServers() {
+    return new ArrayList<>(ring.getNodes().keySet());
+  }
+
+  /**
+   * @return the client of the shard the key belongs to
+   */
+  public KvdClient getShard(byte[] key) {
+    checkClosed();
+    Utils.checkKey(key);
+    return ring.get(key);
+  }
+
+  /**
+   * See {@link #getShard(byte[])}
+   */
+  public KvdClient getShard(String key) {
+    return getShard(key.getBytes());
+  }
+
+  @Override
+  public CompletableFuture<OutputStream> putAsync(byte[] key, long ttlMs) {
+    return getShard(key).putAsync(key, ttlMs);
+  }
+
+  @Override
+  public CompletableFuture<OutputStream> appendAsync(byte[] key, long ttlMs) {
+    return getShard(key).appendAsync(key, ttlMs);
+  }
+
+  @Override
+  public CompletableFuture<InputStream> getAsync(byte[] key) {
+    return getShard(key).getAsync(key);
+  }
+
+  @Override
+  public CompletableFuture<KvdValueInputStream> getAsync(byte[] key, byte[] ifNoneMatch) {
+    return getShard(key).getAsync(key, ifNoneMatch);
+  }
+
+  @Override
+  public CompletableFuture<Flow.Publisher<ByteBuffer>> getPublisherAsync(byte[] key) {
+    return getShard(key).getPublisherAsync(key);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> putPublisherAsync(byte[] key, long ttlMs, Flow.Publisher<ByteBuffer> value) {
+    return getShard(key).putPublisherAsync(key, ttlMs, value);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> putFileAsync(byte[] key, Path file) {
+    return getShard(key).putFileAsync(key, file);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> getToFileAsync(byte[] key, Path file) {
+    return getShard(key).getToFileAsync(key, file);
+  }
+
+  @Override
+  public CompletableFuture<byte[]> digestAsync(byte[] key) {
+    return getShard(key).digestAsync(key);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> containsAsync(byte[] key) {
+    return getShard(key).containsAsync(key);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> removeAsync(byte[] key) {
+    return getShard(key).removeAsync(key);
+  }
+
+  private KvdClient sameShard(byte[] source, byte[] target) {
+    KvdClient shard = getShard(source);
+    if(shard != getShard(target)) {
+      throw new KvdException("source and target keys are on different shards");
+    }
+    return shard;
+  }
+
+  /**
+   * Copy the value of the source key to the target key. Both keys have to be on the same shard.
+   */
+  @Override
+  public CompletableFuture<Boolean> copyAsync(byte[] source, byte[] target) {
+    return sameShard(source, target).copyAsync(source, target);
+  }
+
+  /**
+   * Rename the source key to the target key. Both keys have to be on the same shard.
+   */
+  @Override
+  public CompletableFuture<Boolean> renameAsync(byte[] source, byte[] target) {
+    return sameShard(source, target).renameAsync(source, target);
+  }
+
+  @Override
+  public void putBytes(byte[] key, byte[] value, long ttlMs) {
+    // let the shard's client retry on connection loss
+    getShard(key).putBytes(key, value, ttlMs);
+  }
+
+  private <T> Map<KvdClient, List<T>> byShard(Collection<T> items, Function<T, String> key) {
+    KvdHashRing<KvdClient> r = ring;
+    Map<KvdClient, List<T>> shards = new LinkedHashMap<>();
+    for(T item : items) {
+      byte[] k = key.apply(item).getBytes();
+      Utils.checkKey(k);
+      shards.computeIfAbsent(r.get(k), c -> new ArrayList<>()).add(item);
+    }
+    return shards;
+  }
+
+  private <T> CompletableFuture<Void> perShard(Map<KvdClient, List<T>> shards,
+      BiFunction<KvdClient, T, CompletableFuture<?>> op) {
+    // every shard's requests are pipelined on its own connections, all shards are in flight at the same time
+    List<CompletableFuture<?>> futures = new ArrayList<>();
+    shards.forEach((shard, items) -> items.forEach(item -> futures.add(op.apply(shard, item))));
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+  }
+
+  /**
+   * Get the values of multiple keys. The keys are grouped per shard and all shards are queried in parallel.
+   * @param keys the keys whose associated values are to be returned
+   * @return {@code Future} that evaluates to a map of the keys to their values, keys that do not exist are missing
+   *         from the map
+   */
+  public CompletableFuture<Map<String, byte[]>> getAllAsync(Collection<String> keys) {
+    checkClosed();
+    Map<String, byte[]> values = new ConcurrentHashMap<>();
+    return perShard(byShard(keys, k -> k), (shard, key) -> shard.getPublisherAsync(key.getBytes())
+        .thenCompose(publisher -> publisher != null ? KvdBytes.collect(publisher) :
+          CompletableFuture.<byte[]>completedFuture(null))
+        .thenAccept(value -> {
+          if(value != null) {
+            values.put(key, value);
+          }
+        })).thenApply(v -> {
+          Map<String, byte[]> result = new LinkedHashMap<>();
+          keys.forEach(key -> {
+            byte[] value = values.get(key);
+            if(value != null) {
+              result.put(key, value);
+            }
+          });
+          return result;
+        });
+  }
+
+  /**
+   * See {@link #getAllAsync(Collection)}
+   */
+  public Map<String, byte[]> getAll(Collection<String> keys) {
+    try {
+      return getAllAsync(keys).get();
+    } catch(Exception e) {
+      throw new KvdException("get all failed", e);
+    }
+  }
+
+  /**
+   * Put multiple key/value pairs. The pairs are grouped per shard and all shards are written in parallel. Each put is
+   * committed on its own, the batch is not atomic.
+   * @param values the key/value pairs, {@code null} values are not supported
+   * @return {@code Future} that completes when all values have been put
+   */
+  public CompletableFuture<Void> putAllAsync(Map<String, byte[]> values) {
+    checkClosed();
+    values.forEach((key, value) -> {
+      if(value == null) {
+        throw new KvdException("null value not supported");
+      }
+    });
+    return perShard(byShard(values.entrySet(), Map.Entry::getKey), (shard, entry) ->
+      shard.putPublisherAsync(entry.getKey().getBytes(), KvdBytes.publisher(entry.getValue())));
+  }
+
+  /**
+   * See {@link #putAllAsync(Map)}
+   */
+  public void putAll(Map<String, byte[]> values) {
+    try {
+      putAllAsync(values).get();
+    } catch(Exception e) {
+      throw new KvdException("put all failed", e);
+    }
+  }
+
+  /**
+   * Remove multiple keys. The keys are grouped per shard and all shards are processed in parallel.
+   * @param keys the keys to remove
+   * @return {@code Future} that evaluates to the number of keys that existed and have been removed
+   */
+  public CompletableFuture<Integer> removeKeysAsync(Collection<String> keys) {
+    checkClosed();
+    AtomicInteger removed = new AtomicInteger();
+    return perShard(byShard(keys, k -> k), (shard, key) -> shard.removeAsync(key.getBytes())
+        .thenAccept(b -> {
+          if(Boolean.TRUE.equals(b)) {
+            removed.incrementAndGet();
+          }
+        })).thenApply(v -> removed.get());
+  }
+
+  /**
+   * See {@link #removeKeysAsync(Collection)}
+   */
+  public int removeKeys(Collection<String> keys) {
+    try {
+      return removeKeysAsync(keys).get();
+    } catch(Exception e) {
+      throw new KvdException("remove keys failed", e);
+    }
+  }
+
+  /**
+   * Begin a new transaction on the shard of {@code shardKey}. Operations on keys of other shards fail
+   * with a {@link KvdException}.
+   * @param shardKey any key of the shard the transaction operates on
+   * @param timeoutMs The transaction timeout in milliseconds or 0 for no timeout.
+   * @return {@link KvdTransaction}
+   */
+  public KvdTransaction beginTransaction(byte[] shardKey, long timeoutMs) {
+    KvdClient shard = getShard(shardKey);
+    KvdTransaction tx = shard.beginTransaction(timeoutMs);
+    tx.restrictKeys(key -> ring.get(key) == shard);
+    return tx;
+  }
+
+  /**
+   * See {@link #beginTransaction(byte[], long)} except this method uses the default transaction timeout
+   */
+  public KvdTransaction beginTransaction(byte[] shardKey) {
+    return beginTransaction(shardKey, builder.getTransactionDefaultTimeoutMs());
+  }
+
+  /**
+   * See {@link #beginTransaction(byte[])}
+   */
+  public KvdTransaction beginTransaction(String shardKey) {
+    return beginTransaction(shardKey.getBytes());
+  }
+
+  /**
+   * Close the clients of all shards.
+   */
+  @Override
+  public synchronized void close() {
+    if(!closed.getAndSet(true)) {
+      ring.getNodes().forEach((name, client) -> {
+        try {
+          client.close();
+        } catch(Exception e) {
+          log.warn("failed to close client of '{}'", name, e);
+        }
+      });
+    }
+  }
+
+  /**
+   * Check if the KvdShardedClient can still be used.
+   * @return {@code true} if the instance is closed, {@code false} otherwise.
+   */
+  public boolean isClosed() {
+    return closed.get();
+  }
+
+}
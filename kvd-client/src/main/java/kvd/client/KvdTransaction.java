@@ -15,24 +15,36 @@ package kvd.client;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Future;
+import java.util.concurrent.Flow;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import kvd.common.Durability;
 import kvd.common.KvdException;
 import kvd.common.TransactionClosedException;
 import kvd.common.Utils;
 import kvd.common.packet.Packets;
 import kvd.common.packet.proto.Packet;
 import kvd.common.packet.proto.PacketType;
+import kvd.common.packet.proto.TxBeginBody;
 
 /**
  * Transaction support, Unit of Work pattern
+ *
+ * <p>The transaction begins on the server with its first operation, the begin is sent along with that operation
+ * without waiting for a response. The transaction timeout starts at that point.
+ *
+ * <p>Pipelined transactions (see {@link KvdClient#beginPipelinedTransaction(long)}) don't wait for puts to be
+ * acknowledged by the server, the server executes the operations of the transaction in the order they were sent.
+ * If an operation fails the transaction can't be committed anymore, the failure is reported latest on commit.
  */
 public class KvdTransaction implements KvdOperations, AutoCloseable {
 
@@ -50,11 +62,24 @@ public class KvdTransaction implements KvdOperations, AutoCloseable {
 
   private CompletableFuture<Boolean> txClosed = new CompletableFuture<>();
 
-  KvdTransaction(ClientBackend backend, int txId, int channel) {
+  private volatile Predicate<byte[]> keyFilter;
+
+  private long timeoutMs;
+
+  private boolean pipelined;
+
+  private Durability durability;
+
+  private boolean begun;
+
+  KvdTransaction(ClientBackend backend, long timeoutMs, boolean pipelined, Durability durability) {
     super();
     this.backend = backend;
-    this.txId = txId;
-    this.channel = channel;
+    this.txId = backend.nextTxId();
+    this.timeoutMs = timeoutMs;
+    this.pipelined = pipelined;
+    this.durability = durability;
+    this.channel = backend.createChannel(this::receive);
     txClosed.whenComplete((b,t) -> {
       backend.closeChannel(channel);
     });
@@ -64,8 +89,16 @@ public class KvdTransaction implements KvdOperations, AutoCloseable {
     return txClosed;
   }
 
+  /**
+   * Aborts the transaction on the client side only, e.g. when the connection is lost or the client closes.
+   * Pending operations are aborted and commit fails.
+   */
   void abortNow() {
-    txClosed.complete(true);
+    try {
+      closeInternal(null);
+    } finally {
+      txClosed.completeExceptionally(new KvdException("transaction aborted"));
+    }
   }
 
   /**
@@ -86,6 +119,38 @@ public class KvdTransaction implements KvdOperations, AutoCloseable {
     }
   }
 
+  /**
+   * Restrict the keys this transaction accepts, used by the {@link KvdShardedClient} to keep transactions on a
+   * single shard.
+   */
+  void restrictKeys(Predicate<byte[]> keyFilter) {
+    this.keyFilter = keyFilter;
+  }
+
+  private void checkKey(byte[] key) {
+    Utils.checkKey(key);
+    Predicate<byte[]> filter = keyFilter;
+    if((filter != null) && !filter.test(key)) {
+      throw new KvdException("key not on the shard of this transaction");
+    }
+  }
+
+  /**
+   * Begin the transaction on the server, called before the first operation is sent.
+   */
+  private void begin() {
+    if(!begun) {
+      begun = true;
+      backend.sendAsync(Packets.builder(PacketType.TX_BEGIN, channel, txId)
+          .setTxBegin(TxBeginBody.newBuilder()
+              .setTimeoutMs(timeoutMs)
+              .setPipelined(pipelined)
+              .setDurability(durability)
+              .build())
+          .build());
+    }
+  }
+
   private synchronized void removeAbortable(Abortable a) {
     this.abortables.remove(a);
   }
@@ -119,7 +184,10 @@ public class KvdTransaction implements KvdOperations, AutoCloseable {
    * transaction object can be discarded.
    * @return {@code Future} future that resolves to true or completes exceptionally.
    */
-  public synchronized Future<Boolean> commitAsync() {
+  public synchronized CompletableFuture<Boolean> commitAsync() {
+    if(!closed.get()) {
+      backend.timer(KvdOperationType.COMMIT).track(txClosed);
+    }
     closeInternal(Packets.packet(PacketType.TX_COMMIT, channel, txId));
     return txClosed;
   }
@@ -141,7 +209,7 @@ public class KvdTransaction implements KvdOperations, AutoCloseable {
    * transaction object can be discarded.
    * @return {@code Future} that resolves to true or completes exceptionally.
    */
-  public synchronized Future<Boolean> rollbackAsync() {
+  public synchronized CompletableFuture<Boolean> rollbackAsync() {
     closeInternal(Packets.packet(PacketType.TX_ROLLBACK, channel, txId));
     return txClosed;
   }
@@ -161,54 +229,161 @@ public class KvdTransaction implements KvdOperations, AutoCloseable {
   private synchronized void closeInternal(Packet packet) {
     if(!closed.getAndSet(true)) {
       abortAll();
-      if(packet != null) {
-        try {
-          backend.sendAsync(packet);
-        } catch(InterruptedException e) {
-          log.warn("interrupted", e);
-        }
+      if(!begun) {
+        // nothing on the server to commit or rollback
+        txClosed.complete(Boolean.TRUE);
+      } else if(packet != null) {
+        backend.sendAsync(packet);
       }
     }
   }
 
   @Override
-  public synchronized Future<OutputStream> putAsync(byte[] key) {
+  public synchronized CompletableFuture<OutputStream> putAsync(byte[] key, long ttlMs) {
     checkClosed();
-    Utils.checkKey(key);
-    KvdPut put = new KvdPut(backend, txId, key, this::removeAbortable);
+    checkKey(key);
+    if(ttlMs < 0) {
+      throw new KvdException("invalid ttlMs, " + ttlMs);
+    }
+    KvdPut put = new KvdPut(backend, txId, key, ttlMs, false, pipelined, this::removeAbortable);
     abortables.add(put);
+    begin();
     put.start();
-    return put.getFuture();
+    return backend.abortIfAbandoned(put, put.getFuture());
   }
 
   @Override
-  public synchronized Future<InputStream> getAsync(byte[] key) {
+  public synchronized CompletableFuture<OutputStream> appendAsync(byte[] key, long ttlMs) {
     checkClosed();
-    Utils.checkKey(key);
-    KvdGet get = new KvdGet(backend, txId, key, this::removeAbortable);
+    checkKey(key);
+    if(ttlMs < 0) {
+      throw new KvdException("invalid ttlMs, " + ttlMs);
+    }
+    KvdPut append = new KvdPut(backend, txId, key, ttlMs, true, pipelined, this::removeAbortable);
+    abortables.add(append);
+    begin();
+    append.start();
+    return backend.abortIfAbandoned(append, append.getFuture());
+  }
+
+  @Override
+  public CompletableFuture<InputStream> getAsync(byte[] key) {
+    CompletableFuture<KvdValueInputStream> get = getAsync(key, null);
+    return KvdFutures.propagateCancel(get.thenApply(in -> in), get);
+  }
+
+  @Override
+  public synchronized CompletableFuture<KvdValueInputStream> getAsync(byte[] key, byte[] ifNoneMatch) {
+    checkClosed();
+    checkKey(key);
+    KvdGet get = new KvdGet(backend, txId, key, ifNoneMatch, this::removeAbortable);
     abortables.add(get);
+    begin();
     get.start();
-    return get.getFuture();
+    return backend.abortIfAbandoned(get, get.getFuture());
   }
 
   @Override
-  public synchronized Future<Boolean> containsAsync(byte[] key) {
+  public synchronized CompletableFuture<Flow.Publisher<ByteBuffer>> getPublisherAsync(byte[] key) {
     checkClosed();
-    Utils.checkKey(key);
+    checkKey(key);
+    KvdGetPublisher get = new KvdGetPublisher(backend, txId, key, this::removeAbortable);
+    abortables.add(get);
+    begin();
+    get.start();
+    return backend.abortIfAbandoned(get, get.getFuture());
+  }
+
+  @Override
+  public synchronized CompletableFuture<Boolean> putPublisherAsync(byte[] key, long ttlMs,
+      Flow.Publisher<ByteBuffer> value) {
+    checkClosed();
+    checkKey(key);
+    if(ttlMs < 0) {
+      throw new KvdException("invalid ttlMs, " + ttlMs);
+    }
+    KvdPutSubscriber put = new KvdPutSubscriber(backend, txId, key, ttlMs, value, pipelined,
+        this::removeAbortable);
+    abortables.add(put);
+    begin();
+    put.start();
+    return backend.abortIfAbandoned(put, put.getFuture());
+  }
+
+  @Override
+  public synchronized CompletableFuture<Boolean> putFileAsync(byte[] key, Path file) {
+    checkClosed();
+    checkKey(key);
+    KvdPutFile put = new KvdPutFile(backend, txId, key, file, this::removeAbortable);
+    abortables.add(put);
+    begin();
+    put.start();
+    return backend.abortIfAbandoned(put, put.getFuture());
+  }
+
+  @Override
+  public synchronized CompletableFuture<Boolean> getToFileAsync(byte[] key, Path file) {
+    checkClosed();
+    checkKey(key);
+    KvdGetToFile get = new KvdGetToFile(backend, txId, key, file, this::removeAbortable);
+    abortables.add(get);
+    begin();
+    get.start();
+    return backend.abortIfAbandoned(get, get.getFuture());
+  }
+
+  @Override
+  public synchronized CompletableFuture<byte[]> digestAsync(byte[] key) {
+    checkClosed();
+    checkKey(key);
+    KvdDigest digest = new KvdDigest(backend, txId, key, this::removeAbortable);
+    abortables.add(digest);
+    begin();
+    digest.start();
+    return backend.abortIfAbandoned(digest, digest.getFuture());
+  }
+
+  @Override
+  public synchronized CompletableFuture<Boolean> containsAsync(byte[] key) {
+    checkClosed();
+    checkKey(key);
     KvdContains contains = new KvdContains(backend, txId, key, this::removeAbortable);
     abortables.add(contains);
+    begin();
     contains.start();
-    return contains.getFuture();
+    return backend.abortIfAbandoned(contains, contains.getFuture());
   }
 
   @Override
-  public synchronized Future<Boolean> removeAsync(byte[] key) {
+  public synchronized CompletableFuture<Boolean> copyAsync(byte[] source, byte[] target) {
+    return copyOrRename(source, target, false);
+  }
+
+  @Override
+  public synchronized CompletableFuture<Boolean> renameAsync(byte[] source, byte[] target) {
+    return copyOrRename(source, target, true);
+  }
+
+  private CompletableFuture<Boolean> copyOrRename(byte[] source, byte[] target, boolean rename) {
     checkClosed();
-    Utils.checkKey(key);
+    checkKey(source);
+    checkKey(target);
+    KvdCopy copy = new KvdCopy(backend, txId, source, target, rename, this::removeAbortable);
+    abortables.add(copy);
+    begin();
+    copy.start();
+    return backend.abortIfAbandoned(copy, copy.getFuture());
+  }
+
+  @Override
+  public synchronized CompletableFuture<Boolean> removeAsync(byte[] key) {
+    checkClosed();
+    checkKey(key);
     KvdRemove remove = new KvdRemove(backend, txId, key, this::removeAbortable);
     abortables.add(remove);
+    begin();
     remove.start();
-    return remove.getFuture();
+    return backend.abortIfAbandoned(remove, remove.getFuture());
   }
 
   /**
@@ -219,13 +394,14 @@ public class KvdTransaction implements KvdOperations, AutoCloseable {
    * or completes exceptionally if the key can't be write locked because either another transaction has a write lock on
    * the key already in optimistic concurrency mode or a deadlock is detected in pessimistic concurrency mode
    */
-  public synchronized Future<Boolean> lockAsync(byte[] key) {
+  public synchronized CompletableFuture<Boolean> lockAsync(byte[] key) {
     checkClosed();
-    Utils.checkKey(key);
+    checkKey(key);
     KvdLock lock = new KvdLock(backend, txId, key, this::removeAbortable);
     abortables.add(lock);
+    begin();
     lock.start();
-    return lock.getFuture();
+    return backend.abortIfAbandoned(lock, lock.getFuture());
   }
 
   /**
@@ -236,7 +412,7 @@ public class KvdTransaction implements KvdOperations, AutoCloseable {
    * or completes exceptionally if the key can't be write locked because either another transaction has a write lock on
    * the key already in optimistic concurrency mode or a deadlock is detected in pessimistic concurrency mode
    */
-  public synchronized Future<Boolean> lockAsync(String key) {
+  public synchronized CompletableFuture<Boolean> lockAsync(String key) {
     return lockAsync(key.getBytes());
   }
 
@@ -246,7 +422,7 @@ public class KvdTransaction implements KvdOperations, AutoCloseable {
    */
   public boolean lock(String key) {
     try {
-      return lockAsync(key).get();
+      return KvdFutures.get(lockAsync(key));
     } catch(Exception e) {
       throw new KvdException("write lock failed", e);
     }
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import kvd.common.KvdInputStream;
+
+/**
+ * {@code InputStream} of a value received from the server that also carries the value's metadata.
+ */
+public abstract class KvdValueInputStream extends KvdInputStream {
+
+  /**
+   * @return the SHA-256 digest of the value as reported by the server or {@code null} if the server did not
+   *         send one (e.g. values stored before digests were introduced). Values built by
+   *         {@link KvdOperations#appendAsync(byte[], long)} carry a chained digest
+   *         ({@code SHA-256(previous digest || appended data)}) that changes on every append.
+   */
+  public abstract byte[] getDigest();
+
+  /**
+   * @return {@code true} if the value on the server matches the digest passed into
+   *         {@link KvdOperations#getAsync(byte[], byte[])}. The stream does not contain any data in this case.
+   */
+  public abstract boolean isNotModified();
+
+  /**
+   * @return {@code true} if the server flagged the value as stale (soft expired)
+   */
+  public abstract boolean isStale();
+
+}
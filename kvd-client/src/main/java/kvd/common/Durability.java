@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.common;
+
+/**
+ * How durable the writes of a transaction or a single put are once the server acknowledged them.
+ */
+public enum Durability {
+
+  /**
+   * Blob files are synced, then the values are committed before the server answers.
+   */
+  SYNC,
+
+  /**
+   * The server answers once the values are visible, blob files are synced and the values committed in the
+   * background within a bounded window. Writes of the last window might get lost on a crash. They are also lost
+   * if the database fails to write or commit before the window ends, the server rolls back everything that has
+   * not been committed yet. Values that can't be serialized fail their own transaction only.
+   */
+  ASYNC,
+
+  /**
+   * Like {@link #ASYNC} but blob files are never synced, for data that can be recomputed, e.g. cache entries.
+   * Values might get lost or be incomplete after a crash.
+   */
+  NONE;
+
+  /**
+   * @return the wire format, 0 for {@code null} which means the server default
+   */
+  public static byte toByte(Durability durability) {
+    return (byte)(durability==null?0:durability.ordinal()+1);
+  }
+
+  public static Durability fromByte(byte b) {
+    if(b == 0) {
+      return null;
+    } else if((b < 0) || (b > values().length)) {
+      throw new KvdException("invalid durability " + b);
+    } else {
+      return values()[b-1];
+    }
+  }
+
+}
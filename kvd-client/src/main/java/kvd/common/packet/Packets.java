@@ -64,7 +64,7 @@ public class Packets {
   }
 
   public static Packet hello() {
-    return packet(PacketType.HELLO, 0, 0, Utils.toUTF8("KvdHello2"));
+    return packet(PacketType.HELLO, 0, 0, Utils.toUTF8("KvdHello4"));
   }
 
   public static void receiveHello(InputStream in) throws IOException {
@@ -72,7 +72,7 @@ public class Packets {
     for(;;) {
       Packet p = Packet.parseDelimitedFrom(in);
       if(p != null) {
-        if(!"KvdHello2".equals(p.getByteBody().toStringUtf8())) {
+        if(!"KvdHello4".equals(p.getByteBody().toStringUtf8())) {
           throw new KvdException("hello mismatch");
         } else {
           break;
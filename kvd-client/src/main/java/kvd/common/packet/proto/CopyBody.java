@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.common.packet.proto;
+
+import java.nio.ByteBuffer;
+
+public class CopyBody implements PacketBody {
+
+  public static class Builder {
+
+    private ByteString source;
+
+    private ByteString target;
+
+    public Builder setSource(ByteString source) {
+      this.source = source;
+      return this;
+    }
+
+    public Builder setTarget(ByteString target) {
+      this.target = target;
+      return this;
+    }
+
+    public CopyBody build() {
+      return new CopyBody(source, target);
+    }
+  }
+
+  private ByteString source;
+
+  private ByteString target;
+
+  public CopyBody(ByteString source, ByteString target) {
+    super();
+    this.source = source;
+    this.target = target;
+  }
+
+  public CopyBody(byte[] bytes) {
+    ByteBuffer b = ByteBuffer.wrap(bytes);
+    byte[] source = new byte[b.getInt()];
+    b.get(source);
+    this.source = new ByteString(source);
+    byte[] target = new byte[b.remaining()];
+    b.get(target);
+    this.target = new ByteString(target);
+  }
+
+  public ByteString getSource() {
+    return source;
+  }
+
+  public ByteString getTarget() {
+    return target;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((source == null) ? 0 : source.hashCode());
+    result = prime * result + ((target == null) ? 0 : target.hashCode());
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    CopyBody other = (CopyBody) obj;
+    if (source == null) {
+      if (other.source != null)
+        return false;
+    } else if (!source.equals(other.source))
+      return false;
+    if (target == null) {
+      if (other.target != null)
+        return false;
+    } else if (!target.equals(other.target))
+      return false;
+    return true;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  @Override
+  public byte[] toByteArray() {
+    byte[] s = source.toByteArray();
+    byte[] t = target.toByteArray();
+    ByteBuffer b = ByteBuffer.allocate(4+s.length+t.length);
+    b.putInt(s.length);
+    b.put(s);
+    b.put(t);
+    return b.array();
+  }
+
+}
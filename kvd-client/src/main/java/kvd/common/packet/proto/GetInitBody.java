@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.common.packet.proto;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class GetInitBody implements PacketBody {
+
+  public static class Builder {
+
+    private ByteString key;
+
+    private byte[] ifNoneMatch;
+
+    public Builder setKey(ByteString key) {
+      this.key = key;
+      return this;
+    }
+
+    public Builder setIfNoneMatch(byte[] ifNoneMatch) {
+      this.ifNoneMatch = ifNoneMatch;
+      return this;
+    }
+
+    public GetInitBody build() {
+      return new GetInitBody(key, ifNoneMatch);
+    }
+  }
+
+  private ByteString key;
+
+  private byte[] ifNoneMatch;
+
+  public GetInitBody(ByteString key, byte[] ifNoneMatch) {
+    super();
+    this.key = key;
+    this.ifNoneMatch = ifNoneMatch!=null?ifNoneMatch:new byte[0];
+  }
+
+  public GetInitBody(byte[] bytes) {
+    ByteBuffer b = ByteBuffer.wrap(bytes);
+    byte[] key = new byte[b.getInt()];
+    b.get(key);
+    this.key = new ByteString(key);
+    ifNoneMatch = new byte[b.remaining()];
+    b.get(ifNoneMatch);
+  }
+
+  public ByteString getKey() {
+    return key;
+  }
+
+  /**
+   * @return the digest the client already holds or an empty array if the client did not send one.
+   */
+  public byte[] getIfNoneMatch() {
+    return ifNoneMatch;
+  }
+
+  public boolean hasIfNoneMatch() {
+    return ifNoneMatch.length > 0;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((key == null) ? 0 : key.hashCode());
+    result = prime * result + Arrays.hashCode(ifNoneMatch);
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    GetInitBody other = (GetInitBody) obj;
+    if (key == null) {
+      if (other.key != null)
+        return false;
+    } else if (!key.equals(other.key))
+      return false;
+    if (!Arrays.equals(ifNoneMatch, other.ifNoneMatch))
+      return false;
+    return true;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  @Override
+  public byte[] toByteArray() {
+    byte[] k = key.toByteArray();
+    ByteBuffer b = ByteBuffer.allocate(4+k.length+ifNoneMatch.length);
+    b.putInt(k.length);
+    b.put(k);
+    b.put(ifNoneMatch);
+    return b.array();
+  }
+
+}
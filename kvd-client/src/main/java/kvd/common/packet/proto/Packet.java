@@ -22,6 +22,67 @@ import kvd.common.KvdException;
 
 public class Packet {
 
+  public static final int HEADER_SIZE = 4*6;
+
+  private static final int INLINE_BODY_MAX = 8*1024;
+
+  static final int BODY_TYPE_BYTES = 1;
+
+  /**
+   * The fixed size part of a packet, lets receivers read large byte bodies themselves
+   * (see {@link Packet#parseHeader(InputStream)}).
+   */
+  public static class Header {
+
+    private PacketType type;
+
+    private int channel;
+
+    private int tx;
+
+    private int timeoutMs;
+
+    private int bodyType;
+
+    private int bodyLength;
+
+    Header(PacketType type, int channel, int tx, int timeoutMs, int bodyType, int bodyLength) {
+      this.type = type;
+      this.channel = channel;
+      this.tx = tx;
+      this.timeoutMs = timeoutMs;
+      this.bodyType = bodyType;
+      this.bodyLength = bodyLength;
+    }
+
+    public PacketType getType() {
+      return type;
+    }
+
+    public int getChannel() {
+      return channel;
+    }
+
+    public int getTx() {
+      return tx;
+    }
+
+    public int getTimeoutMs() {
+      return timeoutMs;
+    }
+
+    public int getBodyLength() {
+      return bodyLength;
+    }
+
+    /**
+     * @return {@code true} if the body is a plain {@link ByteString}
+     */
+    public boolean hasByteBody() {
+      return bodyType == BODY_TYPE_BYTES;
+    }
+  }
+
   public static class Builder {
 
     private PacketType type;
@@ -30,6 +91,8 @@ public class Packet {
 
     private int tx;
 
+    private int timeoutMs;
+
     private PacketBody body;
 
     public Builder setType(PacketType type) {
@@ -47,8 +110,13 @@ public class Packet {
       return this;
     }
 
+    public Builder setTimeoutMs(int timeoutMs) {
+      this.timeoutMs = timeoutMs;
+      return this;
+    }
+
     public Packet build() {
-      return new Packet(type, channel, tx, body);
+      return new Packet(type, channel, tx, timeoutMs, body);
     }
 
     public Builder setTxBegin(TxBeginBody body) {
@@ -66,6 +134,21 @@ public class Packet {
       return this;
     }
 
+    public Builder setComputeLease(ComputeLeaseBody body) {
+      this.body = body;
+      return this;
+    }
+
+    public Builder setGetInit(GetInitBody body) {
+      this.body = body;
+      return this;
+    }
+
+    public Builder setCopy(CopyBody body) {
+      this.body = body;
+      return this;
+    }
+
   }
 
   private PacketType type;
@@ -74,13 +157,22 @@ public class Packet {
 
   private int tx;
 
+  // time in milliseconds the sender still waits for the response to this request, 0 means no deadline.
+  // relative to when the packet is read so sender and receiver clocks don't have to agree
+  private int timeoutMs;
+
   private PacketBody body;
 
   public Packet(PacketType type, int channel, int tx, PacketBody body) {
+    this(type, channel, tx, 0, body);
+  }
+
+  public Packet(PacketType type, int channel, int tx, int timeoutMs, PacketBody body) {
     super();
     this.type = type;
     this.channel = channel;
     this.tx = tx;
+    this.timeoutMs = timeoutMs;
     this.body = body;
   }
 
@@ -96,6 +188,17 @@ public class Packet {
     return tx;
   }
 
+  public int getTimeoutMs() {
+    return timeoutMs;
+  }
+
+  /**
+   * @return a copy of this packet with the request timeout set
+   */
+  public Packet withTimeoutMs(int timeoutMs) {
+    return new Packet(type, channel, tx, timeoutMs, body);
+  }
+
   public ByteString getByteBody() {
     return (ByteString)body;
   }
@@ -108,28 +211,58 @@ public class Packet {
     return (TxBeginBody)body;
   }
 
-  public void writeDelimitedTo(OutputStream out) throws IOException {
+  public ComputeLeaseBody getComputeLease() {
+    return (ComputeLeaseBody)body;
+  }
+
+  public GetInitBody getGetInit() {
+    return (GetInitBody)body;
+  }
+
+  public CopyBody getCopy() {
+    return (CopyBody)body;
+  }
+
+  /**
+   * @return the number of bytes written
+   */
+  public int writeDelimitedTo(OutputStream out) throws IOException {
     int bodyType = getBodyType();
     byte[] bd = body!=null?body.toByteArray():new byte[0];
-    ByteBuffer b = ByteBuffer.allocate(4*5+bd.length);
+    // small packets go out in a single write, large bodies are written as they are instead of copying them
+    boolean inline = bd.length <= INLINE_BODY_MAX;
+    ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE+(inline?bd.length:0));
     b.putInt(type.ordinal());
     b.putInt(channel);
     b.putInt(tx);
+    b.putInt(timeoutMs);
     b.putInt(bodyType);
     b.putInt(bd.length);
-    b.put(bd);
-    out.write(b.array());
+    if(inline) {
+      b.put(bd);
+      out.write(b.array());
+    } else {
+      out.write(b.array());
+      out.write(bd);
+    }
+    return HEADER_SIZE + bd.length;
   }
 
   private int getBodyType() {
     if(body == null) {
       return 0;
     } else if(body instanceof ByteString) {
-      return 1;
+      return BODY_TYPE_BYTES;
     } else if(body instanceof PutInitBody) {
       return 2;
     } else if(body instanceof TxBeginBody) {
       return 3;
+    } else if(body instanceof ComputeLeaseBody) {
+      return 4;
+    } else if(body instanceof GetInitBody) {
+      return 5;
+    } else if(body instanceof CopyBody) {
+      return 6;
     } else {
       throw new KvdException("unknown body type");
     }
@@ -142,6 +275,7 @@ public class Packet {
     result = prime * result + ((body == null) ? 0 : body.hashCode());
     result = prime * result + channel;
     result = prime * result + tx;
+    result = prime * result + timeoutMs;
     result = prime * result + ((type == null) ? 0 : type.hashCode());
     return result;
   }
@@ -164,6 +298,8 @@ public class Packet {
       return false;
     if (tx != other.tx)
       return false;
+    if (timeoutMs != other.timeoutMs)
+      return false;
     if (type != other.type)
       return false;
     return true;
@@ -174,28 +310,64 @@ public class Packet {
   }
 
   public static Packet parseDelimitedFrom(InputStream in) throws IOException {
+    Header header = parseHeader(in);
+    return header!=null?parseBody(header, in):null;
+  }
+
+  /**
+   * @return the header of the next packet or {@code null} if the stream ended. Either read the body with
+   *         {@link #parseBody(Header, InputStream)} or consume exactly {@link Header#getBodyLength()} bytes.
+   */
+  public static Header parseHeader(InputStream in) throws IOException {
     try {
       PacketType type = PacketType.values()[getInt(in)];
       int channel = getInt(in);
       int tx = getInt(in);
+      int timeoutMs = getInt(in);
       int bodyType = getInt(in);
       int bodyLength = getInt(in);
-      byte[] body = in.readNBytes(bodyLength);
-      return new Packet(type, channel, tx, bodyFromBytes(bodyType, body));
+      return new Header(type, channel, tx, timeoutMs, bodyType, bodyLength);
     } catch(EndOfStreamException e) {
       return null;
     }
   }
 
+  public static Packet parseBody(Header header, InputStream in) throws IOException {
+    byte[] body = in.readNBytes(header.bodyLength);
+    return new Packet(header.type, header.channel, header.tx, header.timeoutMs, bodyFromBytes(header.bodyType, body));
+  }
+
+  /**
+   * Writes the header of a packet with a {@link ByteString} body of {@code bodyLength} bytes,
+   * the caller writes the body itself.
+   */
+  public static void writeByteBodyHeader(OutputStream out, PacketType type, int channel, int tx, int bodyLength)
+      throws IOException {
+    ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE);
+    b.putInt(type.ordinal());
+    b.putInt(channel);
+    b.putInt(tx);
+    b.putInt(0);
+    b.putInt(BODY_TYPE_BYTES);
+    b.putInt(bodyLength);
+    out.write(b.array());
+  }
+
   private static PacketBody bodyFromBytes(int bodyType, byte[] body) {
     if(bodyType == 0) {
       return null;
-    } else if(bodyType == 1) {
+    } else if(bodyType == BODY_TYPE_BYTES) {
       return new ByteString(body);
     } else if(bodyType == 2) {
       return new PutInitBody(body);
     } else if(bodyType == 3) {
       return new TxBeginBody(body);
+    } else if(bodyType == 4) {
+      return new ComputeLeaseBody(body);
+    } else if(bodyType == 5) {
+      return new GetInitBody(body);
+    } else if(bodyType == 6) {
+      return new CopyBody(body);
     } else {
       throw new KvdException("unknown body type");
     }
@@ -43,5 +43,21 @@ public enum PacketType {
   LOCK,
   ABORT,
   REMOVEALL_REQUEST,
+  COMPUTE_LEASE,
+  GET_STALE,
+  GET_DIGEST,
+  GET_NOT_MODIFIED,
+  DIGEST_REQUEST,
+  DIGEST_RESPONSE,
+  DIGEST_ABORT,
+  COPY_REQUEST,
+  COPY_RESPONSE,
+  COPY_ABORT,
+  RENAME_REQUEST,
+  RENAME_RESPONSE,
+  RENAME_ABORT,
+  APPEND_INIT,
+  INVALIDATION_SUBSCRIBE,
+  INVALIDATE,
   ;
 }
@@ -15,6 +15,8 @@ package kvd.common.packet.proto;
 
 import java.nio.ByteBuffer;
 
+import kvd.common.Durability;
+
 public class PutInitBody implements PacketBody {
 
   public static class Builder {
@@ -23,6 +25,8 @@ public class PutInitBody implements PacketBody {
 
     private ByteString key;
 
+    private Durability durability;
+
     public Builder setTtlMs(long ttlMs) {
       this.ttlMs = ttlMs;
       return this;
@@ -33,8 +37,13 @@ public class PutInitBody implements PacketBody {
       return this;
     }
 
+    public Builder setDurability(Durability durability) {
+      this.durability = durability;
+      return this;
+    }
+
     public PutInitBody build() {
-      return new PutInitBody(ttlMs, key);
+      return new PutInitBody(ttlMs, key, durability);
     }
   }
 
@@ -42,16 +51,20 @@ public class PutInitBody implements PacketBody {
 
   private ByteString key;
 
-  public PutInitBody(long ttlMs, ByteString key) {
+  private Durability durability;
+
+  public PutInitBody(long ttlMs, ByteString key, Durability durability) {
     super();
     this.ttlMs = ttlMs;
     this.key = key;
+    this.durability = durability;
   }
 
   public PutInitBody(byte[] bytes) {
     ByteBuffer b = ByteBuffer.wrap(bytes);
     ttlMs = b.getLong();
-    byte[] key = new byte[bytes.length-8];
+    durability = Durability.fromByte(b.get());
+    byte[] key = new byte[bytes.length-9];
     b.get(key);
     this.key = new ByteString(key);
   }
@@ -64,12 +77,20 @@ public class PutInitBody implements PacketBody {
     return key;
   }
 
+  /**
+   * @return {@code null} for the server default, only used by puts outside of transactions
+   */
+  public Durability getDurability() {
+    return durability;
+  }
+
   @Override
   public int hashCode() {
     final int prime = 31;
     int result = 1;
     result = prime * result + ((key == null) ? 0 : key.hashCode());
     result = prime * result + (int) (ttlMs ^ (ttlMs >>> 32));
+    result = prime * result + ((durability == null) ? 0 : durability.hashCode());
     return result;
   }
 
@@ -89,6 +110,8 @@ public class PutInitBody implements PacketBody {
       return false;
     if (ttlMs != other.ttlMs)
       return false;
+    if (durability != other.durability)
+      return false;
     return true;
   }
 
@@ -98,8 +121,9 @@ public class PutInitBody implements PacketBody {
 
   @Override
   public byte[] toByteArray() {
-    ByteBuffer b = ByteBuffer.allocate(8+key.toByteArray().length);
+    ByteBuffer b = ByteBuffer.allocate(8+1+key.toByteArray().length);
     b.putLong(ttlMs);
+    b.put(Durability.toByte(durability));
     b.put(key.toByteArray());
     return b.array();
   }
@@ -15,32 +15,56 @@ package kvd.common.packet.proto;
 
 import java.nio.ByteBuffer;
 
+import kvd.common.Durability;
+
 public class TxBeginBody implements PacketBody {
 
   public static class Builder {
 
     private long timeoutMs;
 
+    private boolean pipelined;
+
+    private Durability durability;
+
     public Builder setTimeoutMs(long timeoutMs) {
       this.timeoutMs = timeoutMs;
       return this;
     }
 
+    public Builder setPipelined(boolean pipelined) {
+      this.pipelined = pipelined;
+      return this;
+    }
+
+    public Builder setDurability(Durability durability) {
+      this.durability = durability;
+      return this;
+    }
+
     public TxBeginBody build() {
-      return new TxBeginBody(timeoutMs);
+      return new TxBeginBody(timeoutMs, pipelined, durability);
     }
   }
 
   private long timeoutMs;
 
-  public TxBeginBody(long timeoutMs) {
+  private boolean pipelined;
+
+  private Durability durability;
+
+  public TxBeginBody(long timeoutMs, boolean pipelined, Durability durability) {
     super();
     this.timeoutMs = timeoutMs;
+    this.pipelined = pipelined;
+    this.durability = durability;
   }
 
   public TxBeginBody(byte[] bytes) {
     ByteBuffer b = ByteBuffer.wrap(bytes);
     this.timeoutMs = b.getLong();
+    this.pipelined = b.get() != 0;
+    this.durability = Durability.fromByte(b.get());
   }
 
   public static Builder newBuilder() {
@@ -51,11 +75,27 @@ public class TxBeginBody implements PacketBody {
     return timeoutMs;
   }
 
+  /**
+   * @return {@code true} if the client sends the operations of the transaction without waiting for the responses
+   */
+  public boolean isPipelined() {
+    return pipelined;
+  }
+
+  /**
+   * @return {@code null} for the server default
+   */
+  public Durability getDurability() {
+    return durability;
+  }
+
   @Override
   public int hashCode() {
     final int prime = 31;
     int result = 1;
     result = prime * result + (int) (timeoutMs ^ (timeoutMs >>> 32));
+    result = prime * result + (pipelined ? 1231 : 1237);
+    result = prime * result + ((durability == null) ? 0 : durability.hashCode());
     return result;
   }
 
@@ -70,13 +110,19 @@ public class TxBeginBody implements PacketBody {
     TxBeginBody other = (TxBeginBody) obj;
     if (timeoutMs != other.timeoutMs)
       return false;
+    if (pipelined != other.pipelined)
+      return false;
+    if (durability != other.durability)
+      return false;
     return true;
   }
 
   @Override
   public byte[] toByteArray() {
-    ByteBuffer b = ByteBuffer.allocate(8);
+    ByteBuffer b = ByteBuffer.allocate(10);
     b.putLong(timeoutMs);
+    b.put(pipelined?(byte)1:(byte)0);
+    b.put(Durability.toByte(durability));
     return b.array();
   }
 
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+public class KvdGetInputStreamTest {
+
+  private static final int SIZE = 20*1024*1024;
+
+  @Test
+  public void producerConsumer() throws Exception {
+    AtomicBoolean closed = new AtomicBoolean();
+    KvdGetInputStream in = new KvdGetInputStream(() -> closed.set(true));
+    Thread producer = new Thread(() -> {
+      Random r = new Random(1);
+      int written = 0;
+      while(written < SIZE) {
+        byte[] chunk = new byte[Math.min(r.nextInt(100_000), SIZE - written)];
+        for(int i=0;i<chunk.length;i++) {
+          chunk[i] = (byte)(written + i);
+        }
+        in.fill(chunk);
+        written += chunk.length;
+      }
+      in.close();
+    });
+    producer.start();
+    Random r = new Random(2);
+    byte[] buf = new byte[70_000];
+    long pos = 0;
+    for(;;) {
+      int op = r.nextInt(3);
+      if(op == 0) {
+        int b = in.read();
+        if(b == -1) {
+          break;
+        }
+        assertEquals((byte)pos, (byte)b);
+        pos++;
+      } else if(op == 1) {
+        int read = in.read(buf, 0, r.nextInt(buf.length) + 1);
+        if(read == -1) {
+          break;
+        }
+        for(int i=0;i<read;i++) {
+          assertEquals((byte)(pos + i), buf[i]);
+        }
+        pos += read;
+      } else {
+        pos += in.skip(r.nextInt(1000));
+      }
+    }
+    producer.join();
+    assertEquals(SIZE, pos);
+    assertTrue(closed.get());
+  }
+
+  @Test
+  public void abortWakesReader() throws Exception {
+    KvdGetInputStream in = new KvdGetInputStream(() -> {});
+    Thread t = new Thread(() -> {
+      try {
+        Thread.sleep(100);
+      } catch(InterruptedException e) {
+        // ignore
+      }
+      in.abort();
+    });
+    t.start();
+    assertThrows(IOException.class, () -> in.read(new byte[10], 0, 10));
+    t.join();
+  }
+
+  @Test
+  public void readerCloseReleasesProducer() throws Exception {
+    KvdGetInputStream in = new KvdGetInputStream(() -> {});
+    Thread producer = new Thread(() -> {
+      for(int i=0;i<100;i++) {
+        in.fill(new byte[64*1024]);
+      }
+    });
+    producer.start();
+    in.read();
+    in.close();
+    producer.join(5000);
+    assertFalse(producer.isAlive());
+  }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class KvdHashRingTest {
+
+  private static final int KEYS = 100_000;
+
+  private static KvdHashRing<String> ring(int nodes) {
+    Map<String, String> m = new LinkedHashMap<>();
+    for(int i=0;i<nodes;i++) {
+      m.put("server" + i + ":3030", "server" + i);
+    }
+    return new KvdHashRing<>(m, 160);
+  }
+
+  @Test
+  public void balance() {
+    KvdHashRing<String> ring = ring(4);
+    Map<String, Integer> counts = new HashMap<>();
+    for(int i=0;i<KEYS;i++) {
+      counts.merge(ring.get(("key" + i).getBytes()), 1, Integer::sum);
+    }
+    assertEquals(4, counts.size());
+    counts.values().forEach(c -> assertTrue(Math.abs(c - KEYS/4) < KEYS/4*0.2, "unbalanced " + counts));
+  }
+
+  @Test
+  public void addMovesMinimalKeys() {
+    KvdHashRing<String> ring = ring(4);
+    KvdHashRing<String> grown = ring.with("server4:3030", "server4");
+    int moved = 0;
+    for(int i=0;i<KEYS;i++) {
+      byte[] key = ("key" + i).getBytes();
+      String before = ring.get(key);
+      String after = grown.get(key);
+      if(!before.equals(after)) {
+        // keys only move to the new node, never between the old ones
+        assertEquals("server4", after);
+        moved++;
+      }
+    }
+    assertTrue(Math.abs(moved - KEYS/5) < KEYS/5*0.2, "moved " + moved);
+  }
+
+  @Test
+  public void removeMovesOnlyKeysOfRemovedNode() {
+    KvdHashRing<String> ring = ring(5);
+    KvdHashRing<String> shrunk = ring.without("server2:3030");
+    for(int i=0;i<KEYS;i++) {
+      byte[] key = ("key" + i).getBytes();
+      String before = ring.get(key);
+      if(!before.equals("server2")) {
+        assertEquals(before, shrunk.get(key));
+      }
+    }
+  }
+
+  @Test
+  public void stable() {
+    // the same servers give the same assignment in every client
+    KvdHashRing<String> r1 = ring(3);
+    KvdHashRing<String> r2 = ring(3);
+    for(int i=0;i<1000;i++) {
+      byte[] key = ("key" + i).getBytes();
+      assertEquals(r1.get(key), r2.get(key));
+    }
+  }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class KvdLatencyHistogramTest {
+
+  @Test
+  public void bucketsCoverAllValues() {
+    int last = -1;
+    for(long v : new long[] {0, 1, 31, 32, 33, 63, 64, 1000, 1_000_000, Long.MAX_VALUE}) {
+      int index = KvdLatencyHistogram.index(v);
+      assertTrue(index > last);
+      long lowest = KvdLatencyHistogram.lowestValue(index);
+      assertTrue(lowest <= v);
+      // below 1/32 relative error
+      assertTrue((v - lowest) <= (v / 32), "value " + v + ", lowest " + lowest);
+      last = index;
+    }
+  }
+
+  @Test
+  public void percentiles() {
+    KvdLatencyHistogram h = new KvdLatencyHistogram();
+    assertEquals(0, h.getValueAtPercentile(99));
+    for(long v=1;v<=10_000;v++) {
+      h.record(v);
+    }
+    assertEquals(10_000, h.getCount());
+    assertEquals(10_000, h.getMax());
+    assertEquals(5000.5, h.getMean(), 0.001);
+    assertWithin(5000, h.getValueAtPercentile(50));
+    assertWithin(9900, h.getValueAtPercentile(99));
+    assertEquals(10_000, h.getValueAtPercentile(100), 10_000 / 32);
+    assertEquals(1, h.getValueAtPercentile(0));
+  }
+
+  @Test
+  public void concurrentRecording() throws Exception {
+    KvdLatencyHistogram h = new KvdLatencyHistogram();
+    Thread[] threads = new Thread[4];
+    for(int i=0;i<threads.length;i++) {
+      threads[i] = new Thread(() -> {
+        for(int j=0;j<100_000;j++) {
+          h.record(j);
+        }
+      });
+      threads[i].start();
+    }
+    for(Thread t : threads) {
+      t.join();
+    }
+    assertEquals(400_000, h.getCount());
+    assertEquals(99_999, h.getMax());
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue(Math.abs(expected - actual) <= (expected / 32), "expected " + expected + ", actual " + actual);
+  }
+
+}
@@ -40,6 +40,7 @@ public class PacketTest {
         .setType(PacketType.PUT_INIT)
         .setChannel(1)
         .setTx(5)
+        .setTimeoutMs(2500)
         .setPutInit(PutInitBody.newBuilder()
             .setTtlMs(TimeUnit.HOURS.toMillis(1))
             .setKey(ByteString.copyFromUtf8("testkey"))
@@ -66,6 +67,8 @@ public class PacketTest {
     assertEquals(putInit, p3);
     assertEquals(1, p3.getChannel());
     assertEquals(5, p3.getTx());
+    assertEquals(2500, p3.getTimeoutMs());
+    assertEquals(0, p2.getTimeoutMs());
     assertEquals(TimeUnit.HOURS.toMillis(1), p3.getPutInit().getTtlMs());
     assertEquals("testkey", p3.getPutInit().getKey().toStringUtf8());
     assertEquals(bye, p4);
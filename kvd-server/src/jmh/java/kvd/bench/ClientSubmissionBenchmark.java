@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import kvd.client.KvdClient;
+import kvd.server.Kvd;
+import kvd.server.util.FileUtils;
+
+/**
+ * Throughput of many application threads sharing one {@link KvdClient} (single connection). Compare the scores
+ * of the different thread counts, operations per second should grow with the number of threads as long as
+ * submitting operations and dispatching responses does not serialize them.
+ * Run with {@code gradle :kvd-server:jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientSubmissionBenchmark {
+
+  private static final int ASYNC_BATCH = 32;
+
+  private static final byte[] KEY = "bench".getBytes();
+
+  private File datadir;
+
+  private Kvd server;
+
+  private KvdClient client;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    datadir = Files.createTempDirectory("kvdbench").toFile();
+    Kvd.KvdOptions options = new Kvd.KvdOptions();
+    options.port = 0;
+    options.datadir = datadir;
+    options.logLevel = "warn";
+    server = new Kvd();
+    server.run(options);
+    client = server.newLocalClient();
+    client.putString("bench", "value");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    client.close();
+    server.shutdown();
+    FileUtils.deleteDirQuietly(datadir);
+  }
+
+  private boolean contains() {
+    return client.contains(KEY);
+  }
+
+  // every thread keeps a batch of requests in flight, mostly measures submission and dispatch
+  private int containsAsync() throws Exception {
+    List<CompletableFuture<Boolean>> futures = new ArrayList<>(ASYNC_BATCH);
+    for(int i=0;i<ASYNC_BATCH;i++) {
+      futures.add(client.containsAsync(KEY));
+    }
+    int found = 0;
+    for(CompletableFuture<Boolean> f : futures) {
+      if(f.get()) {
+        found++;
+      }
+    }
+    return found;
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean contains1() {
+    return contains();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public boolean contains8() {
+    return contains();
+  }
+
+  @Benchmark
+  @Threads(64)
+  public boolean contains64() {
+    return contains();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int containsAsync1() throws Exception {
+    return containsAsync();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public int containsAsync8() throws Exception {
+    return containsAsync();
+  }
+
+  @Benchmark
+  @Threads(64)
+  public int containsAsync64() throws Exception {
+    return containsAsync();
+  }
+
+}
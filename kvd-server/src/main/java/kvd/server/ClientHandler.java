@@ -13,12 +13,15 @@
  */
 package kvd.server;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -32,6 +35,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import kvd.common.KvdException;
 import kvd.common.Utils;
@@ -40,7 +44,10 @@ import kvd.common.packet.proto.Packet;
 import kvd.common.packet.proto.PacketType;
 import kvd.server.storage.StorageBackend;
 import kvd.server.storage.Transaction;
+import kvd.server.storage.ValueMetadata;
 import kvd.server.storage.concurrent.AcquireLockException;
+import kvd.server.storage.mapdb.expire.SoftExpiry;
+import kvd.server.util.Digests;
 
 public class ClientHandler implements Runnable, AutoCloseable {
 
@@ -62,10 +69,20 @@ public class ClientHandler implements Runnable, AutoCloseable {
 
   private Map<Integer, ChannelConsumer> channels = new HashMap<>();
 
-  private Map<Integer, Tx> transactions = new HashMap<>();
+  // by the transaction id the client has chosen
+  private Map<Integer, Tx> transactions = new ConcurrentHashMap<>();
+
+  // requests running on the pool by channel, cancelled when the client closes the channel
+  private Map<Integer, RequestContext> requests = new ConcurrentHashMap<>();
 
   private StorageBackend storage;
 
+  private ComputeLeases leases;
+
+  private SoftExpiry softExpiry;
+
+  private Invalidations invalidations;
+
   private ClientResponseHandler client;
 
   private Thread clientThread;
@@ -77,6 +94,7 @@ public class ClientHandler implements Runnable, AutoCloseable {
       .put(PacketType.PING, this::ping)
       .put(PacketType.BYE, this::bye)
       .put(PacketType.PUT_INIT, this::putInit)
+      .put(PacketType.APPEND_INIT, this::putInit)
       .put(PacketType.PUT_DATA, this::put)
       .put(PacketType.PUT_FINISH, this::put)
       .put(PacketType.PUT_ABORT, this::put)
@@ -89,24 +107,35 @@ public class ClientHandler implements Runnable, AutoCloseable {
       .put(PacketType.TX_ROLLBACK, this::txRollback)
       .put(PacketType.LOCK, this::lockRequest)
       .put(PacketType.REMOVEALL_REQUEST, this::removeAllRequest)
+      .put(PacketType.COMPUTE_LEASE, this::computeLease)
+      .put(PacketType.DIGEST_REQUEST, this::digestRequest)
+      .put(PacketType.COPY_REQUEST, this::copyRequest)
+      .put(PacketType.RENAME_REQUEST, this::copyRequest)
+      .put(PacketType.INVALIDATION_SUBSCRIBE, this::invalidationSubscribe)
       .build();
 
   private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 
-  private Map<Integer, ScheduledFuture<?>> txTimeouts = new HashMap<>();
+  private Map<Integer, ScheduledFuture<?>> txTimeouts = new ConcurrentHashMap<>();
 
   public ClientHandler(long clientId,
       Kvd.KvdOptions options,
       int socketSoTimeoutMs,
       int clientTimeoutSeconds,
       Socket socket,
-      StorageBackend storage) {
+      StorageBackend storage,
+      ComputeLeases leases,
+      SoftExpiry softExpiry,
+      Invalidations invalidations) {
     this.options = options;
     this.socketSoTimeoutMs = socketSoTimeoutMs;
     this.clientTimeoutSeconds = clientTimeoutSeconds;
     this.clientId = clientId;
     this.socket = socket;
     this.storage = storage;
+    this.leases = leases;
+    this.softExpiry = softExpiry;
+    this.invalidations = invalidations;
   }
 
   private synchronized void setupResponseHandler(OutputStream out) {
@@ -122,6 +151,8 @@ public class ClientHandler implements Runnable, AutoCloseable {
   public void run() {
     try {
       socket.setSoTimeout(socketSoTimeoutMs);
+      // responses are batched by the ClientResponseHandler, don't delay them any further
+      socket.setTcpNoDelay(true);
       log.info("client connect from '{}', id '{}'", socket.getRemoteSocketAddress(), clientId);
       in = socket.getInputStream();
       setupResponseHandler(socket.getOutputStream());
@@ -184,10 +215,16 @@ public class ClientHandler implements Runnable, AutoCloseable {
           storage,
           client,
           (tx!=null?tx.getTransaction():null),
-          options.logAccess);
-      createChannel(packet, c);
+          options.logAccess,
+          () -> fail(packet));
+      if((tx != null) && tx.isPipelined()) {
+        // data and finish follow without waiting for the init response, keep them in order with the init
+        createChannel(packet, new SequentialChannelConsumer(c, tx.getExecutor(), tx::fail));
+      } else {
+        createChannel(packet, c);
+      }
       // execute async as this might block
-      pool.execute(() -> c.accept(packet));
+      execute(packet, PacketType.PUT_ABORT, () -> c.accept(packet));
     }
   }
 
@@ -214,13 +251,19 @@ public class ClientHandler implements Runnable, AutoCloseable {
           storage,
           client,
           (tx!=null?tx.getTransaction():null),
-          options.logAccess);
+          options.logAccess,
+          softExpiry,
+          () -> fail(packet));
       createChannel(packet, c);
-      pool.execute(() -> c.accept(packet));
+      execute(packet, PacketType.GET_ABORT, () -> c.accept(packet));
     }
   }
 
   private void closeChannel(Packet packet) {
+    RequestContext request = requests.remove(packet.getChannel());
+    if(request != null) {
+      request.cancel();
+    }
     ChannelConsumer c = channels.remove(packet.getChannel());
     if(c != null) {
       try {
@@ -240,7 +283,8 @@ public class ClientHandler implements Runnable, AutoCloseable {
       log.warn("received contains request for tx '{}' but transaction does not exit", txId);
       client.sendAsync(Packets.packet(PacketType.CONTAINS_ABORT, packet.getChannel()));
     } else {
-      pool.execute(() -> containsRequest(packet, tx!=null?tx.getTransaction():null, key));
+      execute(packet, PacketType.CONTAINS_ABORT,
+          () -> containsRequest(packet, tx!=null?tx.getTransaction():null, key));
     }
   }
 
@@ -258,7 +302,7 @@ public class ClientHandler implements Runnable, AutoCloseable {
       } else {
         log.warn("contains failed", e);
       }
-      client.sendAsync(Packets.packet(PacketType.CONTAINS_ABORT, packet.getChannel()));
+      abort(packet, PacketType.CONTAINS_ABORT);
     }
   }
 
@@ -280,6 +324,67 @@ public class ClientHandler implements Runnable, AutoCloseable {
     }
   }
 
+  private void digestRequest(Packet packet) {
+    Key key = new Key(packet.getByteBody().toByteArray());
+    int txId = packet.getTx();
+    Tx tx = transactions.get(txId);
+    log.debug("digest req, txId '{}', tx '{}'", txId, tx);
+    if((txId!=0) && (tx==null)) {
+      log.warn("received digest request for tx '{}' but transaction does not exit", txId);
+      client.sendAsync(Packets.packet(PacketType.DIGEST_ABORT, packet.getChannel()));
+    } else {
+      execute(packet, PacketType.DIGEST_ABORT,
+          () -> digestRequest(packet, tx!=null?tx.getTransaction():null, key));
+    }
+  }
+
+  private void digestRequest(Packet packet, Transaction tx, Key key) {
+    try {
+      byte[] digest = digest(tx, key);
+      byte[] response;
+      if(digest != null) {
+        response = new byte[digest.length+1];
+        response[0] = 1;
+        System.arraycopy(digest, 0, response, 1, digest.length);
+      } else {
+        response = new byte[] {0};
+      }
+      client.sendAsync(Packets.packet(PacketType.DIGEST_RESPONSE, packet.getChannel(), response));
+    } catch(Exception e) {
+      if(e instanceof AcquireLockException) {
+        log.trace("digest failed", e);
+      } else {
+        log.warn("digest failed", e);
+      }
+      abort(packet, PacketType.DIGEST_ABORT);
+    }
+  }
+
+  private byte[] digest(Transaction tx, Key key) {
+    if(tx!=null) {
+      logAccess("digest", key, tx);
+      return digestValue(tx, key);
+    } else {
+      return storage.withTransaction(newTx -> {
+        logAccess("digest", key, newTx);
+        return digestValue(newTx, key);
+      });
+    }
+  }
+
+  private byte[] digestValue(Transaction tx, Key key) {
+    try(InputStream in = tx.get(key)) {
+      if(in == null) {
+        return null;
+      }
+      byte[] digest = (in instanceof ValueMetadata)?((ValueMetadata)in).getDigest():null;
+      // values without a stored digest (other backends or written by older versions) are hashed on demand
+      return digest!=null?digest:Digests.digest(in);
+    } catch(IOException e) {
+      throw new KvdException("digest failed on key " + key, e);
+    }
+  }
+
   private void removeRequest(Packet packet) {
     Key key = new Key(packet.getByteBody().toByteArray());
     int txId = packet.getTx();
@@ -289,7 +394,8 @@ public class ClientHandler implements Runnable, AutoCloseable {
       log.warn("received remove request for tx '{}' but transaction does not exit", txId);
       client.sendAsync(Packets.packet(PacketType.REMOVE_ABORT, packet.getChannel()));
     } else {
-      pool.execute(() -> removeRequest(packet, tx!=null?tx.getTransaction():null, key));
+      execute(packet, PacketType.REMOVE_ABORT,
+          () -> removeRequest(packet, tx!=null?tx.getTransaction():null, key));
     }
   }
 
@@ -305,7 +411,7 @@ public class ClientHandler implements Runnable, AutoCloseable {
       } else {
         log.warn("remove failed", e);
       }
-      client.sendAsync(Packets.packet(PacketType.REMOVE_ABORT, packet.getChannel()));
+      abort(packet, PacketType.REMOVE_ABORT);
     }
   }
 
@@ -321,6 +427,50 @@ public class ClientHandler implements Runnable, AutoCloseable {
     }
   }
 
+  private void copyRequest(Packet packet) {
+    boolean rename = PacketType.RENAME_REQUEST.equals(packet.getType());
+    Key source = new Key(packet.getCopy().getSource().toByteArray());
+    Key target = new Key(packet.getCopy().getTarget().toByteArray());
+    int txId = packet.getTx();
+    Tx tx = transactions.get(txId);
+    log.debug("{} req, txId '{}', tx '{}'", rename?"rename":"copy", txId, tx);
+    if((txId!=0) && (tx==null)) {
+      log.warn("received copy/rename request for tx '{}' but transaction does not exit", txId);
+      client.sendAsync(Packets.packet(rename?PacketType.RENAME_ABORT:PacketType.COPY_ABORT, packet.getChannel()));
+    } else {
+      execute(packet, rename?PacketType.RENAME_ABORT:PacketType.COPY_ABORT,
+          () -> copyRequest(packet, tx!=null?tx.getTransaction():null, source, target, rename));
+    }
+  }
+
+  private void copyRequest(Packet packet, Transaction tx, Key source, Key target, boolean rename) {
+    try {
+      boolean done = copy(tx, source, target, rename);
+      // race: if there was no outer transaction the step transaction must be committed before sending out the response
+      client.sendAsync(Packets.packet(rename?PacketType.RENAME_RESPONSE:PacketType.COPY_RESPONSE,
+          packet.getChannel(), new byte[] {(done?(byte)1:(byte)0)}));
+    } catch(Exception e) {
+      if(e instanceof AcquireLockException) {
+        log.trace("copy/rename failed", e);
+      } else {
+        log.warn("copy/rename failed", e);
+      }
+      abort(packet, rename?PacketType.RENAME_ABORT:PacketType.COPY_ABORT);
+    }
+  }
+
+  private boolean copy(Transaction tx, Key source, Key target, boolean rename) {
+    if(tx!=null) {
+      logAccess(rename?"rename":"copy", source, tx);
+      return rename?tx.rename(source, target):tx.copy(source, target);
+    } else {
+      return storage.withTransaction(newTx -> {
+        logAccess(rename?"rename":"copy", source, newTx);
+        return rename?newTx.rename(source, target):newTx.copy(source, target);
+      });
+    }
+  }
+
   private void lockRequest(Packet packet) {
     Key key = new Key(packet.getByteBody().toByteArray());
     int txId = packet.getTx();
@@ -330,7 +480,7 @@ public class ClientHandler implements Runnable, AutoCloseable {
       // can only lock key within transaction
       client.sendAsync(Packets.packet(PacketType.ABORT, packet.getChannel()));
     } else {
-      pool.execute(() -> lockRequest(packet, tx!=null?tx.getTransaction():null, key));
+      execute(packet, PacketType.ABORT, () -> lockRequest(packet, tx!=null?tx.getTransaction():null, key));
     }
   }
 
@@ -345,13 +495,42 @@ public class ClientHandler implements Runnable, AutoCloseable {
       } else {
         log.warn("remove failed", e);
       }
+      abort(packet, PacketType.ABORT);
+    }
+  }
+
+  private void computeLease(Packet packet) {
+    log.debug("compute lease req");
+    if(packet.getTx() != 0) {
+      // compute leases are not bound to client transactions
       client.sendAsync(Packets.packet(PacketType.ABORT, packet.getChannel()));
+    } else {
+      final ComputeLeaseConsumer c = new ComputeLeaseConsumer(
+          packet.getChannel(),
+          storage,
+          client,
+          leases,
+          options.logAccess);
+      createChannel(packet, c);
+      // execute async as this blocks until the lease is acquired
+      execute(packet, PacketType.ABORT, () -> c.accept(packet));
+    }
+  }
+
+  private void invalidationSubscribe(Packet packet) {
+    log.debug("invalidation subscribe req");
+    if((packet.getTx() != 0) || (invalidations == null)) {
+      client.sendAsync(Packets.packet(PacketType.ABORT, packet.getChannel()));
+    } else {
+      final InvalidationConsumer c = new InvalidationConsumer(packet.getChannel(), client, invalidations);
+      createChannel(packet, c);
+      c.accept(packet);
     }
   }
 
   private void removeAllRequest(Packet packet) {
     log.debug("remove all req");
-    pool.execute(() -> removeAll(packet));
+    execute(packet, PacketType.REMOVE_ABORT, () -> removeAll(packet));
   }
 
   private void removeAll(Packet packet) {
@@ -369,11 +548,27 @@ public class ClientHandler implements Runnable, AutoCloseable {
     }
   }
 
+  /**
+   * Begins the transaction with the id the client has chosen. The client does not wait for the transaction to
+   * begin, it sends the first operation of the transaction right after this packet. Nothing is sent back unless
+   * the transaction can't be started.
+   */
   private synchronized void txBegin(Packet packet) {
-    Transaction tx = storage.begin();
-    int txId = tx.handle();
-    if(txId >= 1) {
-      transactions.put(txId, new Tx(txId, packet.getChannel(), tx));
+    int txId = packet.getTx();
+    if(txId <= 0) {
+      log.error("wrong txId '{}', must be >= 1", txId);
+      client.sendAsync(Packets.packet(PacketType.TX_ABORT, packet.getChannel(), txId));
+    } else if(transactions.containsKey(txId)) {
+      log.error("transaction '{}' already exists", txId);
+      client.sendAsync(Packets.packet(PacketType.TX_ABORT, packet.getChannel(), txId));
+    } else {
+      boolean pipelined = packet.getTxBegin().isPipelined();
+      Transaction storageTx = storage.begin();
+      if(packet.getTxBegin().getDurability() != null) {
+        storageTx.setDurability(packet.getTxBegin().getDurability());
+      }
+      transactions.put(txId, new Tx(txId, packet.getChannel(), storageTx,
+          pipelined?MoreExecutors.newSequentialExecutor(pool):pool, pipelined));
       long timeoutMs = packet.getTxBegin().getTimeoutMs();
       if(timeoutMs > 0) {
         ScheduledFuture<?> f = scheduler.schedule(() -> {
@@ -381,79 +576,99 @@ public class ClientHandler implements Runnable, AutoCloseable {
         }, timeoutMs, TimeUnit.MILLISECONDS);
         txTimeouts.put(txId, f);
       }
-      client.sendAsync(Packets.packet(PacketType.TX_BEGIN, packet.getChannel(), txId));
-    } else {
-      log.error("wrong txId '{}', must be >= 1", txId);
-      client.sendAsync(Packets.packet(PacketType.TX_ABORT, packet.getChannel(), txId));
     }
   }
 
-  private synchronized void txAbort(Integer txId) {
-    Tx tx = transactions.get(txId);
+  private void txAbort(Integer txId) {
+    Tx tx = removeTx(txId);
     if(tx == null) {
       // already gone, ignore
       return;
     }
     log.debug("aborting transaction '{}'", txId);
     client.sendAsync(Packets.packet(PacketType.TX_ABORT, tx.getChannel(), txId));
-    txRollback(txId);
+    rollback(tx);
+  }
+
+  /**
+   * Removes the transaction and cancels its timeout, the caller owns the transaction afterwards and finishes it.
+   * Only this bookkeeping runs under the lock, commits wait for the group commit and must not block the others.
+   */
+  private synchronized Tx removeTx(int txId) {
+    Tx tx = transactions.remove(txId);
+    Future<?> f = txTimeouts.remove(txId);
+    if(f != null) {
+      f.cancel(false);
+    }
+    return tx;
   }
 
   private void txCommit(Packet packet) {
-    txCommit(packet.getTx());
+    Tx tx = transactions.get(packet.getTx());
+    if(tx != null) {
+      // not on the receive thread, the commit waits for the group commit.
+      // pipelined transactions commit after the operations that are still queued
+      tx.getExecutor().execute(() -> txCommit(packet.getTx()));
+    } else {
+      txCommit(packet.getTx());
+    }
   }
 
-  private synchronized void txCommit(int txId) {
-    Tx tx = transactions.get(txId);
+  private void txCommit(int txId) {
+    if(txId == 0) {
+      log.warn("received tx commit for txId 0 (NO_TX), ignore");
+      return;
+    }
+    Tx tx = removeTx(txId);
     log.debug("tx commit, txId '{}', tx '{}'", txId, tx);
-    if((txId!=0) && (tx==null)) {
+    if(tx == null) {
       log.warn("received tx commit for txId '{}' but transaction does not exit", txId);
-    } else if(txId == 0) {
-      log.warn("received tx commit for txId 0 (NO_TX), ignore");
-    } else {
-      try {
+      return;
+    }
+    try {
+      if(tx.isRollbackOnly()) {
+        log.debug("operation in pipelined transaction '{}' failed, rollback", txId);
+        tx.getTransaction().rollback();
+        client.sendAsync(Packets.packet(PacketType.TX_ABORT, tx.getChannel(), txId));
+      } else {
         tx.getTransaction().commit();
-      } finally {
-        try {
-          client.sendAsync(Packets.packet(PacketType.TX_CLOSED, tx.getChannel(), txId));
-        } finally {
-          transactions.remove(txId);
-          Future<?> f = txTimeouts.get(txId);
-          if(f != null) {
-            txTimeouts.remove(txId);
-            f.cancel(false);
-          }
-        }
       }
+    } catch(Exception e) {
+      log.warn("tx commit failed, txId '{}'", txId, e);
+      client.sendAsync(Packets.packet(PacketType.TX_ABORT, tx.getChannel(), txId));
+    } finally {
+      client.sendAsync(Packets.packet(PacketType.TX_CLOSED, tx.getChannel(), txId));
     }
   }
 
   private void txRollback(Packet packet) {
-    txRollback(packet.getTx());
+    Tx tx = transactions.get(packet.getTx());
+    if(tx != null) {
+      tx.getExecutor().execute(() -> txRollback(packet.getTx()));
+    } else {
+      txRollback(packet.getTx());
+    }
   }
 
-  private synchronized void txRollback(int txId) {
-    Tx tx = transactions.get(txId);
+  private void txRollback(int txId) {
+    if(txId == 0) {
+      log.warn("received tx rollback for txId 0 (NO_TX), ignore");
+      return;
+    }
+    Tx tx = removeTx(txId);
     log.debug("tx rollback, txId '{}', tx '{}'", txId, tx);
-    if((txId!=0) && (tx==null)) {
+    if(tx == null) {
       log.warn("received tx rollback for txId '{}' but transaction does not exit", txId);
-    } else if(txId == 0) {
-      log.warn("received tx rollback for txId 0 (NO_TX), ignore");
-    } else {
-      try {
-        tx.getTransaction().rollback();
-      } finally {
-        try {
-          client.sendAsync(Packets.packet(PacketType.TX_CLOSED, tx.getChannel(), txId));
-        } finally {
-          transactions.remove(txId);
-          Future<?> f = txTimeouts.get(txId);
-          if(f != null) {
-            txTimeouts.remove(txId);
-            f.cancel(false);
-          }
-        }
-      }
+      return;
+    }
+    rollback(tx);
+  }
+
+  private void rollback(Tx tx) {
+    try {
+      tx.getTransaction().rollback();
+    } finally {
+      client.sendAsync(Packets.packet(PacketType.TX_CLOSED, tx.getChannel(), tx.getTxId()));
     }
   }
 
@@ -468,6 +683,52 @@ public class ClientHandler implements Runnable, AutoCloseable {
     }
   }
 
+  /**
+   * Run the request on the pool within its {@link RequestContext}. Requests that are past their deadline
+   * by the time a thread picks them up are answered with the abort packet without touching the storage,
+   * cancelled requests are dropped.
+   */
+  private void execute(Packet packet, PacketType abortType, Runnable request) {
+    int channel = packet.getChannel();
+    RequestContext context = new RequestContext(packet.getTimeoutMs());
+    requests.put(channel, context);
+    Tx tx = transactions.get(packet.getTx());
+    // operations of pipelined transactions run one after the other in the order they were sent
+    Executor executor = (tx != null)?tx.getExecutor():pool;
+    executor.execute(() -> {
+      try {
+        if(context.isCancelled()) {
+          log.debug("dropped cancelled request '{}', channel '{}'", packet.getType(), channel);
+        } else if(context.isExpired()) {
+          log.debug("dropped expired request '{}', channel '{}'", packet.getType(), channel);
+          abort(packet, abortType);
+        } else {
+          context.run(request);
+        }
+      } finally {
+        requests.remove(channel, context);
+      }
+    });
+  }
+
+  /**
+   * Answer a failed request with the abort packet.
+   */
+  private void abort(Packet packet, PacketType abortType) {
+    fail(packet);
+    client.sendAsync(Packets.packet(abortType, packet.getChannel()));
+  }
+
+  /**
+   * Record the failure on the transaction of the request, see {@link Tx#isRollbackOnly()}.
+   */
+  private void fail(Packet packet) {
+    Tx tx = transactions.get(packet.getTx());
+    if(tx != null) {
+      tx.fail();
+    }
+  }
+
   private void createChannel(Packet packet, ChannelConsumer c) {
     int channel = packet.getChannel();
     if(!channels.containsKey(channel)) {
@@ -483,6 +744,8 @@ public class ClientHandler implements Runnable, AutoCloseable {
   }
 
   private void closeAllChannels() {
+    requests.values().forEach(RequestContext::cancel);
+    requests.clear();
     channels.values().forEach(c -> {
       Utils.closeQuietly(c);
     });
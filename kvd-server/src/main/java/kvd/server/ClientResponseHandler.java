@@ -13,7 +13,10 @@
  */
 package kvd.server;
 
+import java.io.BufferedOutputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -30,6 +33,11 @@ public class ClientResponseHandler implements Runnable, AutoCloseable {
 
   private static final Logger log = LoggerFactory.getLogger(ClientResponseHandler.class);
 
+  private static final int SEND_BUFFER_SIZE = 64*1024;
+
+  // packets taken from the queue at once, written with a single flush
+  private static final int MAX_BATCH = 256;
+
   private OutputStream out;
 
   private BlockingQueue<Packet> sendQueue = new ArrayBlockingQueue<>(100);
@@ -38,11 +46,12 @@ public class ClientResponseHandler implements Runnable, AutoCloseable {
 
   public ClientResponseHandler(OutputStream out) {
     super();
-    this.out = out;
+    this.out = new BufferedOutputStream(out, SEND_BUFFER_SIZE);
   }
 
   @Override
   public void run() {
+    List<Packet> batch = new ArrayList<>();
     try {
       while(true) {
         if(isClosed() && sendQueue.isEmpty()) {
@@ -50,11 +59,17 @@ public class ClientResponseHandler implements Runnable, AutoCloseable {
         }
         Packet packet = sendQueue.poll(1, TimeUnit.SECONDS);
         if(packet != null) {
-          try {
-            packet.writeDelimitedTo(out);
-          } catch(Exception e) {
-            throw new KvdException("failed to write packet, " + packet.getType());
+          batch.add(packet);
+          sendQueue.drainTo(batch, MAX_BATCH - 1);
+          for(Packet p : batch) {
+            try {
+              p.writeDelimitedTo(out);
+            } catch(Exception e) {
+              throw new KvdException("failed to write packet, " + p.getType());
+            }
           }
+          batch.clear();
+          out.flush();
         }
       }
     } catch(Exception e) {
@@ -85,6 +100,17 @@ public class ClientResponseHandler implements Runnable, AutoCloseable {
     throw new KvdException("already closed");
   }
 
+  /**
+   * Queues the packet if the send queue has room, never blocks.
+   * @return {@code false} if the send queue is full
+   */
+  public boolean trySendAsync(Packet packet) {
+    if(closed.get()) {
+      throw new KvdException("already closed");
+    }
+    return sendQueue.offer(packet);
+  }
+
   public boolean isClosed() {
     return closed.get();
   }
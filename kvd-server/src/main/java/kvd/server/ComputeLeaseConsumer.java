@@ -0,0 +1,134 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kvd.common.KvdException;
+import kvd.common.packet.Packets;
+import kvd.common.packet.proto.ComputeLeaseBody;
+import kvd.common.packet.proto.Packet;
+import kvd.common.packet.proto.PacketType;
+import kvd.server.storage.StorageBackend;
+
+/**
+ * Single flight compute if absent. The first client asking for a missing key gets the lease and is told to
+ * compute the value, other clients block until the lease is released (channel closed) or expires.
+ * Once woken up the key is checked again. No client transaction is involved.
+ */
+public class ComputeLeaseConsumer implements ChannelConsumer {
+
+  private static final Logger log = LoggerFactory.getLogger(ComputeLeaseConsumer.class);
+
+  private int channel;
+
+  private StorageBackend storage;
+
+  private ClientResponseHandler client;
+
+  private ComputeLeases leases;
+
+  private AtomicBoolean closed = new AtomicBoolean(false);
+
+  private Key key;
+
+  private boolean logAccess;
+
+  public ComputeLeaseConsumer(int channel,
+      StorageBackend storage,
+      ClientResponseHandler client,
+      ComputeLeases leases,
+      boolean logAccess) {
+    super();
+    this.channel = channel;
+    this.storage = storage;
+    this.client = client;
+    this.leases = leases;
+    this.logAccess = logAccess;
+  }
+
+  @Override
+  public void accept(Packet packet) {
+    if(PacketType.COMPUTE_LEASE.equals(packet.getType())) {
+      if(channel != packet.getChannel()) {
+        throw new KvdException("channel mismatch");
+      }
+      try {
+        ComputeLeaseBody body = packet.getComputeLease();
+        setKey(new Key(body.getKey().toByteArray()));
+        if(logAccess) {
+          log.info("compute lease '{}'", key);
+        }
+        if(contains(key)) {
+          respond(false);
+          return;
+        }
+        RequestContext request = RequestContext.current();
+        if(!leases.acquire(key, this, body.getLeaseMs(),
+            () -> closed.get() || ((request != null) && request.isDone()))) {
+          if(!closed.get()) {
+            log.debug("compute lease on '{}' not acquired, {}", key, request.doneReason());
+            client.sendAsync(Packets.packet(PacketType.ABORT, channel));
+          }
+          return;
+        }
+        // the value might have been put while waiting for the lease or between the first check
+        // and acquiring the lease
+        if(closed.get() || contains(key)) {
+          leases.release(key, this);
+          respond(false);
+        } else {
+          respond(true);
+        }
+      } catch(Exception e) {
+        log.warn("compute lease failed", e);
+        release();
+        client.sendAsync(Packets.packet(PacketType.ABORT, channel));
+      }
+    } else {
+      throw new KvdException("unexpected packet type " + packet.getType());
+    }
+  }
+
+  private synchronized void setKey(Key key) {
+    this.key = key;
+  }
+
+  private synchronized void release() {
+    if(key != null) {
+      leases.release(key, this);
+    }
+  }
+
+  private boolean contains(Key key) {
+    return storage.withTransaction(tx -> tx.contains(key));
+  }
+
+  private void respond(boolean granted) {
+    if(!closed.get()) {
+      client.sendAsync(Packets.packet(PacketType.COMPUTE_LEASE,
+          channel, new byte[] {(granted?(byte)1:(byte)0)}));
+    }
+  }
+
+  @Override
+  public void close() throws Exception {
+    closed.set(true);
+    release();
+  }
+
+}
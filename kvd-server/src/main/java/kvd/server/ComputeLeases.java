@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server wide compute leases, see {@link ComputeLeaseConsumer}. At most one owner holds the lease on a key at any time,
+ * others wait until the lease is released or expires.
+ */
+public class ComputeLeases {
+
+  private static final Logger log = LoggerFactory.getLogger(ComputeLeases.class);
+
+  private static class Lease {
+
+    private Object owner;
+
+    private long expiresNs;
+
+    public Lease(Object owner, long leaseMs) {
+      this.owner = owner;
+      this.expiresNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(leaseMs);
+    }
+
+    private long remainingMs() {
+      return TimeUnit.NANOSECONDS.toMillis(expiresNs - System.nanoTime());
+    }
+
+    private boolean isExpired() {
+      return (System.nanoTime() - expiresNs) >= 0;
+    }
+
+  }
+
+  private Map<Key, Lease> leases = new HashMap<>();
+
+  /**
+   * Blocks until the lease on the key has been acquired by the owner or the wait has been cancelled.
+   * The cancel condition is checked again at least every {@link RequestContext#waitMs()} while the thread works on a
+   * client request.
+   * @return {@code true} if the owner holds the lease, {@code false} if cancelled
+   */
+  public synchronized boolean acquire(Key key, Object owner, long leaseMs, BooleanSupplier cancelled)
+      throws InterruptedException {
+    for(;;) {
+      if(cancelled.getAsBoolean()) {
+        return false;
+      }
+      Lease lease = leases.get(key);
+      if(lease == null) {
+        leases.put(key, new Lease(owner, leaseMs));
+        return true;
+      } else if(lease.isExpired()) {
+        log.debug("compute lease on key '{}' expired, new owner '{}'", key, owner);
+        leases.put(key, new Lease(owner, leaseMs));
+        return true;
+      } else {
+        RequestContext request = RequestContext.current();
+        long waitMs = Math.max(1, lease.remainingMs());
+        wait(request!=null?Math.min(waitMs, request.waitMs()):waitMs);
+      }
+    }
+  }
+
+  /**
+   * Release the lease on the key if held by the owner and wake up all waiting threads.
+   */
+  public synchronized void release(Key key, Object owner) {
+    Lease lease = leases.get(key);
+    if((lease != null) && (lease.owner == owner)) {
+      leases.remove(key);
+    }
+    notifyAll();
+  }
+
+}
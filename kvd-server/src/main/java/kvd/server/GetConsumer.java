@@ -14,6 +14,7 @@
 package kvd.server;
 
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
@@ -21,11 +22,14 @@ import org.slf4j.LoggerFactory;
 
 import kvd.common.KvdException;
 import kvd.common.packet.Packets;
+import kvd.common.packet.proto.GetInitBody;
 import kvd.common.packet.proto.Packet;
 import kvd.common.packet.proto.PacketType;
 import kvd.server.storage.StorageBackend;
 import kvd.server.storage.Transaction;
+import kvd.server.storage.ValueMetadata;
 import kvd.server.storage.concurrent.AcquireLockException;
+import kvd.server.storage.mapdb.expire.SoftExpiry;
 
 public class GetConsumer implements ChannelConsumer {
 
@@ -43,13 +47,28 @@ public class GetConsumer implements ChannelConsumer {
 
   private boolean logAccess;
 
-  public GetConsumer(int channel, StorageBackend storage, ClientResponseHandler client, Transaction tx, boolean logAccess) {
+  private SoftExpiry softExpiry;
+
+  private Runnable onAbort;
+
+  /**
+   * @param onAbort called when the get fails and is answered with {@link PacketType#GET_ABORT}
+   */
+  public GetConsumer(int channel,
+      StorageBackend storage,
+      ClientResponseHandler client,
+      Transaction tx,
+      boolean logAccess,
+      SoftExpiry softExpiry,
+      Runnable onAbort) {
     super();
     this.channel = channel;
     this.client = client;
     txOwner = (tx==null);
     this.tx = txOwner?storage.begin():tx;
     this.logAccess = logAccess;
+    this.softExpiry = softExpiry;
+    this.onAbort = onAbort;
   }
 
   @Override
@@ -58,30 +77,42 @@ public class GetConsumer implements ChannelConsumer {
       if(channel != packet.getChannel()) {
         throw new KvdException("channel mismatch");
       }
+      RequestContext request = RequestContext.current();
       try {
-        Key key = new Key(packet.getByteBody().toByteArray());
+        GetInitBody init = packet.getGetInit();
+        Key key = new Key(init.getKey().toByteArray());
         if(logAccess) {
           log.info("get '{}' / tx '{}'", key, tx.handle());
         }
         try(InputStream in = tx.get(key)) {
           if(in != null) {
-            // Send an empty packet so the client can distinguish between
-            // non existing keys and keys with an empty value.
-            // This is only required on empty values when no other GET_DATA packets are send
-            // but to keep things simple here just send it first thing once before the loop.
-            client.sendAsync(Packets.packet(PacketType.GET_DATA, channel, new byte[0]));
-            while(!closed.get()) {
-              byte[] buf = new byte[16*1024];
-              int read = in.read(buf);
-              if(read < 0) {
-                break;
-              } else if(read > 0) {
-                if(read == buf.length) {
-                  client.sendAsync(Packets.packet(PacketType.GET_DATA, channel, buf));
-                } else {
-                  byte[] send = new byte[read];
-                  System.arraycopy(buf, 0, send, 0, read);
-                  client.sendAsync(Packets.packet(PacketType.GET_DATA, channel, send));
+            sendStale(key, in);
+            if(sendDigest(in, init)) {
+              // the client already has this value, don't send it again
+              client.sendAsync(Packets.packet(PacketType.GET_NOT_MODIFIED, channel));
+            } else {
+              // Send an empty packet so the client can distinguish between
+              // non existing keys and keys with an empty value.
+              // This is only required on empty values when no other GET_DATA packets are send
+              // but to keep things simple here just send it first thing once before the loop.
+              client.sendAsync(Packets.packet(PacketType.GET_DATA, channel, new byte[0]));
+              while(!closed.get()) {
+                if((request != null) && request.isExpired()) {
+                  // stop streaming, the client gave up on the value
+                  throw new KvdException(request.doneReason());
+                }
+                byte[] buf = new byte[16*1024];
+                int read = in.read(buf);
+                if(read < 0) {
+                  break;
+                } else if(read > 0) {
+                  if(read == buf.length) {
+                    client.sendAsync(Packets.packet(PacketType.GET_DATA, channel, buf));
+                  } else {
+                    byte[] send = new byte[read];
+                    System.arraycopy(buf, 0, send, 0, read);
+                    client.sendAsync(Packets.packet(PacketType.GET_DATA, channel, send));
+                  }
                 }
               }
             }
@@ -89,10 +120,12 @@ public class GetConsumer implements ChannelConsumer {
         } catch(Exception e) {
           if(e instanceof AcquireLockException) {
             log.debug("get acquire lock failed on key '{}'", key, e);
+          } else if((request != null) && request.isDone()) {
+            log.debug("get on key '{}' stopped, {}", key, request.doneReason());
           } else {
             log.warn("get failed on key '{}'", key, e);
           }
-          client.sendAsync(Packets.packet(PacketType.GET_ABORT, channel));
+          abort();
         }
         if(txOwner) {
           tx.commit();
@@ -102,7 +135,7 @@ public class GetConsumer implements ChannelConsumer {
         }
       } catch(Exception e) {
         log.error("get failed", e);
-        client.sendAsync(Packets.packet(PacketType.GET_ABORT, channel));
+        abort();
       } finally {
         closed.set(true);
       }
@@ -111,6 +144,32 @@ public class GetConsumer implements ChannelConsumer {
     }
   }
 
+  private void abort() {
+    onAbort.run();
+    client.sendAsync(Packets.packet(PacketType.GET_ABORT, channel));
+  }
+
+  private boolean sendDigest(InputStream in, GetInitBody init) {
+    byte[] digest = (in instanceof ValueMetadata)?((ValueMetadata)in).getDigest():null;
+    if(digest != null) {
+      client.sendAsync(Packets.packet(PacketType.GET_DIGEST, channel, digest));
+      return init.hasIfNoneMatch() && Arrays.equals(digest, init.getIfNoneMatch());
+    } else {
+      return false;
+    }
+  }
+
+  private void sendStale(Key key, InputStream in) {
+    if((softExpiry != null) && (in instanceof ValueMetadata)) {
+      SoftExpiry.State state = softExpiry.check(key, ((ValueMetadata)in).getCreated());
+      if(!SoftExpiry.State.FRESH.equals(state)) {
+        // tell the client that the value is stale and if it should refresh the value
+        client.sendAsync(Packets.packet(PacketType.GET_STALE, channel,
+            new byte[] {(SoftExpiry.State.REFRESH.equals(state)?(byte)1:(byte)0)}));
+      }
+    }
+  }
+
   @Override
   public void close() throws Exception {
     closed.set(true);
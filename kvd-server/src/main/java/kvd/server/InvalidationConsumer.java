@@ -0,0 +1,121 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kvd.common.KvdException;
+import kvd.common.packet.Packets;
+import kvd.common.packet.proto.Packet;
+import kvd.common.packet.proto.PacketType;
+
+/**
+ * Channel of a client that subscribed to key invalidations. The subscription is acknowledged with an
+ * INVALIDATION_SUBSCRIBE packet, afterwards every changed key is pushed as INVALIDATE packet
+ * (empty body means all keys) until the channel is closed. Invalidations that don't fit into the send queue of
+ * the client are held back in a small backlog, a client that falls further behind gets a single invalidate all.
+ */
+public class InvalidationConsumer implements ChannelConsumer {
+
+  private static final Logger log = LoggerFactory.getLogger(InvalidationConsumer.class);
+
+  static final int MAX_BACKLOG = 256;
+
+  private static final byte[] ALL = new byte[0];
+
+  private int channel;
+
+  private ClientResponseHandler client;
+
+  private Invalidations invalidations;
+
+  private AtomicBoolean closed = new AtomicBoolean(false);
+
+  // only used by the invalidations thread
+  private Deque<byte[]> backlog = new ArrayDeque<>();
+
+  // the backlog holds an invalidate all, it covers everything that comes after until it has been sent
+  private boolean allPending;
+
+  public InvalidationConsumer(int channel, ClientResponseHandler client, Invalidations invalidations) {
+    super();
+    this.channel = channel;
+    this.client = client;
+    this.invalidations = invalidations;
+  }
+
+  @Override
+  public void accept(Packet packet) {
+    if(PacketType.INVALIDATION_SUBSCRIBE.equals(packet.getType())) {
+      if(channel != packet.getChannel()) {
+        throw new KvdException("channel mismatch");
+      }
+      invalidations.subscribe(this);
+      client.sendAsync(Packets.packet(PacketType.INVALIDATION_SUBSCRIBE, channel));
+    } else {
+      throw new KvdException("unexpected packet type " + packet.getType());
+    }
+  }
+
+  /**
+   * Queues the invalidation without blocking, the send queue of the client might be full (e.g. the client does not
+   * read a large value fast enough).
+   */
+  void invalidate(byte[] key) {
+    if(closed.get()) {
+      return;
+    }
+    if(!allPending) {
+      if((key.length == 0) || (backlog.size() >= MAX_BACKLOG)) {
+        backlog.clear();
+        backlog.add(ALL);
+        allPending = true;
+      } else {
+        backlog.add(key);
+      }
+    }
+    flush();
+  }
+
+  /**
+   * Hands the backlog to the send queue of the client as far as it has room.
+   */
+  void flush() {
+    try {
+      while(!backlog.isEmpty() && !closed.get()) {
+        if(!client.trySendAsync(Packets.packet(PacketType.INVALIDATE, channel, backlog.peek()))) {
+          break;
+        }
+        if(backlog.poll() == ALL) {
+          allPending = false;
+        }
+      }
+    } catch(Exception e) {
+      log.debug("failed to send invalidation, unsubscribe", e);
+      invalidations.unsubscribe(this);
+    }
+  }
+
+  @Override
+  public void close() throws Exception {
+    closed.set(true);
+    invalidations.unsubscribe(this);
+  }
+
+}
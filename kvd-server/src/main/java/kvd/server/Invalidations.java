@@ -0,0 +1,104 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server;
+
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kvd.server.storage.KeyChangeListener;
+
+/**
+ * Fans out key change notifications to the clients that subscribed for invalidations (client near caches).
+ * Notifications are queued and sent from a separate thread so storage commits never wait on slow clients.
+ * The thread never waits on a client either, see {@link InvalidationConsumer#invalidate(byte[])}.
+ */
+public class Invalidations implements KeyChangeListener {
+
+  private static final Logger log = LoggerFactory.getLogger(Invalidations.class);
+
+  // marker for invalidate all
+  private static final Key ALL = new Key(new byte[0]);
+
+  // how often invalidations held back by clients that did not keep up are retried
+  private static final long RETRY_MS = 100;
+
+  private Set<InvalidationConsumer> subscribers = new CopyOnWriteArraySet<>();
+
+  private BlockingQueue<Key> queue = new LinkedBlockingQueue<>();
+
+  private volatile boolean stopped;
+
+  private Thread thread;
+
+  public synchronized void start() {
+    if(thread == null) {
+      thread = new Thread(this::run, "kvd-invalidations");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  public synchronized void stop() {
+    stopped = true;
+    if(thread != null) {
+      thread.interrupt();
+      thread = null;
+    }
+  }
+
+  @Override
+  public void changed(Key key) {
+    if(!subscribers.isEmpty()) {
+      queue.add(key);
+    }
+  }
+
+  @Override
+  public void changedAll() {
+    if(!subscribers.isEmpty()) {
+      queue.add(ALL);
+    }
+  }
+
+  void subscribe(InvalidationConsumer subscriber) {
+    subscribers.add(subscriber);
+  }
+
+  void unsubscribe(InvalidationConsumer subscriber) {
+    subscribers.remove(subscriber);
+  }
+
+  private void run() {
+    try {
+      while(!stopped) {
+        Key key = queue.poll(RETRY_MS, TimeUnit.MILLISECONDS);
+        if(key != null) {
+          byte[] body = (key == ALL)?new byte[0]:key.getBytes();
+          subscribers.forEach(s -> s.invalidate(body));
+        } else {
+          subscribers.forEach(InvalidationConsumer::flush);
+        }
+      }
+    } catch(InterruptedException e) {
+      log.debug("interrupted, exiting...");
+    }
+  }
+
+}
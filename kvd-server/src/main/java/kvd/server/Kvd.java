@@ -34,6 +34,7 @@ import com.beust.jcommander.Parameter;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.LoggerContext;
 import kvd.client.KvdClient;
+import kvd.common.Durability;
 import kvd.common.KvdException;
 import kvd.common.Utils;
 import kvd.common.Version;
@@ -43,6 +44,7 @@ import kvd.server.storage.concurrent.OptimisticLockStorageBackend;
 import kvd.server.storage.concurrent.PessimisticLockStorageBackend;
 import kvd.server.storage.mapdb.MapdbStorageBackend;
 import kvd.server.storage.mapdb.expire.ExpiredKeysRemover;
+import kvd.server.storage.mapdb.expire.SoftExpiry;
 import kvd.server.util.DeadlockDetector;
 import kvd.server.util.HumanReadable;
 import kvd.server.util.HumanReadableBytes;
@@ -94,6 +96,17 @@ public class Kvd {
         + "defaults to seconds.")
     public String expireAfterWrite;
 
+    @Parameter(names="--soft-expire-after-write", description="entries older than this duration are still served "
+        + "but flagged stale so that a single client refreshes them (stale-while-revalidate). Combine with "
+        + "--expire-after-write to remove entries eventually. Defaults to disabled. Duration unit can be specified "
+        + "ms, s, m, h, d, defaults to seconds.")
+    public String softExpireAfterWrite;
+
+    @Parameter(names="--soft-expire-refresh-timeout", description="hand out the refresh of a stale entry again to "
+        + "another client when it has not been refreshed within this duration."
+        + " Unit can be specified ms, s, m, h, d, defaults to seconds.")
+    public String softExpireRefreshTimeout = "1m";
+
     @Parameter(names="--expire-check-interval", description="how often to check for expired keys."
         + " Unit can be specified ms, s, m, h, d, defaults to seconds.")
     public String expireCheckInterval;
@@ -106,6 +119,25 @@ public class Kvd {
         + " Unit can be specified (k,kb,ki,m,mb,mi,g,gb,gi,t,tb,ti).")
     public String blobSplitSize = "16ti";
 
+    @Parameter(names="--group-commit-max-batch", description="maximum number of transactions written to MapDB"
+        + " with a single (syncing) commit")
+    public int groupCommitMaxBatch = 256;
+
+    @Parameter(names="--group-commit-max-wait", description="how long a commit waits for concurrent commits to"
+        + " join its group commit. Defaults to 0, only commits that queued up during the previous group commit"
+        + " join. Unit can be specified ms, s, m, h, d, defaults to milliseconds.")
+    public String groupCommitMaxWait = "0";
+
+    @Parameter(names="--durability", description="default durability of transactions that don't ask for one,"
+        + " options: SYNC (blobs are synced and the commit is durable before it is acknowledged),"
+        + " ASYNC (acknowledged right away, committed and synced within the async commit window),"
+        + " NONE (like ASYNC but blobs are never synced, for cache data that can be recomputed)")
+    public Durability durability = Durability.SYNC;
+
+    @Parameter(names="--async-commit-window", description="ASYNC and NONE writes are committed within this"
+        + " window. Unit can be specified ms, s, m, h, d, defaults to seconds.")
+    public String asyncCommitWindow = "1s";
+
     @Parameter(names="--disable-deadlock-detector", description="disable thread deadlock detector")
     public boolean disableDeadlockDetector;
 
@@ -135,6 +167,8 @@ public class Kvd {
 
   private ExpiredKeysRemover expiredKeysRemover;
 
+  private Invalidations invalidations;
+
   private DeadlockDetector deadlockDetector = new DeadlockDetector();
 
   private StorageBackend setupConcurrencyControl(KvdOptions options, StorageBackend downstream) {
@@ -162,7 +196,28 @@ public class Kvd {
         defaultDb,
         HumanReadableBytes.parseLong(options.blobThreshold),
         HumanReadableBytes.parseLong(options.blobSplitSize),
-        options.enableMmap);
+        options.enableMmap,
+        options.groupCommitMaxBatch,
+        HumanReadable.parseDurationToMillis(options.groupCommitMaxWait, TimeUnit.MILLISECONDS),
+        options.durability,
+        HumanReadable.parseDurationToMillis(options.asyncCommitWindow, TimeUnit.SECONDS));
+  }
+
+  private SoftExpiry createSoftExpiry(KvdOptions options) {
+    Long softExpireAfterWriteMs = HumanReadable.parseDurationToMillisOrNull(
+        options.softExpireAfterWrite, TimeUnit.SECONDS);
+    if(softExpireAfterWriteMs != null) {
+      Long expireAfterWriteMs = HumanReadable.parseDurationToMillisOrNull(options.expireAfterWrite, TimeUnit.SECONDS);
+      if((expireAfterWriteMs != null) && (softExpireAfterWriteMs >= expireAfterWriteMs)) {
+        throw new KvdException(String.format(
+            "soft expire after write '%s' must be shorter than expire after write '%s'",
+            options.softExpireAfterWrite, options.expireAfterWrite));
+      }
+      return new SoftExpiry(softExpireAfterWriteMs,
+          HumanReadable.parseDuration(options.softExpireRefreshTimeout, TimeUnit.SECONDS, TimeUnit.MILLISECONDS));
+    } else {
+      return null;
+    }
   }
 
   private void logJvmInfo() {
@@ -208,6 +263,7 @@ public class Kvd {
       log.info("{}", version.version());
     }
     logJvmInfo();
+    SoftExpiry softExpiry = createSoftExpiry(options);
     if(!options.disableDeadlockDetector) {
       deadlockDetector.start(options.deadlockDetectorIntervalMs, options.deadlockDectorAction);
     } else {
@@ -221,9 +277,15 @@ public class Kvd {
         HumanReadable.parseDurationToMillisOrNull(options.expireAfterWrite, TimeUnit.SECONDS),
         HumanReadable.parseDurationToMillisOrNull(options.expireCheckInterval, TimeUnit.SECONDS),
         sb,
-        mapdb.getStore().getExpireDb());
+        mapdb.getStore());
     expiredKeysRemover.start(options.logExpired);
-    handler = new SocketConnectHandler(options, sb);
+    if(softExpiry != null) {
+      mapdb.getStore().registerChangeListener(softExpiry);
+    }
+    invalidations = new Invalidations();
+    mapdb.getStore().registerChangeListener(invalidations);
+    invalidations.start();
+    handler = new SocketConnectHandler(options, sb, softExpiry, invalidations);
     socketServer = new SimpleSocketServer(options.port, handler);
     socketServer.start();
     log.info("started socket server on port '{}', max clients '{}'", socketServer.getLocalPort(), options.maxClients);
@@ -239,13 +301,23 @@ public class Kvd {
 
   public void shutdown() {
     getSocketServer().stop();
+    handler.disconnectAll();
     expiredKeysRemover.stop();
+    invalidations.stop();
+    mapdb.getStore().stop();
   }
 
   public KvdClient newLocalClient() {
     return new KvdClient("localhost:"+getLocalPort());
   }
 
+  /**
+   * @return number of commits written to the default database so far
+   */
+  public long getCommits() {
+    return mapdb.getStore().getCommits();
+  }
+
   public int getLocalPort() {
     return getSocketServer().getLocalPort();
   }
@@ -41,13 +41,20 @@ public class PutConsumer implements ChannelConsumer {
 
   private boolean logAccess;
 
-  public PutConsumer(StorageBackend storage, ClientResponseHandler client, Transaction tx, boolean logAccess) {
+  private Runnable onAbort;
+
+  /**
+   * @param onAbort called when the put fails and is answered with {@link PacketType#PUT_ABORT}
+   */
+  public PutConsumer(StorageBackend storage, ClientResponseHandler client, Transaction tx, boolean logAccess,
+      Runnable onAbort) {
     super();
     this.client = client;
  // if no transaction has been passed in this put will create a transaction but also needs to commit it on 'PUT_FINISH'
     txOwner = (tx==null);
     this.tx = txOwner?storage.begin():tx;
     this.logAccess = logAccess;
+    this.onAbort = onAbort;
   }
 
   @Override
@@ -56,16 +63,22 @@ public class PutConsumer implements ChannelConsumer {
     if(aborted) {
       return;
     }
-    if(PacketType.PUT_INIT.equals(packet.getType())) {
+    if(PacketType.PUT_INIT.equals(packet.getType()) || PacketType.APPEND_INIT.equals(packet.getType())) {
       Key key = new Key(packet.getPutInit().getKey().toByteArray());
+      long ttlMs = packet.getPutInit().getTtlMs();
+      boolean append = PacketType.APPEND_INIT.equals(packet.getType());
       if(logAccess) {
-        log.info("put '{}' / tx '{}'", key, tx.handle());
+        log.info("{} '{}' / tx '{}' / ttl '{}'", append?"append":"put", key, tx.handle(), ttlMs);
       }
       if(out != null) {
         throw new KvdException("put already initialized");
       }
       try {
-        out = tx.put(key);
+        if(txOwner && (packet.getPutInit().getDurability() != null)) {
+          // one-shot put, the durability of a transaction is set on begin
+          tx.setDurability(packet.getPutInit().getDurability());
+        }
+        out = append?tx.append(key, ttlMs):tx.put(key, ttlMs);
         // the client waits for a PUT_INIT or PUT_ABORT response before proceeding
         // PUT_INIT means put init complete normal (no body required)
         client.sendAsync(Packets.packet(PacketType.PUT_INIT, packet.getChannel()));
@@ -75,7 +88,9 @@ public class PutConsumer implements ChannelConsumer {
         } else {
           log.warn("put init failed with exception", e);
         }
-        client.sendAsync(Packets.packet(PacketType.PUT_ABORT, packet.getChannel()));
+        // a pipelining client sends data without waiting for PUT_INIT, drop it
+        aborted = true;
+        abort(packet);
       }
     } else if(PacketType.PUT_DATA.equals(packet.getType())) {
       if(out != null) {
@@ -107,7 +122,7 @@ public class PutConsumer implements ChannelConsumer {
           if(txOwner) {
             tx.rollback();
           }
-          client.sendAsync(Packets.packet(PacketType.PUT_ABORT, packet.getChannel()));
+          abort(packet);
         }
       } else {
         throw new KvdException("put has not been initialized yet");
@@ -128,6 +143,11 @@ public class PutConsumer implements ChannelConsumer {
     }
   }
 
+  private void abort(Packet packet) {
+    onAbort.run();
+    client.sendAsync(Packets.packet(PacketType.PUT_ABORT, packet.getChannel()));
+  }
+
   @Override
   public void close() throws Exception {
     if(out != null) {
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline and cancellation of a client request. Requests run within their context on the worker thread
+ * (see {@link #run(Runnable)}) so code that blocks further down, e.g. lock waits, can give up once the client
+ * is no longer waiting for the response.
+ */
+public class RequestContext {
+
+  private static final ThreadLocal<RequestContext> current = new ThreadLocal<>();
+
+  // longest single wait, cancellation is noticed at the latest after this time
+  private static final long MAX_WAIT_MS = 100;
+
+  private long deadlineNs;
+
+  private boolean hasDeadline;
+
+  private volatile boolean cancelled;
+
+  /**
+   * @param timeoutMs time the client waits for the response, 0 means no deadline
+   */
+  public RequestContext(int timeoutMs) {
+    this.hasDeadline = timeoutMs > 0;
+    this.deadlineNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+  }
+
+  /**
+   * @return the context of the request the current thread is working on or {@code null}
+   */
+  public static RequestContext current() {
+    return current.get();
+  }
+
+  /**
+   * Run the request with this context set as the current context of the thread.
+   */
+  public void run(Runnable request) {
+    RequestContext previous = current.get();
+    current.set(this);
+    try {
+      request.run();
+    } finally {
+      if(previous != null) {
+        current.set(previous);
+      } else {
+        current.remove();
+      }
+    }
+  }
+
+  /**
+   * Called when the client closed the channel of the request.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  public boolean isExpired() {
+    return hasDeadline && ((System.nanoTime() - deadlineNs) >= 0);
+  }
+
+  /**
+   * @return {@code true} if nobody waits for the response anymore
+   */
+  public boolean isDone() {
+    return cancelled || isExpired();
+  }
+
+  /**
+   * @return why the request is done, for log and exception messages
+   */
+  public String doneReason() {
+    return cancelled?"request cancelled":"request deadline exceeded";
+  }
+
+  /**
+   * @return how long to wait at most before checking {@link #isDone()} again
+   */
+  public long waitMs() {
+    if(hasDeadline) {
+      long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadlineNs - System.nanoTime());
+      return Math.max(1, Math.min(MAX_WAIT_MS, remainingMs));
+    } else {
+      return MAX_WAIT_MS;
+    }
+  }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server;
+
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kvd.common.Utils;
+import kvd.common.packet.proto.Packet;
+
+/**
+ * Hands the packets of a channel to the executor of a pipelined transaction so they are processed in order with
+ * the other operations of the transaction, e.g. the data of a put that follows its init without waiting.
+ */
+public class SequentialChannelConsumer implements ChannelConsumer {
+
+  private static final Logger log = LoggerFactory.getLogger(SequentialChannelConsumer.class);
+
+  private ChannelConsumer consumer;
+
+  private Executor executor;
+
+  private Runnable onFailure;
+
+  public SequentialChannelConsumer(ChannelConsumer consumer, Executor executor, Runnable onFailure) {
+    super();
+    this.consumer = consumer;
+    this.executor = executor;
+    this.onFailure = onFailure;
+  }
+
+  @Override
+  public void accept(Packet packet) {
+    executor.execute(() -> {
+      try {
+        consumer.accept(packet);
+      } catch(Exception e) {
+        log.warn("failed on packet '{}', channel '{}'", packet.getType(), packet.getChannel(), e);
+        onFailure.run();
+      }
+    });
+  }
+
+  @Override
+  public void close() throws Exception {
+    executor.execute(() -> Utils.closeQuietly(consumer));
+  }
+
+}
@@ -64,7 +64,7 @@ public class SimpleSocketServer {
   public synchronized void start() {
     if(t == null) {
       openServerSocket();
-      Thread t = new Thread(() -> {
+      t = new Thread(() -> {
         while(run.get()) {
           try {
             // only block accept call for limited time to check on run flag
@@ -77,7 +77,9 @@ public class SimpleSocketServer {
           } catch(SocketTimeoutException e) {
             // ignore
           } catch(Exception e) {
-            log.error("socket exception", e);
+            if(run.get()) {
+              log.error("socket exception", e);
+            }
           }
         }
         closeServerSocket();
@@ -89,8 +91,24 @@ public class SimpleSocketServer {
     }
   }
 
+  /**
+   * Stops accepting connections and waits until the server socket is closed so the port can be reused.
+   */
   public synchronized void stop() {
     run.set(false);
+    if(t != null) {
+      try {
+        // wakes up the accept call
+        serverSocket.close();
+      } catch(Exception e) {
+        // ignore
+      }
+      try {
+        t.join();
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
   }
 
   public int getLocalPort() {
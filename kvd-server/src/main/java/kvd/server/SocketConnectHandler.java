@@ -14,8 +14,8 @@
 package kvd.server;
 
 import java.net.Socket;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
@@ -26,6 +26,7 @@ import org.slf4j.LoggerFactory;
 import kvd.common.KvdException;
 import kvd.common.Utils;
 import kvd.server.storage.StorageBackend;
+import kvd.server.storage.mapdb.expire.SoftExpiry;
 import kvd.server.util.HumanReadable;
 
 public class SocketConnectHandler implements Consumer<Socket> {
@@ -34,7 +35,7 @@ public class SocketConnectHandler implements Consumer<Socket> {
 
   private AtomicLong clientIdCounter = new AtomicLong();
 
-  private Set<ClientHandler> clients = new HashSet<>();
+  private Map<ClientHandler, Socket> clients = new HashMap<>();
 
   private Kvd.KvdOptions options;
 
@@ -44,7 +45,16 @@ public class SocketConnectHandler implements Consumer<Socket> {
 
   private StorageBackend storage;
 
-  public SocketConnectHandler(Kvd.KvdOptions options, StorageBackend storage) {
+  private ComputeLeases leases = new ComputeLeases();
+
+  private SoftExpiry softExpiry;
+
+  private Invalidations invalidations;
+
+  public SocketConnectHandler(Kvd.KvdOptions options,
+      StorageBackend storage,
+      SoftExpiry softExpiry,
+      Invalidations invalidations) {
     super();
     this.options = options;
     if(options.maxClients <= 0) {
@@ -53,6 +63,8 @@ public class SocketConnectHandler implements Consumer<Socket> {
     this.socketSoTimeoutMs = (int)HumanReadable.parseDuration(options.soTimeoutMs, TimeUnit.MILLISECONDS, TimeUnit.MILLISECONDS);
     this.clientTimeoutSeconds = (int)HumanReadable.parseDuration(options.clientTimeoutSeconds, TimeUnit.SECONDS, TimeUnit.SECONDS);
     this.storage = storage;
+    this.softExpiry = softExpiry;
+    this.invalidations = invalidations;
     log.info("client timeout '{}', socket so timeout '{}'",
         HumanReadable.formatDuration(clientTimeoutSeconds, TimeUnit.SECONDS),
         HumanReadable.formatDuration(socketSoTimeoutMs, TimeUnit.MILLISECONDS));
@@ -68,8 +80,11 @@ public class SocketConnectHandler implements Consumer<Socket> {
             socketSoTimeoutMs,
             clientTimeoutSeconds,
             socket,
-            storage);
-        clients.add(client);
+            storage,
+            leases,
+            softExpiry,
+            invalidations);
+        clients.put(client, socket);
         Thread t = new Thread(() -> {
           try {
             client.run();
@@ -95,6 +110,13 @@ public class SocketConnectHandler implements Consumer<Socket> {
     }
   }
 
+  /**
+   * Closes the connections of all clients, e.g. on shutdown.
+   */
+  public synchronized void disconnectAll() {
+    clients.values().forEach(Utils::closeSocketQuietly);
+  }
+
   private synchronized void removeClient(ClientHandler client) {
     clients.remove(client);
     log.debug("removed client '{}', # connected clients '{}'", client.getClientId(), clients.size());
@@ -13,6 +13,8 @@
  */
 package kvd.server;
 
+import java.util.concurrent.Executor;
+
 import kvd.server.storage.Transaction;
 
 public class Tx {
@@ -23,11 +25,24 @@ public class Tx {
 
   private Transaction transaction;
 
-  public Tx(int txId, int channel, Transaction transaction) {
+  private Executor executor;
+
+  private boolean pipelined;
+
+  private volatile boolean failed;
+
+  /**
+   * @param txId transaction id chosen by the client, unique per connection
+   * @param executor runs the operations of the transaction, executes them in order for pipelined transactions
+   * @param pipelined {@code true} if the client does not wait for the responses of the operations
+   */
+  public Tx(int txId, int channel, Transaction transaction, Executor executor, boolean pipelined) {
     super();
     this.txId = txId;
     this.channel = channel;
     this.transaction = transaction;
+    this.executor = executor;
+    this.pipelined = pipelined;
   }
 
   public int getTxId() {
@@ -42,9 +57,33 @@ public class Tx {
     return transaction;
   }
 
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  public boolean isPipelined() {
+    return pipelined;
+  }
+
+  /**
+   * Record a failed operation of this transaction.
+   */
+  public void fail() {
+    failed = true;
+  }
+
+  /**
+   * @return {@code true} if the transaction must be rolled back on commit. The client of a pipelined transaction
+   *         might not have seen the failure of an operation so the commit must not go through.
+   */
+  public boolean isRollbackOnly() {
+    return pipelined && failed;
+  }
+
   @Override
   public String toString() {
-    return "Tx [txId=" + txId + ", channel=" + channel + ", transaction=" + transaction + "]";
+    return "Tx [txId=" + txId + ", channel=" + channel + ", transaction=" + transaction
+        + ", pipelined=" + pipelined + "]";
   }
 
 }
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server.storage;
+
+import kvd.server.Key;
+
+/**
+ * Notified after the content of keys changed (put, remove, expire) in the storage.
+ */
+public interface KeyChangeListener {
+
+  void changed(Key key);
+
+  /**
+   * All keys changed, e.g. after remove all.
+   */
+  void changedAll();
+
+}
@@ -17,6 +17,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import kvd.common.Durability;
 import kvd.common.KvdException;
 import kvd.common.Utils;
 import kvd.server.Key;
@@ -25,6 +26,36 @@ public interface Transaction extends AutoCloseable {
 
   AbortableOutputStream put(Key key);
 
+  /**
+   * Put with a per key time to live, the value expires {@code ttlMs} after it has been written.
+   * A {@code ttlMs} of 0 means the value only expires according to the server wide expire settings.
+   */
+  default AbortableOutputStream put(Key key, long ttlMs) {
+    if(ttlMs != 0) {
+      throw new KvdException("per key ttl not supported");
+    }
+    return put(key);
+  }
+
+  /**
+   * Append to the value of {@code key} or create the value if it does not exist.
+   * A {@code ttlMs} of 0 keeps the time to live of the existing value.
+   * The default implementation rewrites the whole value, backends should override.
+   */
+  default AbortableOutputStream append(Key key, long ttlMs) {
+    InputStream in = get(key);
+    AbortableOutputStream out = put(key, ttlMs);
+    if(in != null) {
+      try(in) {
+        in.transferTo(out);
+      } catch(IOException | RuntimeException e) {
+        out.abort();
+        throw new KvdException("append failed", e);
+      }
+    }
+    return out;
+  }
+
   InputStream get(Key key);
 
   boolean contains(Key key);
@@ -59,6 +90,54 @@ public interface Transaction extends AutoCloseable {
     }
   }
 
+  /**
+   * Copy the value of {@code source} to {@code target}, replacing an existing value of {@code target}.
+   * The default implementation streams the value, backends that can share the underlying data should override.
+   * @return {@code true} if {@code source} exists and has been copied, {@code false} otherwise
+   */
+  default boolean copy(Key source, Key target) {
+    try(InputStream in = get(source)) {
+      if(in == null) {
+        return false;
+      }
+      if(source.equals(target)) {
+        return true;
+      }
+      AbortableOutputStream out = put(target);
+      try {
+        in.transferTo(out);
+      } catch(IOException | RuntimeException e) {
+        out.abort();
+        throw e;
+      }
+      out.close();
+      return true;
+    } catch(IOException e) {
+      throw new KvdException("copy failed", e);
+    }
+  }
+
+  /**
+   * Move the value of {@code source} to {@code target}, replacing an existing value of {@code target}.
+   * @return {@code true} if {@code source} exists and has been renamed, {@code false} otherwise
+   */
+  default boolean rename(Key source, Key target) {
+    if(source.equals(target)) {
+      return contains(source);
+    }
+    boolean copied = copy(source, target);
+    if(copied) {
+      remove(source);
+    }
+    return copied;
+  }
+
+  /**
+   * Set the durability of this transaction, the storage default is used otherwise.
+   * Backends without different durability levels ignore it.
+   */
+  default void setDurability(Durability durability) {}
+
   /**
    * commit and close.
    */
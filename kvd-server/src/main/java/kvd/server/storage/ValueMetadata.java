@@ -0,0 +1,33 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server.storage;
+
+import java.time.Instant;
+
+/**
+ * Implemented by value {@code InputStream}s that provide metadata of the stored value.
+ */
+public interface ValueMetadata {
+
+  /**
+   * @return when the value was written or {@code null} if unknown
+   */
+  Instant getCreated();
+
+  /**
+   * @return the SHA-256 digest of the value or {@code null} if unknown
+   */
+  byte[] getDigest();
+
+}
@@ -24,6 +24,7 @@ import org.slf4j.LoggerFactory;
 
 import kvd.common.KvdException;
 import kvd.server.Key;
+import kvd.server.RequestContext;
 import kvd.server.storage.AbstractStorageBackend;
 import kvd.server.storage.StorageBackend;
 import kvd.server.storage.Transaction;
@@ -107,11 +108,7 @@ public abstract class AbstractLockStorageBackend extends AbstractStorageBackend
           break;
         } else {
           recordWait(tx, key);
-          try {
-            wait();
-          } catch(InterruptedException e) {
-            break;
-          }
+          awaitRelease(tx, key);
         }
       }
     } else if(LockType.READ.equals(hasLock)) {
@@ -124,11 +121,7 @@ public abstract class AbstractLockStorageBackend extends AbstractStorageBackend
           break;
         } else {
           recordWait(tx, key);
-          try {
-            wait();
-          } catch(InterruptedException e) {
-            break;
-          }
+          awaitRelease(tx, key);
         }
       }
     } else if(LockType.WRITE.equals(hasLock)) {
@@ -176,11 +169,7 @@ public abstract class AbstractLockStorageBackend extends AbstractStorageBackend
           break;
         } else {
           recordWait(tx, key);
-          try {
-            this.wait();
-          } catch(InterruptedException e) {
-            break;
-          }
+          awaitRelease(tx, key);
         }
       }
     } else if(LockType.READ.equals(hasLock)) {
@@ -192,6 +181,32 @@ public abstract class AbstractLockStorageBackend extends AbstractStorageBackend
     }
   }
 
+  /**
+   * Wait until locks are released. Gives up when the client request the current thread works on has been cancelled
+   * or is past its deadline, nobody would read the response anyway.
+   */
+  private void awaitRelease(LockTransaction tx, Key key) {
+    RequestContext request = RequestContext.current();
+    try {
+      if(request == null) {
+        wait();
+      } else {
+        if(!request.isDone()) {
+          wait(request.waitMs());
+        }
+        // also checked after waking up, a lock released right at the deadline must not be taken anymore
+        if(request.isDone()) {
+          abortWait(tx, key);
+          throw new AcquireLockException(String.format("%s, '%s', key '%s'", request.doneReason(), tx, key));
+        }
+      }
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      abortWait(tx, key);
+      throw new AcquireLockException(String.format("interrupted, '%s', key '%s'", tx, key), e);
+    }
+  }
+
   protected synchronized void releaseAllLocks(LockTransaction tx) {
     tx.locks().keySet().forEach(key -> {
       Set<LockTransaction> s = locks.get(key);
@@ -224,4 +239,10 @@ public abstract class AbstractLockStorageBackend extends AbstractStorageBackend
 
   protected abstract void recordWait(LockTransaction tx, Key key);
 
+  /**
+   * Called when a transaction gives up waiting on the key, undoes what {@link #recordWait(LockTransaction, Key)}
+   * recorded. The transaction stays open and might go on to lock other keys.
+   */
+  protected abstract void abortWait(LockTransaction tx, Key key);
+
 }
@@ -19,6 +19,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Consumer;
 
+import kvd.common.Durability;
 import kvd.server.Key;
 import kvd.server.storage.AbortableOutputStream;
 import kvd.server.storage.AbstractTransaction;
@@ -101,11 +102,25 @@ class LockTransaction extends AbstractTransaction {
 
   @Override
   public AbortableOutputStream put(Key key) {
+    return put(key, 0);
+  }
+
+  @Override
+  public AbortableOutputStream put(Key key, long ttlMs) {
+    checkClosed();
+    lockStore.acquireWriteLock(this, key);
+    checkClosed();
+    checkHasWriteLock(key);
+    return backendTx.put(key, ttlMs);
+  }
+
+  @Override
+  public AbortableOutputStream append(Key key, long ttlMs) {
     checkClosed();
     lockStore.acquireWriteLock(this, key);
     checkClosed();
     checkHasWriteLock(key);
-    return backendTx.put(key);
+    return backendTx.append(key, ttlMs);
   }
 
   @Override
@@ -135,6 +150,28 @@ class LockTransaction extends AbstractTransaction {
     return backendTx.remove(key);
   }
 
+  @Override
+  public boolean copy(Key source, Key target) {
+    checkClosed();
+    lockStore.acquireReadLock(this, source);
+    lockStore.acquireWriteLock(this, target);
+    checkClosed();
+    checkHasReadLock(source);
+    checkHasWriteLock(target);
+    return backendTx.copy(source, target);
+  }
+
+  @Override
+  public boolean rename(Key source, Key target) {
+    checkClosed();
+    lockStore.acquireWriteLock(this, source);
+    lockStore.acquireWriteLock(this, target);
+    checkClosed();
+    checkHasWriteLock(source);
+    checkHasWriteLock(target);
+    return backendTx.rename(source, target);
+  }
+
   @Override
   public boolean lock(Key key) {
     checkClosed();
@@ -156,6 +193,11 @@ class LockTransaction extends AbstractTransaction {
     backendTx.removeAll();
   }
 
+  @Override
+  public void setDurability(Durability durability) {
+    backendTx.setDurability(durability);
+  }
+
   @Override
   public String toString() {
     return "tx:"+handle();
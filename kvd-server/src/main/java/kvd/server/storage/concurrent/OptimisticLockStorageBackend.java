@@ -82,4 +82,9 @@ public class OptimisticLockStorageBackend extends AbstractLockStorageBackend {
     // nothing to do
   }
 
+  @Override
+  protected void abortWait(LockTransaction tx, Key key) {
+    // nothing to do
+  }
+
 }
@@ -133,6 +133,17 @@ public class PessimisticLockStorageBackend extends AbstractLockStorageBackend {
     log.trace("record wait done");
   }
 
+  @Override
+  protected synchronized void abortWait(LockTransaction tx, Key key) {
+    log.trace("abort wait tx '{}', key '{}'", tx, key);
+    // a transaction only ever waits on a single key so all its wait edges belong to this wait.
+    // stale wait edges would report a deadlock once one of the other transactions waits on this one.
+    if(waitGraph.containsVertex(tx)) {
+      waitGraph.removeAllEdges(new ArrayList<>(waitGraph.outgoingEdgesOf(tx)));
+    }
+    log.trace("abortWait, wait graph '{}'", waitGraph);
+  }
+
   @Override
   protected synchronized void releaseAllLocks(LockTransaction tx) {
     log.trace("release all locks '{}'", tx);
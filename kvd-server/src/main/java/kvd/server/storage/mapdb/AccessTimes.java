@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server.storage.mapdb;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kvd.server.Key;
+
+/**
+ * Collects access times of reads in memory so reads never write to the database. Accesses are coalesced per key,
+ * only the latest one is kept, and handed to the flusher in batches, periodically or on {@link #flush()}.
+ */
+class AccessTimes {
+
+  private static final Logger log = LoggerFactory.getLogger(AccessTimes.class);
+
+  static final long FLUSH_INTERVAL_MS = TimeUnit.SECONDS.toMillis(1);
+
+  private Map<Key, Instant> pending = new ConcurrentHashMap<>();
+
+  private Consumer<Map<Key, Instant>> flusher;
+
+  private volatile boolean stopped;
+
+  private Thread thread;
+
+  public AccessTimes(Consumer<Map<Key, Instant>> flusher) {
+    this.flusher = flusher;
+  }
+
+  public synchronized void start() {
+    if(thread == null) {
+      thread = new Thread(this::run, "mapdb-access-times");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Stops the flush thread after a last flush.
+   */
+  public synchronized void stop() {
+    stopped = true;
+    if(thread != null) {
+      thread.interrupt();
+      thread = null;
+    }
+    flush();
+  }
+
+  public void accessed(Key key, Instant accessed) {
+    pending.put(key, accessed);
+  }
+
+  /**
+   * Hands all pending accesses to the flusher.
+   */
+  public void flush() {
+    if(pending.isEmpty()) {
+      return;
+    }
+    Map<Key, Instant> batch = new HashMap<>();
+    pending.forEach((k, v) -> {
+      // keeps a newer access that comes in concurrently for the next flush
+      if(pending.remove(k, v)) {
+        batch.put(k, v);
+      }
+    });
+    if(!batch.isEmpty()) {
+      log.trace("flush '{}' access time(s)", batch.size());
+      flusher.accept(batch);
+    }
+  }
+
+  private void run() {
+    while(!stopped) {
+      try {
+        Thread.sleep(FLUSH_INTERVAL_MS);
+      } catch(InterruptedException e) {
+        break;
+      }
+      try {
+        flush();
+      } catch(Throwable t) {
+        log.error("failed to flush access times", t);
+      }
+    }
+  }
+
+}
@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Instant;
 
 import javax.annotation.concurrent.NotThreadSafe;
 
@@ -28,9 +29,10 @@ import kvd.common.IOStreamUtils;
 import kvd.common.KvdException;
 import kvd.common.KvdInputStream;
 import kvd.server.Key;
+import kvd.server.storage.ValueMetadata;
 
 @NotThreadSafe
-public class BinaryLargeObjectInputStream extends KvdInputStream {
+public class BinaryLargeObjectInputStream extends KvdInputStream implements ValueMetadata {
 
   private File blobBase;
 
@@ -44,9 +46,28 @@ public class BinaryLargeObjectInputStream extends KvdInputStream {
 
   private Key key;
 
+  private Runnable onClose;
+
   public BinaryLargeObjectInputStream(File blobBase, Value v) throws IOException {
+    this(blobBase, v, null);
+  }
+
+  /**
+   * @param onClose runs once when the stream is closed, also if opening the first blob file fails
+   */
+  public BinaryLargeObjectInputStream(File blobBase, Value v, Runnable onClose) throws IOException {
     this.blobBase = blobBase;
     this.v = v;
+    this.onClose = onClose;
+    try {
+      open();
+    } catch(IOException | RuntimeException e) {
+      close();
+      throw e;
+    }
+  }
+
+  private void open() throws IOException {
     if(v.isInline()) {
       inlineStream = new ByteArrayInputStream(v.inline());
     } else if(v.isBlob()) {
@@ -116,12 +137,20 @@ public class BinaryLargeObjectInputStream extends KvdInputStream {
 
   @Override
   public void close() throws IOException {
-    super.close();
-    if(inlineStream!=null) {
-      inlineStream.close();
-    }
-    if(blobStream!=null) {
-      blobStream.close();
+    try {
+      super.close();
+      if(inlineStream!=null) {
+        inlineStream.close();
+      }
+      if(blobStream!=null) {
+        blobStream.close();
+      }
+    } finally {
+      if(onClose != null) {
+        Runnable r = onClose;
+        onClose = null;
+        r.run();
+      }
     }
   }
 
@@ -129,4 +158,14 @@ public class BinaryLargeObjectInputStream extends KvdInputStream {
     return key;
   }
 
+  @Override
+  public Instant getCreated() {
+    return v.getCreated();
+  }
+
+  @Override
+  public byte[] getDigest() {
+    return v.getDigest();
+  }
+
 }
\ No newline at end of file
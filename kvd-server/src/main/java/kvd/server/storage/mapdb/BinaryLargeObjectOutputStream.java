@@ -13,12 +13,16 @@
  */
 package kvd.server.storage.mapdb;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -28,18 +32,27 @@ import javax.annotation.concurrent.NotThreadSafe;
 import kvd.common.IOStreamUtils;
 import kvd.common.KvdException;
 import kvd.server.Key;
+import kvd.server.util.Digests;
 
 @NotThreadSafe
 public class BinaryLargeObjectOutputStream extends OutputStream {
 
   private Key key;
 
+  // key written into the blob headers, differs from key when appending to a copied or renamed value
+  private Key headerKey;
+
   private ByteBuffer buf;
 
   private File blobBase;
 
   private OutputStream blobStream;
 
+  private FileOutputStream blobFile;
+
+  // fsync each blob file before it is closed
+  private boolean sync;
+
   private long blobSize;
 
   private long blobSplitSize;
@@ -50,6 +63,13 @@ public class BinaryLargeObjectOutputStream extends OutputStream {
 
   private String blobBaseName = UUID.randomUUID().toString();
 
+  // the digest is calculated while the value streams in so it never has to be read again
+  private MessageDigest md = Digests.newDigest();
+
+  private byte[] digest;
+
+  private long written;
+
   public BinaryLargeObjectOutputStream(Key key, File blobBase) {
     this(key, blobBase, 64*1024, Long.MAX_VALUE);
   }
@@ -63,11 +83,47 @@ public class BinaryLargeObjectOutputStream extends OutputStream {
       long blobSplitSize) {
     super();
     this.key = key;
+    this.headerKey = key;
     this.blobSplitSize = blobSplitSize;
     buf = ByteBuffer.allocate(blobThreshold);
     this.blobBase = blobBase;
   }
 
+  /**
+   * Create a stream that appends to the existing value {@code base}. Data of BLOB values is never rewritten,
+   * appended data goes into additional blob files. INLINE values are promoted to BLOB values once they
+   * exceed the {@code blobThreshold}.
+   * The digest of the result is chained, {@code SHA-256(base digest || appended data)}.
+   */
+  static BinaryLargeObjectOutputStream append(Key key, Value base, File blobBase,
+      int blobThreshold,
+      long blobSplitSize) throws IOException {
+    BinaryLargeObjectOutputStream out = new BinaryLargeObjectOutputStream(key, blobBase, blobThreshold, blobSplitSize);
+    if(base.getDigest() != null) {
+      out.md.update(base.getDigest());
+    } else {
+      out.md = null;
+    }
+    out.digest = base.getDigest();
+    if(base.isInline()) {
+      byte[] inline = base.inline();
+      out.writeInternal(inline, 0, inline.length);
+    } else if(base.isBlob()) {
+      out.headerKey = readHeaderKey(blobBase, base.blobs().get(0));
+      out.blobs.addAll(base.blobs());
+      out.buf = null;
+    } else {
+      throw new KvdException("append not supported on type " + base.getType());
+    }
+    return out;
+  }
+
+  private static Key readHeaderKey(File blobBase, String blob) throws IOException {
+    try(InputStream in = new BufferedInputStream(new FileInputStream(new File(blobBase, blob)))) {
+      return BlobHeader.fromInputStream(in).getKey();
+    }
+  }
+
   @Override
   public void write(int b) throws IOException {
     byte[] buf = new byte[1];
@@ -81,7 +137,15 @@ public class BinaryLargeObjectOutputStream extends OutputStream {
       throw new IOException("stream closed");
     }
     IOStreamUtils.checkFromIndexSize(b, off, len);
-    if(blobStream != null) {
+    if(md != null) {
+      md.update(b, off, len);
+    }
+    written += len;
+    writeInternal(b, off, len);
+  }
+
+  private void writeInternal(byte[] b, int off, int len) throws IOException {
+    if((blobStream != null) || (buf == null)) {
       writeToBlob(b, off, len);
     } else {
       if(buf.remaining() < len) {
@@ -102,7 +166,7 @@ public class BinaryLargeObjectOutputStream extends OutputStream {
       // fill up the blob to capacity
       int len2 = (int)(blobSplitSize - blobSize);
       blobStream.write(b, off, len2);
-      blobStream.close();
+      closeBlob();
       newBlob();
       // write the remaining into the new blob (might need to split again)
       int len3 = len-len2;
@@ -117,8 +181,9 @@ public class BinaryLargeObjectOutputStream extends OutputStream {
     int index = blobs.size();
     String name = blobBaseName + "." + index;
     File f = new File(blobBase, name);
-    blobStream = new BufferedOutputStream(new FileOutputStream(f));
-    BlobHeader header = new BlobHeader(index, key);
+    blobFile = new FileOutputStream(f);
+    blobStream = new BufferedOutputStream(blobFile);
+    BlobHeader header = new BlobHeader(index, headerKey);
     blobSize = header.writeToStream(blobStream);
     blobs.add(name);
     if(blobSplitSize < blobSize) {
@@ -128,11 +193,33 @@ public class BinaryLargeObjectOutputStream extends OutputStream {
     }
   }
 
+  private void closeBlob() throws IOException {
+    try {
+      blobStream.flush();
+      if(sync) {
+        blobFile.getFD().sync();
+      }
+    } finally {
+      blobStream.close();
+      blobStream = null;
+      blobFile = null;
+    }
+  }
+
+  /**
+   * Sync the blob files to disk before they are closed, for values that have to be durable once committed.
+   */
+  void setSync(boolean sync) {
+    this.sync = sync;
+  }
+
   public Value toValue() {
     if(!closed) {
       throw new KvdException("stream not closed");
     }
-    return blobs.isEmpty()?inline():blob();
+    Value v = blobs.isEmpty()?inline():blob();
+    v.setDigest(digest);
+    return v;
   }
 
   private Value inline() {
@@ -148,10 +235,12 @@ public class BinaryLargeObjectOutputStream extends OutputStream {
 
   @Override
   public void close() throws IOException {
+    if((!closed) && (md != null) && ((written > 0) || (digest == null))) {
+      digest = md.digest();
+    }
     closed = true;
     if(blobStream != null) {
-      blobStream.close();
-      blobStream = null;
+      closeBlob();
     }
   }
 
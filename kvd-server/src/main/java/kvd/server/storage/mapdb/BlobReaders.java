@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server.storage.mapdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Defers deleting the blob files of replaced values while they might still be read. Readers register before they
+ * look up a value and stay registered until they are done with its blob files. Blob files that a commit made
+ * obsolete are deleted once all readers that started before the commit are closed.
+ */
+class BlobReaders {
+
+  private Consumer<List<String>> deleter;
+
+  // incremented by each delete, readers that register afterwards can't see the deleted blobs anymore
+  private long generation;
+
+  // number of open readers per generation
+  private TreeMap<Long, Integer> readers = new TreeMap<>();
+
+  // blob files per generation, waiting for the readers of that and older generations
+  private TreeMap<Long, List<String>> obsolete = new TreeMap<>();
+
+  public BlobReaders(Consumer<List<String>> deleter) {
+    this.deleter = deleter;
+  }
+
+  /**
+   * @return the generation of the reader, must be passed to {@link #close(long)}
+   */
+  public synchronized long open() {
+    readers.merge(generation, 1, Integer::sum);
+    return generation;
+  }
+
+  public void close(long reader) {
+    List<String> due;
+    synchronized(this) {
+      readers.computeIfPresent(reader, (g, count) -> count > 1 ? count - 1 : null);
+      due = due();
+    }
+    deleteAll(due);
+  }
+
+  /**
+   * Deletes the blob files now if no reader is open, otherwise once the readers open now are closed.
+   */
+  public void delete(List<String> blobs) {
+    if(blobs.isEmpty()) {
+      return;
+    }
+    List<String> due;
+    synchronized(this) {
+      obsolete.computeIfAbsent(generation, g -> new ArrayList<>()).addAll(blobs);
+      generation++;
+      due = due();
+    }
+    deleteAll(due);
+  }
+
+  /**
+   * @return number of blob files waiting for readers
+   */
+  synchronized int pending() {
+    return obsolete.values().stream().mapToInt(List::size).sum();
+  }
+
+  private List<String> due() {
+    SortedMap<Long, List<String>> unread = readers.isEmpty() ? obsolete : obsolete.headMap(readers.firstKey());
+    List<String> due = new ArrayList<>();
+    for(Map.Entry<Long, List<String>> e : unread.entrySet()) {
+      due.addAll(e.getValue());
+    }
+    unread.clear();
+    return due;
+  }
+
+  private void deleteAll(List<String> blobs) {
+    if(!blobs.isEmpty()) {
+      deleter.accept(blobs);
+    }
+  }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2020 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server.storage.mapdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kvd.common.Durability;
+import kvd.common.KvdException;
+import kvd.server.Key;
+
+/**
+ * Group commit, write sets of concurrent transactions queue up and a single thread hands them to the writer
+ * in batches so many transactions share one (syncing) database commit. {@link #commit(Map, Durability)} returns
+ * once the batch containing the write set has been written. The writer can fail single write sets of the batch
+ * ({@link WriteSet#fail(Throwable)}), an exception thrown by the writer fails all the others.
+ */
+class GroupCommitter {
+
+  private static final Logger log = LoggerFactory.getLogger(GroupCommitter.class);
+
+  private static final long POLL_NS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  static class WriteSet {
+    private Map<Key, Value> values;
+    private Durability durability;
+    private CompletableFuture<Void> done = new CompletableFuture<>();
+
+    private WriteSet(Map<Key, Value> values, Durability durability) {
+      this.values = values;
+      this.durability = durability;
+    }
+
+    Map<Key, Value> getValues() {
+      return values;
+    }
+
+    Durability getDurability() {
+      return durability;
+    }
+
+    /**
+     * The write set is not written, {@link GroupCommitter#commit(Map, Durability)} throws.
+     */
+    void fail(Throwable t) {
+      done.completeExceptionally(t);
+    }
+  }
+
+  private BlockingQueue<WriteSet> queue = new LinkedBlockingQueue<>();
+
+  private Consumer<List<WriteSet>> writer;
+
+  private Runnable periodic;
+
+  private int maxBatch;
+
+  private long maxWaitNs;
+
+  private volatile boolean stopped;
+
+  private Thread thread;
+
+  /**
+   * @param periodic called by the commit thread at least every 100ms, e.g. to commit deferred writes
+   * @param maxBatch maximum number of write sets in one batch
+   * @param maxWaitMs how long the first write set of a batch waits for more to join, 0 only takes the ones
+   *        that queued up while the previous batch was written
+   */
+  public GroupCommitter(Consumer<List<WriteSet>> writer, Runnable periodic, int maxBatch, long maxWaitMs) {
+    if(maxBatch < 1) {
+      throw new KvdException("invalid group commit max batch, " + maxBatch);
+    }
+    if(maxWaitMs < 0) {
+      throw new KvdException("invalid group commit max wait, " + maxWaitMs);
+    }
+    this.writer = writer;
+    this.periodic = periodic;
+    this.maxBatch = maxBatch;
+    this.maxWaitNs = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+  }
+
+  public synchronized void start() {
+    if(thread == null) {
+      thread = new Thread(this::run, "mapdb-group-commit");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Stops the commit thread, write sets that are queued afterwards are written by the committing thread itself.
+   */
+  public void stop() {
+    stopped = true;
+    // not interrupted, it might be in the middle of writing a batch. it exits on the next poll
+    commitQueued();
+  }
+
+  /**
+   * @throws KvdException if the write set has not been written
+   */
+  public void commit(Map<Key, Value> values, Durability durability) {
+    WriteSet writeSet = new WriteSet(values, durability);
+    queue.add(writeSet);
+    if(stopped) {
+      commitQueued();
+    }
+    try {
+      writeSet.done.join();
+    } catch(CompletionException e) {
+      throw new KvdException("commit failed", e.getCause());
+    }
+  }
+
+  private void run() {
+    log.debug("start, max batch '{}', max wait '{}ms'", maxBatch, TimeUnit.NANOSECONDS.toMillis(maxWaitNs));
+    while(!stopped) {
+      try {
+        WriteSet first = queue.poll(POLL_NS, TimeUnit.NANOSECONDS);
+        if(first != null) {
+          write(batch(first));
+        }
+        periodic.run();
+      } catch(InterruptedException e) {
+        break;
+      } catch(Throwable t) {
+        log.error("group commit failed", t);
+      }
+    }
+    log.debug("exit");
+  }
+
+  private List<WriteSet> batch(WriteSet first) throws InterruptedException {
+    List<WriteSet> batch = new ArrayList<>();
+    batch.add(first);
+    long deadline = System.nanoTime() + maxWaitNs;
+    while(batch.size() < maxBatch) {
+      WriteSet r = queue.poll();
+      if((r == null) && (maxWaitNs > 0)) {
+        long remaining = deadline - System.nanoTime();
+        if(remaining > 0) {
+          r = queue.poll(remaining, TimeUnit.NANOSECONDS);
+        }
+      }
+      if(r == null) {
+        break;
+      }
+      batch.add(r);
+    }
+    return batch;
+  }
+
+  private void commitQueued() {
+    for(;;) {
+      List<WriteSet> batch = new ArrayList<>();
+      queue.drainTo(batch, maxBatch);
+      if(batch.isEmpty()) {
+        return;
+      }
+      try {
+        write(batch);
+      } catch(Throwable t) {
+        // the write sets have failed, go on with the next batch
+        log.error("group commit failed", t);
+      }
+    }
+  }
+
+  private void write(List<WriteSet> batch) {
+    try {
+      log.trace("commit batch of '{}' write set(s)", batch.size());
+      writer.accept(batch);
+      // no effect on the write sets the writer has failed
+      batch.forEach(r -> r.done.complete(null));
+    } catch(Throwable t) {
+      batch.forEach(r -> r.done.completeExceptionally(t));
+      throw t;
+    }
+  }
+
+}
@@ -14,11 +14,25 @@
 package kvd.server.storage.mapdb;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
@@ -27,8 +41,10 @@ import org.mapdb.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import kvd.common.Durability;
 import kvd.common.KvdException;
 import kvd.server.Key;
+import kvd.server.storage.KeyChangeListener;
 import kvd.server.storage.mapdb.expire.ExpireDb;
 import kvd.server.util.FileUtils;
 
@@ -46,8 +62,54 @@ public class MapdbStorage {
 
   private ExpireDb expireDb;
 
-  public MapdbStorage(File base, boolean enableMmap) {
+  private AccessTimes accessTimes = new AccessTimes(this::flushAccessed);
+
+  private GroupCommitter groupCommitter;
+
+  private Durability defaultDurability;
+
+  private long asyncWindowNs;
+
+  // ASYNC and NONE writes are visible but not committed yet, see commitDue
+  private boolean uncommitted;
+
+  private long uncommittedSinceNs;
+
+  // blobs of uncommitted ASYNC writes, synced before the next commit
+  private List<String> unsyncedBlobs = new ArrayList<>();
+
+  // collected by the modification listener, deleted once the write has been committed
+  private List<String> obsoleteBlobs = new ArrayList<>();
+
+  // collected by the modification listener, the listeners are notified once the write has been applied
+  private Set<Key> changedKeys = new LinkedHashSet<>();
+
+  // committed values of the keys a commit in progress writes, readers use these until the commit is done
+  private volatile Map<Key, byte[]> committing = Collections.emptyMap();
+
+  // incremented whenever committing changes, a read that overlaps a change is repeated
+  private volatile long committingChanges;
+
+  // blob files replaced by a commit are deleted once the reads that might still see them are done
+  private BlobReaders blobReaders = new BlobReaders(this::deleteBlobs);
+
+  private List<KeyChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+
+  // number of mapdb commits, group commit writes many transactions with one
+  private volatile long commits;
+
+  /**
+   * @param groupCommitMaxBatch maximum number of transactions written with a single mapdb commit
+   * @param groupCommitMaxWaitMs how long a commit waits for other transactions to join the group commit
+   * @param defaultDurability of transactions that don't ask for a durability
+   * @param asyncWindowMs writes of {@link Durability#ASYNC} and {@link Durability#NONE} transactions are committed
+   *        within this window
+   */
+  public MapdbStorage(File base, boolean enableMmap, int groupCommitMaxBatch, long groupCommitMaxWaitMs,
+      Durability defaultDurability, long asyncWindowMs) {
     super();
+    this.defaultDurability = defaultDurability != null ? defaultDurability : Durability.SYNC;
+    this.asyncWindowNs = TimeUnit.MILLISECONDS.toNanos(asyncWindowMs);
     this.mapdb = new File(base, "mapdb");
     this.blobs = new File(base, "blobs");
     FileUtils.createDirIfMissing(mapdb);
@@ -75,10 +137,19 @@ public class MapdbStorage {
           Value newValue = Value.deserialize(nv);
           log.trace("map modification, key {}, triggered '{}', old-value {}, new-value {}",
               key, triggered, oldValue, newValue);
-          deleteBlobs(oldValue, newValue);
+          obsoleteBlobs(oldValue, newValue);
+          if(!Value.sameContent(oldValue, newValue)) {
+            changedKeys.add(key);
+          }
         })
         .createOrOpen();
-    expireDb = new ExpireDb(base, enableMmap);
+    // expire data lives in the same database so values and expire data go out with a single commit
+    expireDb = new ExpireDb(db);
+    migrateExpireDb(new File(base, "expiredb"), enableMmap);
+    accessTimes.start();
+    groupCommitter = new GroupCommitter(this::commitBatch, this::commitDue, groupCommitMaxBatch,
+        groupCommitMaxWaitMs);
+    groupCommitter.start();
   }
 
 //  private void setupExpire(HashMapMaker<byte[],byte[]> builder) {
@@ -133,20 +204,108 @@ public class MapdbStorage {
 //    return StringUtils.equals(blobName, v.blobs().get(header.getIndex()));
 //  }
 
-  private void deleteBlobs(Value ov, Value nv) {
+  private void obsoleteBlobs(Value ov, Value nv) {
     if(ov == null) {
       return;
     }
     if(!ov.isBlob()) {
       return;
     }
-    if(nv == null) {
-      deleteBlobs(ov.blobs());
+    if((nv == null) || !nv.isBlob()) {
+      obsoleteBlobs.addAll(ov.blobs());
     } else {
       if(!ov.blobs().equals(nv.blobs())) {
         var diff = new ArrayList<>(ov.blobs());
         diff.removeAll(nv.blobs());
-        deleteBlobs(diff);
+        obsoleteBlobs.addAll(diff);
+      }
+    }
+  }
+
+  /**
+   * Notifies the change listeners once a write has been applied, drops the changes if it has been rolled back.
+   */
+  private void writeDone(boolean applied) {
+    Set<Key> keys = changedKeys;
+    changedKeys = new LinkedHashSet<>();
+    if(applied) {
+      keys.forEach(key -> changeListeners.forEach(l -> l.changed(key)));
+    }
+  }
+
+  /**
+   * Syncs the blobs of deferred ASYNC writes, commits everything written so far and deletes the blobs of
+   * replaced values afterwards.
+   */
+  private void commitNow() throws IOException {
+    syncBlobs(unsyncedBlobs);
+    db.commit();
+    commits++;
+    // committed, readers can go to the map. must happen before the old blobs are handed over for deletion,
+    // readers that start after that must not see the old values anymore
+    setCommitting(Collections.emptyMap());
+    unsyncedBlobs = new ArrayList<>();
+    uncommitted = false;
+    List<String> blobs = obsoleteBlobs;
+    obsoleteBlobs = new ArrayList<>();
+    blobReaders.delete(blobs);
+  }
+
+  private void setCommitting(Map<Key, byte[]> c) {
+    committing = c;
+    committingChanges++;
+  }
+
+  private void deferCommit() {
+    if(!uncommitted) {
+      uncommitted = true;
+      uncommittedSinceNs = System.nanoTime();
+    }
+  }
+
+  /**
+   * Rolls back everything not committed yet, including deferred writes that have already been acknowledged.
+   */
+  private void rollback() {
+    db.rollback();
+    obsoleteBlobs = new ArrayList<>();
+    unsyncedBlobs = new ArrayList<>();
+    changedKeys = new LinkedHashSet<>();
+    if(uncommitted) {
+      uncommitted = false;
+      log.warn("rolled back deferred writes");
+      // values that have been visible are gone again
+      changeListeners.forEach(KeyChangeListener::changedAll);
+    }
+  }
+
+  /**
+   * Commits deferred writes once the oldest is older than the async window.
+   */
+  private synchronized void commitDue() {
+    if(uncommitted && ((System.nanoTime() - uncommittedSinceNs) >= asyncWindowNs)) {
+      commitDeferred();
+    }
+  }
+
+  private synchronized void commitDeferred() {
+    if(uncommitted) {
+      try {
+        commitNow();
+      } catch(Throwable t) {
+        log.error("failed to commit deferred writes, rollback transaction", t);
+        rollback();
+      }
+    }
+  }
+
+  private void syncBlobs(List<String> blobs) throws IOException {
+    for(String s : blobs) {
+      File f = new File(getBlobs(), s);
+      if(f.exists()) {
+        try(FileChannel c = FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+          c.force(true);
+        }
       }
     }
   }
@@ -163,80 +322,340 @@ public class MapdbStorage {
     }
   }
 
-  private synchronized Value getValue(Key key) {
-    return Value.deserialize(map.get(key.getBytes()));
-  }
-
-  synchronized InputStream get(Key key) {
-    Value v = getValue(key);
-    if(v!=null) {
-      v.setAccessed(Value.now());
-      map.put(key.getBytes(), v.serialize());
-      expireDb.accessed(key, v.getAccessed());
-      return toInputStream(v);
-    } else {
-      return null;
+  /**
+   * Reads without locking, the map is thread-safe. Writes are not isolated in mapdb so a commit in progress
+   * publishes the committed values of its keys before it changes them. A read that overlaps the start or end of
+   * a commit is repeated, it might have seen a value that is not committed (yet or ever, on rollback).
+   * Callers that read the blob files of the value must be registered with {@link #blobReaders}.
+   */
+  Value getValue(Key key) {
+    while(true) {
+      long changes = committingChanges;
+      Map<Key, byte[]> c = committing;
+      byte[] b = c.containsKey(key) ? c.get(key) : map.get(key.getBytes());
+      if(changes == committingChanges) {
+        return Value.deserialize(b);
+      }
     }
   }
 
-  private InputStream toInputStream(Value v) {
-    if(v != null) {
-      if(v.isInline() || v.isBlob()) {
-        try {
-          return new BinaryLargeObjectInputStream(getBlobs(), v);
-        } catch (IOException e) {
+  InputStream get(Key key) {
+    // blob files are not deleted while a reader that might see them is open. a missing blob file means the
+    // value has been replaced anyway, read it again.
+    for(int attempt=1;;attempt++) {
+      long reader = blobReaders.open();
+      Value v;
+      try {
+        v = getValue(key);
+      } catch(RuntimeException e) {
+        blobReaders.close(reader);
+        throw e;
+      }
+      if(v == null) {
+        blobReaders.close(reader);
+        return null;
+      }
+      accessTimes.accessed(key, Value.now());
+      try {
+        return toInputStream(v, reader);
+      } catch(FileNotFoundException e) {
+        if(attempt >= 3) {
           throw new KvdException("failed to open blob stream", e);
         }
-      } else {
-        throw new KvdException("invalid value type " + v.getType());
+        log.debug("blob file of key '{}' gone, read again", key, e);
+      } catch(IOException e) {
+        throw new KvdException("failed to open blob stream", e);
       }
+    }
+  }
+
+  /**
+   * @return the stream of the value, closes the reader when the stream is closed
+   */
+  private InputStream toInputStream(Value v, long reader) throws IOException {
+    if(v.isInline()) {
+      // no blob files to protect
+      blobReaders.close(reader);
+      return new BinaryLargeObjectInputStream(getBlobs(), v);
+    } else if(v.isBlob()) {
+      return new BinaryLargeObjectInputStream(getBlobs(), v, () -> blobReaders.close(reader));
     } else {
-      return null;
+      blobReaders.close(reader);
+      throw new KvdException("invalid value type " + v.getType());
     }
   }
 
-  synchronized boolean contains(Key key) {
+  /**
+   * Reads the committed value and creates links of its blob files (see {@link #linkBlobs(List)}) so they survive a
+   * concurrent write of the key. The caller owns the links.
+   */
+  Value getLinkedValue(Key key) {
+    long reader = blobReaders.open();
+    try {
+      Value v = getValue(key);
+      return ((v != null) && v.isBlob()) ? v.withBlobs(linkBlobs(v.blobs())) : v;
+    } finally {
+      blobReaders.close(reader);
+    }
+  }
+
+  boolean contains(Key key) {
     Value v = getValue(key);
     if(v!=null) {
-      v.setAccessed(Value.now());
-      map.put(key.getBytes(), v.serialize());
-      expireDb.accessed(key, v.getAccessed());
+      accessTimes.accessed(key, Value.now());
       return true;
     } else {
       return false;
     }
   }
 
+  private void migrateExpireDb(File expiredb, boolean enableMmap) {
+    if(!expiredb.exists()) {
+      return;
+    }
+    try {
+      expireDb.migrate(expiredb, enableMmap);
+      db.commit();
+    } catch(Throwable t) {
+      db.rollback();
+      throw new KvdException("failed to migrate expire database " + expiredb.getAbsolutePath(), t);
+    }
+    // only after the commit, a crash before just migrates again. so does a crash before the delete has
+    // finished, nothing has been written in the meantime. but once the server runs a left over expire database
+    // would be copied over the newer data on the next start, don't start.
+    FileUtils.deleteDirQuietly(expiredb);
+    if(expiredb.exists()) {
+      throw new KvdException(String.format("failed to delete migrated expire database '%s',"
+          + " delete it before starting again", expiredb.getAbsolutePath()));
+    }
+  }
+
+  /**
+   * Writes the access times collected by reads together with the expire data, skips keys that have been removed
+   * or written again in the meantime. Committed like {@link Durability#NONE} writes.
+   */
+  private synchronized void flushAccessed(Map<Key, Instant> accessed) {
+    Map<Key, Instant> updated = new HashMap<>();
+    Map<Key, byte[]> values = new HashMap<>();
+    // prepared before the map changes, like commitBatch. a failure after needs a rollback
+    accessed.forEach((k, i) -> {
+      try {
+        Value v = getValue(k);
+        if((v != null) && ((v.getAccessed() == null) || v.getAccessed().isBefore(i))) {
+          v.setAccessed(i);
+          values.put(k, v.serialize());
+          updated.put(k, i);
+        }
+      } catch(Throwable t) {
+        log.warn("failed to update access time of key '{}', skip", k, t);
+      }
+    });
+    try {
+      values.forEach((k, b) -> map.put(k.getBytes(), b));
+      expireDb.accessedAll(updated);
+      deferCommit();
+      writeDone(true);
+    } catch(Throwable t) {
+      log.error("failed to write access times into mapdb, rollback transaction", t);
+      rollback();
+    }
+  }
+
+  /**
+   * Write pending access times now, e.g. before checking for keys that expire after access.
+   */
+  public void flushAccessed() {
+    accessTimes.flush();
+  }
+
+  /**
+   * Stops the group commit and tracking access times after writing the pending ones, commits deferred writes.
+   */
+  public void stop() {
+    groupCommitter.stop();
+    accessTimes.stop();
+    commitDeferred();
+  }
+
   synchronized void removeAll() {
-    map.clear();
-    db.commit();
+    try {
+      map.clear();
+      commitNow();
+    } catch(Throwable t) {
+      rollback();
+      throw new KvdException("remove all failed", t);
+    }
+    writeDone(true);
+    changeListeners.forEach(KeyChangeListener::changedAll);
+  }
+
+  public void registerChangeListener(KeyChangeListener listener) {
+    changeListeners.add(listener);
+  }
+
+  /**
+   * Returns once the values have been committed, together with the values of concurrent commits (group commit).
+   * {@link Durability#ASYNC} and {@link Durability#NONE} return once the values are visible, they are committed
+   * within the async window.
+   */
+  void commit(Map<Key, Value> m, Durability durability) {
+    if(!m.isEmpty()) {
+      groupCommitter.commit(m, durability);
+    }
   }
 
-  synchronized void commit(Map<Key, Value> m) {
+  /**
+   * Writes the values of many transactions, in order, and their expire data with a single mapdb commit, defers
+   * the commit if none of the transactions is {@link Durability#SYNC}. Writes are serialized, mapdb has a single
+   * transaction. Readers are not blocked. A write set that fails is rolled back together with the others, they are
+   * written again without it.
+   */
+  private synchronized void commitBatch(List<GroupCommitter.WriteSet> batch) {
+    // a rollback also discards deferred writes that have been acknowledged already, so values are serialized
+    // before the map changes. a write set that can't be serialized fails without a rollback.
+    Map<GroupCommitter.WriteSet, Map<Key, byte[]>> serialized = new HashMap<>();
+    List<GroupCommitter.WriteSet> remaining = new ArrayList<>();
+    for(GroupCommitter.WriteSet w : batch) {
+      try {
+        serialized.put(w, serialize(w.getValues()));
+        remaining.add(w);
+      } catch(Throwable t) {
+        log.error("failed to serialize values, skip write set", t);
+        w.fail(t);
+      }
+    }
+    while(!remaining.isEmpty()) {
+      GroupCommitter.WriteSet failed = write(remaining, serialized);
+      if(failed == null) {
+        return;
+      }
+      remaining.remove(failed);
+    }
+  }
+
+  /**
+   * @return the serialized values, {@code null} for removes
+   */
+  private static Map<Key, byte[]> serialize(Map<Key, Value> values) {
+    Map<Key, byte[]> m = new LinkedHashMap<>();
+    values.forEach((k,v) -> {
+      if(ValueType.REMOVE.equals(v.getType())) {
+        m.put(k, null);
+      } else {
+        m.put(k, Value.serialize(v));
+      }
+    });
+    return m;
+  }
+
+  /**
+   * @return the write set that failed to apply (and has been failed), everything has been rolled back.
+   *         {@code null} if the batch has been written.
+   * @throws KvdException if the batch could not be written for any other reason, e.g. the commit failed
+   */
+  private GroupCommitter.WriteSet write(List<GroupCommitter.WriteSet> batch,
+      Map<GroupCommitter.WriteSet, Map<Key, byte[]>> serialized) {
+    // last write of each key
+    Map<Key, Value> m = new LinkedHashMap<>();
+    batch.forEach(w -> m.putAll(w.getValues()));
+    boolean sync = batch.stream().anyMatch(w -> Durability.SYNC.equals(w.getDurability()));
+    setCommitting(committedValues(m));
+    GroupCommitter.WriteSet applying = null;
+    boolean applied = false;
     try {
-      m.forEach((k,v) -> {
-        if(ValueType.REMOVE.equals(v.getType())) {
-          map.remove(k.getBytes());
-        } else {
-          map.put(k.getBytes(), Value.serialize(v));
-        }
-      });
-      db.commit();
+      for(GroupCommitter.WriteSet w : batch) {
+        applying = w;
+        serialized.get(w).forEach((k,b) -> {
+          if(b == null) {
+            map.remove(k.getBytes());
+          } else {
+            map.put(k.getBytes(), b);
+          }
+        });
+      }
+      applying = null;
+      expireDb.updateAll(m);
+      // blobs of SYNC writes have been synced when they were written, NONE never syncs
+      batch.stream()
+      .filter(w -> Durability.ASYNC.equals(w.getDurability()))
+      .flatMap(w -> w.getValues().values().stream())
+      .filter(Value::isBlob)
+      .forEach(v -> unsyncedBlobs.addAll(v.blobs()));
+      if(sync) {
+        commitNow();
+      } else {
+        deferCommit();
+      }
+      applied = true;
+      return null;
     } catch(Throwable t) {
       log.error("failed to write key/values into mapdb, rollback transaction", t);
-      db.rollback();
+      rollback();
+      if(applying != null) {
+        applying.fail(t);
+        return applying;
+      } else {
+        throw new KvdException("failed to write key/values into mapdb", t);
+      }
+    } finally {
+      if(!committing.isEmpty()) {
+        setCommitting(Collections.emptyMap());
+      }
+      writeDone(applied);
     }
+  }
+
+  Durability getDefaultDurability() {
+    return defaultDurability;
+  }
+
+  private Map<Key, byte[]> committedValues(Map<Key, Value> m) {
+    Map<Key, byte[]> committed = new HashMap<>();
+    m.keySet().forEach(k -> committed.put(k, map.get(k.getBytes())));
+    return committed;
+  }
+
+  /**
+   * Create new names for the {@code blobs} that share the data with the existing files (hard links).
+   * Every blob file name belongs to exactly one value so deleting it never affects the copy.
+   * Falls back to copying the file if the file system does not support hard links.
+   */
+  List<String> linkBlobs(List<String> blobs) {
+    String baseName = UUID.randomUUID().toString();
+    List<String> linked = new ArrayList<>(blobs.size());
     try {
-      expireDb.updateAll(m);
-    } catch(Exception e) {
-      log.error("failed to update expire database", e);
+      for(int i=0;i<blobs.size();i++) {
+        // keep the index suffix, it must match the index in the blob header
+        String name = baseName + "." + i;
+        Path existing = new File(getBlobs(), blobs.get(i)).toPath();
+        Path link = new File(getBlobs(), name).toPath();
+        try {
+          Files.createLink(link, existing);
+        } catch(UnsupportedOperationException | IOException e) {
+          log.debug("failed to create hard link for blob '{}', copy instead", blobs.get(i), e);
+          Files.copy(existing, link);
+        }
+        linked.add(name);
+      }
+      return linked;
+    } catch(IOException e) {
+      deleteBlobFiles(linked);
+      throw new KvdException("failed to link blobs", e);
     }
   }
 
+  void deleteBlobFiles(List<String> blobs) {
+    blobs.forEach(s -> new File(getBlobs(), s).delete());
+  }
+
   File getBlobs() {
     return blobs;
   }
 
+  public long getCommits() {
+    return commits;
+  }
+
   public ExpireDb getExpireDb() {
     return expireDb;
   }
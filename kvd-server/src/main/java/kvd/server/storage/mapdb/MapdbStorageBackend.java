@@ -19,6 +19,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import kvd.common.Durability;
 import kvd.common.KvdException;
 import kvd.server.storage.AbstractStorageBackend;
 import kvd.server.storage.Transaction;
@@ -40,7 +41,11 @@ public class MapdbStorageBackend extends AbstractStorageBackend {
       File base,
       long blobThreshold,
       long blobSplitSize,
-      boolean enableMmap) {
+      boolean enableMmap,
+      int groupCommitMaxBatch,
+      long groupCommitMaxWaitMs,
+      Durability defaultDurability,
+      long asyncCommitWindowMs) {
     super();
     if(blobThreshold < 0) {
       throw new KvdException("blob threshold needs to be positive int");
@@ -48,7 +53,8 @@ public class MapdbStorageBackend extends AbstractStorageBackend {
     if(blobThreshold > 1072693248l) {
       throw new KvdException("blob threshold needs to be <= 1072693248 bytes");
     }
-    this.store = new MapdbStorage(base, enableMmap);
+    this.store = new MapdbStorage(base, enableMmap, groupCommitMaxBatch, groupCommitMaxWaitMs,
+        defaultDurability, asyncCommitWindowMs);
     this.blobThreshold = (int)blobThreshold;
     this.blobSplitSize = blobSplitSize;
     log.info("blob threshold {}/{}, split at {}/{}",
@@ -15,6 +15,7 @@ package kvd.server.storage.mapdb;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -23,6 +24,7 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import kvd.common.Durability;
 import kvd.common.KvdException;
 import kvd.server.Key;
 import kvd.server.storage.AbortableOutputStream;
@@ -39,10 +41,15 @@ public class MapdbTx extends AbstractTransaction {
 
   private List<CompletableOutputStream> staging = new ArrayList<>();
 
+  // blob files linked by copy, deleted again on rollback
+  private List<String> linked = new ArrayList<>();
+
   private int blobThreshold;
 
   private long blobSplitSize;
 
+  private Durability durability;
+
   public MapdbTx(int handle, MapdbStorage store, int blobThreshold, long blobSplitSize) {
     super(handle);
     this.store = store;
@@ -51,25 +58,69 @@ public class MapdbTx extends AbstractTransaction {
   }
 
   @Override
-  public synchronized AbortableOutputStream put(Key key) {
+  public AbortableOutputStream put(Key key) {
+    return put(key, 0);
+  }
+
+  @Override
+  public synchronized AbortableOutputStream put(Key key, long ttlMs) {
     checkClosed();
+    if(ttlMs < 0) {
+      throw new KvdException("invalid ttl " + ttlMs);
+    }
     BinaryLargeObjectOutputStream stream = new BinaryLargeObjectOutputStream(
         key,
         store.getBlobs(),
         blobThreshold,
         blobSplitSize);
+    return stage(stream, ttlMs, null);
+  }
+
+  @Override
+  public synchronized AbortableOutputStream append(Key key, long ttlMs) {
+    checkClosed();
+    if(ttlMs < 0) {
+      throw new KvdException("invalid ttl " + ttlMs);
+    }
+    // the appended value keeps the blob files of the committed value
+    Value base = map.containsKey(key) ? getValue(key) : getLinkedValue(key);
+    if(base == null) {
+      return put(key, ttlMs);
+    }
+    try {
+      BinaryLargeObjectOutputStream stream = BinaryLargeObjectOutputStream.append(
+          key,
+          base,
+          store.getBlobs(),
+          blobThreshold,
+          blobSplitSize);
+      return stage(stream, ttlMs, base);
+    } catch(IOException e) {
+      throw new KvdException("failed to append", e);
+    }
+  }
+
+  private CompletableOutputStream stage(BinaryLargeObjectOutputStream stream, long ttlMs, Value base) {
+    stream.setSync(Durability.SYNC.equals(durability()));
     CompletableOutputStream out = new CompletableOutputStream(
         stream,
-        this::putComplete,
+        completed -> putComplete(completed, ttlMs, base),
         this::putAbort);
     staging.add(out);
     return out;
   }
 
-  private synchronized void putComplete(CompletableOutputStream out) {
+  private synchronized void putComplete(CompletableOutputStream out, long ttlMs, Value base) {
     staging.remove(out);
     BinaryLargeObjectOutputStream b = (BinaryLargeObjectOutputStream)out.getWrapped();
-    map.put(b.getKey(), b.toValue());
+    Value v = b.toValue();
+    if(ttlMs > 0) {
+      v.setExpires(Instant.now().plusMillis(ttlMs));
+    } else if(base != null) {
+      // appending keeps the time to live of the value
+      v.setExpires(base.getExpires());
+    }
+    map.put(b.getKey(), v);
   }
 
   private synchronized void putAbort(CompletableOutputStream out) {
@@ -118,6 +169,67 @@ public class MapdbTx extends AbstractTransaction {
     return contains;
   }
 
+  private Value getValue(Key key) {
+    Value v = map.get(key);
+    if(v != null) {
+      return ValueType.REMOVE.equals(v.getType())?null:v;
+    } else {
+      return store.getValue(key);
+    }
+  }
+
+  /**
+   * @return the committed value with links of its blob files, a concurrent write of the key that commits first
+   *         can't delete them
+   */
+  private Value getLinkedValue(Key key) {
+    Value v = store.getLinkedValue(key);
+    if((v != null) && v.isBlob()) {
+      linked.addAll(v.blobs());
+    }
+    return v;
+  }
+
+  @Override
+  public synchronized boolean copy(Key source, Key target) {
+    checkClosed();
+    if(source.equals(target)) {
+      return getValue(source) != null;
+    }
+    boolean committed = !map.containsKey(source);
+    Value v = committed ? getLinkedValue(source) : getValue(source);
+    if(v == null) {
+      return false;
+    }
+    List<String> blobs = null;
+    if(v.isBlob()) {
+      if(committed) {
+        blobs = v.blobs();
+      } else {
+        blobs = store.linkBlobs(v.blobs());
+        linked.addAll(blobs);
+      }
+    }
+    map.put(target, v.copy(blobs));
+    return true;
+  }
+
+  @Override
+  public synchronized boolean rename(Key source, Key target) {
+    checkClosed();
+    if(source.equals(target)) {
+      return getValue(source) != null;
+    }
+    // the committed blob files can be deleted by a concurrent write of source, move links instead
+    Value v = map.containsKey(source) ? getValue(source) : getLinkedValue(source);
+    if(v == null) {
+      return false;
+    }
+    map.put(target, v);
+    map.put(source, Value.remove());
+    return true;
+  }
+
   @Override
   public synchronized void removeAll() {
     checkClosed();
@@ -127,12 +239,32 @@ public class MapdbTx extends AbstractTransaction {
   @Override
   protected synchronized void commitInternal() {
     abortUnfinishedPuts();
-    store.commit(map);
+    try {
+      store.commit(map, durability());
+    } catch(RuntimeException e) {
+      // not written, nothing refers to the links
+      store.deleteBlobFiles(linked);
+      throw e;
+    } finally {
+      linked.clear();
+    }
   }
 
   @Override
   protected synchronized void rollbackInternal() {
     abortUnfinishedPuts();
+    store.deleteBlobFiles(linked);
+    linked.clear();
+  }
+
+  @Override
+  public synchronized void setDurability(Durability durability) {
+    checkClosed();
+    this.durability = durability;
+  }
+
+  private Durability durability() {
+    return durability != null ? durability : store.getDefaultDurability();
   }
 
   private void abortUnfinishedPuts() {
@@ -18,6 +18,7 @@ import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -35,6 +36,12 @@ public class Value {
 
   private List<String> blobs;
 
+  // per key expire time, null if the value does not expire on its own
+  private Instant expires;
+
+  // SHA-256 of the content, null for values written by older versions
+  private byte[] digest;
+
   private Value(ValueType type) {
     super();
     this.type = type;
@@ -76,6 +83,22 @@ public class Value {
     this.accessed = accessed;
   }
 
+  public Instant getExpires() {
+    return expires;
+  }
+
+  void setExpires(Instant expires) {
+    this.expires = expires;
+  }
+
+  public byte[] getDigest() {
+    return digest;
+  }
+
+  void setDigest(byte[] digest) {
+    this.digest = digest;
+  }
+
   public byte[] serialize() {
     if(isInline()) {
       return toBytes(inline);
@@ -87,12 +110,17 @@ public class Value {
   }
 
   private byte[] toBytes(byte[] content) {
-    ByteBuffer b = ByteBuffer.allocate(4+8+8+4+content.length);
+    byte[] d = digest!=null?digest:new byte[0];
+    ByteBuffer b = ByteBuffer.allocate(4+8+8+4+content.length+8+4+d.length);
     b.putInt(type.ordinal());
     b.putLong(created.getEpochSecond());
     b.putLong(accessed.getEpochSecond());
     b.putInt(content.length);
     b.put(content);
+    // optional fields are appended after the content, values written by older versions don't have them
+    b.putLong(expires!=null?expires.toEpochMilli():0);
+    b.putInt(d.length);
+    b.put(d);
     return b.array();
   }
 
@@ -150,6 +178,45 @@ public class Value {
     return new Value(now, now, blobs);
   }
 
+  /**
+   * @return a new value with the content of this value, {@code blobs} replaces the blob list on BLOB values.
+   *         The copy does not inherit the per key expire time.
+   */
+  Value copy(List<String> blobs) {
+    Value v = isInline()?inline(inline):blob(blobs);
+    v.digest = digest;
+    return v;
+  }
+
+  /**
+   * @return the same BLOB value stored in the files {@code blobs}, e.g. hard links of the original files
+   */
+  Value withBlobs(List<String> blobs) {
+    Value v = new Value(created, accessed, blobs);
+    v.expires = expires;
+    v.digest = digest;
+    return v;
+  }
+
+  /**
+   * @return {@code true} if both values have the same content (e.g. only the access time changed)
+   */
+  static boolean sameContent(Value v1, Value v2) {
+    if((v1 == null) || (v2 == null)) {
+      return v1 == v2;
+    }
+    if(!v1.type.equals(v2.type)) {
+      return false;
+    }
+    if(v1.isInline()) {
+      return Arrays.equals(v1.inline, v2.inline);
+    } else if(v1.isBlob()) {
+      return v1.blobs.equals(v2.blobs);
+    } else {
+      return true;
+    }
+  }
+
   public static Value remove() {
     return new Value(ValueType.REMOVE);
   }
@@ -162,16 +229,19 @@ public class Value {
         ValueType vt = ValueType.values()[type];
         Instant created = Instant.ofEpochSecond(b.getLong());
         Instant accessed = Instant.ofEpochSecond(b.getLong());
+        Value v;
         if(ValueType.INLINE.equals(vt)) {
           int len = b.getInt();
           byte[] inline = new byte[len];
           b.get(inline);
-          return new Value(created, accessed, inline);
+          v = new Value(created, accessed, inline);
         } else if(ValueType.BLOB.equals(vt)) {
-          return new Value(created, accessed, deserializeBlob(b));
+          v = new Value(created, accessed, deserializeBlob(b));
         } else {
           throw new KvdException("deserialize not supported for type, " + vt);
         }
+        deserializeOptional(v, b);
+        return v;
       } catch(Exception e) {
         throw new KvdException("failed to deserialize", e);
       }
@@ -180,6 +250,20 @@ public class Value {
     }
   }
 
+  private static void deserializeOptional(Value v, ByteBuffer b) {
+    if(b.remaining() >= 8) {
+      long expires = b.getLong();
+      v.expires = expires!=0?Instant.ofEpochMilli(expires):null;
+    }
+    if(b.remaining() >= 4) {
+      int len = b.getInt();
+      if(len > 0) {
+        v.digest = new byte[len];
+        b.get(v.digest);
+      }
+    }
+  }
+
   private static List<String> deserializeBlob(ByteBuffer b) {
     // pop the overall length, not needed here.
     b.getInt();
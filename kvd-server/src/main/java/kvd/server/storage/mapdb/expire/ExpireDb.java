@@ -21,10 +21,12 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.mapdb.BTreeMap;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.mapdb.HTreeMap;
 import org.mapdb.Serializer;
+import org.mapdb.serializer.SerializerArrayTuple;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,40 +36,37 @@ import kvd.server.list.KvdLinkedList;
 import kvd.server.list.MapByteArrayKvdListStore;
 import kvd.server.storage.mapdb.Value;
 import kvd.server.storage.mapdb.ValueType;
-import kvd.server.util.FileUtils;
 import kvd.server.util.HumanReadable;
 
+/**
+ * Created/accessed lists and per key deadlines to find expired keys. Lives in the database of the values,
+ * updates are committed together with the values by the caller.
+ */
 public class ExpireDb {
 
   private static final Logger log = LoggerFactory.getLogger(ExpireDb.class);
 
-  private DB db;
-
   private HTreeMap<byte[], byte[]> map;
 
   private KvdLinkedList<Timestamp> created;
 
   private KvdLinkedList<Timestamp> accessed;
 
+  // per key expire times, ordered by (epoch millis, key)
+  private BTreeMap<Object[], Boolean> deadlines;
+
+  // key -> epoch millis, to find the entry in deadlines again on update/remove
+  private HTreeMap<byte[], Long> deadlineByKey;
+
   private ReentrantLock lock = new ReentrantLock(true);
 
-  public ExpireDb(File base, boolean enableMmap) {
+  public ExpireDb(DB db) {
     super();
-    File expiredb = new File(base, "expiredb");
-    FileUtils.createDirIfMissing(expiredb);
-    DBMaker.Maker dbBuilder = DBMaker
-        .fileDB(new File(expiredb, "map"))
-        .transactionEnable()
-        .closeOnJvmShutdown();
-    if(enableMmap) {
-      dbBuilder.fileMmapEnable();
-    }
-    db = dbBuilder.make();
-    var builder = db
-        .hashMap("map")
+    map = db
+        .hashMap("expire")
         .keySerializer(Serializer.BYTE_ARRAY)
-        .valueSerializer(Serializer.BYTE_ARRAY);
-    map = builder.createOrOpen();
+        .valueSerializer(Serializer.BYTE_ARRAY)
+        .createOrOpen();
     created = new KvdLinkedList<Timestamp>(
         new MapByteArrayKvdListStore(map),
         "created",
@@ -80,6 +79,16 @@ public class ExpireDb {
         Timestamp::serialize,
         Timestamp::deserialize,
         Timestamp::getKey);
+    deadlines = db
+        .treeMap("expireDeadlines")
+        .keySerializer(new SerializerArrayTuple(Serializer.LONG, Serializer.BYTE_ARRAY))
+        .valueSerializer(Serializer.BOOLEAN)
+        .createOrOpen();
+    deadlineByKey = db
+        .hashMap("expireDeadlineByKey")
+        .keySerializer(Serializer.BYTE_ARRAY)
+        .valueSerializer(Serializer.LONG)
+        .createOrOpen();
   }
 
   public void updateAll(Map<Key, Value> m) {
@@ -90,30 +99,54 @@ public class ExpireDb {
           if(ValueType.REMOVE.equals(v.getType())) {
             created.lookupRemove(k);
             accessed.lookupRemove(k);
+            removeDeadline(k);
           } else {
             created.lookupRemove(k);
             accessed.lookupRemove(k);
+            removeDeadline(k);
             Timestamp t = new Timestamp(k, v.getCreated().getEpochSecond());
             created.add(t);
             accessed.add(t);
+            if(v.getExpires() != null) {
+              addDeadline(k, v.getExpires().toEpochMilli());
+            }
           }
         }
       });
-      db.commit();
     } finally {
       lock.unlock();
     }
   }
 
-  public void accessed(Key key, Instant i) {
+  private void removeDeadline(Key key) {
+    Long deadline = deadlineByKey.remove(key.getBytes());
+    if(deadline != null) {
+      deadlines.remove(new Object[] {deadline, key.getBytes()});
+    }
+  }
+
+  private void addDeadline(Key key, long deadline) {
+    deadlineByKey.put(key.getBytes(), deadline);
+    deadlines.put(new Object[] {deadline, key.getBytes()}, Boolean.TRUE);
+  }
+
+  /**
+   * Update access times of many keys. Access times arrive in batches a little late so
+   * keys might expire after access up to a batch interval later.
+   */
+  public void accessedAll(Map<Key, Instant> m) {
+    if(m.isEmpty()) {
+      return;
+    }
     lock.lock();
     try {
-      if(key != null) {
-        accessed.lookupRemove(key);
-        Timestamp t = new Timestamp(key, i.getEpochSecond());
-        accessed.add(t);
-        db.commit();
-      }
+      // the list is ordered by timestamps
+      m.entrySet().stream()
+      .sorted(Map.Entry.comparingByValue())
+      .forEach(e -> {
+        accessed.lookupRemove(e.getKey());
+        accessed.add(new Timestamp(e.getKey(), e.getValue().getEpochSecond()));
+      });
     } finally {
       lock.unlock();
     }
@@ -133,6 +166,7 @@ public class ExpireDb {
       if(expireAfterWriteMs != null) {
         getExpired(created, now, expireAfterWriteMs, expired, limit - expired.size(), "write");
       }
+      getExpiredDeadlines(System.currentTimeMillis(), expired, limit - expired.size());
       return expired;
     } finally {
       lock.unlock();
@@ -166,6 +200,60 @@ public class ExpireDb {
     }
   }
 
+  private void getExpiredDeadlines(long nowMs, Set<Key> expired, int limit) {
+    // ordered by deadline, stop on the first key that has not expired yet
+    Iterator<Object[]> iter = deadlines.keySet().iterator();
+    for(int i=0;(i<limit)&&iter.hasNext();i++) {
+      Object[] entry = iter.next();
+      long deadline = (Long)entry[0];
+      if(deadline <= nowMs) {
+        Key key = new Key((byte[])entry[1]);
+        log.trace("expire after ttl, add key '{}' to expire list", key);
+        expired.add(key);
+      } else {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Copies the data of the separate expire database used by older versions into this one. The caller commits and
+   * deletes the old database afterwards, copying it again later would overwrite newer data.
+   */
+  public void migrate(File expiredb, boolean enableMmap) {
+    File f = new File(expiredb, "map");
+    if(!f.exists()) {
+      return;
+    }
+    log.info("migrate expire database '{}'", expiredb.getAbsolutePath());
+    DBMaker.Maker dbBuilder = DBMaker
+        .fileDB(f)
+        .transactionEnable();
+    if(enableMmap) {
+      dbBuilder.fileMmapEnable();
+    }
+    lock.lock();
+    try(DB old = dbBuilder.make()) {
+      map.putAll(old
+          .hashMap("map")
+          .keySerializer(Serializer.BYTE_ARRAY)
+          .valueSerializer(Serializer.BYTE_ARRAY)
+          .createOrOpen());
+      deadlines.putAll(old
+          .treeMap("deadlines")
+          .keySerializer(new SerializerArrayTuple(Serializer.LONG, Serializer.BYTE_ARRAY))
+          .valueSerializer(Serializer.BOOLEAN)
+          .createOrOpen());
+      deadlineByKey.putAll(old
+          .hashMap("deadlineByKey")
+          .keySerializer(Serializer.BYTE_ARRAY)
+          .valueSerializer(Serializer.LONG)
+          .createOrOpen());
+    } finally {
+      lock.unlock();
+    }
+  }
+
   public long size() {
     lock.lock();
     try {
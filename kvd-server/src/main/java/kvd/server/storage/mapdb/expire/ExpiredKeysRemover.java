@@ -25,6 +25,7 @@ import org.slf4j.LoggerFactory;
 
 import kvd.server.Key;
 import kvd.server.storage.StorageBackend;
+import kvd.server.storage.mapdb.MapdbStorage;
 import kvd.server.util.HumanReadable;
 
 public class ExpiredKeysRemover {
@@ -33,6 +34,8 @@ public class ExpiredKeysRemover {
 
   private static final int EXPIRE_LIMIT_PER_TX = 100;
 
+  private static final long DEFAULT_CHECK_INTERVAL_MS = TimeUnit.SECONDS.toMillis(1);
+
   private Long expireAfterAccessMs;
 
   private Long expireAfterWriteMs;
@@ -41,6 +44,8 @@ public class ExpiredKeysRemover {
 
   private StorageBackend storage;
 
+  private MapdbStorage store;
+
   private ExpireDb expireDb;
 
   private Thread removeExpiredThread;
@@ -54,13 +59,14 @@ public class ExpiredKeysRemover {
       Long expireAfterWriteMs,
       Long expireCheckIntervalMs,
       StorageBackend storage,
-      ExpireDb expireDb) {
+      MapdbStorage store) {
     super();
     this.expireAfterAccessMs = expireAfterAccessMs;
     this.expireAfterWriteMs = expireAfterWriteMs;
     this.expireCheckIntervalMs = expireCheckIntervalMs;
     this.storage = storage;
-    this.expireDb = expireDb;
+    this.store = store;
+    this.expireDb = store.getExpireDb();
   }
 
   public synchronized void start(boolean logExpired) {
@@ -95,14 +101,23 @@ public class ExpiredKeysRemover {
     }
   }
 
+  private long defaultCheckIntervalMs() {
+    long minExpireMs = minExpireMs();
+    if(minExpireMs < 0) {
+      // only keys with a per key ttl expire
+      return DEFAULT_CHECK_INTERVAL_MS;
+    } else {
+      return Math.max(100, Math.min(DEFAULT_CHECK_INTERVAL_MS, minExpireMs / 10));
+    }
+  }
+
   private Thread setupRemoveExpiredThread() {
     Runnable r = () -> {
       log.debug("start");
       if((expireAfterAccessMs == null) && (expireAfterWriteMs == null)) {
-        log.info("keys never expire");
-        return;
+        log.info("keys only expire when put with a ttl");
       }
-      long sleepMs = expireCheckIntervalMs!=null?expireCheckIntervalMs:Math.max(100, minExpireMs() / 10);
+      long sleepMs = expireCheckIntervalMs!=null?expireCheckIntervalMs:defaultCheckIntervalMs();
       log.info("expire after access '{}', expire after write '{}', check interval '{}'",
           HumanReadable.formatDurationOrEmpty(expireAfterAccessMs, TimeUnit.MILLISECONDS),
           HumanReadable.formatDurationOrEmpty(expireAfterWriteMs, TimeUnit.MILLISECONDS),
@@ -131,6 +146,10 @@ public class ExpiredKeysRemover {
 
   private void invalidateExpired() {
     log.trace("invalidate expired start");
+    if(expireAfterAccessMs != null) {
+      // reads only collect access times, write them before looking for keys not accessed for too long
+      store.flushAccessed();
+    }
     int i = 0;
     long expired = 0;
     long startNs = System.nanoTime();
@@ -164,6 +183,10 @@ public class ExpiredKeysRemover {
 
   private int invalidateExpiredTx() {
     long startNs = System.nanoTime();
+    if(expireDb.getExpired(expireAfterAccessMs, expireAfterWriteMs, 1).isEmpty()) {
+      // nothing to do, don't start a transaction
+      return 0;
+    }
     List<Key> removed = storage.withTransaction(tx -> {
       Set<Key> expired = expireDb.getExpired(expireAfterAccessMs, expireAfterWriteMs, EXPIRE_LIMIT_PER_TX);
       List<Key> l = new ArrayList<>();
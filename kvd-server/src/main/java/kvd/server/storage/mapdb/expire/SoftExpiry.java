@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server.storage.mapdb.expire;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kvd.server.Key;
+import kvd.server.storage.KeyChangeListener;
+import kvd.server.util.HumanReadable;
+
+/**
+ * Stale-while-revalidate. Values older than the soft expire duration are still served but flagged stale.
+ * The first reader of a stale value is told to refresh it, other readers only get the stale flag until the value
+ * is replaced or the refresh timed out. Hard removal is left to {@link ExpiredKeysRemover}.
+ */
+public class SoftExpiry implements KeyChangeListener {
+
+  private static final Logger log = LoggerFactory.getLogger(SoftExpiry.class);
+
+  public enum State {
+    FRESH,
+    STALE,
+    REFRESH,
+  }
+
+  private static class Refresh {
+
+    private Instant created;
+
+    private long grantedNs;
+
+    public Refresh(Instant created) {
+      this.created = created;
+      this.grantedNs = System.nanoTime();
+    }
+
+  }
+
+  private long softExpireAfterWriteMs;
+
+  private long refreshTimeoutMs;
+
+  // stale keys that have a refresh in progress
+  private Map<Key, Refresh> refreshing = new HashMap<>();
+
+  public SoftExpiry(long softExpireAfterWriteMs, long refreshTimeoutMs) {
+    super();
+    this.softExpireAfterWriteMs = softExpireAfterWriteMs;
+    this.refreshTimeoutMs = refreshTimeoutMs;
+    log.info("soft expire after write '{}', refresh timeout '{}'",
+        HumanReadable.formatDuration(softExpireAfterWriteMs, TimeUnit.MILLISECONDS),
+        HumanReadable.formatDuration(refreshTimeoutMs, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * @param key the key that is read
+   * @param created when the value that is read was written
+   * @return {@link State#REFRESH} for exactly one reader of a stale value (per refresh timeout),
+   *         {@link State#STALE} for all other readers of the stale value
+   */
+  public synchronized State check(Key key, Instant created) {
+    if(created == null) {
+      return State.FRESH;
+    }
+    if(created.plusMillis(softExpireAfterWriteMs).isAfter(Instant.now())) {
+      refreshing.remove(key);
+      return State.FRESH;
+    }
+    Refresh r = refreshing.get(key);
+    if((r == null) || (!r.created.equals(created)) || isTimeout(r)) {
+      if(r != null) {
+        log.debug("refresh of stale key '{}' timed out or outdated, hand out again", key);
+      }
+      refreshing.put(key, new Refresh(created));
+      return State.REFRESH;
+    } else {
+      return State.STALE;
+    }
+  }
+
+  private boolean isTimeout(Refresh r) {
+    return (System.nanoTime() - r.grantedNs) > TimeUnit.MILLISECONDS.toNanos(refreshTimeoutMs);
+  }
+
+  /**
+   * Forget about keys that have been written or removed, the refresh (if any) is done.
+   */
+  @Override
+  public synchronized void changed(Key key) {
+    refreshing.remove(key);
+  }
+
+  @Override
+  public synchronized void changedAll() {
+    refreshing.clear();
+  }
+
+}
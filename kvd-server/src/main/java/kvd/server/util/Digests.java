@@ -0,0 +1,48 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import kvd.common.KvdException;
+
+public class Digests {
+
+  public static final String ALGORITHM = "SHA-256";
+
+  public static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(ALGORITHM);
+    } catch(NoSuchAlgorithmException e) {
+      throw new KvdException("digest algorithm not available, " + ALGORITHM, e);
+    }
+  }
+
+  public static byte[] digest(InputStream in) throws IOException {
+    MessageDigest md = newDigest();
+    byte[] buf = new byte[16*1024];
+    for(;;) {
+      int read = in.read(buf);
+      if(read < 0) {
+        break;
+      }
+      md.update(buf, 0, read);
+    }
+    return md.digest();
+  }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import kvd.common.packet.Packets;
+import kvd.common.packet.proto.Packet;
+import kvd.common.packet.proto.PacketType;
+
+public class InvalidationsTest {
+
+  private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private static List<Packet> packets(ByteArrayOutputStream out) throws Exception {
+    List<Packet> packets = new ArrayList<>();
+    InputStream in = new ByteArrayInputStream(out.toByteArray());
+    while(true) {
+      Packet p = Packet.parseDelimitedFrom(in);
+      if(p == null) {
+        return packets;
+      }
+      packets.add(p);
+    }
+  }
+
+  private static List<Packet> waitForPackets(ByteArrayOutputStream out, int count) throws Exception {
+    long start = System.nanoTime();
+    while(true) {
+      List<Packet> packets = packets(out);
+      if(packets.size() >= count) {
+        return packets;
+      }
+      if((System.nanoTime() - start) > TIMEOUT_NANOS) {
+        throw new AssertionError("expected " + count + " packets, got " + packets.size());
+      }
+      Thread.sleep(10);
+    }
+  }
+
+  private static Thread start(ClientResponseHandler handler) {
+    Thread t = new Thread(handler);
+    t.setDaemon(true);
+    t.start();
+    return t;
+  }
+
+  @Test
+  public void slowSubscriberDoesNotStallOthers() throws Exception {
+    Invalidations invalidations = new Invalidations();
+    ByteArrayOutputStream slowOut = new ByteArrayOutputStream();
+    ByteArrayOutputStream fastOut = new ByteArrayOutputStream();
+    ClientResponseHandler slow = new ClientResponseHandler(slowOut);
+    ClientResponseHandler fast = new ClientResponseHandler(fastOut);
+    InvalidationConsumer slowConsumer = new InvalidationConsumer(1, slow, invalidations);
+    InvalidationConsumer fastConsumer = new InvalidationConsumer(2, fast, invalidations);
+    try {
+      // slow subscribes first so the fan-out reaches it first
+      slowConsumer.accept(Packets.packet(PacketType.INVALIDATION_SUBSCRIBE, 1));
+      fastConsumer.accept(Packets.packet(PacketType.INVALIDATION_SUBSCRIBE, 2));
+      // the send queue of slow is full and nothing drains it
+      int queued = 1;
+      while(slow.trySendAsync(Packets.packet(PacketType.INVALIDATE, 1, new byte[] {0}))) {
+        queued++;
+      }
+      invalidations.start();
+      start(fast);
+      int keys = InvalidationConsumer.MAX_BACKLOG + 10;
+      for(int i=0;i<keys;i++) {
+        invalidations.changed(Key.of("k" + i));
+      }
+      List<Packet> fastPackets = waitForPackets(fastOut, keys + 1);
+      assertEquals("k" + (keys - 1), fastPackets.get(keys).getByteBody().toStringUtf8());
+      // slow fell further behind than its backlog holds, it gets a single invalidate all once it catches up
+      start(slow);
+      List<Packet> slowPackets = waitForPackets(slowOut, queued + 1);
+      Thread.sleep(200);
+      slowPackets = packets(slowOut);
+      assertEquals(queued + 1, slowPackets.size());
+      assertEquals(0, slowPackets.get(queued).getByteBody().toByteArray().length);
+    } finally {
+      invalidations.stop();
+      slowConsumer.close();
+      fastConsumer.close();
+      slow.close();
+      fast.close();
+    }
+  }
+
+}
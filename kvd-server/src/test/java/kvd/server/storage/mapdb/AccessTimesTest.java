@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server.storage.mapdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import kvd.server.Key;
+
+public class AccessTimesTest {
+
+  @Test
+  public void coalescePerKey() {
+    List<Map<Key, Instant>> batches = new ArrayList<>();
+    AccessTimes accessTimes = new AccessTimes(batches::add);
+    Key k1 = Key.of("k1");
+    Key k2 = Key.of("k2");
+    Instant i = Instant.ofEpochSecond(1000);
+    accessTimes.accessed(k1, i);
+    accessTimes.accessed(k2, i);
+    accessTimes.accessed(k1, i.plusSeconds(1));
+    accessTimes.flush();
+    assertEquals(1, batches.size());
+    assertEquals(Map.of(k1, i.plusSeconds(1), k2, i), batches.get(0));
+    // nothing pending, nothing to flush
+    accessTimes.flush();
+    assertEquals(1, batches.size());
+    accessTimes.accessed(k2, i.plusSeconds(2));
+    accessTimes.stop();
+    assertEquals(2, batches.size());
+    assertEquals(Map.of(k2, i.plusSeconds(2)), batches.get(1));
+  }
+
+}
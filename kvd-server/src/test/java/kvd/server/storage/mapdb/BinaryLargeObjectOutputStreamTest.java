@@ -18,10 +18,12 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
@@ -33,6 +35,7 @@ import org.junit.jupiter.api.Test;
 
 import kvd.common.KvdException;
 import kvd.server.Key;
+import kvd.server.util.Digests;
 import kvd.server.util.FileUtils;
 import kvd.test.TestUtils;
 
@@ -78,6 +81,7 @@ public class BinaryLargeObjectOutputStreamTest {
       assertEquals(1, blobBase.list().length);
       assertEquals(blobBase.list()[0], v.blobs().get(0));
       assertArrayEquals(b, getContentFromBlob(new File(blobBase, v.blobs().get(0))));
+      assertArrayEquals(Digests.digest(new ByteArrayInputStream(b)), v.getDigest());
       byte[] buf = v.serialize();
       Value v2 = Value.deserialize(buf);
       assertEquals(ValueType.BLOB, v2.getType());
@@ -123,6 +127,71 @@ public class BinaryLargeObjectOutputStreamTest {
     }
   }
 
+  @Test
+  public void appendPromotesInline() throws IOException {
+    Value base;
+    try(BinaryLargeObjectOutputStream out = new BinaryLargeObjectOutputStream(KEY, blobBase, 6)) {
+      out.write(new byte[] {1,2,3});
+      out.close();
+      base = out.toValue();
+    }
+    try(BinaryLargeObjectOutputStream out = BinaryLargeObjectOutputStream.append(KEY, base, blobBase, 6, Long.MAX_VALUE)) {
+      out.write(new byte[] {4,5,6,7});
+      out.close();
+      Value v = out.toValue();
+      assertEquals(ValueType.BLOB, v.getType());
+      assertArrayEquals(new byte[] {1,2,3,4,5,6,7}, getContentFromBlob(new File(blobBase, v.blobs().get(0))));
+      MessageDigest md = Digests.newDigest();
+      md.update(base.getDigest());
+      md.update(new byte[] {4,5,6,7});
+      assertArrayEquals(md.digest(), v.getDigest());
+    }
+  }
+
+  @Test
+  public void appendAddsBlobs() throws IOException {
+    Value base;
+    try(BinaryLargeObjectOutputStream out = new BinaryLargeObjectOutputStream(KEY, blobBase, 0)) {
+      out.write(new byte[] {1,2,3});
+      out.close();
+      base = out.toValue();
+    }
+    File first = new File(blobBase, base.blobs().get(0));
+    long modified = first.lastModified();
+    long length = first.length();
+    try(BinaryLargeObjectOutputStream out = BinaryLargeObjectOutputStream.append(
+        Key.of("other"), base, blobBase, 0, Long.MAX_VALUE)) {
+      out.write(new byte[] {4,5});
+      out.close();
+      Value v = out.toValue();
+      assertEquals(2, v.blobs().size());
+      assertEquals(base.blobs().get(0), v.blobs().get(0));
+      // existing blob files are never rewritten
+      assertEquals(length, first.length());
+      assertEquals(modified, first.lastModified());
+      assertArrayEquals(new byte[] {4,5}, getContentFromBlob(new File(blobBase, v.blobs().get(1))));
+      try(InputStream in = new BinaryLargeObjectInputStream(blobBase, v)) {
+        assertArrayEquals(new byte[] {1,2,3,4,5}, in.readAllBytes());
+      }
+    }
+  }
+
+  @Test
+  public void appendNothingKeepsDigest() throws IOException {
+    Value base;
+    try(BinaryLargeObjectOutputStream out = new BinaryLargeObjectOutputStream(KEY, blobBase, 6)) {
+      out.write(new byte[] {1,2,3});
+      out.close();
+      base = out.toValue();
+    }
+    try(BinaryLargeObjectOutputStream out = BinaryLargeObjectOutputStream.append(KEY, base, blobBase, 6, Long.MAX_VALUE)) {
+      out.close();
+      Value v = out.toValue();
+      assertArrayEquals(base.inline(), v.inline());
+      assertArrayEquals(base.getDigest(), v.getDigest());
+    }
+  }
+
   @Test
   public void notClosed() throws IOException {
     try(BinaryLargeObjectOutputStream out = new BinaryLargeObjectOutputStream(KEY, blobBase)) {
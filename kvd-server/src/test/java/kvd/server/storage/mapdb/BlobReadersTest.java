@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server.storage.mapdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class BlobReadersTest {
+
+  @Test
+  public void deleteAfterEarlierReaders() {
+    List<String> deleted = new ArrayList<>();
+    BlobReaders readers = new BlobReaders(deleted::addAll);
+    // no readers, deleted right away
+    readers.delete(List.of("b1"));
+    assertEquals(List.of("b1"), deleted);
+    long r1 = readers.open();
+    readers.delete(List.of("b2"));
+    // started after the delete, does not hold back b2 but b3
+    long r2 = readers.open();
+    readers.delete(List.of("b3"));
+    assertEquals(List.of("b1"), deleted);
+    assertEquals(2, readers.pending());
+    readers.close(r1);
+    assertEquals(List.of("b1", "b2"), deleted);
+    readers.close(r2);
+    assertEquals(List.of("b1", "b2", "b3"), deleted);
+    assertEquals(0, readers.pending());
+  }
+
+  @Test
+  public void readersOfSameGeneration() {
+    List<String> deleted = new ArrayList<>();
+    BlobReaders readers = new BlobReaders(deleted::addAll);
+    long r1 = readers.open();
+    long r2 = readers.open();
+    readers.delete(List.of("b1"));
+    readers.close(r1);
+    assertEquals(List.of(), deleted);
+    readers.close(r2);
+    assertEquals(List.of("b1"), deleted);
+  }
+
+}
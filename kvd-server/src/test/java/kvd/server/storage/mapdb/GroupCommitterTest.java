@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server.storage.mapdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import kvd.common.Durability;
+import kvd.common.KvdException;
+import kvd.server.Key;
+
+public class GroupCommitterTest {
+
+  @Test
+  public void batchesQueuedCommits() throws Exception {
+    CountDownLatch firstWriting = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<Integer> batches = new CopyOnWriteArrayList<>();
+    GroupCommitter committer = new GroupCommitter(batch -> {
+      firstWriting.countDown();
+      try {
+        release.await();
+      } catch(InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      batches.add(batch.size());
+    }, () -> {}, 4, 0);
+    committer.start();
+    Thread[] threads = new Thread[9];
+    for(int i=0;i<threads.length;i++) {
+      Map<Key, Value> writes = Map.of(Key.of("k" + i), Value.inline(new byte[] {(byte)i}));
+      threads[i] = new Thread(() -> committer.commit(writes, Durability.SYNC));
+      threads[i].start();
+      if(i == 0) {
+        // the others queue up while the first batch is written
+        assertTrue(firstWriting.await(10, TimeUnit.SECONDS));
+      }
+    }
+    Thread.sleep(200);
+    release.countDown();
+    for(Thread t : threads) {
+      t.join(10_000);
+      assertTrue(!t.isAlive());
+    }
+    committer.stop();
+    assertEquals(9, batches.stream().mapToInt(Integer::intValue).sum());
+    assertEquals(List.of(1, 4, 4), batches);
+  }
+
+  @Test
+  public void failedWriteSets() throws Exception {
+    GroupCommitter committer = new GroupCommitter(batch -> {
+      for(GroupCommitter.WriteSet w : batch) {
+        if(w.getValues().containsKey(Key.of("fail"))) {
+          w.fail(new KvdException("failed write set"));
+        } else if(w.getValues().containsKey(Key.of("throw"))) {
+          throw new KvdException("failed batch");
+        }
+      }
+    }, () -> {}, 4, 0);
+    committer.start();
+    try {
+      committer.commit(Map.of(Key.of("ok"), Value.inline(new byte[] {1})), Durability.SYNC);
+      assertThrows(KvdException.class,
+          () -> committer.commit(Map.of(Key.of("fail"), Value.inline(new byte[] {1})), Durability.SYNC));
+      assertThrows(KvdException.class,
+          () -> committer.commit(Map.of(Key.of("throw"), Value.inline(new byte[] {1})), Durability.SYNC));
+      // the commit thread carries on
+      committer.commit(Map.of(Key.of("ok"), Value.inline(new byte[] {1})), Durability.SYNC);
+    } finally {
+      committer.stop();
+    }
+  }
+
+}
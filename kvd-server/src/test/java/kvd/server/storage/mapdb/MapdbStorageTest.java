@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server.storage.mapdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import kvd.common.Durability;
+import kvd.common.KvdException;
+import kvd.server.Key;
+import kvd.server.util.FileUtils;
+
+public class MapdbStorageTest {
+
+  private File base;
+
+  private MapdbStorage storage;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    base = Files.createTempDirectory("kvd").toFile();
+    // a long max wait so the concurrent commits below end up in the same batch.
+    // deferred writes stay uncommitted for the duration of a test
+    storage = new MapdbStorage(base, false, 16, 500, Durability.SYNC, 60_000);
+  }
+
+  @AfterEach
+  public void done() {
+    storage.stop();
+    FileUtils.deleteDirQuietly(base);
+  }
+
+  private static Map<Key, Value> write(String key, String value) {
+    return Map.of(Key.of(key), Value.inline(value.getBytes()));
+  }
+
+  private CompletableFuture<Void> commitAsync(Map<Key, Value> m) {
+    return CompletableFuture.runAsync(() -> storage.commit(m, Durability.SYNC));
+  }
+
+  private String getString(String key) {
+    Value v = storage.getValue(Key.of(key));
+    return v != null ? new String(v.inline()) : null;
+  }
+
+  @Test
+  public void failingWriteSet() throws Exception {
+    CompletableFuture<Void> c1 = commitAsync(write("k1", "v1"));
+    // a BLOB value without blob files, fails to serialize
+    CompletableFuture<Void> c2 = commitAsync(Map.of(Key.of("k2"), Value.blob(null)));
+    CompletableFuture<Void> c3 = commitAsync(write("k3", "v3"));
+    c1.get(10, TimeUnit.SECONDS);
+    ExecutionException e = assertThrows(ExecutionException.class, () -> c2.get(10, TimeUnit.SECONDS));
+    assertEquals(KvdException.class, e.getCause().getClass());
+    c3.get(10, TimeUnit.SECONDS);
+    // the others are written again without the failing one
+    assertEquals("v1", getString("k1"));
+    assertNull(storage.getValue(Key.of("k2")));
+    assertEquals("v3", getString("k3"));
+  }
+
+  @Test
+  public void failingWriteSetKeepsDeferredWrites() throws Exception {
+    storage.commit(write("deferred", "v1"), Durability.ASYNC);
+    assertThrows(KvdException.class, () -> storage.commit(Map.of(Key.of("k2"), Value.blob(null)), Durability.SYNC));
+    // acknowledged, must not be rolled back by the failing write
+    assertEquals("v1", getString("deferred"));
+    storage.commit(write("k3", "v3"), Durability.SYNC);
+    assertEquals("v1", getString("deferred"));
+    assertEquals("v3", getString("k3"));
+  }
+
+}
@@ -15,7 +15,9 @@ package kvd.server.storage.mapdb;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.List;
 import java.util.UUID;
@@ -50,6 +52,43 @@ public class ValueTest {
     assertEquals(a, v2.getAccessed());
   }
 
+  @Test
+  public void testExpires() {
+    Value v1 = Value.inline(new byte[] {1,2,3});
+    Instant expires = Instant.ofEpochMilli(System.currentTimeMillis() + 1234);
+    v1.setExpires(expires);
+    Value v2 = Value.deserialize(v1.serialize());
+    assertEquals(expires, v2.getExpires());
+    assertNull(Value.deserialize(Value.blob(List.of("1")).serialize()).getExpires());
+  }
 
-}
+  @Test
+  public void testDigest() {
+    Value v1 = Value.blob(List.of("1"));
+    byte[] digest = new byte[] {1,2,3,4,5,6,7,8};
+    v1.setDigest(digest);
+    Value v2 = Value.deserialize(v1.serialize());
+    assertArrayEquals(digest, v2.getDigest());
+    assertEquals(List.of("1"), v2.blobs());
+    assertNull(Value.deserialize(Value.inline(new byte[0]).serialize()).getDigest());
+  }
 
+  @Test
+  public void testWithoutOptionalFields() {
+    // values serialized before optional fields have been added
+    byte[] inline = new byte[] {1,2,3};
+    ByteBuffer b = ByteBuffer.allocate(4+8+8+4+inline.length);
+    b.putInt(ValueType.INLINE.ordinal());
+    b.putLong(1);
+    b.putLong(2);
+    b.putInt(inline.length);
+    b.put(inline);
+    Value v = Value.deserialize(b.array());
+    assertArrayEquals(inline, v.inline());
+    assertEquals(Instant.ofEpochSecond(1), v.getCreated());
+    assertEquals(Instant.ofEpochSecond(2), v.getAccessed());
+    assertNull(v.getExpires());
+    assertNull(v.getDigest());
+  }
+
+}
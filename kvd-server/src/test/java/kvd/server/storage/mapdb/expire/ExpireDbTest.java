@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server.storage.mapdb.expire;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.HTreeMap;
+import org.mapdb.Serializer;
+
+import kvd.common.Durability;
+import kvd.server.Key;
+import kvd.server.list.KvdLinkedList;
+import kvd.server.list.MapByteArrayKvdListStore;
+import kvd.server.storage.mapdb.MapdbStorage;
+import kvd.server.util.FileUtils;
+
+public class ExpireDbTest {
+
+  private File base;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    base = Files.createTempDirectory("kvd").toFile();
+  }
+
+  @AfterEach
+  public void done() {
+    FileUtils.deleteDirQuietly(base);
+  }
+
+  private MapdbStorage start() {
+    return new MapdbStorage(base, false, 16, 0, Durability.SYNC, 1000);
+  }
+
+  /**
+   * Expire data the way versions before it moved into the value database wrote it, a database of its own.
+   */
+  private void writeSeparateExpireDb(Key key, Instant created) {
+    File expiredb = new File(base, "expiredb");
+    FileUtils.createDirIfMissing(expiredb);
+    try(DB db = DBMaker.fileDB(new File(expiredb, "map")).transactionEnable().make()) {
+      HTreeMap<byte[], byte[]> map = db
+          .hashMap("map")
+          .keySerializer(Serializer.BYTE_ARRAY)
+          .valueSerializer(Serializer.BYTE_ARRAY)
+          .createOrOpen();
+      Timestamp t = new Timestamp(key, created.getEpochSecond());
+      for(String name : new String[] {"created", "accessed"}) {
+        new KvdLinkedList<Timestamp>(
+            new MapByteArrayKvdListStore(map),
+            name,
+            Timestamp::serialize,
+            Timestamp::deserialize,
+            Timestamp::getKey).add(t);
+      }
+      db.commit();
+    }
+  }
+
+  @Test
+  public void migrateSeparateExpireDb() {
+    Key key = Key.of("migrated");
+    writeSeparateExpireDb(key, Instant.now().minusSeconds(3600));
+    MapdbStorage storage = start();
+    try {
+      assertFalse(new File(base, "expiredb").exists());
+      assertEquals(1, storage.getExpireDb().size());
+      assertEquals(Set.of(key), storage.getExpireDb().getExpired(null, 1000L, 10));
+    } finally {
+      storage.stop();
+    }
+    // nothing left to migrate again
+    storage = start();
+    try {
+      assertEquals(1, storage.getExpireDb().size());
+      assertEquals(Set.of(key), storage.getExpireDb().getExpired(60_000L, null, 10));
+    } finally {
+      storage.stop();
+    }
+  }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2020 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.server.storage.mapdb.expire;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+import kvd.server.Key;
+
+public class SoftExpiryTest {
+
+  @Test
+  public void refresh() {
+    SoftExpiry softExpiry = new SoftExpiry(1000, 60_000);
+    Key key = Key.of("k1");
+    Instant stale = Instant.now().minusSeconds(10);
+    assertEquals(SoftExpiry.State.FRESH, softExpiry.check(key, Instant.now()));
+    assertEquals(SoftExpiry.State.REFRESH, softExpiry.check(key, stale));
+    assertEquals(SoftExpiry.State.STALE, softExpiry.check(key, stale));
+    assertEquals(SoftExpiry.State.REFRESH, softExpiry.check(key, stale.plusMillis(1)));
+  }
+
+  @Test
+  public void changed() {
+    SoftExpiry softExpiry = new SoftExpiry(1000, 60_000);
+    Key k1 = Key.of("k1");
+    Key k2 = Key.of("k2");
+    Instant stale = Instant.now().minusSeconds(10);
+    assertEquals(SoftExpiry.State.REFRESH, softExpiry.check(k1, stale));
+    assertEquals(SoftExpiry.State.REFRESH, softExpiry.check(k2, stale));
+    // the write (or remove) of a key ends its refresh
+    softExpiry.changed(k1);
+    assertEquals(SoftExpiry.State.REFRESH, softExpiry.check(k1, stale));
+    assertEquals(SoftExpiry.State.STALE, softExpiry.check(k2, stale));
+    softExpiry.changedAll();
+    assertEquals(SoftExpiry.State.REFRESH, softExpiry.check(k1, stale));
+    assertEquals(SoftExpiry.State.REFRESH, softExpiry.check(k2, stale));
+  }
+
+}
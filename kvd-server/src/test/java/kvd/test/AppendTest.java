@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import kvd.client.KvdClient;
+import kvd.client.KvdTransaction;
+import kvd.server.Kvd;
+
+public class AppendTest {
+
+  private static Kvd server;
+
+  @BeforeAll
+  public static void setup() {
+    server = TestUtils.startServer();
+  }
+
+  @AfterAll
+  public static void done() {
+    server.shutdown();
+  }
+
+  @Test
+  public void appendInline() {
+    try(KvdClient client = server.newLocalClient()) {
+      final String key = "appendInline";
+      client.appendBytes(key.getBytes(), "a".getBytes());
+      assertEquals("a", client.getString(key));
+      client.appendBytes(key.getBytes(), "b".getBytes());
+      client.appendBytes(key.getBytes(), "c".getBytes());
+      assertEquals("abc", client.getString(key));
+    }
+  }
+
+  @Test
+  public void appendBlob() throws Exception {
+    try(KvdClient client = server.newLocalClient()) {
+      final String key = "appendBlob";
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      // crosses the default blob threshold (64KiB) after a couple of appends
+      for(int i=0;i<10;i++) {
+        byte[] chunk = new byte[20*1024+i];
+        for(int j=0;j<chunk.length;j++) {
+          chunk[j] = (byte)(i+j);
+        }
+        expected.write(chunk);
+        client.appendBytes(key.getBytes(), chunk);
+        assertArrayEquals(expected.toByteArray(), client.getBytes(key.getBytes()));
+      }
+    }
+  }
+
+  @Test
+  public void appendDigestChanges() {
+    try(KvdClient client = server.newLocalClient()) {
+      final String key = "appendDigest";
+      client.putString(key, "a");
+      byte[] d1 = client.digest(key);
+      client.appendBytes(key.getBytes(), "b".getBytes());
+      byte[] d2 = client.digest(key);
+      assertFalse(Arrays.equals(d1, d2));
+    }
+  }
+
+  @Test
+  public void appendInTx() {
+    try(KvdClient client = server.newLocalClient()) {
+      final String key = "appendInTx";
+      client.putString(key, "a");
+      try(KvdTransaction tx = client.beginTransaction()) {
+        tx.appendBytes(key.getBytes(), "b".getBytes());
+        tx.appendBytes(key.getBytes(), "c".getBytes());
+        assertEquals("abc", tx.getString(key));
+        tx.rollback();
+      }
+      assertEquals("a", client.getString(key));
+      try(KvdTransaction tx = client.beginTransaction()) {
+        tx.appendBytes(key.getBytes(), "d".getBytes());
+        tx.commit();
+      }
+      assertEquals("ad", client.getString(key));
+    }
+  }
+
+  @Test
+  public void appendWhileConcurrentPut() throws Exception {
+    try(KvdClient client = server.newLocalClient(); KvdClient other = server.newLocalClient()) {
+      final String key = "appendConcurrentPut";
+      byte[] base = new byte[100*1024];
+      Arrays.fill(base, (byte)1);
+      client.putBytes(key.getBytes(), base);
+      OutputStream out = client.append(key);
+      // commits before the append and replaces the blob files the append started from
+      other.putBytes(key.getBytes(), new byte[200*1024]);
+      out.write("tail".getBytes());
+      out.close();
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      expected.write(base);
+      expected.write("tail".getBytes());
+      assertArrayEquals(expected.toByteArray(), client.getBytes(key.getBytes()));
+    }
+  }
+
+}
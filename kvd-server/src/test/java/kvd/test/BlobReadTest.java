@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import kvd.client.KvdClient;
+import kvd.server.DbType;
+import kvd.server.Kvd;
+
+public class BlobReadTest {
+
+  private static Kvd server;
+
+  private static File datadir;
+
+  @BeforeAll
+  public static void setup() throws Exception {
+    Kvd.KvdOptions options = TestUtils.prepareServer(DbType.MAPDB);
+    // many blob files per value, a reader opens them one after the other
+    options.blobSplitSize = "256ki";
+    datadir = options.datadir;
+    server = new Kvd();
+    server.run(options);
+  }
+
+  @AfterAll
+  public static void done() {
+    server.shutdown();
+  }
+
+  private static long blobFiles() throws IOException {
+    try(Stream<Path> stream = Files.walk(datadir.toPath())) {
+      return stream
+          .filter(Files::isRegularFile)
+          .filter(p -> p.getParent().getFileName().toString().equals("blobs"))
+          .count();
+    }
+  }
+
+  private static void waitFor(Callable<Boolean> condition) throws Exception {
+    long start = System.nanoTime();
+    while(!condition.call()) {
+      if((System.nanoTime() - start) > TimeUnit.SECONDS.toNanos(10)) {
+        throw new AssertionError("condition not met in time");
+      }
+      Thread.sleep(10);
+    }
+  }
+
+  private static byte[] value(int seed) {
+    byte[] b = new byte[8*1024*1024];
+    for(int i=0;i<b.length;i++) {
+      b[i] = (byte)(i*seed);
+    }
+    return b;
+  }
+
+  @Test
+  public void readWhileReplaced() throws Exception {
+    String key = "readWhileReplaced";
+    try(KvdClient client = server.newLocalClient(); KvdClient other = server.newLocalClient()) {
+      byte[] v1 = value(31);
+      byte[] v2 = value(17);
+      client.putBytes(key.getBytes(), v1);
+      long blobs = blobFiles();
+      try(InputStream in = client.get(key)) {
+        assertEquals(v1[0], (byte)in.read());
+        // the reader is stuck on one of the first blob files, the replaced ones are still there for it
+        other.putBytes(key.getBytes(), v2);
+        assertArrayEquals(v2, other.getBytes(key.getBytes()));
+        assertEquals(2*blobs, blobFiles());
+        byte[] rest = in.readAllBytes();
+        assertEquals(v1.length - 1, rest.length);
+        for(int i=0;i<rest.length;i++) {
+          assertEquals(v1[i+1], rest[i]);
+        }
+      }
+      // deleted once the reader is done
+      waitFor(() -> blobFiles() == blobs);
+      assertArrayEquals(v2, client.getBytes(key.getBytes()));
+    }
+  }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import kvd.client.KvdClient;
+import kvd.common.KvdException;
+import kvd.common.Utils;
+import kvd.server.Kvd;
+
+public class ComputeIfAbsentTest {
+
+  private static Kvd server;
+
+  @BeforeAll
+  public static void setup() {
+    server = TestUtils.startServer();
+  }
+
+  @AfterAll
+  public static void done() {
+    server.shutdown();
+  }
+
+  private static String computeString(KvdClient client, String key, long leaseMs, AtomicInteger counter,
+      long sleepMs) {
+    try {
+      return new String(Utils.toByteArray(client.computeIfAbsent(key.getBytes(), leaseMs, out -> {
+        counter.incrementAndGet();
+        try {
+          Thread.sleep(sleepMs);
+        } catch(InterruptedException e) {
+          throw new IOException(e);
+        }
+        out.write(key.getBytes());
+      })));
+    } catch(IOException e) {
+      throw new KvdException("read failed", e);
+    }
+  }
+
+  @Test
+  public void singleFlight() throws Exception {
+    final String key = "computeIfAbsentSingleFlight";
+    AtomicInteger counter = new AtomicInteger();
+    List<KvdClient> clients = new ArrayList<>();
+    List<CompletableFuture<String>> results = new ArrayList<>();
+    try {
+      for(int i=0;i<10;i++) {
+        KvdClient client = server.newLocalClient();
+        clients.add(client);
+        results.add(CompletableFuture.supplyAsync(() -> computeString(client, key, 10_000, counter, 500)));
+      }
+      for(CompletableFuture<String> f : results) {
+        assertEquals(key, f.get(30, TimeUnit.SECONDS));
+      }
+      assertEquals(1, counter.get());
+    } finally {
+      clients.forEach(KvdClient::close);
+    }
+  }
+
+  @Test
+  public void presentValueNotComputed() {
+    final String key = "computeIfAbsentPresent";
+    AtomicInteger counter = new AtomicInteger();
+    try(KvdClient client = server.newLocalClient()) {
+      client.putString(key, key);
+      assertEquals(key, computeString(client, key, 1000, counter, 0));
+      assertEquals(0, counter.get());
+    }
+  }
+
+  @Test
+  public void failedComputeReleasesLease() {
+    final String key = "computeIfAbsentFailed";
+    try(KvdClient client = server.newLocalClient()) {
+      assertThrows(KvdException.class, () -> client.computeIfAbsent(key, out -> {
+        throw new IOException("compute failed");
+      }));
+      // lease must be gone, otherwise this blocks until the lease expires
+      AtomicInteger counter = new AtomicInteger();
+      long start = System.nanoTime();
+      assertEquals(key, computeString(client, key, 60_000, counter, 0));
+      assertEquals(1, counter.get());
+      assertEquals(true, (System.nanoTime() - start) < TimeUnit.SECONDS.toNanos(30));
+    }
+  }
+
+  @Test
+  public void leaseExpires() throws Exception {
+    final String key = "computeIfAbsentLeaseExpires";
+    AtomicInteger counter = new AtomicInteger();
+    try(KvdClient client1 = server.newLocalClient(); KvdClient client2 = server.newLocalClient()) {
+      CompletableFuture<String> slow = CompletableFuture.supplyAsync(
+          () -> computeString(client1, key, 200, counter, 3000));
+      Thread.sleep(500);
+      // takes over the computation after the lease of the slow client expired
+      assertEquals(key, computeString(client2, key, 10_000, counter, 0));
+      assertEquals(2, counter.get());
+      assertEquals(key, slow.get(30, TimeUnit.SECONDS));
+    }
+  }
+
+}
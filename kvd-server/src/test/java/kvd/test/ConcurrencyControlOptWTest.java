@@ -142,6 +142,28 @@ public class ConcurrencyControlOptWTest {
     }
   }
 
+  @Test
+  public void pipelinedFailsOnCommit() {
+    final String key = "pipelinedFailsOnCommit";
+    try(KvdClient client = client()) {
+      try(KvdTransaction tx1 = client.beginTransaction();
+          KvdTransaction tx2 = client.beginPipelinedTransaction()) {
+        tx1.putString(key, "1");
+        tx2.putString(key+"other", "2");
+        try {
+          // does not wait for the server, the stream might fail on write if the abort arrives in time
+          tx2.putString(key, "2");
+        } catch(KvdException e) {
+          // expected either here or on commit
+        }
+        assertThrows(KvdException.class, () -> tx2.commit());
+        tx1.commit();
+      }
+      assertEquals("1", client.getString(key));
+      assertFalse(client.contains(key+"other"));
+    }
+  }
+
   private void threadRunner(KvdClient client, int tId) {
     try(KvdTransaction tx1 = client.beginTransaction()) {
       String tx1Key = "t"+tId+"tx1_";
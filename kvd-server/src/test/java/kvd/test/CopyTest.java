@@ -0,0 +1,157 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import kvd.client.KvdClient;
+import kvd.client.KvdTransaction;
+import kvd.server.DbType;
+import kvd.server.Kvd;
+
+public class CopyTest {
+
+  private static Kvd server;
+
+  private static File datadir;
+
+  @BeforeAll
+  public static void setup() throws Exception {
+    Kvd.KvdOptions options = TestUtils.prepareServer(DbType.MAPDB);
+    datadir = options.datadir;
+    server = new Kvd();
+    server.run(options);
+  }
+
+  @AfterAll
+  public static void done() {
+    server.shutdown();
+  }
+
+  private static long blobFiles() throws IOException {
+    try(Stream<Path> stream = Files.walk(datadir.toPath())) {
+      return stream
+          .filter(Files::isRegularFile)
+          .filter(p -> p.getParent().getFileName().toString().equals("blobs"))
+          .count();
+    }
+  }
+
+  private static byte[] largeValue() {
+    byte[] b = new byte[1024*1024];
+    for(int i=0;i<b.length;i++) {
+      b[i] = (byte)(i*31);
+    }
+    return b;
+  }
+
+  @Test
+  public void copyInline() {
+    try(KvdClient client = server.newLocalClient()) {
+      assertFalse(client.copy("copyInlineMissing", "copyInlineTarget"));
+      client.putString("copyInline", "value");
+      assertTrue(client.copy("copyInline", "copyInlineTarget"));
+      assertEquals("value", client.getString("copyInline"));
+      assertEquals("value", client.getString("copyInlineTarget"));
+      assertTrue(client.copy("copyInline", "copyInline"));
+      assertEquals("value", client.getString("copyInline"));
+    }
+  }
+
+  @Test
+  public void copyAndRenameBlob() throws Exception {
+    try(KvdClient client = server.newLocalClient()) {
+      long before = blobFiles();
+      byte[] large = largeValue();
+      client.putBytes("copyBlob".getBytes(), large);
+      long blobs = blobFiles() - before;
+      assertTrue(blobs > 0);
+      assertTrue(client.copy("copyBlob", "copyBlobTarget"));
+      assertEquals(before + 2*blobs, blobFiles());
+      assertTrue(client.remove("copyBlob"));
+      assertArrayEquals(large, client.getBytes("copyBlobTarget".getBytes()));
+      assertEquals(before + blobs, blobFiles());
+      assertTrue(client.rename("copyBlobTarget", "copyBlobRenamed"));
+      assertNull(client.get("copyBlobTarget"));
+      assertArrayEquals(large, client.getBytes("copyBlobRenamed".getBytes()));
+      assertEquals(before + blobs, blobFiles());
+      assertTrue(client.remove("copyBlobRenamed"));
+      assertEquals(before, blobFiles());
+    }
+  }
+
+  @Test
+  public void renameOverExisting() throws Exception {
+    try(KvdClient client = server.newLocalClient()) {
+      client.putString("renameSource", "source");
+      client.putString("renameTarget", "target");
+      assertTrue(client.rename("renameSource", "renameTarget"));
+      assertFalse(client.contains("renameSource"));
+      assertEquals("source", client.getString("renameTarget"));
+      assertFalse(client.rename("renameSource", "renameTarget"));
+    }
+  }
+
+  @Test
+  public void copyInTxRollback() throws Exception {
+    try(KvdClient client = server.newLocalClient()) {
+      byte[] large = largeValue();
+      client.putBytes("copyTx".getBytes(), large);
+      try(KvdTransaction tx = client.beginTransaction()) {
+        assertTrue(tx.copy("copyTx", "copyTxTarget"));
+        assertArrayEquals(large, tx.getBytes("copyTxTarget".getBytes()));
+        assertTrue(tx.rename("copyTx", "copyTxRenamed"));
+        assertFalse(tx.contains("copyTx"));
+        tx.rollback();
+      }
+      assertArrayEquals(large, client.getBytes("copyTx".getBytes()));
+      assertFalse(client.contains("copyTxTarget"));
+      assertFalse(client.contains("copyTxRenamed"));
+    }
+  }
+
+  @Test
+  public void renameInTxWhileSourceReplaced() throws Exception {
+    try(KvdClient client = server.newLocalClient()) {
+      long before = blobFiles();
+      byte[] large = largeValue();
+      client.putBytes("renameReplaced".getBytes(), large);
+      try(KvdTransaction tx = client.beginTransaction()) {
+        assertTrue(tx.rename("renameReplaced", "renameReplacedTarget"));
+        // commits first and deletes the blob files of the value the transaction renamed
+        client.putString("renameReplaced", "replaced");
+        tx.commit();
+      }
+      assertFalse(client.contains("renameReplaced"));
+      assertArrayEquals(large, client.getBytes("renameReplacedTarget".getBytes()));
+      assertTrue(client.remove("renameReplacedTarget"));
+      assertEquals(before, blobFiles());
+    }
+  }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import kvd.client.KvdClient;
+import kvd.client.KvdClientBuilder;
+import kvd.client.KvdTransaction;
+import kvd.common.KvdException;
+import kvd.server.ConcurrencyControl;
+import kvd.server.Kvd;
+
+public class DeadlineTest {
+
+  private static Kvd server;
+
+  @BeforeAll
+  public static void setup() {
+    server = TestUtils.startServer("warn", ConcurrencyControl.PESW);
+  }
+
+  @AfterAll
+  public static void done() {
+    server.shutdown();
+  }
+
+  private KvdClient client(int requestTimeoutMs) {
+    return new KvdClientBuilder()
+        .setRequestTimeoutMs(requestTimeoutMs)
+        .create("localhost:" + server.getLocalPort());
+  }
+
+  @Test
+  public void lockWaitEndsAtDeadline() throws Exception {
+    String key = "lockWaitEndsAtDeadline";
+    try(KvdClient client = server.newLocalClient(); KvdClient impatient = client(300)) {
+      client.putString(key, "1");
+      try(KvdTransaction tx = client.beginTransaction()) {
+        tx.putString(key, "2");
+        long start = System.nanoTime();
+        // fails on the client side timeout or the abort from the server, whatever comes first
+        assertThrows(ExecutionException.class, () -> impatient.removeAsync(key.getBytes()).get(10, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        // a lock released right at the deadline is a race, give the server time to drop the wait
+        Thread.sleep(300);
+        tx.commit();
+      }
+      // the remove gave up on the lock and does not run once the lock is released
+      assertEquals("2", client.getString(key));
+      // without contention requests complete within the deadline
+      assertTrue(impatient.remove(key));
+    }
+  }
+
+  @Test
+  public void timedOutLockWaitIsNoDeadlock() throws Exception {
+    String key1 = "timedOutLockWaitIsNoDeadlock1";
+    String key2 = "timedOutLockWaitIsNoDeadlock2";
+    try(KvdClient client = server.newLocalClient(); KvdClient impatient = client(300)) {
+      try(KvdTransaction tx1 = client.beginTransaction(); KvdTransaction tx2 = impatient.beginTransaction()) {
+        assertTrue(tx1.lock(key1));
+        assertTrue(tx2.lock(key2));
+        assertThrows(ExecutionException.class, () -> tx2.lockAsync(key1).get(10, TimeUnit.SECONDS));
+        // give the server time to drop the wait
+        Thread.sleep(300);
+        // tx2 is not waiting on tx1 anymore, so tx1 has to wait on tx2 instead of failing on a deadlock
+        CompletableFuture<Boolean> lock = tx1.lockAsync(key2);
+        Thread.sleep(200);
+        assertFalse(lock.isDone());
+        // tx2 is still usable after the failed lock wait
+        assertTrue(tx2.lock(key2 + "_other"));
+        tx2.rollback();
+        assertTrue(lock.get(10, TimeUnit.SECONDS));
+        tx1.commit();
+      }
+    }
+  }
+
+  @Test
+  public void cancelAbortsLockWait() throws Exception {
+    String key = "cancelAbortsLockWait";
+    try(KvdClient client = server.newLocalClient(); KvdClient other = server.newLocalClient()) {
+      client.putString(key, "1");
+      try(KvdTransaction tx = client.beginTransaction()) {
+        tx.putString(key, "2");
+        CompletableFuture<Boolean> remove = other.removeAsync(key.getBytes());
+        Thread.sleep(100);
+        assertTrue(remove.cancel(true));
+        // let the cancellation reach the server before the lock is released
+        Thread.sleep(300);
+        tx.commit();
+      }
+      Thread.sleep(300);
+      assertEquals("2", client.getString(key));
+      assertTrue(other.contains(key));
+    }
+  }
+
+  @Test
+  public void interruptCancels() throws Exception {
+    String key = "interruptCancels";
+    try(KvdClient client = server.newLocalClient(); KvdClient other = server.newLocalClient()) {
+      client.putString(key, "1");
+      try(KvdTransaction tx = client.beginTransaction()) {
+        tx.putString(key, "2");
+        Thread t = new Thread(() -> {
+          assertThrows(KvdException.class, () -> other.remove(key));
+        });
+        t.start();
+        Thread.sleep(100);
+        t.interrupt();
+        t.join(5000);
+        Thread.sleep(300);
+        tx.commit();
+      }
+      Thread.sleep(300);
+      assertEquals("2", client.getString(key));
+    }
+  }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.MessageDigest;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import kvd.client.KvdClient;
+import kvd.client.KvdTransaction;
+import kvd.client.KvdValueInputStream;
+import kvd.common.Utils;
+import kvd.server.Kvd;
+
+public class DigestTest {
+
+  private static Kvd server;
+
+  @BeforeAll
+  public static void setup() {
+    server = TestUtils.startServer();
+  }
+
+  @AfterAll
+  public static void done() {
+    server.shutdown();
+  }
+
+  private static byte[] sha256(byte[] b) throws Exception {
+    return MessageDigest.getInstance("SHA-256").digest(b);
+  }
+
+  @Test
+  public void digest() throws Exception {
+    try(KvdClient client = server.newLocalClient()) {
+      final String key = "digest";
+      assertNull(client.digest(key));
+      client.putString(key, "value1");
+      assertArrayEquals(sha256("value1".getBytes()), client.digest(key));
+      byte[] large = new byte[1024*1024];
+      for(int i=0;i<large.length;i++) {
+        large[i] = (byte)i;
+      }
+      client.putBytes(key.getBytes(), large);
+      assertArrayEquals(sha256(large), client.digest(key));
+    }
+  }
+
+  @Test
+  public void ifNoneMatch() throws Exception {
+    try(KvdClient client = server.newLocalClient()) {
+      final String key = "ifNoneMatch";
+      assertNull(client.get(key, null));
+      client.putString(key, "value1");
+      byte[] digest;
+      try(KvdValueInputStream in = client.get(key, null)) {
+        assertFalse(in.isNotModified());
+        assertEquals("value1", new String(Utils.toByteArray(in)));
+        digest = in.getDigest();
+      }
+      assertArrayEquals(sha256("value1".getBytes()), digest);
+      try(KvdValueInputStream in = client.get(key, digest)) {
+        assertNotNull(in);
+        assertTrue(in.isNotModified());
+        assertArrayEquals(digest, in.getDigest());
+        assertEquals(-1, in.read());
+      }
+      client.putString(key, "value2");
+      try(KvdValueInputStream in = client.get(key, digest)) {
+        assertFalse(in.isNotModified());
+        assertEquals("value2", new String(Utils.toByteArray(in)));
+        assertArrayEquals(sha256("value2".getBytes()), in.getDigest());
+      }
+    }
+  }
+
+  @Test
+  public void digestInTx() throws Exception {
+    try(KvdClient client = server.newLocalClient()) {
+      final String key = "digestInTx";
+      try(KvdTransaction tx = client.beginTransaction()) {
+        tx.putString(key, "txvalue");
+        assertArrayEquals(sha256("txvalue".getBytes()), tx.digest(key));
+        tx.commit();
+      }
+      assertArrayEquals(sha256("txvalue".getBytes()), client.digest(key));
+    }
+  }
+
+}
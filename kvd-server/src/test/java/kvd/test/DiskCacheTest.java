@@ -0,0 +1,169 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import kvd.client.KvdClient;
+import kvd.client.KvdClientBuilder;
+import kvd.client.KvdDiskCacheStats;
+import kvd.server.Kvd;
+import kvd.server.util.FileUtils;
+
+public class DiskCacheTest {
+
+  private static final int MB = 1024*1024;
+
+  private static Kvd server;
+
+  private Path cacheDir;
+
+  @BeforeAll
+  public static void setup() {
+    server = TestUtils.startServer();
+  }
+
+  @AfterAll
+  public static void done() {
+    server.shutdown();
+  }
+
+  @BeforeEach
+  public void createCacheDir() throws IOException {
+    cacheDir = TestUtils.createTempDirectory("kvdcache").toPath();
+  }
+
+  @AfterEach
+  public void deleteCacheDir() {
+    FileUtils.deleteDirQuietly(cacheDir.toFile());
+  }
+
+  private KvdClient cachingClient(long maxBytes) {
+    return new KvdClientBuilder()
+        .setDiskCacheDirectory(cacheDir)
+        .setDiskCacheMaxBytes(maxBytes)
+        .create("localhost:"+server.getLocalPort());
+  }
+
+  private static byte[] random(int size) {
+    byte[] buf = new byte[size];
+    new Random().nextBytes(buf);
+    return buf;
+  }
+
+  @Test
+  public void hitAndRevalidate() {
+    try(KvdClient client = cachingClient(10*MB); KvdClient other = server.newLocalClient()) {
+      final String key = "diskCacheHit";
+      byte[] v1 = random(MB);
+      other.putBytes(key.getBytes(), v1);
+      assertArrayEquals(v1, client.getBytes(key.getBytes()));
+      assertArrayEquals(v1, client.getBytes(key.getBytes()));
+      KvdDiskCacheStats stats = client.getDiskCacheStats();
+      assertEquals(1, stats.getMisses());
+      assertEquals(1, stats.getHits());
+      assertEquals(1, stats.getEntries());
+      assertEquals(MB, stats.getBytes());
+      byte[] v2 = random(MB);
+      other.putBytes(key.getBytes(), v2);
+      assertArrayEquals(v2, client.getBytes(key.getBytes()));
+      assertEquals(2, client.getDiskCacheStats().getMisses());
+      assertEquals(1, client.getDiskCacheStats().getEntries());
+      other.remove(key);
+      assertNull(client.getBytes(key.getBytes()));
+      assertEquals(0, client.getDiskCacheStats().getEntries());
+    }
+  }
+
+  @Test
+  public void sharedDirectory() {
+    final String key = "diskCacheShared";
+    byte[] v = random(MB);
+    try(KvdClient client = cachingClient(10*MB)) {
+      client.putBytes(key.getBytes(), v);
+      assertArrayEquals(v, client.getBytes(key.getBytes()));
+    }
+    try(KvdClient client = cachingClient(10*MB)) {
+      assertArrayEquals(v, client.getBytes(key.getBytes()));
+      assertEquals(1, client.getDiskCacheStats().getHits());
+      assertEquals(0, client.getDiskCacheStats().getMisses());
+    }
+  }
+
+  @Test
+  public void evict() {
+    try(KvdClient client = cachingClient(3*MB)) {
+      for(int i=0;i<5;i++) {
+        byte[] key = ("diskCacheEvict" + i).getBytes();
+        client.putBytes(key, random(MB));
+        client.getBytes(key);
+      }
+      KvdDiskCacheStats stats = client.getDiskCacheStats();
+      assertTrue(stats.getBytes() <= 3*MB);
+      assertEquals(2, stats.getEvictions());
+      // too large to be cached
+      byte[] key = "diskCacheLarge".getBytes();
+      byte[] large = random(4*MB);
+      client.putBytes(key, large);
+      assertArrayEquals(large, client.getBytes(key));
+      assertArrayEquals(large, client.getBytes(key));
+      assertEquals(0, client.getDiskCacheStats().getHits());
+    }
+  }
+
+  @Test
+  public void evictSharedDirectory() {
+    try(KvdClient client1 = cachingClient(3*MB)) {
+      for(int i=0;i<3;i++) {
+        byte[] key = ("diskCacheEvictShared" + i).getBytes();
+        client1.putBytes(key, random(MB));
+        client1.getBytes(key);
+      }
+      assertEquals(0, client1.getDiskCacheStats().getEvictions());
+      // the files of client1 are picked up by the scan of client2
+      try(KvdClient client2 = cachingClient(3*MB)) {
+        byte[] key = "diskCacheEvictShared3".getBytes();
+        client2.putBytes(key, random(MB));
+        client2.getBytes(key);
+        KvdDiskCacheStats stats = client2.getDiskCacheStats();
+        assertEquals(1, stats.getEvictions());
+        assertEquals(3*MB, stats.getBytes());
+      }
+    }
+  }
+
+  @Test
+  public void partialRead() throws Exception {
+    try(KvdClient client = cachingClient(10*MB)) {
+      final String key = "diskCachePartial";
+      client.putBytes(key.getBytes(), random(MB));
+      client.get(key).close();
+      assertEquals(0, client.getDiskCacheStats().getEntries());
+    }
+  }
+
+}
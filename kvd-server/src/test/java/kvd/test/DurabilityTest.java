@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import kvd.client.KvdClient;
+import kvd.client.KvdClientBuilder;
+import kvd.client.KvdTransaction;
+import kvd.common.Durability;
+import kvd.server.DbType;
+import kvd.server.Kvd;
+import kvd.server.util.FileUtils;
+
+public class DurabilityTest {
+
+  private Kvd.KvdOptions options;
+
+  private Kvd server;
+
+  @BeforeEach
+  public void setup() throws IOException {
+    options = TestUtils.prepareServer(DbType.MAPDB);
+    options.durability = Durability.ASYNC;
+    options.asyncCommitWindow = "10m";
+    server = new Kvd();
+    server.run(options);
+    options.port = server.getLocalPort();
+  }
+
+  @AfterEach
+  public void done() {
+    server.shutdown();
+    FileUtils.deleteDirQuietly(options.datadir);
+  }
+
+  private KvdClient client(Durability durability) {
+    return new KvdClientBuilder()
+        .setDurability(durability)
+        .create("localhost:" + options.port);
+  }
+
+  private void restart() throws IOException {
+    server.shutdown();
+    server = new Kvd();
+    server.run(options);
+  }
+
+  @Test
+  public void visibleBeforeCommit() {
+    byte[] blob = new byte[200_000];
+    blob[blob.length-1] = 1;
+    try(KvdClient client = client(Durability.NONE)) {
+      client.putString("none", "1");
+      client.putBytes("noneBlob".getBytes(), blob);
+      try(KvdClient other = client(null)) {
+        // the async commit window is not over yet
+        assertEquals("1", other.getString("none"));
+        assertArrayEquals(blob, other.getBytes("noneBlob".getBytes()));
+      }
+    }
+  }
+
+  @Test
+  public void perTransaction() throws IOException {
+    byte[] blob = new byte[200_000];
+    blob[0] = 1;
+    try(KvdClient client = client(Durability.NONE)) {
+      try(KvdTransaction tx = client.beginTransaction(0, Durability.SYNC)) {
+        tx.putString("sync", "s");
+        tx.putBytes("syncBlob".getBytes(), blob);
+        tx.commit();
+      }
+      try(KvdTransaction tx = client.beginTransaction(0, Durability.ASYNC)) {
+        tx.putString("async", "a");
+        tx.commit();
+      }
+      client.putString("none", "n");
+    }
+    // deferred writes are committed on shutdown
+    restart();
+    try(KvdClient client = client(null)) {
+      assertEquals("s", client.getString("sync"));
+      assertArrayEquals(blob, client.getBytes("syncBlob".getBytes()));
+      assertEquals("a", client.getString("async"));
+      assertEquals("n", client.getString("none"));
+    }
+  }
+
+}
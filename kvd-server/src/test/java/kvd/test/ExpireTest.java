@@ -13,19 +13,24 @@
  */
 package kvd.test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
 
 import kvd.client.KvdClient;
+import kvd.common.KvdException;
+import kvd.common.Utils;
 import kvd.server.ConcurrencyControl;
 import kvd.server.DbType;
 import kvd.server.Key;
@@ -254,4 +259,100 @@ public class ExpireTest {
     }
   }
 
+  @ParameterizedTest
+  @EnumSource(DbType.class)
+  public void softExpireTest(DbType type) throws Exception {
+    Kvd server = null;
+    try {
+      Kvd.KvdOptions options = TestUtils.prepareServer(type);
+      options.softExpireAfterWrite = "1s";
+      options.logLevel = "info";
+      server = new Kvd();
+      server.run(options);
+      try(KvdClient client1 = server.newLocalClient(); KvdClient client2 = server.newLocalClient()) {
+        final String key = "softExpireTest";
+        client1.putString(key, "v1");
+        Thread.sleep(2500);
+        AtomicInteger refreshed = new AtomicInteger();
+        long startNs = System.nanoTime();
+        for(int i=0;;i++) {
+          if(isTimeout(startNs, TIMEOUT_NANOS)) {
+            fail("timeout reached, key should have been refreshed by now");
+          }
+          KvdClient client = (i%2==0)?client1:client2;
+          String value = new String(Utils.toByteArray(client.getOrRefresh(key, out -> {
+            refreshed.incrementAndGet();
+            try {
+              Thread.sleep(500);
+            } catch(InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+            out.write("v2".getBytes());
+          })));
+          if("v2".equals(value)) {
+            break;
+          } else {
+            assertEquals("v1", value);
+            Thread.sleep(50);
+          }
+        }
+        // the stale value must have been refreshed by a single client only
+        assertEquals(1, refreshed.get());
+      }
+    } finally {
+      if(server != null) {
+        server.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void softExpireNotShorterThanExpire() throws Exception {
+    Kvd.KvdOptions options = TestUtils.prepareServer(DbType.MAPDB);
+    options.softExpireAfterWrite = "10s";
+    options.expireAfterWrite = "10s";
+    Kvd server = new Kvd();
+    assertThrows(KvdException.class, () -> server.run(options));
+  }
+
+  @ParameterizedTest
+  @EnumSource(DbType.class)
+  public void ttlExpireTest(DbType type) throws Exception {
+    Kvd server = null;
+    try {
+      Kvd.KvdOptions options = TestUtils.prepareServer(type);
+      options.logLevel = "info";
+      server = new Kvd();
+      server.run(options);
+      try(KvdClient client = server.newLocalClient()) {
+        final String key1 = "ttlExpireTest1";
+        final String key2 = "ttlExpireTest2";
+        final String key3 = "ttlExpireTest3";
+        client.putString(key1, key1, 1000);
+        client.putString(key2, key2);
+        // ttl is gone when the value is replaced without ttl
+        client.putString(key3, key3, 1000);
+        client.putString(key3, key3);
+        long startNs = System.nanoTime();
+        for(;;) {
+          if(isTimeout(startNs, TIMEOUT_NANOS)) {
+            fail("timeout reached, key should have expired by now");
+          }
+          if(client.contains(key1)) {
+            Thread.sleep(100);
+          } else {
+            break;
+          }
+        }
+        Thread.sleep(2000);
+        assertTrue(client.contains(key2));
+        assertTrue(client.contains(key3));
+      }
+    } finally {
+      if(server != null) {
+        server.shutdown();
+      }
+    }
+  }
+
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import kvd.client.KvdClient;
+import kvd.client.KvdTransaction;
+import kvd.common.Utils;
+import kvd.server.ConcurrencyControl;
+import kvd.server.Kvd;
+import kvd.server.util.FileUtils;
+
+public class FileTransferTest {
+
+  private static Kvd server;
+
+  private static KvdClient client;
+
+  private Path dir;
+
+  @BeforeAll
+  public static void setup() {
+    server = TestUtils.startServer();
+    client = server.newLocalClient();
+  }
+
+  @AfterAll
+  public static void done() {
+    client.close();
+    server.shutdown();
+  }
+
+  @BeforeEach
+  public void createDir() throws IOException {
+    dir = TestUtils.createTempDirectory("kvdfiles").toPath();
+  }
+
+  @AfterEach
+  public void deleteDir() {
+    FileUtils.deleteDirQuietly(dir.toFile());
+  }
+
+  private Path randomFile(String name, int size) throws IOException {
+    byte[] buf = new byte[size];
+    new Random(size).nextBytes(buf);
+    return Files.write(dir.resolve(name), buf);
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    Path source = randomFile("source", 5*1024*1024 + 123);
+    client.putFile("file", source);
+    assertArrayEquals(Files.readAllBytes(source), Utils.toByteArray(client.get("file")));
+    Path target = dir.resolve("target");
+    assertTrue(client.getToFile("file", target));
+    assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(target));
+    // no temporary files left behind
+    try(Stream<Path> files = Files.list(dir)) {
+      assertEquals(2, files.count());
+    }
+  }
+
+  @Test
+  public void replacesTarget() throws Exception {
+    client.putString("replace", "new value");
+    Path target = Files.writeString(dir.resolve("target"), "some old and longer value");
+    assertTrue(client.getToFile("replace", target));
+    assertEquals("new value", Files.readString(target));
+  }
+
+  @Test
+  public void missingKey() throws Exception {
+    Path target = Files.writeString(dir.resolve("target"), "untouched");
+    assertFalse(client.getToFile("does not exist", target));
+    assertEquals("untouched", Files.readString(target));
+  }
+
+  @Test
+  public void emptyFile() throws Exception {
+    Path source = Files.createFile(dir.resolve("empty"));
+    client.putFile("empty", source);
+    assertTrue(client.contains("empty"));
+    Path target = dir.resolve("target");
+    assertTrue(client.getToFile("empty", target));
+    assertEquals(0, Files.size(target));
+  }
+
+  @Test
+  public void fileShrinksDuringPut() throws Exception {
+    // the transaction's write lock holds back the put until the file has been truncated
+    Kvd pessimistic = TestUtils.startServer("warn", ConcurrencyControl.PESW);
+    try(KvdClient client = pessimistic.newLocalClient()) {
+      client.putString("truncated", "before");
+      Path source = randomFile("source", 3*1024*1024);
+      CompletableFuture<Boolean> future;
+      try(KvdTransaction tx = client.beginTransaction()) {
+        tx.putString("truncated", "locked");
+        future = client.putFileAsync("truncated".getBytes(), source);
+        try(FileChannel channel = FileChannel.open(source, StandardOpenOption.WRITE)) {
+          channel.truncate(1024*1024 + 123);
+        }
+        tx.rollback();
+      }
+      assertThrows(ExecutionException.class, future::get);
+      // the padded value is not committed and the connection is still in sync
+      assertEquals("before", client.getString("truncated"));
+    } finally {
+      pessimistic.shutdown();
+    }
+  }
+
+  @Test
+  public void interleaved() throws Exception {
+    // other operations on the same connection keep working around file transfers
+    Path source = randomFile("source", 3*1024*1024);
+    client.putFile("interleaved", source);
+    for(int i=0;i<10;i++) {
+      CompletableFuture<Boolean> future = client.getToFileAsync("interleaved".getBytes(), dir.resolve("target" + i));
+      client.putString("small" + i, "value" + i);
+      assertEquals("value" + i, client.getString("small" + i));
+      assertTrue(future.get());
+      assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(dir.resolve("target" + i)));
+    }
+  }
+
+  @Test
+  public void inTransaction() throws Exception {
+    Path source = randomFile("source", 2*1024*1024);
+    try(KvdTransaction tx = client.beginTransaction()) {
+      tx.putFile("txfile", source);
+      Path target = dir.resolve("target");
+      assertTrue(tx.getToFile("txfile", target));
+      assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(target));
+      tx.commit();
+    }
+    assertArrayEquals(Files.readAllBytes(source), Utils.toByteArray(client.get("txfile")));
+  }
+
+}
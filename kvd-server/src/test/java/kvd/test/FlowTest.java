@@ -0,0 +1,183 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import kvd.client.KvdClient;
+import kvd.server.Kvd;
+
+public class FlowTest {
+
+  private static Kvd server;
+
+  private static KvdClient client;
+
+  @BeforeAll
+  public static void setup() {
+    server = TestUtils.startServer();
+    client = server.newLocalClient();
+  }
+
+  @AfterAll
+  public static void done() {
+    client.close();
+    server.shutdown();
+  }
+
+  private static class Collector implements Flow.Subscriber<ByteBuffer> {
+
+    private ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    private CompletableFuture<byte[]> future = new CompletableFuture<>();
+
+    private Flow.Subscription subscription;
+
+    private long cancelAfter;
+
+    Collector(long cancelAfter) {
+      this.cancelAfter = cancelAfter;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(1);
+    }
+
+    @Override
+    public void onNext(ByteBuffer item) {
+      byte[] buf = new byte[item.remaining()];
+      item.get(buf);
+      out.write(buf, 0, buf.length);
+      if(out.size() >= cancelAfter) {
+        subscription.cancel();
+        future.complete(out.toByteArray());
+      } else {
+        subscription.request(1);
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      future.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      future.complete(out.toByteArray());
+    }
+  }
+
+  private static byte[] random(int size) {
+    byte[] buf = new byte[size];
+    new Random().nextBytes(buf);
+    return buf;
+  }
+
+  private static byte[] collect(byte[] key) throws Exception {
+    Flow.Publisher<ByteBuffer> publisher = client.getPublisherAsync(key).get();
+    if(publisher == null) {
+      return null;
+    }
+    Collector collector = new Collector(Long.MAX_VALUE);
+    publisher.subscribe(collector);
+    return collector.future.get(1, TimeUnit.MINUTES);
+  }
+
+  @Test
+  public void getPublisher() throws Exception {
+    byte[] key = "flowGet".getBytes();
+    byte[] value = random(5*1024*1024);
+    client.putBytes(key, value);
+    assertArrayEquals(value, collect(key));
+  }
+
+  @Test
+  public void getPublisherMissing() throws Exception {
+    assertNull(collect("flowGetMissing".getBytes()));
+  }
+
+  @Test
+  public void getPublisherEmpty() throws Exception {
+    byte[] key = "flowGetEmpty".getBytes();
+    client.putBytes(key, new byte[0]);
+    assertEquals(0, collect(key).length);
+  }
+
+  @Test
+  public void getPublisherCancel() throws Exception {
+    byte[] key = "flowGetCancel".getBytes();
+    client.putBytes(key, random(5*1024*1024));
+    Collector collector = new Collector(1);
+    client.getPublisherAsync(key).get().subscribe(collector);
+    assertTrue(collector.future.get(1, TimeUnit.MINUTES).length >= 1);
+    // connection still usable
+    assertTrue(client.contains(key));
+  }
+
+  // the put subscribes once the server accepted it, items submitted before are dropped
+  private static void waitForSubscriber(SubmissionPublisher<ByteBuffer> publisher) throws InterruptedException {
+    while(!publisher.hasSubscribers()) {
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void putPublisher() throws Exception {
+    byte[] key = "flowPut".getBytes();
+    byte[] value = random(3*1024*1024+17);
+    CompletableFuture<Boolean> f;
+    try(SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<>()) {
+      f = client.putPublisherAsync(key, publisher);
+      waitForSubscriber(publisher);
+      for(int i=0;i<value.length;i+=10_000) {
+        publisher.submit(ByteBuffer.wrap(value, i, Math.min(10_000, value.length-i)));
+      }
+    }
+    assertTrue(f.get(1, TimeUnit.MINUTES));
+    assertArrayEquals(value, client.getBytes(key));
+  }
+
+  @Test
+  public void putPublisherError() throws Exception {
+    byte[] key = "flowPutError".getBytes();
+    SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<>();
+    CompletableFuture<Boolean> f = client.putPublisherAsync(key, publisher);
+    waitForSubscriber(publisher);
+    publisher.submit(ByteBuffer.wrap(random(1000)));
+    publisher.closeExceptionally(new RuntimeException("test"));
+    assertThrows(ExecutionException.class, () -> f.get(1, TimeUnit.MINUTES));
+    assertFalse(client.contains(key));
+  }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import kvd.client.KvdClient;
+import kvd.client.KvdTransaction;
+import kvd.server.DbType;
+import kvd.server.Kvd;
+
+public class GroupCommitTest {
+
+  private static Kvd server;
+
+  @BeforeAll
+  public static void setup() throws Exception {
+    Kvd.KvdOptions options = TestUtils.prepareServer(DbType.MAPDB);
+    options.groupCommitMaxWait = "200ms";
+    server = new Kvd();
+    server.run(options);
+  }
+
+  @AfterAll
+  public static void done() {
+    server.shutdown();
+  }
+
+  @Test
+  public void concurrentCommitsOnOneConnection() throws Exception {
+    int threads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try(KvdClient client = server.newLocalClient()) {
+      CountDownLatch ready = new CountDownLatch(threads);
+      long before = server.getCommits();
+      List<CompletableFuture<Void>> commits = new ArrayList<>();
+      for(int i=0;i<threads;i++) {
+        String key = "concurrentCommitsOnOneConnection" + i;
+        commits.add(CompletableFuture.runAsync(() -> {
+          try(KvdTransaction tx = client.beginTransaction()) {
+            tx.putString(key, "value");
+            ready.countDown();
+            ready.await();
+            tx.commit();
+          } catch(InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        }, executor));
+      }
+      for(CompletableFuture<Void> f : commits) {
+        f.get(30, TimeUnit.SECONDS);
+      }
+      long used = server.getCommits() - before;
+      // the transactions join each others group commit
+      assertTrue(used < threads, "commits " + used);
+      for(int i=0;i<threads;i++) {
+        assertEquals("value", client.getString("concurrentCommitsOnOneConnection" + i));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+}
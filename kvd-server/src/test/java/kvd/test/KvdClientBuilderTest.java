@@ -13,9 +13,16 @@
  */
 package kvd.test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.jupiter.api.Test;
 
 import kvd.client.KvdClient;
@@ -47,4 +54,36 @@ public class KvdClientBuilderTest {
     server.shutdown();
   }
 
+  @Test
+  public void pooled() throws Exception {
+    Kvd server = TestUtils.startServer();
+    try(KvdClient client = new KvdClientBuilder()
+        .setConnections(4)
+        .create("localhost:"+server.getLocalPort())) {
+      List<CompletableFuture<Void>> futures = new ArrayList<>();
+      for(int t=0;t<8;t++) {
+        final int thread = t;
+        futures.add(CompletableFuture.runAsync(() -> {
+          for(int i=0;i<50;i++) {
+            String key = "pooled-" + thread + "-" + i;
+            client.putString(key, key);
+            assertEquals(key, client.getString(key));
+          }
+        }));
+      }
+      for(CompletableFuture<Void> f : futures) {
+        f.get(60, TimeUnit.SECONDS);
+      }
+      client.withTransactionVoid(tx -> {
+        tx.putString("pooledTx", "tx");
+        assertEquals("tx", tx.getString("pooledTx"));
+        assertTrue(tx.remove("pooled-0-0"));
+      });
+      assertEquals("tx", client.getString("pooledTx"));
+      assertFalse(client.contains("pooled-0-0"));
+    }
+    assertThrows(KvdException.class, () -> new KvdClientBuilder().setConnections(0));
+    server.shutdown();
+  }
+
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import kvd.client.KvdClient;
+import kvd.client.KvdClientBuilder;
+import kvd.client.KvdClientMetrics;
+import kvd.client.KvdOperationType;
+import kvd.client.KvdTransaction;
+import kvd.server.Kvd;
+
+public class MetricsTest {
+
+  private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private static Kvd server;
+
+  @BeforeAll
+  public static void setup() {
+    server = TestUtils.startServer();
+  }
+
+  @AfterAll
+  public static void done() {
+    server.shutdown();
+  }
+
+  private static void waitForIdle(KvdClientMetrics metrics) throws InterruptedException {
+    long start = System.nanoTime();
+    for(KvdOperationType op : KvdOperationType.values()) {
+      // operations are recorded as done right after their futures completed
+      while(metrics.getInFlight(op) != 0) {
+        if((System.nanoTime() - start) > TIMEOUT_NANOS) {
+          throw new AssertionError(op + " still in flight");
+        }
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  @Test
+  public void recordsOperations() throws Exception {
+    KvdClientMetrics metrics = new KvdClientMetrics();
+    byte[] value = new byte[100_000];
+    try(KvdClient client = new KvdClientBuilder().setMetrics(metrics).create("localhost:" + server.getLocalPort())) {
+      client.putBytes("metrics".getBytes(), value);
+      try(InputStream in = client.get("metrics")) {
+        assertEquals(value.length, in.readAllBytes().length);
+      }
+      assertTrue(client.contains("metrics"));
+      assertFalse(client.contains("metricsMissing"));
+      assertTrue(client.remove("metrics"));
+      try(KvdTransaction tx = client.beginTransaction()) {
+        tx.putString("metricsTx", "1");
+        tx.commit();
+      }
+      waitForIdle(metrics);
+    }
+    assertEquals(2, metrics.getCount(KvdOperationType.PUT));
+    assertEquals(1, metrics.getCount(KvdOperationType.GET));
+    assertEquals(2, metrics.getCount(KvdOperationType.CONTAINS));
+    assertEquals(1, metrics.getCount(KvdOperationType.REMOVE));
+    assertEquals(1, metrics.getCount(KvdOperationType.COMMIT));
+    for(KvdOperationType op : KvdOperationType.values()) {
+      assertEquals(0, metrics.getFailures(op), op.toString());
+      assertEquals(metrics.getCount(op), metrics.getLatency(op).getCount(), op.toString());
+    }
+    assertEquals(1, metrics.getFirstByteLatency(KvdOperationType.GET).getCount());
+    assertTrue(metrics.getFirstByteLatency(KvdOperationType.GET).getMax()
+        <= metrics.getLatency(KvdOperationType.GET).getMax());
+    assertTrue(metrics.getBytesSent() > value.length);
+    assertTrue(metrics.getBytesReceived() > value.length);
+  }
+
+}
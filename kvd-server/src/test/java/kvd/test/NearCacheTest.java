@@ -0,0 +1,139 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import kvd.client.KvdClient;
+import kvd.client.KvdClientBuilder;
+import kvd.client.KvdNearCacheStats;
+import kvd.server.Kvd;
+
+public class NearCacheTest {
+
+  private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private static Kvd server;
+
+  @BeforeAll
+  public static void setup() {
+    server = TestUtils.startServer();
+  }
+
+  @AfterAll
+  public static void done() {
+    server.shutdown();
+  }
+
+  private static KvdClient cachingClient() {
+    return new KvdClientBuilder()
+        .setNearCacheMaxBytes(1024)
+        .setNearCacheMaxValueBytes(100)
+        .create("localhost:"+server.getLocalPort());
+  }
+
+  private static void waitFor(Supplier<Boolean> condition) throws InterruptedException {
+    long start = System.nanoTime();
+    while(!condition.get()) {
+      if((System.nanoTime() - start) > TIMEOUT_NANOS) {
+        throw new AssertionError("condition not met in time");
+      }
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void hitAndMiss() throws Exception {
+    try(KvdClient client = cachingClient()) {
+      final String key = "nearCacheHitAndMiss";
+      long invalidations = client.getNearCacheStats().getInvalidations();
+      client.putString(key, "v1");
+      // the invalidation pushed for the own put must not evict the entry loaded below
+      waitFor(() -> client.getNearCacheStats().getInvalidations() >= invalidations + 2);
+      assertEquals("v1", client.getString(key));
+      assertEquals("v1", client.getString(key));
+      assertEquals("v1", client.getString(key));
+      KvdNearCacheStats stats = client.getNearCacheStats();
+      assertEquals(1, stats.getMisses());
+      assertEquals(2, stats.getHits());
+      assertEquals(1, stats.getEntries());
+    }
+  }
+
+  @Test
+  public void serverInvalidation() throws Exception {
+    try(KvdClient client = cachingClient(); KvdClient other = server.newLocalClient()) {
+      final String key = "nearCacheInvalidation";
+      other.putString(key, "v1");
+      assertEquals("v1", client.getString(key));
+      other.putString(key, "v2");
+      waitFor(() -> "v2".equals(client.getString(key)));
+      other.remove(key);
+      waitFor(() -> client.getString(key) == null);
+      assertTrue(client.getNearCacheStats().getInvalidations() >= 2);
+    }
+  }
+
+  @Test
+  public void localWriteInvalidates() {
+    try(KvdClient client = cachingClient()) {
+      final String key = "nearCacheLocalWrite";
+      client.putString(key, "v1");
+      assertEquals("v1", client.getString(key));
+      client.putString(key, "v2");
+      assertEquals("v2", client.getString(key));
+      client.remove(key);
+      assertNull(client.getString(key));
+    }
+  }
+
+  @Test
+  public void evictAndLargeValues() throws Exception {
+    try(KvdClient client = cachingClient()) {
+      long invalidations = client.getNearCacheStats().getInvalidations();
+      for(int i=0;i<20;i++) {
+        client.putBytes(("nearCacheEvict" + i).getBytes(), new byte[100]);
+      }
+      // local invalidations plus the ones pushed by the server, which must not evict entries loaded below
+      waitFor(() -> client.getNearCacheStats().getInvalidations() >= invalidations + 40);
+      for(int i=0;i<20;i++) {
+        client.getBytes(("nearCacheEvict" + i).getBytes());
+      }
+      KvdNearCacheStats stats = client.getNearCacheStats();
+      assertTrue(stats.getBytes() <= 1024);
+      assertTrue(stats.getEvictions() > 0);
+      client.putBytes("nearCacheLarge".getBytes(), new byte[101]);
+      client.getBytes("nearCacheLarge".getBytes());
+      client.getBytes("nearCacheLarge".getBytes());
+      assertEquals(stats.getHits(), client.getNearCacheStats().getHits());
+    }
+  }
+
+  @Test
+  public void disabled() {
+    try(KvdClient client = server.newLocalClient()) {
+      assertNull(client.getNearCacheStats());
+    }
+  }
+
+}
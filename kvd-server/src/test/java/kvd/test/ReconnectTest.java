@@ -0,0 +1,160 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import kvd.client.KvdClient;
+import kvd.client.KvdClientBuilder;
+import kvd.client.KvdTransaction;
+import kvd.common.KvdException;
+import kvd.server.DbType;
+import kvd.server.Kvd;
+import kvd.server.util.FileUtils;
+
+public class ReconnectTest {
+
+  private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private Kvd.KvdOptions options;
+
+  private Kvd server;
+
+  @BeforeEach
+  public void setup() throws IOException {
+    options = TestUtils.prepareServer(DbType.MAPDB);
+    server = new Kvd();
+    server.run(options);
+    // restart on the same port
+    options.port = server.getLocalPort();
+  }
+
+  @AfterEach
+  public void done() {
+    server.shutdown();
+    FileUtils.deleteDirQuietly(options.datadir);
+  }
+
+  private KvdClient client(boolean reconnect) {
+    return new KvdClientBuilder()
+        .setReconnect(reconnect)
+        .setReconnectMinBackoffMs(20)
+        .setReconnectMaxBackoffMs(200)
+        .setServerTimeoutSeconds(10)
+        .create("localhost:" + options.port);
+  }
+
+  private void restart() throws IOException {
+    server.shutdown();
+    server = new Kvd();
+    server.run(options);
+  }
+
+  private static void waitFor(Supplier<Boolean> condition) throws InterruptedException {
+    long start = System.nanoTime();
+    while(!condition.get()) {
+      if((System.nanoTime() - start) > TIMEOUT_NANOS) {
+        throw new AssertionError("condition not met in time");
+      }
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void reconnectAfterRestart() throws Exception {
+    try(KvdClient client = client(true)) {
+      client.putString("reconnect", "value");
+      restart();
+      assertEquals("value", client.getString("reconnect"));
+      client.putString("reconnect2", "value2");
+      assertEquals("value2", client.getString("reconnect2"));
+      assertFalse(client.isClosed());
+    }
+  }
+
+  @Test
+  public void retryWhileDisconnected() throws Exception {
+    try(KvdClient client = client(true)) {
+      client.putString("retry", "value");
+      server.shutdown();
+      // submitted while the server is down, completes once the client reconnected
+      CompletableFuture<Boolean> contains = client.containsAsync("retry");
+      Thread.sleep(200);
+      assertFalse(contains.isDone());
+      server = new Kvd();
+      server.run(options);
+      assertTrue(contains.get(10, TimeUnit.SECONDS));
+      assertTrue(client.remove("retry"));
+      assertFalse(client.contains("retry"));
+    }
+  }
+
+  @Test
+  public void transactionFailsOnLostConnection() throws Exception {
+    try(KvdClient client = client(true)) {
+      KvdTransaction tx = client.beginTransaction();
+      tx.putString("tx", "value");
+      restart();
+      assertThrows(KvdException.class, () -> tx.commit());
+      assertThrows(KvdException.class, () -> tx.putString("tx", "value2"));
+      tx.close();
+      assertFalse(client.contains("tx"));
+    }
+  }
+
+  @Test
+  public void slowReaderKeepsConnection() throws Exception {
+    KvdClient client = new KvdClientBuilder()
+        .setReconnect(false)
+        .setServerTimeoutSeconds(2)
+        .create("localhost:" + options.port);
+    try(client) {
+      byte[] value = new byte[4*1024*1024];
+      Arrays.fill(value, (byte)7);
+      client.putBytes("slowReader".getBytes(), value);
+      try(InputStream in = client.get("slowReader")) {
+        assertEquals(7, in.read());
+        // the receive thread blocks handing data to this reader, that is no server timeout
+        Thread.sleep(5000);
+        assertEquals(value.length - 1, in.readAllBytes().length);
+      }
+      assertFalse(client.isClosed());
+      assertTrue(client.contains("slowReader"));
+    }
+  }
+
+  @Test
+  public void noReconnect() throws Exception {
+    KvdClient client = client(false);
+    client.putString("noReconnect", "value");
+    restart();
+    waitFor(client::isClosed);
+    assertThrows(KvdException.class, () -> client.getString("noReconnect"));
+  }
+
+}
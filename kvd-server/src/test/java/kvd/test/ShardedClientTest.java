@@ -0,0 +1,192 @@
+/*
+ * Copyright 2021 Andre Gebers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package kvd.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import kvd.client.KvdClient;
+import kvd.client.KvdClientBuilder;
+import kvd.client.KvdShardedClient;
+import kvd.client.KvdTransaction;
+import kvd.common.KvdException;
+import kvd.server.Kvd;
+
+public class ShardedClientTest {
+
+  private static final int SERVERS = 3;
+
+  private List<Kvd> servers = new ArrayList<>();
+
+  private KvdShardedClient client;
+
+  @BeforeEach
+  public void setup() {
+    // several servers in one JVM, each on its own port and datadir
+    for(int i=0;i<SERVERS;i++) {
+      servers.add(TestUtils.startServer());
+    }
+    client = new KvdClientBuilder().createSharded(addresses(SERVERS));
+  }
+
+  @AfterEach
+  public void done() {
+    client.close();
+    servers.forEach(Kvd::shutdown);
+  }
+
+  private List<String> addresses(int count) {
+    List<String> addresses = new ArrayList<>();
+    for(int i=0;i<count;i++) {
+      addresses.add("localhost:" + servers.get(i).getLocalPort());
+    }
+    return addresses;
+  }
+
+  private static List<String> keys(int count) {
+    List<String> keys = new ArrayList<>();
+    for(int i=0;i<count;i++) {
+      keys.add("key" + i);
+    }
+    return keys;
+  }
+
+
+  @Test
+  public void routing() {
+    assertEquals(SERVERS, client.getServers().size());
+    Map<KvdClient, Integer> counts = new HashMap<>();
+    for(String key : keys(300)) {
+      client.putString(key, "v" + key);
+      counts.merge(client.getShard(key), 1, Integer::sum);
+    }
+    assertEquals(SERVERS, counts.size());
+    counts.values().forEach(c -> assertTrue(c > 50, "unbalanced " + counts));
+    for(String key : keys(300)) {
+      assertEquals("v" + key, client.getString(key));
+      // the value only lives on its own shard
+      assertTrue(client.getShard(key).contains(key));
+    }
+    Map<String, Integer> stored = storedPerServer(keys(300));
+    assertEquals(300, stored.values().stream().mapToInt(Integer::intValue).sum());
+    // every server holds the keys routed to it
+    stored.forEach((address, c) -> assertTrue(c > 50, "unbalanced " + stored));
+  }
+
+  /**
+   * @return number of {@code keys} each server holds, asked directly without the sharded client
+   */
+  private Map<String, Integer> storedPerServer(List<String> keys) {
+    Map<String, Integer> stored = new HashMap<>();
+    for(String address : client.getServers()) {
+      try(KvdClient c = new KvdClient(address)) {
+        stored.put(address, (int)keys.stream().filter(c::contains).count());
+      }
+    }
+    return stored;
+  }
+
+  @Test
+  public void batch() {
+    Map<String, byte[]> values = new LinkedHashMap<>();
+    for(String key : keys(200)) {
+      values.put(key, (key + "-value").getBytes());
+    }
+    client.putAll(values);
+    Map<String, Integer> stored = storedPerServer(new ArrayList<>(values.keySet()));
+    assertEquals(SERVERS, stored.size());
+    stored.forEach((address, c) -> assertTrue(c > 30, "batch not split across servers " + stored));
+    List<String> keys = new ArrayList<>(values.keySet());
+    keys.add("missing");
+    Map<String, byte[]> result = client.getAll(keys);
+    assertEquals(200, result.size());
+    values.forEach((k, v) -> assertArrayEquals(v, result.get(k)));
+    assertFalse(result.containsKey("missing"));
+    assertEquals(200, client.removeKeys(keys));
+    assertTrue(client.getAll(keys).isEmpty());
+  }
+
+  private String keyOnOtherShard(String key) {
+    KvdClient shard = client.getShard(key);
+    for(String k : keys(1000)) {
+      if(client.getShard(k) != shard) {
+        return k;
+      }
+    }
+    throw new AssertionError("no key on other shard");
+  }
+
+  @Test
+  public void singleShardTransaction() {
+    String key = "tx";
+    String sameShard = keys(1000).stream().filter(k -> client.getShard(k) == client.getShard(key)).findFirst().get();
+    String otherShard = keyOnOtherShard(key);
+    try(KvdTransaction tx = client.beginTransaction(key)) {
+      tx.putString(key, "1");
+      tx.putString(sameShard, "2");
+      assertThrows(KvdException.class, () -> tx.putString(otherShard, "3"));
+      tx.commit();
+    }
+    assertEquals("1", client.getString(key));
+    assertEquals("2", client.getString(sameShard));
+    assertNull(client.getString(otherShard));
+  }
+
+  @Test
+  public void copyAcrossShards() {
+    String key = "source";
+    client.putString(key, "value");
+    assertThrows(KvdException.class, () -> client.copy(key, keyOnOtherShard(key)));
+    String sameShard = keys(1000).stream().filter(k -> client.getShard(k) == client.getShard(key)).findFirst().get();
+    assertTrue(client.copy(key, sameShard));
+    assertEquals("value", client.getString(sameShard));
+  }
+
+  @Test
+  public void addRemoveServer() {
+    servers.add(TestUtils.startServer());
+    Map<String, KvdClient> before = new HashMap<>();
+    keys(1000).forEach(k -> before.put(k, client.getShard(k)));
+    String added = "localhost:" + servers.get(SERVERS).getLocalPort();
+    client.addServer(added);
+    assertEquals(SERVERS + 1, client.getServers().size());
+    int moved = 0;
+    for(String key : keys(1000)) {
+      KvdClient shard = client.getShard(key);
+      if(shard != before.get(key)) {
+        // keys only move to the new server
+        assertFalse(before.containsValue(shard));
+        moved++;
+      }
+    }
+    assertTrue((moved > 100) && (moved < 400), "moved " + moved);
+    client.removeServer(added);
+    keys(1000).forEach(k -> assertTrue(before.get(k) == client.getShard(k)));
+  }
+
+}
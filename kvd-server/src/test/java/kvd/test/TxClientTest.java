@@ -162,6 +162,37 @@ public class TxClientTest {
     return client.withTransaction(tx -> tx.getString(key));
   }
 
+  @Test
+  public void pipelined() {
+    final String key = "pipelined";
+    try(KvdClient client = client()) {
+      try(KvdTransaction tx = client.beginPipelinedTransaction()) {
+        for(int i=0;i<10;i++) {
+          tx.putString(key+i, ""+i);
+        }
+        // operations run in order on the server, the get sees the puts that have not been acknowledged
+        assertEquals("9", tx.getString(key+9));
+        assertTrue(tx.remove(key+0));
+        assertFalse(client.contains(key+1));
+        tx.commit();
+      }
+      assertFalse(client.contains(key+0));
+      for(int i=1;i<10;i++) {
+        assertEquals(""+i, client.getString(key+i));
+      }
+    }
+  }
+
+  @Test
+  public void emptyTransaction() {
+    try(KvdClient client = client()) {
+      // nothing has been sent to the server, commit and rollback complete right away
+      client.beginTransaction().commit();
+      client.beginPipelinedTransaction().rollback();
+      client.withTransactionVoid(tx -> {});
+    }
+  }
+
   @Test
   public void testLock1() {
     final String key = "testLock1";